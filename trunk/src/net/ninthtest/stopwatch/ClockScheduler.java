@@ -0,0 +1,161 @@
+/*
+ * $Id$
+ */
+
+package net.ninthtest.stopwatch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import net.ninthtest.stopwatch.model.Clock;
+
+/**
+ * This class ticks all running {@link ClockTick}s from one thread.
+ *
+ * <P>The scheduler sleeps until the next time that the face of a running
+ * clock changes, which is computed from the time each clock started rather
+ * than from the previous tick, so ticks do not drift. When it wakes, it asks
+ * the event dispatch thread to tick every running clock at once, and it never
+ * has more than one such request waiting.</P>
+ *
+ * <P>Clocks are started and stopped on the event dispatch thread; a clock that
+ * has been stopped is not ticked again.</P>
+ *
+ * @author Matthew Zipay (ninthtest@gmail.com)
+ * @version $Revision$
+ */
+final class ClockScheduler {
+    private static final String CLASSNAME = ClockScheduler.class.getName();
+
+    private static final Logger LOGGER = Logger.getLogger(ClockScheduler.class.getPackage().getName());
+
+    /* guards the running clocks, the next wake-up and the pending dispatch */
+    private static final Object LOCK = new Object();
+
+    private static final List RUNNING = new ArrayList();
+
+    private static ScheduledExecutorService scheduler;
+
+    private static ScheduledFuture wakeUp;
+
+    private static boolean dispatchPending;
+
+    private static final Runnable WAKE_UP = new Runnable() {
+        public void run() {
+            synchronized (LOCK) {
+                wakeUp = null;
+                if (!dispatchPending && !RUNNING.isEmpty()) {
+                    dispatchPending = true;
+                    java.awt.EventQueue.invokeLater(DISPATCH);
+                }
+                schedule();
+            }
+        }
+    };
+
+    private static final Runnable DISPATCH = new Runnable() {
+        public void run() {
+            ClockTick[] clocks;
+            synchronized (LOCK) {
+                dispatchPending = false;
+                clocks = (ClockTick[]) RUNNING.toArray(new ClockTick[RUNNING.size()]);
+            }
+
+            for (int i = 0; i < clocks.length; ++i) {
+                clocks[i].tick();
+            }
+        }
+    };
+
+    /**
+     * Starts ticking a clock.
+     *
+     * @param clock the clock
+     */
+    static void start(ClockTick clock) {
+        final String methodName = "start";
+        LOGGER.entering(CLASSNAME, methodName, clock);
+
+        synchronized (LOCK) {
+            if (!RUNNING.contains(clock)) {
+                RUNNING.add(clock);
+            }
+
+            if (scheduler == null) {
+                scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "StopWatch-clock");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            }
+
+            // the new clock may change before the next wake-up
+            if (wakeUp != null) {
+                wakeUp.cancel(false);
+                wakeUp = null;
+            }
+            schedule();
+        }
+
+        LOGGER.exiting(CLASSNAME, methodName);
+    }
+
+    /**
+     * Stops ticking a clock.
+     *
+     * @param clock the clock
+     */
+    static void stop(ClockTick clock) {
+        final String methodName = "stop";
+        LOGGER.entering(CLASSNAME, methodName, clock);
+
+        synchronized (LOCK) {
+            RUNNING.remove(clock);
+            // with no clocks left, the next wake-up finds nothing to do and
+            // does not schedule another
+        }
+
+        LOGGER.exiting(CLASSNAME, methodName);
+    }
+
+    /**
+     * Indicates whether a clock is being ticked.
+     *
+     * @param clock the clock
+     * @return <CODE>true</CODE> if the clock has been started and not stopped
+     */
+    static boolean isRunning(ClockTick clock) {
+        synchronized (LOCK) {
+            return RUNNING.contains(clock);
+        }
+    }
+
+    /*
+     * Schedules a wake-up for the next change of a running clock's face.
+     * Called while holding the lock.
+     */
+    private static void schedule() {
+        if (RUNNING.isEmpty() || (wakeUp != null)) {
+            return;
+        }
+
+        long now = Clock.getInstance().nanoTime();
+        long delay = Long.MAX_VALUE;
+        for (int i = 0; i < RUNNING.size(); ++i) {
+            delay = Math.min(delay, ((ClockTick) RUNNING.get(i)).getNanosUntilChange(now));
+        }
+
+        wakeUp = scheduler.schedule(WAKE_UP, delay, TimeUnit.NANOSECONDS);
+    }
+
+    private ClockScheduler() {
+        // never instantiated
+    }
+}
@@ -4,43 +4,160 @@
 
 package net.ninthtest.stopwatch;
 
-import java.awt.event.ActionEvent;
+import java.util.logging.Level;
 import java.util.logging.Logger;
-import javax.swing.AbstractAction;
+import net.ninthtest.stopwatch.model.Clock;
 
 /**
  * This class mimics the ticking of a clock.
  *
+ * <P>The clock face is rendered into a character buffer that is reused on
+ * every tick, and the clock is only updated when the displayed text changes.
+ * A clock may show whole seconds (<CODE>HH:MM:SS</CODE>), tenths
+ * (<CODE>HH:MM:SS.T</CODE>) or hundredths (<CODE>HH:MM:SS.TT</CODE>) of a
+ * second.</P>
+ *
+ * <P>The elapsed time is measured from the monotonic time of the
+ * {@link Clock}, so the clock is not affected when the wall clock is set.</P>
+ *
+ * <P>Running clocks are ticked by the {@link ClockScheduler}.</P>
+ *
  * @author Matthew Zipay (ninthtest@gmail.com)
  * @version $Revision: 84 $
  */
-abstract class ClockTick extends AbstractAction {
+abstract class ClockTick {
     private static final String CLASSNAME = ClockTick.class.getName();
-    
+
     private static final Logger LOGGER = Logger.getLogger(ClockTick.class.getPackage().getName());
 
     /** The value of one second, expressed in milliseconds. */
     public static final long SECOND = 1000;
-    
+
     /** The value of one minute, expressed in milliseconds. */
     public static final long MINUTE = SECOND * 60;
-    
+
     /** The value of one hour, expressed in milliseconds. */
     public static final long HOUR = MINUTE * 60;
-    
-    private long startMillis;
-    
+
+    /** The clock shows whole seconds. */
+    public static final int SECONDS = 0;
+
+    /** The clock shows tenths of a second. */
+    public static final int TENTHS = 1;
+
+    /** The clock shows hundredths of a second. */
+    public static final int HUNDREDTHS = 2;
+
+    /* the milliseconds in one displayed unit, indexed by resolution */
+    private static final long[] UNIT_MILLIS = {SECOND, SECOND / 10, SECOND / 100};
+
+    /* room for the longest possible hours, the separators and the fraction */
+    private static final int MAX_FACE_LENGTH = 26;
+
+    /* the monotonic time at which the clock started */
+    private long startNanos;
+
     private long elapsedMillis;
-    
+
+    private int resolution;
+
+    private char[] clockFace = new char[MAX_FACE_LENGTH];
+
+    /* the elapsed time last shown, in displayed units */
+    private long shownUnits = -1L;
+
     ClockTick() {
+        this(SECONDS);
+    }
+
+    ClockTick(int resolution) {
         final String methodName = "<init>";
-        LOGGER.entering(CLASSNAME, methodName);
+        LOGGER.entering(CLASSNAME, methodName, Integer.valueOf(resolution));
 
-        startMillis = System.currentTimeMillis();
+        if ((resolution < SECONDS) || (resolution > HUNDREDTHS)) {
+            throw new IllegalArgumentException("unknown clock resolution " + resolution);
+        }
+        this.resolution = resolution;
 
         LOGGER.exiting(CLASSNAME, methodName);
     }
 
+    /**
+     * Returns the resolution named by a configuration value.
+     *
+     * @param name <CODE>SECONDS</CODE>, <CODE>TENTHS</CODE> or
+     *      <CODE>HUNDREDTHS</CODE> (case is ignored)
+     * @return {@link #SECONDS}, {@link #TENTHS} or {@link #HUNDREDTHS};
+     *      {@link #SECONDS} if <I>name</I> is <CODE>null</CODE> or unknown
+     */
+    static int getResolution(String name) {
+        if ((name == null) || name.trim().equalsIgnoreCase("SECONDS")) {
+            return SECONDS;
+        } else if (name.trim().equalsIgnoreCase("TENTHS")) {
+            return TENTHS;
+        } else if (name.trim().equalsIgnoreCase("HUNDREDTHS")) {
+            return HUNDREDTHS;
+        }
+
+        LOGGER.logp(Level.WARNING, CLASSNAME, "getResolution", "unknown clock resolution {0}; showing whole seconds", name);
+        return SECONDS;
+    }
+
+    /**
+     * Returns the clock face for an elapsed time.
+     *
+     * @param elapsedMillis the elapsed time, in milliseconds
+     * @param resolution {@link #SECONDS}, {@link #TENTHS} or
+     *      {@link #HUNDREDTHS}
+     * @return the clock face
+     */
+    static String format(long elapsedMillis, int resolution) {
+        char[] face = new char[MAX_FACE_LENGTH];
+        int offset = render(face, elapsedMillis / UNIT_MILLIS[resolution], resolution);
+
+        return new String(face, offset, face.length - offset);
+    }
+
+    /**
+     * Starts this clock from zero.
+     */
+    void start() {
+        startNanos = Clock.getInstance().nanoTime();
+        shownUnits = -1L;
+        tick();
+
+        ClockScheduler.start(this);
+    }
+
+    /**
+     * Stops this clock. Its face is not updated again.
+     */
+    void stop() {
+        ClockScheduler.stop(this);
+    }
+
+    /**
+     * Indicates whether this clock is running.
+     *
+     * @return <CODE>true</CODE> if this clock has been started and not stopped
+     */
+    boolean isRunning() {
+        return ClockScheduler.isRunning(this);
+    }
+
+    /**
+     * Returns the time until this clock's face next changes.
+     *
+     * @param nowNanos the current monotonic time (see {@link Clock#nanoTime()})
+     * @return the number of nanoseconds until the next change
+     */
+    long getNanosUntilChange(long nowNanos) {
+        long unitNanos = UNIT_MILLIS[resolution] * Clock.NANOS_PER_MILLI;
+        long elapsedNanos = Math.max(0L, nowNanos - startNanos);
+
+        return unitNanos - (elapsedNanos % unitNanos);
+    }
+
     /**
      * Updates a digital clock representation in the user interface.
      *
@@ -49,24 +166,62 @@ abstract class ClockTick extends AbstractAction {
     public abstract void updateClock(String clockFace);
 
     /**
-     * @{inheritDoc}
-     *
-     * @param e the event that triggered this event listener
+     * Updates the clock face if the elapsed time has reached another displayed
+     * unit. Called on the event dispatch thread.
      */
-    public void actionPerformed(ActionEvent e) {
+    void tick() {
         // no logging here to minimize execution time
-        elapsedMillis = System.currentTimeMillis() - startMillis;
-
-        long hours = elapsedMillis / HOUR;
-        long mins = (elapsedMillis % HOUR) / MINUTE;
-        long secs = (elapsedMillis % MINUTE) / SECOND;
-        
-        String clockFace = new StringBuffer()
-        .append(hours < 10 ? "0" + hours : hours).append(":")
-        .append(mins < 10 ? "0" + mins : mins).append(":")
-        .append(secs < 10 ? "0" + secs : secs)
-        .toString();
-        
-        updateClock(clockFace);
+        elapsedMillis = (Clock.getInstance().nanoTime() - startNanos) / Clock.NANOS_PER_MILLI;
+
+        long units = elapsedMillis / UNIT_MILLIS[resolution];
+        if (units == shownUnits) {
+            // the displayed text would not change
+            return;
+        }
+        shownUnits = units;
+
+        int offset = render(clockFace, units, resolution);
+
+        // the only allocation, since the UI clock needs a string
+        updateClock(new String(clockFace, offset, clockFace.length - offset));
+    }
+
+    /*
+     * Writes a clock face to the end of a buffer, and returns the offset at
+     * which it starts. The time is given in displayed units.
+     */
+    private static int render(char[] face, long units, int resolution) {
+        int pos = face.length;
+
+        if (resolution > SECONDS) {
+            for (int i = 0; i < resolution; ++i) {
+                face[--pos] = (char) ('0' + (units % 10));
+                units /= 10;
+            }
+            face[--pos] = '.';
+        }
+
+        long secs = units % 60;
+        face[--pos] = (char) ('0' + (secs % 10));
+        face[--pos] = (char) ('0' + (secs / 10));
+        face[--pos] = ':';
+
+        long mins = (units / 60) % 60;
+        face[--pos] = (char) ('0' + (mins % 10));
+        face[--pos] = (char) ('0' + (mins / 10));
+        face[--pos] = ':';
+
+        // at least two digits of hours
+        long hours = units / 3600;
+        int hoursEnd = pos;
+        do {
+            face[--pos] = (char) ('0' + (hours % 10));
+            hours /= 10;
+        } while (hours > 0);
+        if (hoursEnd - pos < 2) {
+            face[--pos] = '0';
+        }
+
+        return pos;
     }
 }
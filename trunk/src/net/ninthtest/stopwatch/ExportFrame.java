@@ -3,13 +3,13 @@
  */
 package net.ninthtest.stopwatch;
 
+import java.awt.Cursor;
 import java.awt.Toolkit;
 import java.io.File;
 import java.io.FileWriter;
+import java.io.IOException;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.Collections;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
@@ -20,11 +20,17 @@ import javax.swing.JOptionPane;
 import javax.swing.filechooser.FileFilter;
 import net.ninthtest.io.CSVWriter;
 import net.ninthtest.stopwatch.model.DAOFactory;
+import net.ninthtest.stopwatch.model.DataAccessCallback;
 import net.ninthtest.stopwatch.model.DataAccessException;
+import net.ninthtest.stopwatch.model.DataAccessOperation;
 import net.ninthtest.stopwatch.model.Interruption;
-import net.ninthtest.stopwatch.model.InterruptionDAO;
+import net.ninthtest.stopwatch.model.PersistenceExecutor;
+import net.ninthtest.stopwatch.model.ReportDAO;
 import net.ninthtest.stopwatch.model.Task;
 import net.ninthtest.stopwatch.model.TaskDAO;
+import net.ninthtest.stopwatch.model.TaskRecord;
+import net.ninthtest.stopwatch.model.TaskRecordHandler;
+import net.ninthtest.stopwatch.model.TaskTimeHandler;
 
 /**
  * This class defines the UI frame displayed when a user chooses to export the
@@ -37,6 +43,7 @@ public class ExportFrame extends javax.swing.JFrame {
 
     private static final String CLASSNAME = ExportFrame.class.getName();
     private static final Logger LOGGER = Logger.getLogger(ExportFrame.class.getPackage().getName());
+    private static final int PROGRESS_INTERVAL = 500;
     private Calendar defaultStartDate;
     private Calendar defaultEndDate;
 
@@ -52,6 +59,8 @@ public class ExportFrame extends javax.swing.JFrame {
 
         setLocation(Math.max(0, Toolkit.getDefaultToolkit().getScreenSize().width - getSize().width), 0);
 
+        loadDateRange();
+
         LOGGER.exiting(CLASSNAME, methodName);
     }
 
@@ -59,40 +68,58 @@ public class ExportFrame extends javax.swing.JFrame {
         final String methodName = "initializeDateRange";
         LOGGER.entering(CLASSNAME, methodName);
 
-        List allTasks = null;
-        try {
-            TaskDAO taskDAO = (TaskDAO) DAOFactory.getImplementation(TaskDAO.class);
-            allTasks = taskDAO.findAllTasks();
-        } catch (DataAccessException ex) {
-            LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "error getting TaskDAO implementation", ex);
-            allTasks = Collections.EMPTY_LIST;
-        }
+        // until the task history has been read, default to today's date
+        defaultStartDate = Calendar.getInstance();
 
-        if (allTasks.size() > 0) {
-            defaultStartDate = Calendar.getInstance();
-            Date startDate = ((Task) allTasks.get(0)).getStartTime();
-            if (startDate != null) {
-                defaultStartDate.setTime(startDate);
+        defaultEndDate = Calendar.getInstance();
+        defaultEndDate.setTime(defaultStartDate.getTime());
+        defaultEndDate.add(Calendar.DATE, 1);
+
+        LOGGER.exiting(CLASSNAME, methodName);
+    }
+
+    private void loadDateRange() {
+        final String methodName = "loadDateRange";
+        LOGGER.entering(CLASSNAME, methodName);
+
+        PersistenceExecutor.submitRead(new DataAccessOperation() {
+            public Object execute() throws DataAccessException {
+                TaskDAO taskDAO = DAOFactory.getTaskDAO();
+                return taskDAO.findTaskDateRange();
+            }
+        }, new DataAccessCallback() {
+            public void succeeded(Object result) {
+                applyDateRange((Date[]) result);
             }
 
-            defaultEndDate = Calendar.getInstance();
-            Date endDate = ((Task) allTasks.get(allTasks.size() - 1)).getStartTime();
-            if (endDate != null) {
-                defaultEndDate.setTime(endDate);
-            } else {
-                // results in correct date adjustment later
-                defaultEndDate.setTime(defaultStartDate.getTime());
+            public void failed(DataAccessException ex) {
+                LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "error retrieving task date range", ex);
             }
-        } else {
+        });
+
+        LOGGER.exiting(CLASSNAME, methodName);
+    }
+
+    private void applyDateRange(Date[] dateRange) {
+        final String methodName = "applyDateRange";
+        LOGGER.entering(CLASSNAME, methodName);
+
+        if (dateRange[0] != null) {
             defaultStartDate = Calendar.getInstance();
+            defaultStartDate.setTime(dateRange[0]);
 
             defaultEndDate = Calendar.getInstance();
-            defaultEndDate.setTime(defaultStartDate.getTime());
-            defaultEndDate.add(Calendar.DATE, 1);
-        }
+            defaultEndDate.setTime(dateRange[1]);
 
-        if (!defaultEndDate.after(defaultStartDate)) {
-            defaultEndDate.add(Calendar.DATE, 1);
+            if (!defaultEndDate.after(defaultStartDate)) {
+                defaultEndDate.add(Calendar.DATE, 1);
+            }
+
+            // do not override a range the user has already started to edit
+            if (!dateRangeCheckBox.isSelected()) {
+                startDateChooserCombo.setSelectedDate(getDefaultStartDate());
+                endDateChooserCombo.setSelectedDate(getDefaultEndDate());
+            }
         }
 
         LOGGER.exiting(CLASSNAME, methodName);
@@ -374,93 +401,174 @@ public class ExportFrame extends javax.swing.JFrame {
 
             LOGGER.logp(Level.INFO, CLASSNAME, methodName, "exporting to file {0}", file);
 
-            try {
-                TaskDAO taskDAO = (TaskDAO) DAOFactory.getImplementation(TaskDAO.class);
-                InterruptionDAO intrDAO = (InterruptionDAO) DAOFactory.getImplementation(InterruptionDAO.class);
+            final File exportFile = file;
+            final boolean includeInterruptions = includeInterruptionsCheckBox.isSelected();
+            final Date startDate = dateRangeCheckBox.isSelected() ? startDateChooserCombo.getSelectedDate().getTime() : null;
+            final Date endDate = dateRangeCheckBox.isSelected() ? endDateChooserCombo.getSelectedDate().getTime() : null;
+
+            exportButton.setEnabled(false);
+            exportButton.setText("Exporting...");
+            setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
 
-                List tasks = null;
+            PersistenceExecutor.submitRead(new DataAccessOperation() {
+                public Object execute() throws DataAccessException {
+                    writeFile(exportFile, startDate, endDate, includeInterruptions);
+                    return null;
+                }
+            }, new DataAccessCallback() {
+                public void succeeded(Object result) {
+                    resetExportButton();
 
-                if (dateRangeCheckBox.isSelected()) {
-                    Date startDate = startDateChooserCombo.getSelectedDate().getTime();
-                    Date endDate = endDateChooserCombo.getSelectedDate().getTime();
-                    LOGGER.logp(Level.INFO, CLASSNAME, methodName, "exporting tasks in range {0} - {1}", new Object[]{startDateChooserCombo.getSelectedDate().getTime(), endDateChooserCombo.getSelectedDate().getTime()});
+                    String message = new StringBuffer("Wrote file \"").append(exportFile.getAbsolutePath()).append("\"\n").append(new Date(exportFile.lastModified())).append(" (").append(exportFile.length()).append(" bytes)").toString();
+                    JOptionPane.showMessageDialog(ExportFrame.this, message, "Save successful", JOptionPane.INFORMATION_MESSAGE);
+                }
 
-                    tasks = taskDAO.findAllTasksInDateRange(startDate, endDate);
-                } else {
-                    LOGGER.logp(Level.INFO, CLASSNAME, methodName, "exporting all tasks");
+                public void failed(DataAccessException ex) {
+                    resetExportButton();
 
-                    tasks = taskDAO.findAllTasks();
+                    LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "failed to write file", ex);
+                    JOptionPane.showMessageDialog(ExportFrame.this, "The file could not be saved:\n\"" + ex.getMessage() + "\"", "Save failed", JOptionPane.ERROR_MESSAGE);
                 }
+            });
+        }
 
-                List rows = new ArrayList();
-                for (Iterator taskIter = tasks.iterator(); taskIter.hasNext();) {
-                    Task task = (Task) taskIter.next();
+        LOGGER.exiting(CLASSNAME, methodName);
+    }//GEN-LAST:event_exportButtonActionPerformed
 
-                    Date taskStart = task.getStartTime();
-                    Date taskEnd = task.getEndTime();
-                    Long taskElapsed = null;
-                    if ((taskStart != null) && (taskEnd != null)) {
-                        taskElapsed = new Long(taskEnd.getTime() - taskStart.getTime());
-                    }
+    /*
+     * Executed by the persistence reader thread.
+     */
+    private void writeFile(File file, Date startDate, Date endDate, boolean includeInterruptions) throws DataAccessException {
+        final String methodName = "writeFile";
+        LOGGER.entering(CLASSNAME, methodName, new Object[]{file, startDate, endDate, Boolean.valueOf(includeInterruptions)});
 
-                    List intrs = intrDAO.findInterruptionsForTask(task);
+        ReportDAO reportDAO = DAOFactory.getReportDAO();
 
-                    long totalIntrElapsed = 0;
-                    List intrRows = new ArrayList();
-                    for (Iterator intrIter = intrs.iterator(); intrIter.hasNext();) {
-                        Interruption intr = (Interruption) intrIter.next();
+        try {
+            CSVWriter writer = new CSVWriter(new FileWriter(file));
+            try {
+                writer.registerFormat(Date.class, new SimpleDateFormat("M/d/yy h:m a"));
 
-                        Date intrStart = intr.getStartTime();
-                        Date intrEnd = intr.getEndTime();
-                        Long intrElapsed = null;
-                        if ((intrStart != null) && (intrEnd != null)) {
-                            intrElapsed = new Long(intrEnd.getTime() - intrStart.getTime());
-                            totalIntrElapsed += intrElapsed.longValue();
-                        }
+                writer.write(new String[]{"ENTRY", "ID", "RELATED ID", "DESCRIPTION", "START TIME", "END TIME", "ELAPSED TIME (H:M)", "NET TIME (H:M)"});
 
-                        intrRows.add(new Object[]{"Interruption", intr.getId(), intr.getRelatedTaskId(), intr.getDescription(), intrStart, intrEnd, intrElapsed, null});
-                    }
+                // rows are written as each task is read from the database
+                ExportRowWriter rowWriter = new ExportRowWriter(writer);
 
-                    Long taskNet = (taskElapsed != null) ? new Long(taskElapsed.longValue() - totalIntrElapsed) : null;
+                if (startDate != null) {
+                    LOGGER.logp(Level.INFO, CLASSNAME, methodName, "exporting tasks in range {0} - {1}", new Object[]{startDate, endDate});
 
-                    rows.add(new Object[]{"Task", task.getId(), null, task.getDescription(), taskStart, taskEnd, taskElapsed, taskNet});
+                    if (includeInterruptions) {
+                        reportDAO.processAllTaskRecordsInDateRange(startDate, endDate, rowWriter);
+                    } else {
+                        // only the interruption totals are needed
+                        reportDAO.processAllTaskTimesInDateRange(startDate, endDate, rowWriter);
+                    }
+                } else {
+                    LOGGER.logp(Level.INFO, CLASSNAME, methodName, "exporting all tasks");
 
-                    if (includeInterruptionsCheckBox.isSelected()) {
-                        rows.addAll(intrRows);
+                    if (includeInterruptions) {
+                        reportDAO.processAllTaskRecords(rowWriter);
+                    } else {
+                        // only the interruption totals are needed
+                        reportDAO.processAllTaskTimes(rowWriter);
                     }
                 }
 
-                CSVWriter writer = new CSVWriter(new FileWriter(file));
-                writer.registerFormat(Date.class, new SimpleDateFormat("M/d/yy h:m a"));
+                writer.flush();
+            } finally {
+                writer.close();
+            }
+        } catch (IOException ex) {
+            throw new DataAccessException("failed to write file", ex);
+        }
 
-                writer.write(new String[]{"ENTRY", "ID", "RELATED ID", "DESCRIPTION", "START TIME", "END TIME", "ELAPSED TIME (H:M)", "NET TIME (H:M)"});
+        LOGGER.exiting(CLASSNAME, methodName);
+    }
 
-                for (Iterator rowIter = rows.iterator(); rowIter.hasNext();) {
-                    Object[] row = (Object[]) rowIter.next();
+    private void resetExportButton() {
+        setCursor(Cursor.getDefaultCursor());
+        exportButton.setText("Export to CSV");
+        exportButton.setEnabled(true);
+    }
 
-                    if (row[6] != null) {
-                        row[6] = formatHoursAndMinutes(((Long) row[6]).longValue());
-                    }
-                    if (row[7] != null) {
-                        row[7] = formatHoursAndMinutes(((Long) row[7]).longValue());
-                    }
+    /*
+     * Writes the CSV rows for each task record (a task row followed by its
+     * interruption rows) or task time (a task row only) as it is received, and
+     * periodically reports the number of tasks written.
+     */
+    private class ExportRowWriter implements TaskRecordHandler, TaskTimeHandler {
+        private CSVWriter writer;
+
+        private int taskCount;
+
+        ExportRowWriter(CSVWriter writer) {
+            this.writer = writer;
+        }
+
+        public void handleTaskRecord(TaskRecord taskRecord) throws DataAccessException {
+            Task task = taskRecord.getTask();
+
+            List intrs = taskRecord.getInterruptions();
 
-                    writer.write(row);
+            long totalIntrElapsed = 0;
+            for (Iterator intrIter = intrs.iterator(); intrIter.hasNext();) {
+                Interruption intr = (Interruption) intrIter.next();
+
+                Date intrStart = intr.getStartTime();
+                Date intrEnd = intr.getEndTime();
+                if ((intrStart != null) && (intrEnd != null)) {
+                    totalIntrElapsed += intrEnd.getTime() - intrStart.getTime();
                 }
+            }
 
-                writer.flush();
-                writer.close();
+            writeTaskRow(task.getId(), task.getDescription(), task.getStartTime(), task.getEndTime(), totalIntrElapsed);
+
+            try {
+                for (Iterator intrIter = intrs.iterator(); intrIter.hasNext();) {
+                    Interruption intr = (Interruption) intrIter.next();
+
+                    Date intrStart = intr.getStartTime();
+                    Date intrEnd = intr.getEndTime();
+                    String intrElapsed = null;
+                    if ((intrStart != null) && (intrEnd != null)) {
+                        intrElapsed = formatHoursAndMinutes(intrEnd.getTime() - intrStart.getTime());
+                    }
 
-                String message = new StringBuffer("Wrote file \"").append(file.getAbsolutePath()).append("\"\n").append(new Date(file.lastModified())).append(" (").append(file.length()).append(" bytes)").toString();
-                JOptionPane.showMessageDialog(this, message, "Save successful", JOptionPane.INFORMATION_MESSAGE);
-            } catch (Exception ex) {
-                LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "failed to write file", ex);
-                JOptionPane.showMessageDialog(this, "The file could not be saved:\n\"" + ex.getMessage() + "\"", "Save failed", JOptionPane.ERROR_MESSAGE);
+                    writer.write(new Object[]{"Interruption", intr.getId(), intr.getRelatedTaskId(), intr.getDescription(), intrStart, intrEnd, intrElapsed, null});
+                }
+            } catch (IOException ex) {
+                throw new DataAccessException("failed to write export row", ex);
             }
         }
 
-        LOGGER.exiting(CLASSNAME, methodName);
-    }//GEN-LAST:event_exportButtonActionPerformed
+        public void handleTaskTime(long taskId, String description, Date startTime, Date endTime, long interruptionMillis) throws DataAccessException {
+            writeTaskRow(Long.valueOf(taskId), description, startTime, endTime, interruptionMillis);
+        }
+
+        private void writeTaskRow(Long taskId, String description, Date taskStart, Date taskEnd, long totalIntrElapsed) throws DataAccessException {
+            Long taskElapsed = null;
+            if ((taskStart != null) && (taskEnd != null)) {
+                taskElapsed = new Long(taskEnd.getTime() - taskStart.getTime());
+            }
+
+            String taskNet = (taskElapsed != null) ? formatHoursAndMinutes(taskElapsed.longValue() - totalIntrElapsed) : null;
+
+            try {
+                writer.write(new Object[]{"Task", taskId, null, description, taskStart, taskEnd, (taskElapsed != null) ? formatHoursAndMinutes(taskElapsed.longValue()) : null, taskNet});
+            } catch (IOException ex) {
+                throw new DataAccessException("failed to write export row", ex);
+            }
+
+            if ((++taskCount % PROGRESS_INTERVAL) == 0) {
+                final String progress = "Exporting... (" + taskCount + " tasks)";
+                java.awt.EventQueue.invokeLater(new Runnable() {
+                    public void run() {
+                        exportButton.setText(progress);
+                    }
+                });
+            }
+        }
+    }
 
     private String formatHoursAndMinutes(long milliseconds) {
         final String methodName = "formatHoursAndMinutes";
@@ -0,0 +1,531 @@
+/*
+ * $Id$
+ */
+
+package net.ninthtest.stopwatch;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.swing.table.AbstractTableModel;
+import net.ninthtest.stopwatch.model.DataAccessCallback;
+import net.ninthtest.stopwatch.model.DataAccessException;
+import net.ninthtest.stopwatch.model.DataAccessOperation;
+import net.ninthtest.stopwatch.model.DataChangeEvent;
+import net.ninthtest.stopwatch.model.DataChangeListener;
+import net.ninthtest.stopwatch.model.PersistenceExecutor;
+import net.ninthtest.stopwatch.model.QueryCriteria;
+import net.ninthtest.stopwatch.model.Task;
+
+/**
+ * This class is the base of table models that read their rows from the
+ * database one page at a time, as the table asks for them.
+ *
+ * <P>The row count is read when the model is created. A page is read when one
+ * of its rows is first displayed; until it arrives, the row's cells are empty.
+ * A page that follows a cached page is read from the last row of that page
+ * (keyset pagination), so scrolling costs the same anywhere in the table;
+ * other pages are read by position. At most {@link #MAX_CACHED_PAGES} pages
+ * are held, the least recently displayed being discarded first.</P>
+ *
+ * <P>The rows are ordered and filtered by a {@link QueryCriteria}. Changing
+ * the criteria discards the cached pages and reads the row count again;
+ * results of reads made under earlier criteria are ignored.</P>
+ *
+ * <P>Registered as a {@link DataChangeListener}, the model follows rows as
+ * they are stored. A stored row that is cached is updated in place when its
+ * position does not change; otherwise it is removed from, and inserted into,
+ * its position under the criteria, which is found by comparing it with the
+ * cached rows. A cached page whose rows are shifted by the change is
+ * discarded (and read again from its predecessor when it is next displayed),
+ * but the row count is adjusted without reading it again. Only when it cannot
+ * be known whether an updated row was counted, or when many rows are stored at
+ * once, is the whole table read again.</P>
+ *
+ * <P>All methods must be called on the event dispatch thread.</P>
+ *
+ * @author Matthew Zipay (ninthtest@gmail.com)
+ * @version $Revision$
+ */
+abstract class PagedTableModel extends AbstractTableModel implements DataChangeListener {
+    private static final String CLASSNAME = PagedTableModel.class.getName();
+
+    private static final Logger LOGGER = Logger.getLogger(PagedTableModel.class.getPackage().getName());
+
+    /** The number of rows in a page. */
+    static final int PAGE_SIZE = 100;
+
+    /** The maximum number of pages held in memory. */
+    static final int MAX_CACHED_PAGES = 20;
+
+    private String[] columnNames;
+
+    private Class rowClass;
+
+    private int rowCount;
+
+    private boolean counting;
+
+    private QueryCriteria criteria = new QueryCriteria();
+
+    /* incremented when the criteria change, to recognize stale results */
+    private int generation;
+
+    /* page number -> list of row objects, in access order */
+    private Map pages = new LinkedHashMap(MAX_CACHED_PAGES + 1, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry eldest) {
+            return size() > MAX_CACHED_PAGES;
+        }
+    };
+
+    /* page number -> the request whose result is awaited */
+    private Map pendingPages = new HashMap();
+
+    /* row ID -> the last state of the row reported by a change event */
+    private Map storedRows = new HashMap();
+
+    PagedTableModel(String[] columnNames, Class rowClass) {
+        this.columnNames = columnNames;
+        this.rowClass = rowClass;
+        requestCount();
+    }
+
+    /**
+     * Returns the number of rows in the data store that pass the filters of
+     * some criteria. Called on the persistence reader thread.
+     *
+     * @param queryCriteria the query criteria
+     * @return the row count
+     * @throws DataAccessException if access to the data store fails
+     */
+    abstract int countRows(QueryCriteria queryCriteria) throws DataAccessException;
+
+    /**
+     * Reads a page of rows by position. Called on the persistence reader
+     * thread.
+     *
+     * @param queryCriteria the query criteria
+     * @param firstRow the index of the first row
+     * @param maxRows the maximum number of rows
+     * @return the row objects
+     * @throws DataAccessException if access to the data store fails
+     */
+    abstract List fetchRows(QueryCriteria queryCriteria, int firstRow, int maxRows) throws DataAccessException;
+
+    /**
+     * Reads the page of rows that follows a row. Called on the persistence
+     * reader thread.
+     *
+     * @param queryCriteria the query criteria
+     * @param lastRow the row object that precedes the page, or
+     *      <CODE>null</CODE> for the first page
+     * @param maxRows the maximum number of rows
+     * @return the row objects
+     * @throws DataAccessException if access to the data store fails
+     */
+    abstract List fetchRowsAfter(QueryCriteria queryCriteria, Object lastRow, int maxRows) throws DataAccessException;
+
+    /**
+     * Returns the value of a column of a row object.
+     *
+     * @param row a row object
+     * @param columnIndex the column index
+     * @return the cell value
+     */
+    abstract Object getColumnValue(Object row, int columnIndex);
+
+    /**
+     * Returns the criteria that order and filter the rows.
+     *
+     * @return the query criteria
+     */
+    QueryCriteria getCriteria() {
+        return criteria;
+    }
+
+    /**
+     * Changes the criteria that order and filter the rows, and reads the rows
+     * again.
+     *
+     * @param queryCriteria the new query criteria
+     */
+    void setCriteria(QueryCriteria queryCriteria) {
+        if (queryCriteria.equals(criteria)) {
+            return;
+        }
+
+        criteria = queryCriteria;
+        reload();
+    }
+
+    /**
+     * Applies stored tasks or interruptions to the cached rows and the row
+     * count.
+     *
+     * @param event describes the stored rows
+     */
+    public void dataChanged(DataChangeEvent event) {
+        if (event.getRowClass() != rowClass) {
+            return;
+        }
+
+        List rows = event.getRows();
+        boolean inserted = (event.getType() == DataChangeEvent.INSERTED);
+
+        // a count being read may or may not include these rows, and many rows
+        // are read again sooner than they are applied one at a time
+        boolean reloading = counting || (rows.size() > PAGE_SIZE);
+        for (Iterator rowIter = rows.iterator(); rowIter.hasNext();) {
+            Task row = (Task) rowIter.next();
+            Task previous = (Task) storedRows.put(row.getId(), row);
+            if (!reloading) {
+                reloading = !applyChange(row, previous, inserted);
+            }
+        }
+
+        if (reloading) {
+            reload();
+        }
+    }
+
+    /**
+     * Indicates whether the row count or any page is still being read.
+     *
+     * @return <CODE>true</CODE> while data is being read
+     */
+    boolean isLoading() {
+        return counting || !pendingPages.isEmpty();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see javax.swing.table.AbstractTableModel#getValueAt(int, int)
+     */
+    public Object getValueAt(int rowIndex, int columnIndex) {
+        Integer pageNumber = Integer.valueOf(rowIndex / PAGE_SIZE);
+
+        List page = (List) pages.get(pageNumber);
+        if (page == null) {
+            requestPage(pageNumber);
+            return null;
+        }
+
+        int pageIndex = rowIndex % PAGE_SIZE;
+        return (pageIndex < page.size()) ? getColumnValue(page.get(pageIndex), columnIndex) : null;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see javax.swing.table.AbstractTableModel#getRowCount
+     */
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see javax.swing.table.AbstractTableModel#getColumnCount
+     */
+    public int getColumnCount() {
+        return columnNames.length;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see javax.swing.table.AbstractTableModel#getColumnName(int)
+     */
+    public String getColumnName(int column) {
+        return columnNames[column];
+    }
+
+    private void reload() {
+        ++generation;
+        pages.clear();
+        pendingPages.clear();
+
+        requestCount();
+        fireTableDataChanged();
+    }
+
+    /*
+     * Returns false if the table must be read again instead.
+     */
+    private boolean applyChange(Task row, Task previous, boolean inserted) {
+        Long id = row.getId();
+
+        int oldIndex = indexOf(id);
+        if ((oldIndex < 0) && !inserted && (previous == null) && !isFullyCached()) {
+            // a row that has not been seen may be counted in a part of the table that is not cached
+            return false;
+        }
+
+        boolean accepted = criteria.accepts(row);
+        if (oldIndex >= 0) {
+            if (accepted && isInPlace(oldIndex, row)) {
+                List page = (List) pages.get(Integer.valueOf(oldIndex / PAGE_SIZE));
+                page.set(oldIndex % PAGE_SIZE, row);
+                fireTableRowsUpdated(oldIndex, oldIndex);
+                return true;
+            }
+
+            removeRow(oldIndex, id);
+        } else if ((previous != null) && criteria.accepts(previous)) {
+            if (rowCount == 0) {
+                return false;
+            }
+
+            removeRow(locate(previous), id);
+        }
+
+        if (accepted) {
+            insertRow(row);
+        }
+
+        return true;
+    }
+
+    /*
+     * Returns the index of a cached row, or -1.
+     */
+    private int indexOf(Long id) {
+        for (Iterator pageIter = pages.entrySet().iterator(); pageIter.hasNext();) {
+            Map.Entry entry = (Map.Entry) pageIter.next();
+            List page = (List) entry.getValue();
+            for (int i = 0; i < page.size(); ++i) {
+                if (id.equals(((Task) page.get(i)).getId())) {
+                    return ((Integer) entry.getKey()).intValue() * PAGE_SIZE + i;
+                }
+            }
+        }
+
+        return -1;
+    }
+
+    private boolean isFullyCached() {
+        int cachedRows = 0;
+        for (Iterator pageIter = pages.values().iterator(); pageIter.hasNext();) {
+            cachedRows += ((List) pageIter.next()).size();
+        }
+
+        return (cachedRows == rowCount);
+    }
+
+    /*
+     * Returns true if a cached row still sorts between its cached neighbors.
+     */
+    private boolean isInPlace(int index, Task row) {
+        if (criteria.compare(getCachedRow(index), row) == 0) {
+            return true;
+        }
+
+        if (index > 0) {
+            Task before = getCachedRow(index - 1);
+            if ((before == null) || (criteria.compare(before, row) >= 0)) {
+                return false;
+            }
+        }
+
+        if (index < rowCount - 1) {
+            Task after = getCachedRow(index + 1);
+            if ((after == null) || (criteria.compare(row, after) >= 0)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private Task getCachedRow(int index) {
+        List page = (List) pages.get(Integer.valueOf(index / PAGE_SIZE));
+        return ((page != null) && (index % PAGE_SIZE < page.size())) ? (Task) page.get(index % PAGE_SIZE) : null;
+    }
+
+    /*
+     * Returns the index at which a row belongs. If the cached rows do not
+     * determine the index, returns the first index of the uncached rows among
+     * which the row belongs.
+     */
+    private int locate(Task row) {
+        // the index following the last cached row that sorts before the row
+        int uncachedIndex = 0;
+
+        for (Iterator pageIter = new TreeMap(pages).entrySet().iterator(); pageIter.hasNext();) {
+            Map.Entry entry = (Map.Entry) pageIter.next();
+            List page = (List) entry.getValue();
+            if (page.isEmpty()) {
+                continue;
+            }
+
+            int firstRow = ((Integer) entry.getKey()).intValue() * PAGE_SIZE;
+            if (criteria.compare(row, (Task) page.get(page.size() - 1)) > 0) {
+                uncachedIndex = firstRow + page.size();
+                continue;
+            }
+
+            int i = 0;
+            while (criteria.compare(row, (Task) page.get(i)) > 0) {
+                ++i;
+            }
+
+            // before the first row of a page, the row follows the preceding cached row
+            return (i > 0) ? firstRow + i : uncachedIndex;
+        }
+
+        return uncachedIndex;
+    }
+
+    private void insertRow(Task row) {
+        int index = locate(row);
+        int pageNumber = index / PAGE_SIZE;
+        List page = (List) pages.get(Integer.valueOf(pageNumber));
+
+        ++rowCount;
+        if ((page != null) && !page.isEmpty() && (index % PAGE_SIZE <= page.size())) {
+            page.add(index % PAGE_SIZE, row);
+            if (page.size() > PAGE_SIZE) {
+                // the last row now belongs to the next page
+                page.remove(PAGE_SIZE);
+            }
+
+            discardPages(pageNumber + 1);
+        } else {
+            discardPages(pageNumber);
+        }
+
+        fireTableRowsInserted(index, index);
+    }
+
+    private void removeRow(int index, Long id) {
+        int pageNumber = index / PAGE_SIZE;
+        List page = (List) pages.get(Integer.valueOf(pageNumber));
+
+        --rowCount;
+        if ((page != null) && (index % PAGE_SIZE < page.size()) && id.equals(((Task) page.get(index % PAGE_SIZE)).getId())) {
+            page.remove(index % PAGE_SIZE);
+
+            // only the last page may be short
+            discardPages((pageNumber * PAGE_SIZE + page.size() < rowCount) ? pageNumber : pageNumber + 1);
+        } else {
+            discardPages(pageNumber);
+        }
+
+        int deletedIndex = Math.min(index, rowCount);
+        fireTableRowsDeleted(deletedIndex, deletedIndex);
+    }
+
+    /*
+     * Discards the cached pages from a page onwards, and ignores any pending
+     * read of them.
+     */
+    private void discardPages(int firstPageNumber) {
+        for (Iterator pageIter = pages.keySet().iterator(); pageIter.hasNext();) {
+            if (((Integer) pageIter.next()).intValue() >= firstPageNumber) {
+                pageIter.remove();
+            }
+        }
+
+        for (Iterator pageIter = pendingPages.keySet().iterator(); pageIter.hasNext();) {
+            if (((Integer) pageIter.next()).intValue() >= firstPageNumber) {
+                pageIter.remove();
+            }
+        }
+    }
+
+    private void requestCount() {
+        final String methodName = "requestCount";
+        final int requestGeneration = generation;
+        final QueryCriteria requestCriteria = criteria;
+        counting = true;
+
+        PersistenceExecutor.submitRead(new DataAccessOperation() {
+            public Object execute() throws DataAccessException {
+                return Integer.valueOf(countRows(requestCriteria));
+            }
+        }, new DataAccessCallback() {
+            public void succeeded(Object result) {
+                if (requestGeneration != generation) {
+                    return;
+                }
+
+                rowCount = ((Integer) result).intValue();
+                counting = false;
+                fireTableDataChanged();
+            }
+
+            public void failed(DataAccessException ex) {
+                if (requestGeneration != generation) {
+                    return;
+                }
+
+                LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "error counting rows", ex);
+                counting = false;
+                fireTableDataChanged();
+            }
+        });
+    }
+
+    private void requestPage(final Integer pageNumber) {
+        final String methodName = "requestPage";
+
+        if (pendingPages.containsKey(pageNumber)) {
+            return;
+        }
+
+        final Object request = new Object();
+        pendingPages.put(pageNumber, request);
+
+        final int requestGeneration = generation;
+        final QueryCriteria requestCriteria = criteria;
+        final int firstRow = pageNumber.intValue() * PAGE_SIZE;
+
+        List previousPage = (firstRow > 0) ? (List) pages.get(Integer.valueOf(pageNumber.intValue() - 1)) : null;
+        final Object lastRow = ((previousPage != null) && (previousPage.size() == PAGE_SIZE)) ? previousPage.get(PAGE_SIZE - 1) : null;
+        // the first page, or a page whose predecessor is known, is read by key
+        final boolean keyset = (firstRow == 0) || (lastRow != null);
+
+        PersistenceExecutor.submitRead(new DataAccessOperation() {
+            public Object execute() throws DataAccessException {
+                return keyset ? fetchRowsAfter(requestCriteria, lastRow, PAGE_SIZE) : fetchRows(requestCriteria, firstRow, PAGE_SIZE);
+            }
+        }, new DataAccessCallback() {
+            public void succeeded(Object result) {
+                if ((requestGeneration != generation) || (pendingPages.get(pageNumber) != request)) {
+                    return;
+                }
+
+                pendingPages.remove(pageNumber);
+                pages.put(pageNumber, result);
+
+                int lastRowIndex = Math.min(firstRow + PAGE_SIZE, rowCount) - 1;
+                if (lastRowIndex >= firstRow) {
+                    fireTableRowsUpdated(firstRow, lastRowIndex);
+                } else {
+                    fireTableDataChanged();
+                }
+            }
+
+            public void failed(DataAccessException ex) {
+                if ((requestGeneration != generation) || (pendingPages.get(pageNumber) != request)) {
+                    return;
+                }
+
+                LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "error retrieving rows " + firstRow + "-" + (firstRow + PAGE_SIZE - 1), ex);
+                pendingPages.remove(pageNumber);
+
+                // leave the rows empty rather than retrying on every repaint
+                pages.put(pageNumber, Collections.EMPTY_LIST);
+                fireTableDataChanged();
+            }
+        });
+    }
+}
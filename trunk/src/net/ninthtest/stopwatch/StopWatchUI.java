@@ -7,19 +7,23 @@ package net.ninthtest.stopwatch;
 import java.awt.Color;
 import java.awt.HeadlessException;
 import java.awt.Toolkit;
+import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Executor;
 import java.util.logging.Level;
 import java.util.logging.LogManager;
 import java.util.logging.Logger;
 import javax.swing.JOptionPane;
-import javax.swing.Timer;
 import javax.swing.UIManager;
 import net.ninthtest.stopwatch.model.DAOFactory;
+import net.ninthtest.stopwatch.model.DataAccessCallback;
 import net.ninthtest.stopwatch.model.DataAccessException;
+import net.ninthtest.stopwatch.model.DataAccessOperation;
 import net.ninthtest.stopwatch.model.Interruption;
-import net.ninthtest.stopwatch.model.InterruptionDAO;
+import net.ninthtest.stopwatch.model.PersistenceExecutor;
 import net.ninthtest.stopwatch.model.Task;
-import net.ninthtest.stopwatch.model.TaskDAO;
 
 /**
  * This class defines the user interface for the <i>StopWatch</i> application.
@@ -32,13 +36,40 @@ public class StopWatchUI extends javax.swing.JFrame {
     
     private static final Logger LOGGER = Logger.getLogger(StopWatchUI.class.getPackage().getName());
     
+    /* whole seconds, tenths or hundredths (see ClockTick) */
+    private static final int CLOCK_RESOLUTION;
+    
+    private static final String ZERO_CLOCK_FACE;
+    
     private Task currentTask;
     
-    private Timer taskTimer;
+    private ClockTick taskClock;
     
     private Interruption currentInterruption;
     
-    private Timer interruptionTimer;
+    private ClockTick interruptionClock;
+    
+    private TaskDescriptionIndex taskDescriptions = new TaskDescriptionIndex();
+    
+    private boolean shuttingDown;
+    
+    static {
+        final String methodName = "<clinit>";
+        LOGGER.entering(CLASSNAME, methodName);
+        
+        Properties uiProps = new Properties();
+        try {
+            uiProps.load(Thread.currentThread().getContextClassLoader().getResourceAsStream("ui.properties"));
+        } catch (Exception ex) {
+            // default UI settings will be used
+            LOGGER.logp(Level.WARNING, CLASSNAME, methodName, "failed to read StopWatch UI settings", ex);
+        }
+        
+        CLOCK_RESOLUTION = ClockTick.getResolution(uiProps.getProperty("clock.resolution"));
+        ZERO_CLOCK_FACE = ClockTick.format(0L, CLOCK_RESOLUTION);
+        
+        LOGGER.exiting(CLASSNAME, methodName);
+    }
     
     /**
      * Creates the <i>StopWatch</i> application's main form.
@@ -57,40 +88,84 @@ public class StopWatchUI extends javax.swing.JFrame {
         final String methodName = "startup";
         LOGGER.entering(CLASSNAME, methodName);
         
-        try {
-            DAOFactory.initializeResources();
-        } catch (DataAccessException ex) {
-            LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "failed to initialize data access resources", ex);
-            JOptionPane.showMessageDialog(this, "Initialization failed!", "Error", JOptionPane.ERROR_MESSAGE);
-            shutdown();
-        }
-        
-        taskTimerLabel.setText("");
-        taskTimerLabel.setFont(new java.awt.Font("Courier New", 1, 24));
-        taskTimerLabel.setForeground(new java.awt.Color(153, 153, 153));
-        taskTimerLabel.setText("00:00:00");
-        taskTimerLabel.setToolTipText("(no current task)");
+        // deliver data access callbacks on the event dispatch thread
+        PersistenceExecutor.setCallbackExecutor(new Executor() {
+            public void execute(Runnable command) {
+                java.awt.EventQueue.invokeLater(command);
+            }
+        });
         
-        fileMenu.setEnabled(true);
-        beginTaskButton.setEnabled(true);
+        PersistenceExecutor.submitWrite(new DataAccessOperation() {
+            public Object execute() throws DataAccessException {
+                DAOFactory.initializeResources();
+                return null;
+            }
+        }, new DataAccessCallback() {
+            public void succeeded(Object result) {
+                taskTimerLabel.setText("");
+                taskTimerLabel.setFont(new java.awt.Font("Courier New", 1, 24));
+                taskTimerLabel.setForeground(new java.awt.Color(153, 153, 153));
+                taskTimerLabel.setText(ZERO_CLOCK_FACE);
+                taskTimerLabel.setToolTipText("(no current task)");
+                interruptionTimerLabel.setText(ZERO_CLOCK_FACE);
+                
+                fileMenu.setEnabled(true);
+                beginTaskButton.setEnabled(true);
+                
+                loadTaskDescriptions();
+            }
+            
+            public void failed(DataAccessException ex) {
+                LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "failed to initialize data access resources", ex);
+                JOptionPane.showMessageDialog(StopWatchUI.this, "Initialization failed!", "Error", JOptionPane.ERROR_MESSAGE);
+                shutdown();
+            }
+        });
         
         LOGGER.exiting(CLASSNAME, methodName);
     }
     
+    private void loadTaskDescriptions() {
+        final String methodName = "loadTaskDescriptions";
+        
+        // read the previous task descriptions once, then follow the tasks being stored
+        PersistenceExecutor.submitRead(new DataAccessOperation() {
+            public Object execute() throws DataAccessException {
+                return DAOFactory.getTaskDAO().findTaskDescriptions();
+            }
+        }, new DataAccessCallback() {
+            public void succeeded(Object result) {
+                taskDescriptions.load((List) result);
+                DAOFactory.addDataChangeListener(taskDescriptions);
+            }
+            
+            public void failed(DataAccessException ex) {
+                LOGGER.logp(Level.WARNING, CLASSNAME, methodName, "failed to read task descriptions", ex);
+            }
+        });
+    }
+    
     private void shutdown() {
         final String methodName = "shutdown";
         LOGGER.entering(CLASSNAME, methodName);
         
+        if (shuttingDown) {
+            // the window was closed while the application was already exiting
+            LOGGER.exiting(CLASSNAME, methodName);
+            return;
+        }
+        shuttingDown = true;
+        
         // discard any current task and/or interruption
         currentTask = null;
         currentInterruption = null;
         
         // stop all timers
-        if ((taskTimer != null) && taskTimer.isRunning()) {
-            taskTimer.stop();
+        if ((taskClock != null) && taskClock.isRunning()) {
+            taskClock.stop();
         }
-        if ((interruptionTimer != null) && interruptionTimer.isRunning()) {
-            interruptionTimer.stop();
+        if ((interruptionClock != null) && interruptionClock.isRunning()) {
+            interruptionClock.stop();
         }
         
         // disable all interactive controls
@@ -100,7 +175,7 @@ public class StopWatchUI extends javax.swing.JFrame {
         interruptionToggleButton.setEnabled(false);
         
         interruptionTimerLabel.setForeground(new Color(153, 153, 153));
-        interruptionTimerLabel.setText("00:00:00");
+        interruptionTimerLabel.setText(ZERO_CLOCK_FACE);
         
         // show a shutdown status message
         taskTimerLabel.setText("");
@@ -109,9 +184,15 @@ public class StopWatchUI extends javax.swing.JFrame {
         taskTimerLabel.setText("Shutting down...");
         taskTimerLabel.setToolTipText("Shutting down...");
         
-        java.awt.EventQueue.invokeLater(new Runnable() {
+        // waiting for the pending saves would block the event thread, which
+        // must stay free to repaint (and to run the saves' callbacks)
+        Thread shutdownThread = new Thread(new Runnable() {
             public void run() {
                 int status = 0;
+                
+                // allow any pending saves to complete
+                PersistenceExecutor.shutdown();
+                
                 try {
                     DAOFactory.releaseResources();
                 } catch (DataAccessException ex) {
@@ -120,117 +201,109 @@ public class StopWatchUI extends javax.swing.JFrame {
                 }
                 System.exit(status);
             }
-        });
+        }, "StopWatch-shutdown");
+        shutdownThread.start();
         
         LOGGER.exiting(CLASSNAME, methodName);
     }
     
-    private boolean initializeTask(Task task) {
-        final String methodName = "initializeTask";
-        LOGGER.entering(CLASSNAME, methodName, task);
-        
-        boolean successful = true;
-        TaskDAO taskDAO = null;
+    private void discardCurrentTask() {
+        final String methodName = "discardCurrentTask";
+        LOGGER.entering(CLASSNAME, methodName, currentTask);
         
-        try {
-            taskDAO = (TaskDAO) DAOFactory.getImplementation(TaskDAO.class);
-        } catch (DataAccessException ex) {
-            LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "error getting TaskDAO implementation", ex);
-            successful =  false;
+        if ((interruptionClock != null) && interruptionClock.isRunning()) {
+            interruptionClock.stop();
+        }
+        if ((taskClock != null) && taskClock.isRunning()) {
+            taskClock.stop();
         }
         
-        if (successful) {
-            try {
-                taskDAO.saveTask(task);
-            } catch (DataAccessException ex) {
-                LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "error saving task", ex);
-                successful =  false;
-            }
+        currentInterruption = null;
+        currentTask = null;
+        
+        interruptionToggleButton.setSelected(false);
+        interruptionToggleButton.setEnabled(false);
+        endTaskButton.setEnabled(false);
+        
+        interruptionTimerLabel.setForeground(new Color(153, 153, 153));
+        interruptionTimerLabel.setText(ZERO_CLOCK_FACE);
+        taskTimerLabel.setForeground(new Color(153, 153, 153));
+        taskTimerLabel.setText(ZERO_CLOCK_FACE);
+        taskTimerLabel.setToolTipText("(no current task)");
+        
+        beginTaskButton.setEnabled(true);
+        
+        LOGGER.exiting(CLASSNAME, methodName);
+    }
+    
+    private void discardCurrentInterruption() {
+        final String methodName = "discardCurrentInterruption";
+        LOGGER.entering(CLASSNAME, methodName, currentInterruption);
+        
+        if ((interruptionClock != null) && interruptionClock.isRunning()) {
+            interruptionClock.stop();
         }
         
-        LOGGER.exiting(CLASSNAME, methodName, Boolean.valueOf(successful));
-        return successful;
+        currentInterruption = null;
+        
+        interruptionToggleButton.setSelected(false);
+        interruptionTimerLabel.setForeground(new Color(153, 153, 153));
+        interruptionTimerLabel.setText(ZERO_CLOCK_FACE);
+        
+        endTaskButton.setEnabled(true);
+        taskTimerLabel.setForeground(Color.GREEN);
+        
+        LOGGER.exiting(CLASSNAME, methodName);
     }
     
-    private boolean finalizeTask(Task task) {
-        final String methodName = "finalizeTask";
+    private void initializeTask(final Task task) {
+        final String methodName = "initializeTask";
         LOGGER.entering(CLASSNAME, methodName, task);
         
-        boolean successful = true;
-        TaskDAO taskDAO = null;
+        PersistenceExecutor.saveTask(task, new SaveCallback(methodName, "The task could not be initialized!") {
+            public void failed(DataAccessException ex) {
+                super.failed(ex);
+                if (task == currentTask) {
+                    discardCurrentTask();
+                }
+            }
+        });
         
-        try {
-            taskDAO = (TaskDAO) DAOFactory.getImplementation(TaskDAO.class);
-        } catch (DataAccessException ex) {
-            LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "error getting TaskDAO implementation", ex);
-            successful =  false;
-        }
+        LOGGER.exiting(CLASSNAME, methodName);
+    }
+    
+    private void finalizeTask(Task task) {
+        final String methodName = "finalizeTask";
+        LOGGER.entering(CLASSNAME, methodName, task);
         
-        if (successful) {
-            try {
-                taskDAO.saveTask(task);
-            } catch (DataAccessException ex) {
-                LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "error updating task", ex);
-                successful =  false;
-            }
-        }
+        PersistenceExecutor.saveTask(task, new SaveCallback(methodName, "The task could not be finalized!"));
         
-        LOGGER.exiting(CLASSNAME, methodName, Boolean.valueOf(successful));
-        return successful;
+        LOGGER.exiting(CLASSNAME, methodName);
     }
     
-    private boolean initializeInterruption(Interruption interruption) {
+    private void initializeInterruption(final Interruption interruption) {
         final String methodName = "initializeInterruption";
         LOGGER.entering(CLASSNAME, methodName, interruption);
         
-        boolean successful = true;
-        InterruptionDAO intrDAO = null;
-        
-        try {
-            intrDAO = (InterruptionDAO) DAOFactory.getImplementation(InterruptionDAO.class);
-        } catch (DataAccessException ex) {
-            LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "error getting InterruptionDAO implementation", ex);
-            successful = false;
-        }
-        
-        if (successful) {
-            try {
-                intrDAO.saveInterruption(interruption);
-            } catch (DataAccessException ex) {
-                LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "error saving interruption", ex);
-                successful = false;
+        PersistenceExecutor.saveInterruption(interruption, new SaveCallback(methodName, "The interruption could not be initialized!") {
+            public void failed(DataAccessException ex) {
+                super.failed(ex);
+                if (interruption == currentInterruption) {
+                    discardCurrentInterruption();
+                }
             }
-        }
+        });
         
-        LOGGER.exiting(CLASSNAME, methodName, Boolean.valueOf(successful));
-        return successful;
+        LOGGER.exiting(CLASSNAME, methodName);
     }
     
-    private boolean finalizeInterruption(Interruption interruption) {
+    private void finalizeInterruption(Interruption interruption) {
         final String methodName = "finalizeInterruption";
         LOGGER.entering(CLASSNAME, methodName, interruption);
         
-        boolean successful = true;
-        InterruptionDAO intrDAO = null;
-        
-        try {
-            intrDAO = (InterruptionDAO) DAOFactory.getImplementation(InterruptionDAO.class);
-        } catch (DataAccessException ex) {
-            LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "error getting InterruptionDAO implementation", ex);
-            successful = false;
-        }
-        
-        if (successful) {
-            try {
-                intrDAO.saveInterruption(interruption);
-            } catch (DataAccessException ex) {
-                LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "error updating interruption", ex);
-                successful = false;
-            }
-        }
+        PersistenceExecutor.saveInterruption(interruption, new SaveCallback(methodName, "The interruption could not be finalized!"));
         
-        LOGGER.exiting(CLASSNAME, methodName, Boolean.valueOf(successful));
-        return successful;
+        LOGGER.exiting(CLASSNAME, methodName);
     }
     
     /** This method is called from within the constructor to
@@ -256,7 +329,7 @@ public class StopWatchUI extends javax.swing.JFrame {
         aboutSep = new javax.swing.JSeparator();
         aboutMenuItem = new javax.swing.JMenuItem();
 
-        setDefaultCloseOperation(javax.swing.WindowConstants.EXIT_ON_CLOSE);
+        setDefaultCloseOperation(javax.swing.WindowConstants.DO_NOTHING_ON_CLOSE);
         setTitle("StopWatch");
         setAlwaysOnTop(true);
         setCursor(new java.awt.Cursor(java.awt.Cursor.DEFAULT_CURSOR));
@@ -420,11 +493,10 @@ public class StopWatchUI extends javax.swing.JFrame {
     }//GEN-LAST:event_exportMenuItemActionPerformed
     
     private void formWindowClosing(java.awt.event.WindowEvent evt) {//GEN-FIRST:event_formWindowClosing
-        try {
-            DAOFactory.releaseResources();
-        } catch (DataAccessException ex) {
-            LOGGER.log(Level.WARNING, "failed to release data access resources", ex);
-        }
+        LOGGER.logp(Level.FINE, CLASSNAME, "formWindowClosing", "window closed; exiting");
+        
+        // the application exits once any pending saves have completed
+        shutdown();
     }//GEN-LAST:event_formWindowClosing
     
     private void viewMenuItemActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_viewMenuItemActionPerformed
@@ -441,24 +513,20 @@ public class StopWatchUI extends javax.swing.JFrame {
         
         if (interruptionToggleButton.isSelected()) {
             currentInterruption = new Interruption(currentTask);
-            if (!initializeInterruption(currentInterruption)) {
-                JOptionPane.showMessageDialog(this, "The interruption could not be initialized!", "Error", JOptionPane.ERROR_MESSAGE);
-                currentInterruption = null;
-                return;
-            }
+            initializeInterruption(currentInterruption);
             
             endTaskButton.setEnabled(false);
             
             taskTimerLabel.setForeground(Color.YELLOW);
             interruptionTimerLabel.setForeground(Color.RED);
             
-            interruptionTimer = new Timer(1000, new ClockTick() {
+            interruptionClock = new ClockTick(CLOCK_RESOLUTION) {
                 public void updateClock(String clockFace) {
                     interruptionTimerLabel.setText(clockFace);
                 }
-            });
+            };
             currentInterruption.begin();
-            interruptionTimer.start();
+            interruptionClock.start();
         } else {
             String interruptionDesc = "";
             while (interruptionDesc.trim().equals("")) {
@@ -470,16 +538,14 @@ public class StopWatchUI extends javax.swing.JFrame {
                 }
             }
             
-            interruptionTimer.stop();
+            interruptionClock.stop();
             currentInterruption.end();
             
             currentInterruption.setDescription(interruptionDesc);
-            if (!finalizeInterruption(currentInterruption)) {
-                JOptionPane.showMessageDialog(this, "The interruption could not be finalized!", "Error", JOptionPane.ERROR_MESSAGE);
-            }
+            finalizeInterruption(currentInterruption);
             
             interruptionTimerLabel.setForeground(new Color(153, 153, 153));
-            interruptionTimerLabel.setText("00:00:00");
+            interruptionTimerLabel.setText(ZERO_CLOCK_FACE);
             
             currentInterruption = null;
             endTaskButton.setEnabled(true);
@@ -494,19 +560,17 @@ public class StopWatchUI extends javax.swing.JFrame {
         final String methodName = "endTaskButtonActionPerformed";
         LOGGER.entering(CLASSNAME, methodName, evt);
         
-        taskTimer.stop();
+        taskClock.stop();
         currentTask.end();
         
         interruptionToggleButton.setEnabled(false);
         endTaskButton.setEnabled(false);
         
         taskTimerLabel.setForeground(new Color(153, 153, 153));
-        taskTimerLabel.setText("00:00:00");
+        taskTimerLabel.setText(ZERO_CLOCK_FACE);
         taskTimerLabel.setToolTipText("(no current task)");
         
-        if (!finalizeTask(currentTask)) {
-            JOptionPane.showMessageDialog(this, "The task could not be finalized!", "Error", JOptionPane.ERROR_MESSAGE);
-        }
+        finalizeTask(currentTask);
         
         currentTask = null;
         beginTaskButton.setEnabled(true);
@@ -518,7 +582,7 @@ public class StopWatchUI extends javax.swing.JFrame {
         final String methodName = "beginTaskButtonActionPerformed";
         LOGGER.entering(CLASSNAME, methodName, evt);
         
-        TaskDescriptionDialog taskDescriptionDialog = new TaskDescriptionDialog(this);
+        TaskDescriptionDialog taskDescriptionDialog = new TaskDescriptionDialog(this, taskDescriptions);
         taskDescriptionDialog.setVisible(true);
         
         String taskDesc =  taskDescriptionDialog.getTaskDescription();
@@ -528,23 +592,19 @@ public class StopWatchUI extends javax.swing.JFrame {
         }
         
         currentTask = new Task(taskDesc);
-        if (!initializeTask(currentTask)) {
-            JOptionPane.showMessageDialog(this, "The task could not be initialized!", "Error", JOptionPane.ERROR_MESSAGE);
-            currentTask = null;
-            return;
-        }
+        initializeTask(currentTask);
         
         beginTaskButton.setEnabled(false);
         taskTimerLabel.setForeground(Color.GREEN);
         taskTimerLabel.setToolTipText(taskDesc);
         
-        taskTimer = new Timer(1000, new ClockTick() {
+        taskClock = new ClockTick(CLOCK_RESOLUTION) {
             public void updateClock(String clockFace) {
                 taskTimerLabel.setText(clockFace);
             }
-        });
+        };
         currentTask.begin();
-        taskTimer.start();
+        taskClock.start();
         
         endTaskButton.setEnabled(true);
         interruptionToggleButton.setEnabled(true);
@@ -616,6 +676,29 @@ public class StopWatchUI extends javax.swing.JFrame {
         });
     }
     
+    /*
+     * Reports the outcome of an asynchronous save.
+     */
+    private class SaveCallback implements DataAccessCallback {
+        private String methodName;
+        
+        private String failureMessage;
+        
+        SaveCallback(String methodName, String failureMessage) {
+            this.methodName = methodName;
+            this.failureMessage = failureMessage;
+        }
+        
+        public void succeeded(Object result) {
+            LOGGER.logp(Level.FINE, CLASSNAME, methodName, "saved {0}", result);
+        }
+        
+        public void failed(DataAccessException ex) {
+            LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "save failed", ex);
+            JOptionPane.showMessageDialog(StopWatchUI.this, failureMessage, "Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+    
     // Variables declaration - do not modify//GEN-BEGIN:variables
     private javax.swing.JMenuItem aboutMenuItem;
     private javax.swing.JSeparator aboutSep;
@@ -10,32 +10,34 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.ItemEvent;
 import java.awt.event.ItemListener;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.List;
-import java.util.Set;
 import java.util.Vector;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.swing.Box;
 import javax.swing.BoxLayout;
+import javax.swing.DefaultComboBoxModel;
 import javax.swing.JButton;
 import javax.swing.JComboBox;
 import javax.swing.JDialog;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
 import javax.swing.WindowConstants;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.JTextComponent;
 import net.ninthtest.stopwatch.model.DAOFactory;
 import net.ninthtest.stopwatch.model.DataAccessException;
-import net.ninthtest.stopwatch.model.Task;
 import net.ninthtest.stopwatch.model.TaskDAO;
 
 /**
  * This class defines a custom modal dialog containing an editable combo box.
  *
+ * <P>The combo box suggests the previous task descriptions that start with
+ * the text typed so far, best-ranked first (see
+ * {@link TaskDescriptionIndex}).</P>
+ *
  * @author Matthew Zipay (ninthtest@gmail.com)
  * @version $Revision: 84 $
  */
@@ -45,25 +47,44 @@ public class TaskDescriptionDialog extends JDialog {
     private static final Logger LOGGER = Logger.getLogger(TaskDescriptionDialog.class.getPackage().getName());
     private static final int PAD_VERT = 11;
     private static final int PAD_HORZ = 7;
+    private static final int MAX_SUGGESTIONS = 50;
     private String taskDescription;
+    private TaskDescriptionIndex taskDescriptions;
+    private JComboBox taskDescriptionComboBox;
+    private JTextComponent taskDescriptionEditor;
+    private boolean filtering;
 
     /**
-     * Creates a new task description dialog.
+     * Creates a new task description dialog, reading the previous task
+     * descriptions from the database.
      *
      * @param parent the component that owns this dialog
      */
     public TaskDescriptionDialog(JFrame parent) {
+        this(parent, loadTaskDescriptions());
+    }
+
+    /**
+     * Creates a new task description dialog that suggests descriptions from an
+     * index.
+     *
+     * @param parent the component that owns this dialog
+     * @param taskDescriptions the previous task descriptions
+     */
+    TaskDescriptionDialog(JFrame parent, TaskDescriptionIndex taskDescriptions) {
         super(parent, "Describe task", true);
 
         final String methodName = "<init>";
         LOGGER.entering(CLASSNAME, methodName, parent);
 
+        this.taskDescriptions = taskDescriptions;
+
         setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
         setResizable(false);
 
         JLabel instructionsLabel = new JLabel("Enter a short phrase that describes the task, or select a previous task description.");
 
-        JComboBox taskDescriptionComboBox = new JComboBox(getTaskDescriptions());
+        taskDescriptionComboBox = new JComboBox(createSuggestions(""));
         taskDescriptionComboBox.setMinimumSize(new Dimension(250, taskDescriptionComboBox.getHeight()));
         taskDescriptionComboBox.setEditable(true);
         taskDescriptionComboBox.setMaximumRowCount(17);
@@ -74,6 +95,23 @@ public class TaskDescriptionDialog extends JDialog {
             }
         });
 
+        // the suggestions are replaced after the edit that changes the text
+        taskDescriptionEditor = (JTextComponent) taskDescriptionComboBox.getEditor().getEditorComponent();
+        taskDescriptionEditor.getDocument().addDocumentListener(new DocumentListener() {
+
+            public void insertUpdate(DocumentEvent e) {
+                taskDescriptionEditorChanged();
+            }
+
+            public void removeUpdate(DocumentEvent e) {
+                taskDescriptionEditorChanged();
+            }
+
+            public void changedUpdate(DocumentEvent e) {
+                taskDescriptionEditorChanged();
+            }
+        });
+
         JButton okButton = new JButton("OK");
         okButton.addActionListener(new ActionListener() {
 
@@ -139,35 +177,68 @@ public class TaskDescriptionDialog extends JDialog {
         return taskDescription;
     }
 
-    private Vector getTaskDescriptions() {
-        final String methodName = "getTaskDescriptions";
+    private static TaskDescriptionIndex loadTaskDescriptions() {
+        final String methodName = "loadTaskDescriptions";
         LOGGER.entering(CLASSNAME, methodName);
 
-        Set uniqueTaskDescriptions = new HashSet();
-        uniqueTaskDescriptions.add("");
+        TaskDescriptionIndex taskDescriptions = new TaskDescriptionIndex();
 
         try {
-            TaskDAO taskDAO = (TaskDAO) DAOFactory.getImplementation(TaskDAO.class);
+            TaskDAO taskDAO = DAOFactory.getTaskDAO();
+            taskDescriptions.load(taskDAO.findTaskDescriptions());
+        } catch (DataAccessException ex) {
+            LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "error getting task descriptions", ex);
+        }
 
-            List allTasks = taskDAO.findAllTasks();
+        LOGGER.exiting(CLASSNAME, methodName);
+        return taskDescriptions;
+    }
 
-            for (Iterator taskIter = allTasks.iterator(); taskIter.hasNext();) {
-                Task task = (Task) taskIter.next();
-                uniqueTaskDescriptions.add(task.getDescription());
-            }
-        } catch (DataAccessException ex) {
-            LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "error getting TaskDAO implementation", ex);
+    private DefaultComboBoxModel createSuggestions(String prefix) {
+        DefaultComboBoxModel suggestions = new DefaultComboBoxModel(new Vector(taskDescriptions.find(prefix, MAX_SUGGESTIONS)));
+        // keep the text being typed rather than selecting the first suggestion
+        suggestions.setSelectedItem(prefix);
+        return suggestions;
+    }
+
+    private void taskDescriptionEditorChanged() {
+        if (filtering) {
+            return;
         }
 
-        Vector taskDescriptions = new Vector(uniqueTaskDescriptions);
-        Collections.sort(taskDescriptions, new Comparator() {
-            public int compare(Object o1, Object o2) {
-                return o1.toString().compareToIgnoreCase(o2.toString());
+        // the document cannot be changed while it notifies its listeners
+        SwingUtilities.invokeLater(new Runnable() {
+            public void run() {
+                filterSuggestions();
             }
         });
+    }
 
-        LOGGER.exiting(CLASSNAME, methodName, taskDescriptions);
-        return taskDescriptions;
+    private void filterSuggestions() {
+        String text = taskDescriptionEditor.getText();
+
+        DefaultComboBoxModel current = (DefaultComboBoxModel) taskDescriptionComboBox.getModel();
+        if (text.equals(current.getSelectedItem()) && (current.getIndexOf(text) >= 0)) {
+            // a suggestion was selected; the suggestions stay as they are
+            return;
+        }
+
+        filtering = true;
+        try {
+            int caretPosition = taskDescriptionEditor.getCaretPosition();
+
+            DefaultComboBoxModel suggestions = createSuggestions(text);
+            taskDescriptionComboBox.setModel(suggestions);
+            taskDescriptionEditor.setCaretPosition(Math.min(caretPosition, taskDescriptionEditor.getText().length()));
+
+            // show the new suggestions (the popup keeps its size until shown again)
+            taskDescriptionComboBox.hidePopup();
+            if ((suggestions.getSize() > 0) && taskDescriptionEditor.isFocusOwner()) {
+                taskDescriptionComboBox.showPopup();
+            }
+        } finally {
+            filtering = false;
+        }
     }
 
     private void taskDescriptionComboBoxItemStateChanged(ItemEvent e) {
@@ -185,6 +256,9 @@ public class TaskDescriptionDialog extends JDialog {
         final String methodName = "okButtonActionPerformed";
         LOGGER.entering(CLASSNAME, methodName, e);
 
+        // the typed text may not have been committed to the combo box
+        taskDescription = taskDescriptionComboBox.getEditor().getItem().toString();
+
         if ((taskDescription != null) && !taskDescription.trim().equals("")) {
             dispose();
         } else {
@@ -0,0 +1,240 @@
+/*
+ * $Id$
+ */
+
+package net.ninthtest.stopwatch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.logging.Logger;
+import net.ninthtest.stopwatch.model.Clock;
+import net.ninthtest.stopwatch.model.DataChangeEvent;
+import net.ninthtest.stopwatch.model.DataChangeListener;
+import net.ninthtest.stopwatch.model.Task;
+import net.ninthtest.stopwatch.model.TaskDescription;
+
+/**
+ * This class holds the distinct task descriptions in memory so that they can
+ * be suggested as the user types.
+ *
+ * <P>The descriptions are held in an array sorted without regard to case, so
+ * the descriptions that start with a prefix are found by a binary search.
+ * Matches are ranked by how often and how recently they were used: the number
+ * of tasks with a description, divided by one plus the number of days since
+ * one of them was last started.</P>
+ *
+ * <P>The index is loaded once from {@link TaskDescription}s and is then kept
+ * up to date, as a {@link DataChangeListener}, from the tasks being stored. An
+ * update uses its description again but does not forget a description that
+ * the task had before.</P>
+ *
+ * <P>All methods must be called on the event dispatch thread.</P>
+ *
+ * @author Matthew Zipay (ninthtest@gmail.com)
+ * @version $Revision$
+ */
+final class TaskDescriptionIndex implements DataChangeListener {
+    private static final String CLASSNAME = TaskDescriptionIndex.class.getName();
+
+    private static final Logger LOGGER = Logger.getLogger(TaskDescriptionIndex.class.getPackage().getName());
+
+    private static final double MILLIS_PER_DAY = 24 * 60 * 60 * 1000;
+
+    /* the entries, sorted by description without regard to case */
+    private List sortedEntries = new ArrayList();
+
+    /* description -> entry */
+    private Map entries = new HashMap();
+
+    /**
+     * Replaces the descriptions held by the index.
+     *
+     * @param taskDescriptions a list of {@link TaskDescription}s
+     */
+    void load(List taskDescriptions) {
+        final String methodName = "load";
+        LOGGER.entering(CLASSNAME, methodName, Integer.valueOf(taskDescriptions.size()));
+
+        sortedEntries = new ArrayList(taskDescriptions.size());
+        entries = new HashMap(taskDescriptions.size() * 4 / 3 + 1);
+
+        for (Iterator descIter = taskDescriptions.iterator(); descIter.hasNext();) {
+            TaskDescription taskDescription = (TaskDescription) descIter.next();
+            if (taskDescription.getDescription() == null) {
+                continue;
+            }
+
+            Entry entry = new Entry(taskDescription.getDescription());
+            entry.useCount = taskDescription.getTaskCount();
+            entry.lastUsed = (taskDescription.getLastStartTime() != null) ? taskDescription.getLastStartTime().getTime() : 0L;
+
+            sortedEntries.add(entry);
+            entries.put(entry.description, entry);
+        }
+
+        Collections.sort(sortedEntries);
+
+        LOGGER.exiting(CLASSNAME, methodName);
+    }
+
+    /**
+     * Returns the best-ranked descriptions that start with a prefix, ignoring
+     * case.
+     *
+     * @param prefix the prefix (an empty prefix matches every description)
+     * @param maxResults the maximum number of descriptions to return
+     * @return the matching descriptions, best first
+     */
+    List find(String prefix, int maxResults) {
+        final String methodName = "find";
+        LOGGER.entering(CLASSNAME, methodName, new Object[] {prefix, Integer.valueOf(maxResults)});
+
+        long now = Clock.getInstance().currentTimeMillis();
+
+        // the worst of the best matches so far is at the head
+        PriorityQueue best = new PriorityQueue(Math.max(1, maxResults), new Comparator() {
+            public int compare(Object o1, Object o2) {
+                return -((Match) o1).compareTo(o2);
+            }
+        });
+
+        int prefixLength = prefix.length();
+        for (int i = lowerBound(prefix); i < sortedEntries.size(); ++i) {
+            Entry entry = (Entry) sortedEntries.get(i);
+            if (!entry.description.regionMatches(true, 0, prefix, 0, prefixLength)) {
+                break;
+            }
+
+            double score = entry.getScore(now);
+            if (best.size() < maxResults) {
+                best.add(new Match(entry, score));
+            } else if ((maxResults > 0) && (score >= ((Match) best.peek()).score)) {
+                Match match = new Match(entry, score);
+                if (match.compareTo(best.peek()) < 0) {
+                    best.poll();
+                    best.add(match);
+                }
+            }
+        }
+
+        Match[] ranked = (Match[]) best.toArray(new Match[best.size()]);
+        Arrays.sort(ranked);
+
+        List descriptions = new ArrayList(ranked.length);
+        for (int i = 0; i < ranked.length; ++i) {
+            descriptions.add(ranked[i].entry.description);
+        }
+
+        LOGGER.exiting(CLASSNAME, methodName, Integer.valueOf(descriptions.size()));
+        return descriptions;
+    }
+
+    /**
+     * Records the descriptions of stored tasks.
+     *
+     * @param event describes the stored rows
+     */
+    public void dataChanged(DataChangeEvent event) {
+        if (event.getRowClass() != Task.class) {
+            return;
+        }
+
+        long now = Clock.getInstance().currentTimeMillis();
+        for (Iterator taskIter = event.getRows().iterator(); taskIter.hasNext();) {
+            Task task = (Task) taskIter.next();
+            if (task.getDescription() == null) {
+                continue;
+            }
+
+            Entry entry = (Entry) entries.get(task.getDescription());
+            if (entry == null) {
+                entry = new Entry(task.getDescription());
+                sortedEntries.add(-Collections.binarySearch(sortedEntries, entry) - 1, entry);
+                entries.put(entry.description, entry);
+            }
+
+            if ((event.getType() == DataChangeEvent.INSERTED) || (entry.useCount == 0)) {
+                ++entry.useCount;
+            }
+
+            // a task is inserted before it is started
+            long used = (task.getStartTime() != null) ? task.getStartTime().getTime() : now;
+            entry.lastUsed = Math.max(entry.lastUsed, used);
+        }
+    }
+
+    /*
+     * Returns the index of the first entry that does not sort before the
+     * prefix.
+     */
+    private int lowerBound(String prefix) {
+        int low = 0;
+        int high = sortedEntries.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (String.CASE_INSENSITIVE_ORDER.compare(((Entry) sortedEntries.get(mid)).description, prefix) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+
+    /*
+     * The use of one description.
+     */
+    private static class Entry implements Comparable {
+        private String description;
+
+        private int useCount;
+
+        private long lastUsed;
+
+        Entry(String description) {
+            this.description = description;
+        }
+
+        double getScore(long now) {
+            double daysUnused = Math.max(0L, now - lastUsed) / MILLIS_PER_DAY;
+            return useCount / (1.0 + daysUnused);
+        }
+
+        public int compareTo(Object obj) {
+            String other = ((Entry) obj).description;
+            int result = String.CASE_INSENSITIVE_ORDER.compare(description, other);
+            return (result != 0) ? result : description.compareTo(other);
+        }
+    }
+
+    /*
+     * A ranked entry; better matches sort first.
+     */
+    private static class Match implements Comparable {
+        private Entry entry;
+
+        private double score;
+
+        Match(Entry entry, double score) {
+            this.entry = entry;
+            this.score = score;
+        }
+
+        public int compareTo(Object obj) {
+            Match other = (Match) obj;
+            if (score != other.score) {
+                return (score > other.score) ? -1 : 1;
+            }
+
+            return entry.compareTo(other.entry);
+        }
+    }
+}
@@ -4,18 +4,42 @@
 
 package net.ninthtest.stopwatch;
 
+import datechooser.beans.DateChooserCombo;
+import datechooser.events.CommitEvent;
+import datechooser.events.CommitListener;
+import datechooser.model.multiple.MultyModelBehavior;
+import java.awt.BorderLayout;
+import java.awt.Container;
+import java.awt.FlowLayout;
 import java.awt.Toolkit;
-import java.util.ArrayList;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.ItemEvent;
+import java.awt.event.ItemListener;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.util.Calendar;
+import java.util.Date;
 import java.util.List;
-import java.util.logging.Level;
 import java.util.logging.Logger;
-import javax.swing.table.AbstractTableModel;
+import javax.swing.JCheckBox;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JTable;
+import javax.swing.JTextField;
+import javax.swing.Timer;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.event.TableModelEvent;
+import javax.swing.event.TableModelListener;
+import javax.swing.table.TableColumn;
+import javax.swing.table.TableColumnModel;
 import net.ninthtest.stopwatch.model.DAOFactory;
 import net.ninthtest.stopwatch.model.DataAccessException;
+import net.ninthtest.stopwatch.model.DataChangeListener;
 import net.ninthtest.stopwatch.model.Interruption;
-import net.ninthtest.stopwatch.model.InterruptionDAO;
+import net.ninthtest.stopwatch.model.QueryCriteria;
 import net.ninthtest.stopwatch.model.Task;
-import net.ninthtest.stopwatch.model.TaskDAO;
 
 /**
  * This class defines the UI frame displayed when a user chooses to view the
@@ -29,17 +53,213 @@ public class ViewFrame extends javax.swing.JFrame {
     
     private static final Logger LOGGER = Logger.getLogger(ViewFrame.class.getPackage().getName());
     
+    /* how long typing must pause before the tables are read again (ms) */
+    private static final int FILTER_DELAY = 300;
+    
+    private JTextField descriptionField;
+    
+    private JCheckBox dateRangeCheckBox;
+    
+    private DateChooserCombo startDateChooserCombo;
+    
+    private DateChooserCombo endDateChooserCombo;
+    
+    private Timer filterTimer;
+    
     /** Creates new form ViewFrame */
     public ViewFrame() {
         final String methodName = "<init>";
         LOGGER.entering(CLASSNAME, methodName);
         
         initComponents();
+        initFilterPanel();
+        initSorting(tasksTable);
+        initSorting(interruptionsTable);
         setLocation(Math.max(0, Toolkit.getDefaultToolkit().getScreenSize().width - getSize().width), 0);
 
+        // the table models load pages in the background; reflect their progress in the title
+        TableModelListener loadListener = new TableModelListener() {
+            public void tableChanged(TableModelEvent e) {
+                updateTitle();
+            }
+        };
+        tasksTable.getModel().addTableModelListener(loadListener);
+        interruptionsTable.getModel().addTableModelListener(loadListener);
+        updateTitle();
+
+        // show tasks and interruptions as they are stored, until the frame is disposed
+        DAOFactory.addDataChangeListener((DataChangeListener) tasksTable.getModel());
+        DAOFactory.addDataChangeListener((DataChangeListener) interruptionsTable.getModel());
+
         LOGGER.exiting(CLASSNAME, methodName);
     }
     
+    private void initFilterPanel() {
+        // the filters are applied once the user stops typing
+        filterTimer = new Timer(FILTER_DELAY, new ActionListener() {
+            public void actionPerformed(ActionEvent evt) {
+                applyFilters();
+            }
+        });
+        filterTimer.setRepeats(false);
+        
+        descriptionField = new JTextField(15);
+        descriptionField.setToolTipText("Show only entries whose description starts with this text (case-sensitive)");
+        descriptionField.getDocument().addDocumentListener(new DocumentListener() {
+            public void insertUpdate(DocumentEvent evt) {
+                filterTimer.restart();
+            }
+            
+            public void removeUpdate(DocumentEvent evt) {
+                filterTimer.restart();
+            }
+            
+            public void changedUpdate(DocumentEvent evt) {
+                filterTimer.restart();
+            }
+        });
+        
+        Calendar tomorrow = Calendar.getInstance();
+        tomorrow.add(Calendar.DATE, 1);
+        startDateChooserCombo = createDateChooserCombo(Calendar.getInstance());
+        endDateChooserCombo = createDateChooserCombo(tomorrow);
+        
+        dateRangeCheckBox = new JCheckBox("Started from");
+        dateRangeCheckBox.addItemListener(new ItemListener() {
+            public void itemStateChanged(ItemEvent evt) {
+                boolean selected = (evt.getStateChange() == ItemEvent.SELECTED);
+                startDateChooserCombo.setEnabled(selected);
+                endDateChooserCombo.setEnabled(selected);
+                filterTimer.restart();
+            }
+        });
+        
+        JPanel filterPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        filterPanel.add(new JLabel("Description starts with:"));
+        filterPanel.add(descriptionField);
+        filterPanel.add(dateRangeCheckBox);
+        filterPanel.add(startDateChooserCombo);
+        filterPanel.add(new JLabel("to"));
+        filterPanel.add(endDateChooserCombo);
+        filterPanel.add(new JLabel("(exclusive)"));
+        
+        // the generated form becomes the center of a new content pane
+        Container tablesPane = getContentPane();
+        JPanel contentPane = new JPanel(new BorderLayout());
+        contentPane.add(filterPanel, BorderLayout.NORTH);
+        contentPane.add(tablesPane, BorderLayout.CENTER);
+        setContentPane(contentPane);
+        pack();
+    }
+    
+    private DateChooserCombo createDateChooserCombo(Calendar date) {
+        DateChooserCombo combo = new DateChooserCombo();
+        combo.setNothingAllowed(false);
+        combo.setSelectedDate(date);
+        combo.setEnabled(false);
+        combo.setMinDate(new java.util.GregorianCalendar(1970, 0, 1));
+        combo.setBehavior(MultyModelBehavior.SELECT_SINGLE);
+        combo.addCommitListener(new CommitListener() {
+            public void onCommit(CommitEvent evt) {
+                filterTimer.restart();
+            }
+        });
+        
+        return combo;
+    }
+    
+    private void applyFilters() {
+        final String methodName = "applyFilters";
+        LOGGER.entering(CLASSNAME, methodName);
+        
+        Date startDate = null;
+        Date endDate = null;
+        if (dateRangeCheckBox.isSelected()) {
+            startDate = getStartOfDay(startDateChooserCombo.getSelectedDate());
+            endDate = getStartOfDay(endDateChooserCombo.getSelectedDate());
+        }
+        String prefix = descriptionField.getText();
+        
+        setCriteria(tasksTable, ((PagedTableModel) tasksTable.getModel()).getCriteria().filteredBy(startDate, endDate, prefix));
+        setCriteria(interruptionsTable, ((PagedTableModel) interruptionsTable.getModel()).getCriteria().filteredBy(startDate, endDate, prefix));
+        
+        LOGGER.exiting(CLASSNAME, methodName);
+    }
+    
+    private static Date getStartOfDay(Calendar date) {
+        Calendar startOfDay = Calendar.getInstance();
+        startOfDay.setTime(date.getTime());
+        startOfDay.set(Calendar.HOUR_OF_DAY, 0);
+        startOfDay.set(Calendar.MINUTE, 0);
+        startOfDay.set(Calendar.SECOND, 0);
+        startOfDay.set(Calendar.MILLISECOND, 0);
+        
+        return startOfDay.getTime();
+    }
+    
+    private void initSorting(final JTable table) {
+        // clicking a column header sorts by that column, then reverses the order
+        table.getTableHeader().setReorderingAllowed(false);
+        table.getTableHeader().addMouseListener(new MouseAdapter() {
+            public void mouseClicked(MouseEvent evt) {
+                int viewColumn = table.getTableHeader().columnAtPoint(evt.getPoint());
+                if (viewColumn < 0) {
+                    return;
+                }
+                
+                PagedTableModel model = (PagedTableModel) table.getModel();
+                String column = model.getColumnName(table.convertColumnIndexToModel(viewColumn));
+                QueryCriteria criteria = model.getCriteria();
+                boolean ascending = !column.equals(criteria.getSortColumn()) || !criteria.isAscending();
+                
+                setCriteria(table, criteria.sortedBy(column, ascending));
+            }
+        });
+        
+        updateSortIndicator(table);
+    }
+    
+    private static void setCriteria(JTable table, QueryCriteria criteria) {
+        ((PagedTableModel) table.getModel()).setCriteria(criteria);
+        updateSortIndicator(table);
+        table.scrollRectToVisible(table.getCellRect(0, 0, true));
+    }
+    
+    private static void updateSortIndicator(JTable table) {
+        PagedTableModel model = (PagedTableModel) table.getModel();
+        QueryCriteria criteria = model.getCriteria();
+        
+        TableColumnModel columns = table.getColumnModel();
+        for (int i = 0; i < columns.getColumnCount(); ++i) {
+            TableColumn tableColumn = columns.getColumn(i);
+            String column = model.getColumnName(tableColumn.getModelIndex());
+            if (column.equals(criteria.getSortColumn())) {
+                tableColumn.setHeaderValue(column + (criteria.isAscending() ? " \u25B2" : " \u25BC"));
+            } else {
+                tableColumn.setHeaderValue(column);
+            }
+        }
+        table.getTableHeader().repaint();
+    }
+    
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.awt.Window#dispose
+     */
+    public void dispose() {
+        DAOFactory.removeDataChangeListener((DataChangeListener) tasksTable.getModel());
+        DAOFactory.removeDataChangeListener((DataChangeListener) interruptionsTable.getModel());
+        super.dispose();
+    }
+    
+    private void updateTitle() {
+        boolean loading = ((TasksTableModel) tasksTable.getModel()).isLoading()
+                || ((InterruptionsTableModel) interruptionsTable.getModel()).isLoading();
+        
+        setTitle(loading ? "View database (loading...)" : "View database");
+    }
+    
     /** This method is called from within the constructor to
      * initialize the form.
      * WARNING: Do NOT modify this code. The content of this method is
@@ -140,150 +360,72 @@ public class ViewFrame extends javax.swing.JFrame {
     
 }
 
-class TasksTableModel extends AbstractTableModel {
-    private static final String CLASSNAME = TasksTableModel.class.getName();
-    
-    private static final Logger LOGGER = Logger.getLogger(TasksTableModel.class.getPackage().getName());
-
+class TasksTableModel extends PagedTableModel {
     private static final String[] COLUMN_NAMES = {"id", "description", "start_time", "end_time"};
 
-    private int rowCount;
-    
-    private Object[][] cellData;
-
-    TasksTableModel() {        
-        final String methodName = "<init>";
-        LOGGER.entering(CLASSNAME, methodName);
-
-        List allTasks = null;
-        try {
-            TaskDAO taskDAO = (TaskDAO) DAOFactory.getImplementation(TaskDAO.class);
-            allTasks = taskDAO.findAllTasks();
-        } catch (DataAccessException ex) {
-            LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "error retrieving tasks", ex);
-            allTasks = new ArrayList();
-        }
-
-        rowCount = allTasks.size();
-
-        cellData = new Object[rowCount][];
-
-        for (int i =0; i < allTasks.size(); ++i) {
-            Task task = (Task) allTasks.get(i);
-            
-            cellData[i] = new Object[] {task.getId(), task.getDescription(), task.getStartTime(), task.getEndTime()};
-        }
-
-        LOGGER.exiting(CLASSNAME, methodName);
+    TasksTableModel() {
+        super(COLUMN_NAMES, Task.class);
     }
 
-    /**
-     * {@inheritDoc}
-     * 
-     * @see javax.swing.table.AbstractTableModel#getValueAt(int, int)
-     */
-    public Object getValueAt(int rowIndex, int columnIndex) {
-        return cellData[rowIndex][columnIndex];
+    int countRows(QueryCriteria queryCriteria) throws DataAccessException {
+        return DAOFactory.getTaskDAO().countTasks(queryCriteria);
     }
 
-    /**
-     * {@inheritDoc}
-     * 
-     * @see javax.swing.table.AbstractTableModel#getRowCount
-     */
-    public int getRowCount() {
-        return rowCount;
+    List fetchRows(QueryCriteria queryCriteria, int firstRow, int maxRows) throws DataAccessException {
+        return DAOFactory.getTaskDAO().findTasks(queryCriteria, firstRow, maxRows);
     }
 
-    /**
-     * {@inheritDoc}
-     * 
-     * @see javax.swing.table.AbstractTableModel#getColumnCount
-     */
-    public int getColumnCount() {
-        return COLUMN_NAMES.length;
+    List fetchRowsAfter(QueryCriteria queryCriteria, Object lastRow, int maxRows) throws DataAccessException {
+        return DAOFactory.getTaskDAO().findTasksAfter(queryCriteria, (Task) lastRow, maxRows);
     }
 
-    /**
-     * {@inheritDoc}
-     * 
-     * @see javax.swing.table.AbstractTableModel#getColumnName(int)
-     */
-    public String getColumnName(int column) {
-        return COLUMN_NAMES[column];
+    Object getColumnValue(Object row, int columnIndex) {
+        Task task = (Task) row;
+        switch (columnIndex) {
+            case 0:
+                return task.getId();
+            case 1:
+                return task.getDescription();
+            case 2:
+                return task.getStartTime();
+            default:
+                return task.getEndTime();
+        }
     }
 }
 
-class InterruptionsTableModel extends AbstractTableModel {
-    private static final String CLASSNAME = InterruptionsTableModel.class.getName();
-    
-    private static final Logger LOGGER = Logger.getLogger(InterruptionsTableModel.class.getPackage().getName());
-
+class InterruptionsTableModel extends PagedTableModel {
     private static final String[] COLUMN_NAMES = {"id", "related_task_id", "description", "start_time", "end_time"};
 
-    private int rowCount;
-    
-    private Object[][] cellData;
-
-    InterruptionsTableModel() {        
-        final String methodName = "<init>";
-        LOGGER.entering(CLASSNAME, methodName);
-
-        List allInterruptions = null;
-        try {
-            InterruptionDAO intrDAO = (InterruptionDAO) DAOFactory.getImplementation(InterruptionDAO.class);
-            allInterruptions = intrDAO.findAllInterruptions();
-        } catch (DataAccessException ex) {
-            LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "error retrieving tasks", ex);
-            allInterruptions = new ArrayList();
-        }
-
-        rowCount = allInterruptions.size();
-
-        cellData = new Object[rowCount][];
-
-        for (int i =0; i < allInterruptions.size(); ++i) {
-            Interruption intr = (Interruption) allInterruptions.get(i);
-            
-            cellData[i] = new Object[] {intr.getId(), intr.getRelatedTaskId(), intr.getDescription(), intr.getStartTime(), intr.getEndTime()};
-        }
-
-        LOGGER.exiting(CLASSNAME, methodName);
+    InterruptionsTableModel() {
+        super(COLUMN_NAMES, Interruption.class);
     }
 
-    /**
-     * {@inheritDoc}
-     * 
-     * @see javax.swing.table.AbstractTableModel#getValueAt(int, int)
-     */
-    public Object getValueAt(int rowIndex, int columnIndex) {
-        return cellData[rowIndex][columnIndex];
+    int countRows(QueryCriteria queryCriteria) throws DataAccessException {
+        return DAOFactory.getInterruptionDAO().countInterruptions(queryCriteria);
     }
 
-    /**
-     * {@inheritDoc}
-     * 
-     * @see javax.swing.table.AbstractTableModel#getRowCount
-     */
-    public int getRowCount() {
-        return rowCount;
+    List fetchRows(QueryCriteria queryCriteria, int firstRow, int maxRows) throws DataAccessException {
+        return DAOFactory.getInterruptionDAO().findInterruptions(queryCriteria, firstRow, maxRows);
     }
 
-    /**
-     * {@inheritDoc}
-     * 
-     * @see javax.swing.table.AbstractTableModel#getColumnCount
-     */
-    public int getColumnCount() {
-        return COLUMN_NAMES.length;
+    List fetchRowsAfter(QueryCriteria queryCriteria, Object lastRow, int maxRows) throws DataAccessException {
+        return DAOFactory.getInterruptionDAO().findInterruptionsAfter(queryCriteria, (Interruption) lastRow, maxRows);
     }
 
-    /**
-     * {@inheritDoc}
-     * 
-     * @see javax.swing.table.AbstractTableModel#getColumnName(int)
-     */
-    public String getColumnName(int column) {
-        return COLUMN_NAMES[column];
+    Object getColumnValue(Object row, int columnIndex) {
+        Interruption intr = (Interruption) row;
+        switch (columnIndex) {
+            case 0:
+                return intr.getId();
+            case 1:
+                return intr.getRelatedTaskId();
+            case 2:
+                return intr.getDescription();
+            case 3:
+                return intr.getStartTime();
+            default:
+                return intr.getEndTime();
+        }
     }
 }
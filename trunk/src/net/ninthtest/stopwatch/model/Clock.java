@@ -0,0 +1,69 @@
+/*
+ * $Id$
+ */
+
+package net.ninthtest.stopwatch.model;
+
+/**
+ * This class is the source of the times used to time tasks and interruptions.
+ *
+ * <P>A clock reads two times: the wall-clock time, which is recorded as the
+ * start of a task, and a monotonic time in nanoseconds, from which elapsed
+ * times are measured. Elapsed times are therefore not affected when the
+ * wall clock is set or adjusted.</P>
+ *
+ * <P>The system clock is used unless another clock is installed (for example,
+ * to make times predictable while testing).</P>
+ *
+ * @author Matthew Zipay (ninthtest@gmail.com)
+ * @version $Revision$
+ */
+public abstract class Clock {
+    /** The number of nanoseconds in one millisecond. */
+    public static final long NANOS_PER_MILLI = 1000000L;
+
+    private static final Clock SYSTEM_CLOCK = new Clock() {
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    };
+
+    private static volatile Clock instance = SYSTEM_CLOCK;
+
+    /**
+     * Returns the clock in use.
+     *
+     * @return the installed clock, or the system clock
+     */
+    public static Clock getInstance() {
+        return instance;
+    }
+
+    /**
+     * Installs the clock used to time tasks and interruptions.
+     *
+     * @param clock the clock, or <CODE>null</CODE> to use the system clock
+     */
+    public static void setInstance(Clock clock) {
+        instance = (clock != null) ? clock : SYSTEM_CLOCK;
+    }
+
+    /**
+     * Returns the wall-clock time.
+     *
+     * @return the current time, in milliseconds since the epoch
+     */
+    public abstract long currentTimeMillis();
+
+    /**
+     * Returns the monotonic time. Only the difference between two monotonic
+     * times is meaningful.
+     *
+     * @return the current monotonic time, in nanoseconds
+     */
+    public abstract long nanoTime();
+}
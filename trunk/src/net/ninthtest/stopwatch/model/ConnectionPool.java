@@ -0,0 +1,489 @@
+/*
+ * $Id$
+ */
+
+package net.ninthtest.stopwatch.model;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class maintains a bounded pool of connections to a JDBC data source.
+ *
+ * <P>Connections are borrowed for the duration of a single data access
+ * operation and then returned, so concurrent operations (for example, an export
+ * running while tasks are being timed) each work in their own transaction.
+ * Idle connections are kept most-recently-used first; those that have been idle
+ * longer than the idle timeout are closed periodically, down to the minimum
+ * idle count.</P>
+ *
+ * <P>The pool lock is never held while a connection is being opened or
+ * validated: a borrower reserves an idle connection or a free slot under the
+ * lock, works with it outside the lock, and then takes the lock again to hand
+ * out or discard the connection.</P>
+ *
+ * @author Matthew Zipay (ninthtest@gmail.com)
+ * @version $Revision$
+ */
+final class ConnectionPool {
+    private static final String CLASSNAME = ConnectionPool.class.getName();
+
+    private static final Logger LOGGER = Logger.getLogger(ConnectionPool.class.getPackage().getName());
+
+    private String url;
+
+    private String username;
+
+    private String password;
+
+    private int minIdle;
+
+    private int maxSize;
+
+    private long borrowTimeout;
+
+    private long idleTimeout;
+
+    private String validationQuery;
+
+    private long validationInterval;
+
+    private int statementCacheSize;
+
+    /* idle entries, most recently returned first */
+    private LinkedList idle = new LinkedList();
+
+    /* every open entry, keyed by its connection */
+    private Map entries = new IdentityHashMap();
+
+    /* the connections being opened outside the lock, which count towards maxSize */
+    private int openingCount;
+
+    private boolean closed;
+
+    private Timer evictor;
+
+    private long borrowCount;
+
+    private long borrowWaitNanos;
+
+    private long maxBorrowWaitNanos;
+
+    private long borrowHoldNanos;
+
+    private int timeoutCount;
+
+    private int createdCount;
+
+    private int destroyedCount;
+
+    private int invalidCount;
+
+    /* statement cache counters of connections that have been closed */
+    private long retiredHitCount;
+
+    private long retiredMissCount;
+
+    private long retiredEvictionCount;
+
+    /**
+     * Creates a new connection pool.
+     *
+     * @param url the JDBC URL of the data source
+     * @param username the data source user
+     * @param password the data source password
+     * @param minIdle the number of connections kept open while idle (at least
+     *      one)
+     * @param maxSize the maximum number of open connections
+     * @param borrowTimeout milliseconds to wait for a connection when all are
+     *      in use
+     * @param idleTimeout milliseconds a connection may remain idle before it is
+     *      eligible for eviction
+     * @param evictionInterval milliseconds between eviction runs
+     * @param validationQuery a statement executed to validate a connection (may
+     *      be <CODE>null</CODE>)
+     * @param validationInterval milliseconds a connection may remain idle
+     *      before it is validated on borrow
+     * @param statementCacheSize the number of prepared statements cached for
+     *      each connection
+     */
+    ConnectionPool(String url, String username, String password, int minIdle, int maxSize, long borrowTimeout,
+            long idleTimeout, long evictionInterval, String validationQuery, long validationInterval, int statementCacheSize) {
+        this.url = url;
+        this.username = username;
+        this.password = password;
+        this.minIdle = Math.max(1, minIdle);
+        this.maxSize = Math.max(this.minIdle, maxSize);
+        this.borrowTimeout = borrowTimeout;
+        this.idleTimeout = idleTimeout;
+        this.validationQuery = ((validationQuery != null) && !validationQuery.trim().equals("")) ? validationQuery : null;
+        this.validationInterval = validationInterval;
+        this.statementCacheSize = statementCacheSize;
+
+        if (evictionInterval > 0) {
+            evictor = new Timer("StopWatch-pool-evictor", true);
+            evictor.schedule(new TimerTask() {
+                public void run() {
+                    evictIdleConnections();
+                }
+            }, evictionInterval, evictionInterval);
+        }
+    }
+
+    /**
+     * Opens connections until the minimum idle count is reached.
+     *
+     * @throws SQLException if a connection cannot be established
+     */
+    synchronized void fill() throws SQLException {
+        while (!closed && (entries.size() < minIdle)) {
+            idle.addFirst(addEntry(openEntry()));
+        }
+    }
+
+    /**
+     * Borrows a connection from the pool, waiting up to the borrow timeout if
+     * all connections are in use. The connection must be passed to
+     * {@link #returnConnection(Connection)} when the caller is finished with
+     * it.
+     *
+     * @return a connection with auto-commit disabled
+     * @throws SQLException if a connection cannot be established, or if none
+     *      becomes available within the borrow timeout
+     */
+    Connection borrowConnection() throws SQLException {
+        final String methodName = "borrowConnection";
+
+        long startNanos = System.nanoTime();
+        long deadlineNanos = startNanos + (borrowTimeout * 1000000L);
+
+        while (true) {
+            // reserve an idle connection (by taking it off the idle list) or a free slot
+            PooledEntry candidate = null;
+            synchronized (this) {
+                while (candidate == null) {
+                    if (closed) {
+                        throw new SQLException("connection pool is closed");
+                    }
+
+                    if (!idle.isEmpty()) {
+                        candidate = (PooledEntry) idle.removeFirst();
+                    } else if (entries.size() + openingCount < maxSize) {
+                        ++openingCount;
+                        break;
+                    } else {
+                        long remainingNanos = deadlineNanos - System.nanoTime();
+                        if (remainingNanos <= 0) {
+                            ++timeoutCount;
+                            LOGGER.logp(Level.WARNING, CLASSNAME, methodName, "timed out waiting for a connection ({0} in use)", Integer.valueOf(entries.size()));
+                            throw new SQLException("timed out waiting for a pooled connection");
+                        }
+
+                        try {
+                            wait(Math.max(1L, remainingNanos / 1000000L));
+                        } catch (InterruptedException ex) {
+                            Thread.currentThread().interrupt();
+                            throw new SQLException("interrupted while waiting for a pooled connection");
+                        }
+                    }
+                }
+            }
+
+            if (candidate == null) {
+                PooledEntry entry;
+                try {
+                    entry = openEntry();
+                } catch (SQLException ex) {
+                    synchronized (this) {
+                        --openingCount;
+                        notifyAll();
+                    }
+                    throw ex;
+                }
+
+                synchronized (this) {
+                    --openingCount;
+                    addEntry(entry);
+                    return checkOut(entry, startNanos);
+                }
+            }
+
+            boolean valid = isValid(candidate);
+            synchronized (this) {
+                if (valid) {
+                    return checkOut(candidate, startNanos);
+                }
+
+                ++invalidCount;
+                destroyEntry(candidate);
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Returns a borrowed connection to the pool. Any work that was not
+     * committed is rolled back. A connection that cannot be rolled back is
+     * closed rather than reused.
+     *
+     * @param conx a connection obtained from {@link #borrowConnection()} (may
+     *      be <CODE>null</CODE>)
+     */
+    synchronized void returnConnection(Connection conx) {
+        final String methodName = "returnConnection";
+
+        if (conx == null) {
+            return;
+        }
+
+        PooledEntry entry = (PooledEntry) entries.get(conx);
+        if (entry == null) {
+            LOGGER.logp(Level.WARNING, CLASSNAME, methodName, "connection does not belong to this pool");
+            return;
+        }
+
+        long holdNanos = System.nanoTime() - entry.borrowedAt;
+        borrowHoldNanos += holdNanos;
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.logp(Level.FINE, CLASSNAME, methodName, "connection held for {0} ms", Long.valueOf(holdNanos / 1000000L));
+        }
+
+        // nothing can be using the evicted statements any more
+        entry.statements.release();
+
+        try {
+            conx.rollback();
+        } catch (SQLException ex) {
+            LOGGER.logp(Level.WARNING, CLASSNAME, methodName, "failed to roll back returned connection", ex);
+            destroyEntry(entry);
+            notifyAll();
+            return;
+        }
+
+        entry.lastUsed = Clock.getInstance().nanoTime();
+        if (closed) {
+            destroyEntry(entry);
+        } else {
+            idle.addFirst(entry);
+        }
+
+        notifyAll();
+    }
+
+    /**
+     * Returns the cached statement for an SQL property on a borrowed
+     * connection, preparing it if necessary. The caller must not close the
+     * returned statement.
+     *
+     * @param conx a connection obtained from {@link #borrowConnection()}
+     * @param name the name of the SQL property
+     * @param sql the SQL text of the property
+     * @param returnGeneratedKeys whether the statement should make
+     *      auto-generated keys available after execution
+     * @return a prepared statement for <I>sql</I>
+     * @throws SQLException if the statement cannot be prepared
+     */
+    PreparedStatement prepareStatement(Connection conx, String name, String sql, boolean returnGeneratedKeys) throws SQLException {
+        PooledEntry entry = null;
+        synchronized (this) {
+            entry = (PooledEntry) entries.get(conx);
+        }
+
+        if (entry == null) {
+            throw new SQLException("connection does not belong to this pool");
+        }
+
+        // only the borrowing thread uses the cache, so no lock is needed here
+        return entry.statements.getStatement(name, sql, returnGeneratedKeys);
+    }
+
+    /**
+     * Closes every idle connection and stops the evictor. Connections that are
+     * still borrowed are closed when they are returned.
+     */
+    synchronized void close() {
+        final String methodName = "close";
+
+        closed = true;
+        if (evictor != null) {
+            evictor.cancel();
+        }
+
+        while (!idle.isEmpty()) {
+            destroyEntry((PooledEntry) idle.removeFirst());
+        }
+
+        LOGGER.logp(Level.INFO, CLASSNAME, methodName, "connection pool closed: {0}", getStatistics());
+        notifyAll();
+    }
+
+    /**
+     * Returns a summary of pool usage since the pool was created.
+     *
+     * @return a human-readable description of the pool metrics
+     */
+    synchronized String getStatistics() {
+        StringBuffer buf = new StringBuffer();
+        buf.append("open=").append(entries.size());
+        buf.append(";idle=").append(idle.size());
+        buf.append(";borrows=").append(borrowCount);
+        buf.append(";avgWaitMs=").append((borrowCount > 0) ? (borrowWaitNanos / borrowCount) / 1000000.0 : 0.0);
+        buf.append(";maxWaitMs=").append(maxBorrowWaitNanos / 1000000.0);
+        buf.append(";avgHoldMs=").append((borrowCount > 0) ? (borrowHoldNanos / borrowCount) / 1000000.0 : 0.0);
+        buf.append(";timeouts=").append(timeoutCount);
+        buf.append(";created=").append(createdCount);
+        buf.append(";destroyed=").append(destroyedCount);
+        buf.append(";invalid=").append(invalidCount);
+
+        long hitCount = retiredHitCount;
+        long missCount = retiredMissCount;
+        long evictionCount = retiredEvictionCount;
+        for (Iterator entryIter = entries.values().iterator(); entryIter.hasNext();) {
+            StatementCache statements = ((PooledEntry) entryIter.next()).statements;
+            hitCount += statements.getHitCount();
+            missCount += statements.getMissCount();
+            evictionCount += statements.getEvictionCount();
+        }
+        buf.append(";statementHits=").append(hitCount);
+        buf.append(";statementMisses=").append(missCount);
+        buf.append(";statementEvictions=").append(evictionCount);
+
+        return buf.toString();
+    }
+
+    private synchronized void evictIdleConnections() {
+        final String methodName = "evictIdleConnections";
+
+        long now = Clock.getInstance().nanoTime();
+
+        // the least recently used entries are at the end of the list
+        while (!closed && (idle.size() > minIdle) && ((now - ((PooledEntry) idle.getLast()).lastUsed) > (idleTimeout * Clock.NANOS_PER_MILLI))) {
+            destroyEntry((PooledEntry) idle.removeLast());
+            LOGGER.logp(Level.FINE, CLASSNAME, methodName, "evicted idle connection");
+        }
+    }
+
+    /*
+     * Hands out a reserved entry. Called while holding the pool lock.
+     */
+    private Connection checkOut(PooledEntry entry, long startNanos) throws SQLException {
+        if (closed) {
+            // the pool was closed while the connection was opened or validated
+            destroyEntry(entry);
+            notifyAll();
+            throw new SQLException("connection pool is closed");
+        }
+
+        long waitNanos = System.nanoTime() - startNanos;
+        ++borrowCount;
+        borrowWaitNanos += waitNanos;
+        if (waitNanos > maxBorrowWaitNanos) {
+            maxBorrowWaitNanos = waitNanos;
+        }
+
+        entry.borrowedAt = System.nanoTime();
+        return entry.conx;
+    }
+
+    /*
+     * Validates an entry that is reserved by the calling thread; called
+     * without holding the pool lock.
+     */
+    private boolean isValid(PooledEntry entry) {
+        final String methodName = "isValid";
+
+        try {
+            if (entry.conx.isClosed()) {
+                return false;
+            }
+
+            if ((validationQuery != null) && ((Clock.getInstance().nanoTime() - entry.lastUsed) >= (validationInterval * Clock.NANOS_PER_MILLI))) {
+                Statement stmt = entry.conx.createStatement();
+                try {
+                    stmt.execute(validationQuery);
+                } finally {
+                    stmt.close();
+                }
+            }
+        } catch (SQLException ex) {
+            LOGGER.logp(Level.WARNING, CLASSNAME, methodName, "pooled connection failed validation", ex);
+            return false;
+        }
+
+        return true;
+    }
+
+    /*
+     * Opens a connection; called without holding the pool lock, except while
+     * the pool is being filled.
+     */
+    private PooledEntry openEntry() throws SQLException {
+        Connection conx = DriverManager.getConnection(url, username, password);
+        try {
+            conx.setAutoCommit(false);
+        } catch (SQLException ex) {
+            conx.close();
+            throw ex;
+        }
+
+        return new PooledEntry(conx, new StatementCache(conx, statementCacheSize));
+    }
+
+    /*
+     * Adds an opened entry to the pool. Called while holding the pool lock.
+     */
+    private PooledEntry addEntry(PooledEntry entry) {
+        entries.put(entry.conx, entry);
+        ++createdCount;
+
+        return entry;
+    }
+
+    private void destroyEntry(PooledEntry entry) {
+        final String methodName = "destroyEntry";
+
+        entries.remove(entry.conx);
+        ++destroyedCount;
+
+        retiredHitCount += entry.statements.getHitCount();
+        retiredMissCount += entry.statements.getMissCount();
+        retiredEvictionCount += entry.statements.getEvictionCount();
+        entry.statements.clear();
+
+        try {
+            entry.conx.close();
+        } catch (SQLException ex) {
+            LOGGER.logp(Level.WARNING, CLASSNAME, methodName, "failed to close pooled connection", ex);
+        }
+    }
+
+    /*
+     * Tracks the usage of one pooled connection.
+     */
+    private static class PooledEntry {
+        private Connection conx;
+
+        private StatementCache statements;
+
+        /* the monotonic time at which the connection was opened or last returned */
+        private long lastUsed = Clock.getInstance().nanoTime();
+
+        private long borrowedAt;
+
+        PooledEntry(Connection conx, StatementCache statements) {
+            this.conx = conx;
+            this.statements = statements;
+        }
+    }
+}
@@ -4,15 +4,44 @@
 
 package net.ninthtest.stopwatch.model;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
 import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * This class provides methods for obtaining DAO implementations at runtime.
  *
+ * <P>One instance of each DAO implementation is created when the factory is
+ * initialized, and the same instance is returned by every request. The
+ * implementation of a DAO interface is named in
+ * <CODE>dao-impl.properties</CODE>; if it is not named there, the first class
+ * listed in a <CODE>META-INF/services/</CODE><I>interface name</I> resource on
+ * the class path is used. Implementations that also implement
+ * {@link DAOLifecycle} are initialized with the factory and released with
+ * it.</P>
+ *
+ * <P>Each value of the <CODE>implementation</CODE> property (JDBC, MEMORY or
+ * LOG) has its own set of mappings, named
+ * <I>implementation</I><CODE>.</CODE><I>interface name</I>. The
+ * DAO classes of this package work only with their own implementation, and
+ * the factory fails to initialize if one is mapped to another.</P>
+ *
+ * <P>The factory also notifies registered {@link DataChangeListener}s when a
+ * DAO stores tasks or interruptions.</P>
+ *
  * @author Matthew Zipay (ninthtest@gmail.com)
  * @version $Revision: 80 $
  */
@@ -22,6 +51,33 @@ public class DAOFactory {
     private static final Logger LOGGER = Logger.getLogger(DAOFactory.class.getPackage().getName());
     
     private static final Properties IMPLEMENTATIONS = new Properties();
+    
+    private static final List LISTENERS = new CopyOnWriteArrayList();
+    
+    /* the DAO interfaces that are resolved when the factory is initialized */
+    private static final Class[] DAO_INTERFACES = {TaskDAO.class, InterruptionDAO.class, ReportDAO.class, SummaryDAO.class};
+    
+    private static final String SERVICES_PREFIX = "META-INF/services/";
+    
+    /* the class name prefixes of the DAOs in this package, by implementation */
+    private static final Map BUILT_IN_PREFIXES = new HashMap();
+    
+    static {
+        BUILT_IN_PREFIXES.put("JDBC", "JDBC");
+        BUILT_IN_PREFIXES.put("MEMORY", "Memory");
+        BUILT_IN_PREFIXES.put("LOG", "Memory");
+    }
+    
+    /* DAO interface class -> implementation instance; replaced, never modified */
+    private static volatile Map daos = Collections.EMPTY_MAP;
+    
+    private static volatile TaskDAO taskDAO;
+    
+    private static volatile InterruptionDAO interruptionDAO;
+    
+    private static volatile ReportDAO reportDAO;
+    
+    private static volatile SummaryDAO summaryDAO;
 
     /**
      * Prepares any resource the factory will require to service requests.
@@ -33,6 +89,8 @@ public class DAOFactory {
         LOGGER.entering(CLASSNAME, methodName);
         
         try {
+            // drop the keys of an earlier initialization that the file no longer sets
+            IMPLEMENTATIONS.clear();
             IMPLEMENTATIONS.load(Thread.currentThread().getContextClassLoader().getResourceAsStream("dao-impl.properties"));
         } catch (IOException ex) {
             LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "error loading DAO implementations map", ex);
@@ -41,12 +99,48 @@ public class DAOFactory {
         
         if ("JDBC".equalsIgnoreCase(IMPLEMENTATIONS.getProperty("implementation"))) {
             try {
-                // cache the database connection
-                JDBCAccess.getConnection();
+                // open the pooled database connections
+                JDBCAccess.initializeConnections();
             } catch (SQLException ex) {
                 LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "failed to establish database connection", ex);
                 throw new DataAccessException(ex);
             }
+
+            // bring an existing database up to the current schema version
+            SchemaMigration.migrate();
+
+            // apply any changes left in the journal by an earlier session
+            WriteBehindJournal.recover(IMPLEMENTATIONS);
+
+            if (Boolean.valueOf(IMPLEMENTATIONS.getProperty("archive")).booleanValue()) {
+                // move old completed tasks out of the database
+                TaskArchive.open(IMPLEMENTATIONS);
+            }
+
+            if (Boolean.valueOf(IMPLEMENTATIONS.getProperty("writeBehind")).booleanValue()) {
+                WriteBehindJournal.open(IMPLEMENTATIONS);
+            }
+        } else if ("MEMORY".equalsIgnoreCase(IMPLEMENTATIONS.getProperty("implementation"))) {
+            LOGGER.logp(Level.INFO, CLASSNAME, methodName, "tasks are kept in memory and will not be stored when the application exits");
+        } else if ("LOG".equalsIgnoreCase(IMPLEMENTATIONS.getProperty("implementation"))) {
+            // load the tasks kept in the record log
+            RecordLog.open(IMPLEMENTATIONS);
+        }
+        
+        synchronized (DAOFactory.class) {
+            Map resolved = new HashMap();
+            for (int i = 0; i < DAO_INTERFACES.length; ++i) {
+                Object dao = createImplementation(DAO_INTERFACES[i]);
+                if (dao != null) {
+                    resolved.put(DAO_INTERFACES[i], dao);
+                }
+            }
+            
+            daos = resolved;
+            taskDAO = (TaskDAO) resolved.get(TaskDAO.class);
+            interruptionDAO = (InterruptionDAO) resolved.get(InterruptionDAO.class);
+            reportDAO = (ReportDAO) resolved.get(ReportDAO.class);
+            summaryDAO = (SummaryDAO) resolved.get(SummaryDAO.class);
         }
         
         LOGGER.exiting(CLASSNAME, methodName);
@@ -56,16 +150,112 @@ public class DAOFactory {
      * Returns the currently configured implementation for a DAO class.
      *
      * @param klass the specified DAO interface class
-     * @return an instance of the appropriate DAO implementation class
+     * @return
+     *      the instance of the appropriate DAO implementation class, or
+     *      <CODE>null</CODE> if no implementation is configured
      * @throws DataAccessException if resource initialization fails
      */
     public static Object getImplementation(Class klass) throws DataAccessException {
-        final String methodName = "getImplementation";
+        Object dao = daos.get(klass);
+        if (dao != null) {
+            return dao;
+        }
+        
+        synchronized (DAOFactory.class) {
+            dao = daos.get(klass);
+            if (dao == null) {
+                // not one of the DAO interfaces resolved at initialization
+                dao = createImplementation(klass);
+                if (dao != null) {
+                    Map resolved = new HashMap(daos);
+                    resolved.put(klass, dao);
+                    daos = resolved;
+                }
+            }
+        }
+        
+        return dao;
+    }
+    
+    /**
+     * Returns the task DAO.
+     *
+     * @return the configured {@link TaskDAO} implementation
+     * @throws DataAccessException if no implementation is configured
+     */
+    public static TaskDAO getTaskDAO() throws DataAccessException {
+        TaskDAO dao = taskDAO;
+        if (dao == null) {
+            throw new DataAccessException("no TaskDAO implementation is configured");
+        }
+        
+        return dao;
+    }
+    
+    /**
+     * Returns the interruption DAO.
+     *
+     * @return the configured {@link InterruptionDAO} implementation
+     * @throws DataAccessException if no implementation is configured
+     */
+    public static InterruptionDAO getInterruptionDAO() throws DataAccessException {
+        InterruptionDAO dao = interruptionDAO;
+        if (dao == null) {
+            throw new DataAccessException("no InterruptionDAO implementation is configured");
+        }
+        
+        return dao;
+    }
+    
+    /**
+     * Returns the report DAO.
+     *
+     * @return the configured {@link ReportDAO} implementation
+     * @throws DataAccessException if no implementation is configured
+     */
+    public static ReportDAO getReportDAO() throws DataAccessException {
+        ReportDAO dao = reportDAO;
+        if (dao == null) {
+            throw new DataAccessException("no ReportDAO implementation is configured");
+        }
+        
+        return dao;
+    }
+    
+    /**
+     * Returns the summary DAO.
+     *
+     * @return the configured {@link SummaryDAO} implementation
+     * @throws DataAccessException if no implementation is configured
+     */
+    public static SummaryDAO getSummaryDAO() throws DataAccessException {
+        SummaryDAO dao = summaryDAO;
+        if (dao == null) {
+            throw new DataAccessException("no SummaryDAO implementation is configured");
+        }
+        
+        return dao;
+    }
+    
+    /*
+     * Creates and initializes the configured implementation of a DAO
+     * interface. Returns null if no implementation is configured.
+     */
+    private static Object createImplementation(Class klass) throws DataAccessException {
+        final String methodName = "createImplementation";
         LOGGER.entering(CLASSNAME, methodName, klass);
         
         Object dao = null;
         
-        String implClassName = IMPLEMENTATIONS.getProperty(klass.getName());
+        String implementation = IMPLEMENTATIONS.getProperty("implementation", "").toUpperCase();
+        String implClassName = IMPLEMENTATIONS.getProperty(implementation + "." + klass.getName());
+        if (implClassName == null) {
+            implClassName = IMPLEMENTATIONS.getProperty(klass.getName());
+        }
+        if (implClassName == null) {
+            implClassName = findService(klass);
+        }
+        
         if (implClassName != null) {
             Class implClass = null;
             
@@ -77,6 +267,13 @@ public class DAOFactory {
                 throw new DataAccessException(msg, ex);
             }
             
+            if (!isUsableWith(implClass, implementation)) {
+                // e.g. a JDBC DAO would open the database behind the record log
+                String msg = implClassName + " cannot be used with implementation=" + implementation;
+                LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, msg);
+                throw new DataAccessException(msg);
+            }
+            
             try {
                 dao = implClass.newInstance();
             } catch (Exception ex) {
@@ -84,12 +281,77 @@ public class DAOFactory {
                 LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, msg, ex);
                 throw new DataAccessException(msg, ex);
             }
+            
+            if (!klass.isInstance(dao)) {
+                String msg = implClassName + " does not implement " + klass.getName();
+                LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, msg);
+                throw new DataAccessException(msg);
+            }
+            
+            if (dao instanceof DAOLifecycle) {
+                ((DAOLifecycle) dao).initialize();
+            }
         }
         
         LOGGER.exiting(CLASSNAME, methodName, dao);
         return dao;
     }
     
+    /*
+     * Indicates whether a DAO class can be used with an implementation. Only
+     * the DAO classes of this package are checked.
+     */
+    private static boolean isUsableWith(Class implClass, String implementation) {
+        if (implClass.getPackage() != DAOFactory.class.getPackage()) {
+            return true;
+        }
+        
+        String simpleName = implClass.getName().substring(implClass.getName().lastIndexOf('.') + 1);
+        for (Iterator prefixIter = BUILT_IN_PREFIXES.values().iterator(); prefixIter.hasNext();) {
+            String prefix = (String) prefixIter.next();
+            if (simpleName.startsWith(prefix)) {
+                return prefix.equals(BUILT_IN_PREFIXES.get(implementation));
+            }
+        }
+        
+        return true;
+    }
+    
+    /*
+     * Returns the first implementation class named by the service resources
+     * for a DAO interface, or null if there is none.
+     */
+    private static String findService(Class klass) throws DataAccessException {
+        final String methodName = "findService";
+        
+        try {
+            Enumeration urls = Thread.currentThread().getContextClassLoader().getResources(SERVICES_PREFIX + klass.getName());
+            while (urls.hasMoreElements()) {
+                URL url = (URL) urls.nextElement();
+                BufferedReader reader = new BufferedReader(new InputStreamReader(url.openStream(), "UTF-8"));
+                try {
+                    String line = null;
+                    while ((line = reader.readLine()) != null) {
+                        int comment = line.indexOf('#');
+                        String implClassName = ((comment >= 0) ? line.substring(0, comment) : line).trim();
+                        if (implClassName.length() > 0) {
+                            LOGGER.logp(Level.CONFIG, CLASSNAME, methodName, "{0} found in {1}", new Object[] {implClassName, url});
+                            return implClassName;
+                        }
+                    }
+                } finally {
+                    reader.close();
+                }
+            }
+        } catch (IOException ex) {
+            String msg = "failed to read DAO service resources";
+            LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, msg, ex);
+            throw new DataAccessException(msg, ex);
+        }
+        
+        return null;
+    }
+    
     /**
      * Destroys any resource the factory used to service requests.
      *
@@ -99,20 +361,118 @@ public class DAOFactory {
         final String methodName = "releaseResources";
         LOGGER.entering(CLASSNAME, methodName);
         
+        DataAccessException releaseEx = null;
+        synchronized (DAOFactory.class) {
+            for (Iterator daoIter = daos.values().iterator(); daoIter.hasNext();) {
+                Object dao = daoIter.next();
+                if (dao instanceof DAOLifecycle) {
+                    try {
+                        ((DAOLifecycle) dao).release();
+                    } catch (DataAccessException ex) {
+                        // release the rest before reporting the failure
+                        LOGGER.logp(Level.WARNING, CLASSNAME, methodName, "failed to release DAO " + dao, ex);
+                        releaseEx = ex;
+                    }
+                }
+            }
+            
+            daos = Collections.EMPTY_MAP;
+            taskDAO = null;
+            interruptionDAO = null;
+            reportDAO = null;
+            summaryDAO = null;
+        }
+        
         if ("JDBC".equalsIgnoreCase(IMPLEMENTATIONS.getProperty("implementation"))) {
+            // write any journaled changes while the connections are still open
+            WriteBehindJournal.close();
+            
+            TaskArchive.close();
+            
+            // the database may hold other descriptions when it is next opened
+            DescriptionDictionary.clear();
+
             try {
-                // destroy the database connection
-                JDBCAccess.releaseConnection();
-                LOGGER.logp(Level.INFO, CLASSNAME, methodName, "database connection released successfully");
+                // destroy the pooled database connections
+                JDBCAccess.releaseConnections();
+                LOGGER.logp(Level.INFO, CLASSNAME, methodName, "database connections released successfully");
             } catch (SQLException ex) {
-                LOGGER.logp(Level.WARNING, CLASSNAME, methodName, "failed to release database connection", ex);
+                LOGGER.logp(Level.WARNING, CLASSNAME, methodName, "failed to release database connections", ex);
                 throw new DataAccessException(ex);
             }
+        } else if ("MEMORY".equalsIgnoreCase(IMPLEMENTATIONS.getProperty("implementation"))) {
+            // the next session starts empty
+            MemoryStore.clear();
+        } else if ("LOG".equalsIgnoreCase(IMPLEMENTATIONS.getProperty("implementation"))) {
+            try {
+                RecordLog.close();
+            } finally {
+                MemoryStore.clear();
+            }
+        }
+        
+        if (releaseEx != null) {
+            throw releaseEx;
         }
 
         LOGGER.exiting(CLASSNAME, methodName);
     }
     
+    /**
+     * Registers a listener to be notified when tasks or interruptions are
+     * stored. Listeners are notified after the change has been committed (or
+     * journaled), through the callback executor of
+     * {@link PersistenceExecutor}.
+     *
+     * @param listener the listener to register
+     */
+    public static void addDataChangeListener(DataChangeListener listener) {
+        LISTENERS.add(listener);
+    }
+    
+    /**
+     * Unregisters a data change listener.
+     *
+     * @param listener the listener to unregister
+     */
+    public static void removeDataChangeListener(DataChangeListener listener) {
+        LISTENERS.remove(listener);
+    }
+    
+    /**
+     * Notifies the registered listeners that a DAO has stored rows. Nothing is
+     * copied unless a listener is registered.
+     *
+     * @param source the DAO that stored the rows
+     * @param rowClass <CODE>Task.class</CODE> or
+     *      <CODE>Interruption.class</CODE>
+     * @param type {@link DataChangeEvent#INSERTED} or
+     *      {@link DataChangeEvent#UPDATED}
+     * @param rows the stored tasks or interruptions
+     */
+    static void fireDataChanged(Object source, Class rowClass, int type, Collection rows) {
+        final String methodName = "fireDataChanged";
+        
+        if (LISTENERS.isEmpty() || rows.isEmpty()) {
+            return;
+        }
+        
+        final DataChangeEvent event = new DataChangeEvent(source, rowClass, type, rows);
+        for (Iterator listenerIter = LISTENERS.iterator(); listenerIter.hasNext();) {
+            final DataChangeListener listener = (DataChangeListener) listenerIter.next();
+            PersistenceExecutor.dispatch(new Runnable() {
+                public void run() {
+                    try {
+                        listener.dataChanged(event);
+                    } catch (RuntimeException ex) {
+                        // the change is already stored, so never report it as failed
+                        LOGGER.logp(Level.WARNING, CLASSNAME, methodName, "data change listener failed", ex);
+                    }
+                }
+            });
+        }
+    }
+    
     private DAOFactory() {
         // never instantiated
     }
@@ -0,0 +1,32 @@
+/*
+ * $Id$
+ */
+
+package net.ninthtest.stopwatch.model;
+
+/**
+ * This interface is implemented by DAOs that hold resources of their own.
+ *
+ * <P>{@link DAOFactory} creates one instance of each DAO implementation. If
+ * the implementation also implements this interface, the factory initializes
+ * the instance once the factory's own resources are ready, and releases it
+ * before those resources are released.</P>
+ *
+ * @author Matthew Zipay (ninthtest@gmail.com)
+ * @version $Revision$
+ */
+public interface DAOLifecycle {
+    /**
+     * Prepares the resources of this DAO.
+     *
+     * @throws DataAccessException if the resources cannot be prepared
+     */
+    public void initialize() throws DataAccessException;
+
+    /**
+     * Releases the resources of this DAO. This DAO is not used again.
+     *
+     * @throws DataAccessException if the resources cannot be released
+     */
+    public void release() throws DataAccessException;
+}
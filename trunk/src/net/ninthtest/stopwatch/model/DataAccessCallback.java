@@ -0,0 +1,30 @@
+/*
+ * $Id$
+ */
+
+package net.ninthtest.stopwatch.model;
+
+/**
+ * This interface declares the callback notified when an asynchronous data
+ * access operation completes.
+ *
+ * @author Matthew Zipay (ninthtest@gmail.com)
+ * @version $Revision$
+ * @see PersistenceExecutor
+ */
+public interface DataAccessCallback {
+    /**
+     * Called when the operation completed successfully.
+     *
+     * @param result the value returned by the operation (may be
+     *      <CODE>null</CODE>)
+     */
+    public void succeeded(Object result);
+
+    /**
+     * Called when the operation failed.
+     *
+     * @param ex the reason for the failure
+     */
+    public void failed(DataAccessException ex);
+}
@@ -0,0 +1,23 @@
+/*
+ * $Id$
+ */
+
+package net.ninthtest.stopwatch.model;
+
+/**
+ * This interface declares a unit of data access work that can be executed
+ * asynchronously.
+ *
+ * @author Matthew Zipay (ninthtest@gmail.com)
+ * @version $Revision$
+ * @see PersistenceExecutor
+ */
+public interface DataAccessOperation {
+    /**
+     * Performs the data access work.
+     *
+     * @return the result of the operation (may be <CODE>null</CODE>)
+     * @throws DataAccessException if access to the data store fails
+     */
+    public Object execute() throws DataAccessException;
+}
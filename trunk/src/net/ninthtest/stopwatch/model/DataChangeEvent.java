@@ -0,0 +1,107 @@
+/*
+ * $Id$
+ */
+
+package net.ninthtest.stopwatch.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EventObject;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * This class describes tasks or interruptions that have been stored.
+ *
+ * <P>The rows of an event are copies of the tasks or interruptions as they
+ * were stored, so later changes to the originals do not affect them. Every row
+ * has an ID.</P>
+ *
+ * @author Matthew Zipay (ninthtest@gmail.com)
+ * @version $Revision$
+ */
+public class DataChangeEvent extends EventObject {
+    private static final String CLASSNAME = DataChangeEvent.class.getName();
+
+    /** The rows were inserted. */
+    public static final int INSERTED = 1;
+
+    /** The rows were updated. */
+    public static final int UPDATED = 2;
+
+    private Class rowClass;
+
+    private int type;
+
+    private List rows;
+
+    /**
+     * Creates an event describing stored rows.
+     *
+     * @param source the DAO that stored the rows
+     * @param rowClass <CODE>Task.class</CODE> or
+     *      <CODE>Interruption.class</CODE>
+     * @param type {@link #INSERTED} or {@link #UPDATED}
+     * @param stored the stored tasks or interruptions
+     */
+    DataChangeEvent(Object source, Class rowClass, int type, Collection stored) {
+        super(source);
+        this.rowClass = rowClass;
+        this.type = type;
+
+        List copies = new ArrayList(stored.size());
+        for (Iterator rowIter = stored.iterator(); rowIter.hasNext();) {
+            Task task = (Task) rowIter.next();
+            if (task instanceof Interruption) {
+                Interruption intr = (Interruption) task;
+                copies.add(new Interruption(intr.getId(), intr.getRelatedTaskId(), intr.getDescription(), intr.getStartTime(), intr.getEndTime(), intr.getDuration()));
+            } else {
+                copies.add(new Task(task.getId(), task.getDescription(), task.getStartTime(), task.getEndTime(), task.getDuration()));
+            }
+        }
+        rows = Collections.unmodifiableList(copies);
+    }
+
+    /**
+     * Returns the class of the stored rows.
+     *
+     * @return <CODE>Task.class</CODE> or <CODE>Interruption.class</CODE>
+     */
+    public Class getRowClass() {
+        return rowClass;
+    }
+
+    /**
+     * Returns the kind of change.
+     *
+     * @return {@link #INSERTED} or {@link #UPDATED}
+     */
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * Returns the stored rows.
+     *
+     * @return an unmodifiable list of tasks or interruptions
+     */
+    public List getRows() {
+        return rows;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @return a string describing this event
+     * @see java.lang.Object#toString
+     */
+    public String toString() {
+        return new StringBuffer(CLASSNAME)
+        .append("[rowClass=").append(rowClass.getName())
+        .append(";type=").append((type == INSERTED) ? "INSERTED" : "UPDATED")
+        .append(";rows=").append(rows.size())
+        .append("]")
+        .toString();
+    }
+}
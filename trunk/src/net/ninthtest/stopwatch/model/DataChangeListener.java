@@ -0,0 +1,24 @@
+/*
+ * $Id$
+ */
+
+package net.ninthtest.stopwatch.model;
+
+import java.util.EventListener;
+
+/**
+ * This interface is implemented by objects that need to know when tasks or
+ * interruptions are stored.
+ *
+ * @author Matthew Zipay (ninthtest@gmail.com)
+ * @version $Revision$
+ * @see DAOFactory#addDataChangeListener(DataChangeListener)
+ */
+public interface DataChangeListener extends EventListener {
+    /**
+     * Called after tasks or interruptions have been inserted or updated.
+     *
+     * @param event describes the stored rows
+     */
+    public void dataChanged(DataChangeEvent event);
+}
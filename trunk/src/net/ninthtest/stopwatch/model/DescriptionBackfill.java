@@ -0,0 +1,146 @@
+/*
+ * $Id$
+ */
+
+package net.ninthtest.stopwatch.model;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This migration step populates the <CODE>Descriptions</CODE> table from the
+ * descriptions of the tasks and interruptions already stored, and sets the
+ * <CODE>description_id</CODE> of each of them.
+ *
+ * <P>The descriptions are numbered as they are first met, and every row is
+ * updated by its ID, because HSQLDB evaluates a correlated
+ * <CODE>UPDATE</CODE> far more slowly.</P>
+ *
+ * @author Matthew Zipay (ninthtest@gmail.com)
+ * @version $Revision$
+ */
+class DescriptionBackfill implements MigrationStep {
+    private static final String CLASSNAME = DescriptionBackfill.class.getName();
+
+    private static final Logger LOGGER = Logger.getLogger(DescriptionBackfill.class.getPackage().getName());
+
+    private static final String FIND_ALL_TASK_DESCRIPTIONS_SQL;
+
+    private static final String FIND_ALL_INTERRUPTION_DESCRIPTIONS_SQL;
+
+    private static final String INSERT_DESCRIPTION_WITH_ID_SQL;
+
+    private static final String UPDATE_TASK_DESCRIPTION_ID_SQL;
+
+    private static final String UPDATE_INTERRUPTION_DESCRIPTION_ID_SQL;
+
+    /* description -> Long ID */
+    private Map descriptionIds = new HashMap();
+
+    static {
+        final String methodName = "<clinit>";
+        LOGGER.entering(CLASSNAME, methodName);
+
+        Properties sqlProps = new Properties();
+        try {
+            sqlProps.load(Thread.currentThread().getContextClassLoader().getResourceAsStream("description-sql.properties"));
+        } catch (IOException ex) {
+            LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "error loading DescriptionBackfill SQL properties", ex);
+        }
+
+        FIND_ALL_TASK_DESCRIPTIONS_SQL = sqlProps.getProperty("findAllTaskDescriptions");
+        FIND_ALL_INTERRUPTION_DESCRIPTIONS_SQL = sqlProps.getProperty("findAllInterruptionDescriptions");
+        INSERT_DESCRIPTION_WITH_ID_SQL = sqlProps.getProperty("insertDescriptionWithId");
+        UPDATE_TASK_DESCRIPTION_ID_SQL = sqlProps.getProperty("updateTaskDescriptionId");
+        UPDATE_INTERRUPTION_DESCRIPTION_ID_SQL = sqlProps.getProperty("updateInterruptionDescriptionId");
+
+        LOGGER.exiting(CLASSNAME, methodName);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param conx the connection on which the migration is running
+     * @throws SQLException if the descriptions cannot be read or stored
+     */
+    public void apply(Connection conx) throws SQLException {
+        final String methodName = "apply";
+        LOGGER.entering(CLASSNAME, methodName);
+
+        if ((FIND_ALL_TASK_DESCRIPTIONS_SQL == null) || (FIND_ALL_INTERRUPTION_DESCRIPTIONS_SQL == null)
+                || (INSERT_DESCRIPTION_WITH_ID_SQL == null) || (UPDATE_TASK_DESCRIPTION_ID_SQL == null)
+                || (UPDATE_INTERRUPTION_DESCRIPTION_ID_SQL == null)) {
+            throw new SQLException("undefined or empty SQL template");
+        }
+
+        PreparedStatement insert = conx.prepareStatement(INSERT_DESCRIPTION_WITH_ID_SQL);
+        try {
+            int taskCount = backfill(conx, FIND_ALL_TASK_DESCRIPTIONS_SQL, UPDATE_TASK_DESCRIPTION_ID_SQL, insert);
+            int intrCount = backfill(conx, FIND_ALL_INTERRUPTION_DESCRIPTIONS_SQL, UPDATE_INTERRUPTION_DESCRIPTION_ID_SQL, insert);
+
+            LOGGER.logp(Level.INFO, CLASSNAME, methodName, "stored {0} descriptions of {1} tasks and {2} interruptions",
+                    new Object[] {Integer.valueOf(descriptionIds.size()), Integer.valueOf(taskCount), Integer.valueOf(intrCount)});
+        } finally {
+            insert.close();
+        }
+
+        LOGGER.exiting(CLASSNAME, methodName);
+    }
+
+    /*
+     * Sets the description ID of every row that a query selects (by ID and
+     * description), adding new descriptions as they are met. Returns the
+     * number of rows.
+     */
+    private int backfill(Connection conx, String selectSql, String updateSql, PreparedStatement insert) throws SQLException {
+        int batchSize = JDBCAccess.getBatchSize();
+        int rowCount = 0;
+
+        Statement select = conx.createStatement();
+        PreparedStatement update = conx.prepareStatement(updateSql);
+        try {
+            ResultSet results = select.executeQuery(selectSql);
+            int pending = 0;
+            while (results.next()) {
+                String description = results.getString(2);
+                Long descriptionId = (Long) descriptionIds.get(description);
+                if (descriptionId == null) {
+                    descriptionId = Long.valueOf(descriptionIds.size() + 1);
+                    insert.setLong(1, descriptionId.longValue());
+                    insert.setString(2, description);
+                    insert.executeUpdate();
+                    descriptionIds.put(description, descriptionId);
+                }
+
+                update.setLong(1, descriptionId.longValue());
+                update.setLong(2, results.getLong(1));
+                update.addBatch();
+                ++rowCount;
+
+                if (++pending == batchSize) {
+                    update.executeBatch();
+                    pending = 0;
+                }
+            }
+            results.close();
+
+            if (pending > 0) {
+                update.executeBatch();
+            }
+        } finally {
+            update.close();
+            select.close();
+        }
+
+        return rowCount;
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * $Id$
+ */
+
+package net.ninthtest.stopwatch.model;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class maintains the <CODE>Descriptions</CODE> table, which holds each
+ * distinct task or interruption description once; tasks and interruptions
+ * refer to their descriptions by ID.
+ *
+ * <P>A description must be in the table before a task or interruption that
+ * uses it is written, because the DAO statements look its ID up by text. The
+ * descriptions known to be in the table are remembered, so a description is
+ * only looked up (or added) the first time it is written.</P>
+ *
+ * <P>Shared instances of the descriptions are also kept for the tasks and
+ * interruptions that are read (from the database, the archive or the memory
+ * DAOs), so that loading many rows with a recurring description holds only
+ * one copy of it. A shared instance is not necessarily in the table.</P>
+ *
+ * @author Matthew Zipay (ninthtest@gmail.com)
+ * @version $Revision$
+ */
+final class DescriptionDictionary {
+    private static final String CLASSNAME = DescriptionDictionary.class.getName();
+
+    private static final Logger LOGGER = Logger.getLogger(DescriptionDictionary.class.getPackage().getName());
+
+    private static final String FIND_DESCRIPTION_ID_SQL;
+
+    private static final String INSERT_DESCRIPTION_SQL;
+
+    /* description -> the shared instance */
+    private static final Map DESCRIPTIONS = new HashMap();
+
+    /* the descriptions known to be stored in the Descriptions table */
+    private static final Set STORED = new HashSet();
+
+    static {
+        final String methodName = "<clinit>";
+        LOGGER.entering(CLASSNAME, methodName);
+
+        Properties sqlProps = new Properties();
+        try {
+            sqlProps.load(Thread.currentThread().getContextClassLoader().getResourceAsStream("description-sql.properties"));
+        } catch (IOException ex) {
+            LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "error loading DescriptionDictionary SQL properties", ex);
+        }
+
+        FIND_DESCRIPTION_ID_SQL = sqlProps.getProperty("findDescriptionId");
+        INSERT_DESCRIPTION_SQL = sqlProps.getProperty("insertDescription");
+
+        LOGGER.exiting(CLASSNAME, methodName);
+    }
+
+    /**
+     * Returns the shared instance of a description that has been read from
+     * the database.
+     *
+     * @param description a stored description, or <CODE>null</CODE>
+     * @return an equal description, or <CODE>null</CODE>
+     */
+    static synchronized String intern(String description) {
+        if (description == null) {
+            return null;
+        }
+
+        String shared = (String) DESCRIPTIONS.get(description);
+        if (shared == null) {
+            DESCRIPTIONS.put(description, description);
+            shared = description;
+        }
+
+        return shared;
+    }
+
+    /**
+     * Adds any of some descriptions that are not yet in the
+     * <CODE>Descriptions</CODE> table. Added descriptions are committed at
+     * once, so this method must be called before anything else is written in
+     * the transaction.
+     *
+     * @param conx a connection obtained from {@link JDBCAccess#getConnection()}
+     * @param descriptions the descriptions (<CODE>null</CODE>s are ignored)
+     * @throws SQLException if a description cannot be looked up or added
+     * @throws DataAccessException if an SQL template is undefined
+     */
+    static synchronized void addDescriptions(Connection conx, Collection descriptions) throws SQLException, DataAccessException {
+        final String methodName = "addDescriptions";
+
+        List added = null;
+        for (Iterator descIter = descriptions.iterator(); descIter.hasNext();) {
+            String description = (String) descIter.next();
+            if ((description == null) || STORED.contains(description)) {
+                continue;
+            }
+
+            if (isStored(conx, description)) {
+                STORED.add(intern(description));
+                continue;
+            }
+
+            if ((INSERT_DESCRIPTION_SQL == null) || (INSERT_DESCRIPTION_SQL.equals(""))) {
+                throw new DataAccessException("undefined or empty SQL template");
+            }
+
+            PreparedStatement insert = JDBCAccess.prepareStatement(conx, "insertDescription", INSERT_DESCRIPTION_SQL);
+            insert.setString(1, description);
+            insert.executeUpdate();
+
+            if (added == null) {
+                added = new ArrayList();
+            }
+            added.add(description);
+        }
+
+        if (added != null) {
+            conx.commit();
+            LOGGER.logp(Level.FINE, CLASSNAME, methodName, "added {0} descriptions", Integer.valueOf(added.size()));
+
+            // remembered only once they cannot be rolled back
+            for (Iterator descIter = added.iterator(); descIter.hasNext();) {
+                STORED.add(intern((String) descIter.next()));
+            }
+        }
+    }
+
+    /**
+     * Forgets the remembered descriptions, for when the connections to the
+     * database are released.
+     */
+    static synchronized void clear() {
+        DESCRIPTIONS.clear();
+        STORED.clear();
+    }
+
+    private static boolean isStored(Connection conx, String description) throws SQLException, DataAccessException {
+        final String methodName = "isStored";
+
+        if ((FIND_DESCRIPTION_ID_SQL == null) || (FIND_DESCRIPTION_ID_SQL.equals(""))) {
+            throw new DataAccessException("undefined or empty SQL template");
+        }
+
+        PreparedStatement select = JDBCAccess.prepareStatement(conx, "findDescriptionId", FIND_DESCRIPTION_ID_SQL);
+        select.setString(1, description);
+
+        ResultSet result = select.executeQuery();
+        try {
+            return result.next();
+        } finally {
+            try {
+                result.close();
+            } catch (SQLException ex) {
+                LOGGER.logp(Level.WARNING, CLASSNAME, methodName, "failed to close select result set", ex);
+            }
+        }
+    }
+
+    private DescriptionDictionary() {
+        // never instantiated
+    }
+}
@@ -21,33 +21,51 @@ public class Interruption extends Task {
 
     private Long relatedTaskId;
 
+    private Task relatedTask;
+
     /**
      * Creates a new interruption associated with the task it interrupted.
      *
      * @param relatedTask the task that was interrupted
      */
     public Interruption(Task relatedTask) {
-        super(null);
+        super((String) null);
 
         final String methodName = "<init>";
         LOGGER.entering(CLASSNAME, methodName, relatedTask);
 
-        relatedTaskId = relatedTask.getId();
+        // the related task may not have been stored yet, so its ID is
+        // resolved when it is first needed (see getRelatedTaskId)
+        this.relatedTask = relatedTask;
         
         LOGGER.exiting(CLASSNAME, methodName);
     }
     
-    Interruption(Long id, Long relatedTaskId, String description, Date startTime, Date endTime) {
-        super(id, description, startTime, endTime);
+    Interruption(Long id, Long relatedTaskId, String description, Date startTime, Date endTime, Long duration) {
+        super(id, description, startTime, endTime, duration);
         this.relatedTaskId = relatedTaskId;
     }
 
+    /*
+     * Creates a snapshot of the current state of an interruption. The related
+     * task is shared, so its ID is still resolved when it is first needed.
+     */
+    Interruption(Interruption intr) {
+        super(intr);
+        relatedTaskId = intr.relatedTaskId;
+        relatedTask = intr.relatedTask;
+    }
+
     /**
      * Returns the interrupted task's ID.
      *
      * @return the ID of the task that was interrupted
      */
     public Long getRelatedTaskId() {
+        if ((relatedTaskId == null) && (relatedTask != null)) {
+            relatedTaskId = relatedTask.getId();
+        }
+        
         return relatedTaskId;
     }
     
@@ -63,7 +81,7 @@ public class Interruption extends Task {
     public boolean equals(Object obj) {
         Long thisId = getId();
         return ((obj instanceof Interruption) && (thisId != null) && (thisId.equals(((Interruption) obj).getId()))
-        && (relatedTaskId != null) && relatedTaskId.equals(((Interruption) obj).getRelatedTaskId()));
+        && (getRelatedTaskId() != null) && getRelatedTaskId().equals(((Interruption) obj).getRelatedTaskId()));
     }
     
     /**
@@ -88,10 +106,11 @@ public class Interruption extends Task {
     public String toString() {
         return new StringBuffer(CLASSNAME)
         .append("[id=").append(getId())
-        .append(";related_task_id=").append(relatedTaskId)
+        .append(";related_task_id=").append(getRelatedTaskId())
         .append(";description=\"").append(getDescription())
         .append("\";startTime=").append(getStartTime())
         .append(";endTime=").append(getEndTime())
+        .append(";duration=").append(getDuration())
         .append("]")
         .toString();
     }
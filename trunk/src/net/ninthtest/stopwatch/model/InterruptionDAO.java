@@ -4,6 +4,7 @@
 
 package net.ninthtest.stopwatch.model;
 
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -30,6 +31,45 @@ public interface InterruptionDAO {
      */
     public List findInterruptionsForTask(Task task) throws DataAccessException;
     
+    /**
+     * Returns the number of interruptions that pass the filters of some
+     * criteria.
+     *
+     * @param criteria the query criteria
+     * @return the interruption count
+     * @throws DataAccessException if access to the data store fails
+     */
+    public int countInterruptions(QueryCriteria criteria) throws DataAccessException;
+    
+    /**
+     * Returns a page of the interruptions that pass the filters of some
+     * criteria, in their order. The default criteria give the order of
+     * {@link #findAllInterruptions()}. Prefer
+     * {@link #findInterruptionsAfter(QueryCriteria, Interruption, int)} when
+     * the preceding interruption is known, since skipping <I>firstResult</I>
+     * interruptions takes time proportional to <I>firstResult</I>.
+     *
+     * @param criteria the query criteria
+     * @param firstResult the position of the first interruption to return
+     * @param maxResults the maximum number of interruptions to return
+     * @return a list of at most <I>maxResults</I> interruptions
+     * @throws DataAccessException if access to the data store fails
+     */
+    public List findInterruptions(QueryCriteria criteria, int firstResult, int maxResults) throws DataAccessException;
+    
+    /**
+     * Returns the page of interruptions that follows a specified interruption,
+     * in the order of some criteria.
+     *
+     * @param criteria the query criteria
+     * @param lastInterruption the last interruption of the preceding page, or
+     *      <CODE>null</CODE> for the first page
+     * @param maxResults the maximum number of interruptions to return
+     * @return a list of at most <I>maxResults</I> interruptions
+     * @throws DataAccessException if access to the data store fails
+     */
+    public List findInterruptionsAfter(QueryCriteria criteria, Interruption lastInterruption, int maxResults) throws DataAccessException;
+    
     /**
      * Stores the data describing an interruption.
      *
@@ -37,4 +77,13 @@ public interface InterruptionDAO {
      * @throws DataAccessException if access to the data store fails
      */
     public void saveInterruption(Interruption intr) throws DataAccessException;
+    
+    /**
+     * Stores the data describing several interruptions. Interruptions that
+     * have not been stored before are assigned IDs.
+     *
+     * @param intrs the interruptions to be stored
+     * @throws DataAccessException if access to the data store fails
+     */
+    public void saveInterruptions(Collection intrs) throws DataAccessException;
 }
@@ -5,14 +5,19 @@
 package net.ninthtest.stopwatch.model;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
 import java.util.Properties;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- * This class provides access to a JDBC data source.
+ * This class provides access to a JDBC data source. Connections are pooled;
+ * the pool is configured by the <CODE>pool.*</CODE> properties in
+ * <CODE>jdbc.properties</CODE>.
  *
  * @author Matthew Zipay (ninthtest@gmail.com)
  * @version $Revision: 84 $
@@ -27,8 +32,21 @@ public final class JDBCAccess {
     private static final String USERNAME;
     
     private static final String PASSWORD;
-    
-    private static Connection conx;
+
+    private static final int FETCH_SIZE;
+
+    private static final int BATCH_SIZE;
+
+    private static final String GENERATED_KEYS;
+
+    private static final String IDENTITY_SQL;
+
+    /* resolved from the generatedKeys property on the first insert */
+    private static Boolean useGeneratedKeys;
+
+    private static final Properties POOL_PROPERTIES = new Properties();
+
+    private static ConnectionPool pool;
     
     static {
         final String methodName = "<clinit>";
@@ -50,50 +68,334 @@ public final class JDBCAccess {
         URL = props.getProperty("url");
         USERNAME = props.getProperty("username");
         PASSWORD = props.getProperty("password");
-        
+        FETCH_SIZE = getIntProperty(props, "fetchSize", 0);
+        BATCH_SIZE = Math.max(1, getIntProperty(props, "batchSize", 500));
+        GENERATED_KEYS = props.getProperty("generatedKeys", "auto").trim();
+        IDENTITY_SQL = props.getProperty("identitySql");
+
+        for (Iterator nameIter = props.keySet().iterator(); nameIter.hasNext();) {
+            String name = (String) nameIter.next();
+            if (name.startsWith("pool.")) {
+                POOL_PROPERTIES.setProperty(name, props.getProperty(name));
+            }
+        }
+
         LOGGER.exiting(CLASSNAME, methodName);
     }
+
+    private static int getIntProperty(Properties props, String name, int defaultValue) {
+        final String methodName = "getIntProperty";
+
+        String value = props.getProperty(name);
+        if ((value == null) || value.trim().equals("")) {
+            return defaultValue;
+        }
+
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException ex) {
+            LOGGER.logp(Level.WARNING, CLASSNAME, methodName, "invalid value for JDBC property " + name + "; using default", ex);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Returns the number of rows that should be fetched per round trip when
+     * reading large result sets.
+     *
+     * @return the configured fetch size, or <CODE>0</CODE> to let the driver
+     *      decide
+     */
+    static int getFetchSize() {
+        return FETCH_SIZE;
+    }
+
+    /**
+     * Returns the maximum number of statements executed in one JDBC batch
+     * (and committed in one transaction) when storing many objects at once.
+     *
+     * @return the configured batch size
+     */
+    static int getBatchSize() {
+        return BATCH_SIZE;
+    }
     
     /**
-     * Returns a connection to the JDBC data source. If a cached connection
-     * exists, it is returned. If a connection is not cached, it is created and
-     * cached for future use.
+     * Borrows a connection to the JDBC data source from the connection pool.
+     * The pool is created on first use. Every connection obtained from this
+     * method must be passed to {@link #returnConnection(Connection)} when the
+     * caller is finished with it.
      *
      * @return a connection to the JDBC data source
-     * @throws SQLException if the connection cannot be estalbished
+     * @throws SQLException if the connection cannot be estalbished, or if no
+     *      connection becomes available within the configured borrow timeout
      */
-    public synchronized static Connection getConnection() throws SQLException {
+    public static Connection getConnection() throws SQLException {
         final String methodName = "getConnection";
         LOGGER.entering(CLASSNAME, methodName);
-        
-        if (conx == null) {
-            conx = DriverManager.getConnection(URL, USERNAME, PASSWORD);
-            conx.setAutoCommit(false);
-        }
-        
+
+        Connection conx = getPool().borrowConnection();
+
         LOGGER.exiting(CLASSNAME, methodName, conx);
         return conx;
     }
-    
+
+    /**
+     * Returns a prepared statement for an SQL property on a connection obtained
+     * from {@link #getConnection()}. Statements are cached per connection and
+     * keyed by property name, so each SQL property is only prepared once per
+     * connection. The caller must not close the returned statement, but should
+     * close any result set obtained from it.
+     *
+     * @param conx a connection obtained from {@link #getConnection()}
+     * @param name the name of the SQL property
+     * @param sql the SQL text of the property
+     * @return a prepared statement for <I>sql</I>
+     * @throws SQLException if the statement cannot be prepared
+     */
+    public static PreparedStatement prepareStatement(Connection conx, String name, String sql) throws SQLException {
+        return getPool().prepareStatement(conx, name, sql, false);
+    }
+
     /**
-     * Closes the connection to the JDBC data source.
+     * Prepares statements on a pooled connection, so that they are already
+     * cached when they are first used. A statement whose SQL property is
+     * undefined or empty is skipped; it fails when it is used instead.
+     *
+     * @param names the names of the SQL properties
+     * @param sql the SQL text of each property
+     * @param inserts whether each statement inserts into a table with an
+     *      identity column
+     * @throws SQLException if no connection can be borrowed, or if a
+     *      statement cannot be prepared
+     */
+    static void prepareStatements(String[] names, String[] sql, boolean[] inserts) throws SQLException {
+        Connection conx = getConnection();
+        try {
+            for (int i = 0; i < names.length; ++i) {
+                if ((sql[i] == null) || sql[i].equals("")) {
+                    continue;
+                }
+
+                if (inserts[i]) {
+                    prepareInsert(conx, names[i], sql[i]);
+                } else {
+                    prepareStatement(conx, names[i], sql[i]);
+                }
+            }
+        } finally {
+            returnConnection(conx);
+        }
+    }
+
+    /**
+     * Returns a prepared statement for an SQL property that inserts into a
+     * table with an identity column. After the statement has been executed,
+     * pass it to {@link #getInsertedKey(Connection, PreparedStatement)} or, if
+     * it was executed as a batch, to
+     * {@link #executeBatchInsert(Connection, PreparedStatement, int)}.
+     *
+     * @param conx a connection obtained from {@link #getConnection()}
+     * @param name the name of the SQL property
+     * @param sql the SQL text of the property
+     * @return a prepared statement for <I>sql</I>
+     * @throws SQLException if the statement cannot be prepared
+     */
+    public static PreparedStatement prepareInsert(Connection conx, String name, String sql) throws SQLException {
+        return getPool().prepareStatement(conx, name, sql, usesGeneratedKeys(conx));
+    }
+
+    /**
+     * Returns the identity value assigned by the most recent execution of an
+     * insert statement. If the driver supports auto-generated keys, the value
+     * is read from the statement itself; otherwise the configured identity
+     * query is executed on the same connection.
+     *
+     * @param conx the connection that executed the insert
+     * @param insert a statement obtained from
+     *      {@link #prepareInsert(Connection, String, String)}
+     * @return the inserted row's identity value
+     * @throws SQLException if the identity value cannot be obtained
+     */
+    public static long getInsertedKey(Connection conx, PreparedStatement insert) throws SQLException {
+        long[] keys = readInsertedKeys(conx, insert, 1);
+        return keys[0];
+    }
+
+    /**
+     * Executes a batch of inserts and returns the identity values of all of
+     * the inserted rows, in batch order.
+     *
+     * <P>When generated keys are not in use, the keys are derived from the
+     * identity value of the last row, which relies on the rows of one batch
+     * receiving consecutive identity values. This holds for HSQLDB, which
+     * executes a batch under a single database lock.</P>
      *
-     * @throws SQLException if the connection is not closed successfully
+     * @param conx the connection that executes the batch
+     * @param insert a statement obtained from
+     *      {@link #prepareInsert(Connection, String, String)} with
+     *      <I>count</I> parameter sets added to its batch
+     * @param count the number of parameter sets in the batch
+     * @return the inserted rows' identity values
+     * @throws SQLException if a row is not inserted, or if the identity values
+     *      cannot be obtained
      */
-    public synchronized static void releaseConnection() throws SQLException {
-        final String methodName = "releaseConnection";
+    public static long[] executeBatchInsert(Connection conx, PreparedStatement insert, int count) throws SQLException {
+        final String methodName = "executeBatchInsert";
+        LOGGER.entering(CLASSNAME, methodName, Integer.valueOf(count));
+
+        int[] rowCounts = insert.executeBatch();
+        if (rowCounts.length != count) {
+            throw new SQLException("batch insert executed " + rowCounts.length + " of " + count + " statements");
+        }
+
+        for (int i = 0; i < rowCounts.length; ++i) {
+            if ((rowCounts[i] != 1) && (rowCounts[i] != Statement.SUCCESS_NO_INFO)) {
+                throw new SQLException("batch insert statement " + i + " inserted " + rowCounts[i] + " rows");
+            }
+        }
+
+        long[] keys = readInsertedKeys(conx, insert, count);
+
+        LOGGER.exiting(CLASSNAME, methodName);
+        return keys;
+    }
+
+    private static long[] readInsertedKeys(Connection conx, PreparedStatement insert, int count) throws SQLException {
+        final String methodName = "readInsertedKeys";
+
+        long[] keys = new long[count];
+        if (count == 0) {
+            return keys;
+        }
+
+        if (usesGeneratedKeys(conx)) {
+            ResultSet keyResults = insert.getGeneratedKeys();
+            try {
+                for (int i = 0; i < count; ++i) {
+                    if (!keyResults.next()) {
+                        throw new SQLException("driver returned " + i + " of " + count + " generated keys");
+                    }
+                    keys[i] = keyResults.getLong(1);
+                }
+            } finally {
+                try {
+                    keyResults.close();
+                } catch (SQLException ex) {
+                    LOGGER.logp(Level.WARNING, CLASSNAME, methodName, "failed to close generated keys result set", ex);
+                }
+            }
+        } else {
+            if ((IDENTITY_SQL == null) || IDENTITY_SQL.trim().equals("")) {
+                throw new SQLException("generated keys are not in use and identitySql is undefined");
+            }
+
+            ResultSet idResult = prepareStatement(conx, "identitySql", IDENTITY_SQL).executeQuery();
+            try {
+                if (!idResult.next()) {
+                    throw new SQLException("identity query returned no rows");
+                }
+
+                // the identity query reports the last row of the batch
+                long lastKey = idResult.getLong(1);
+                for (int i = 0; i < count; ++i) {
+                    keys[i] = lastKey - (count - 1) + i;
+                }
+            } finally {
+                try {
+                    idResult.close();
+                } catch (SQLException ex) {
+                    LOGGER.logp(Level.WARNING, CLASSNAME, methodName, "failed to close identity result set", ex);
+                }
+            }
+        }
+
+        return keys;
+    }
+
+    private synchronized static boolean usesGeneratedKeys(Connection conx) throws SQLException {
+        final String methodName = "usesGeneratedKeys";
+
+        if (useGeneratedKeys == null) {
+            if ("auto".equalsIgnoreCase(GENERATED_KEYS)) {
+                useGeneratedKeys = Boolean.valueOf(conx.getMetaData().supportsGetGeneratedKeys());
+            } else {
+                useGeneratedKeys = Boolean.valueOf(GENERATED_KEYS);
+            }
+
+            LOGGER.logp(Level.CONFIG, CLASSNAME, methodName, "using generated keys: {0}", useGeneratedKeys);
+        }
+
+        return useGeneratedKeys.booleanValue();
+    }
+
+    /**
+     * Returns a connection to the connection pool. Any work on the connection
+     * that has not been committed is rolled back.
+     *
+     * @param conx a connection obtained from {@link #getConnection()} (may be
+     *      <CODE>null</CODE>)
+     */
+    public static void returnConnection(Connection conx) {
+        ConnectionPool currentPool = null;
+        synchronized (JDBCAccess.class) {
+            currentPool = pool;
+        }
+
+        if (currentPool != null) {
+            currentPool.returnConnection(conx);
+        }
+    }
+
+    /**
+     * Opens the minimum number of pooled connections to the JDBC data source.
+     *
+     * @throws SQLException if the connections cannot be established
+     */
+    public static void initializeConnections() throws SQLException {
+        final String methodName = "initializeConnections";
         LOGGER.entering(CLASSNAME, methodName);
-        
-        if (conx != null) {
+
+        getPool().fill();
+
+        LOGGER.exiting(CLASSNAME, methodName);
+    }
+
+    /**
+     * Closes the pooled connections to the JDBC data source.
+     *
+     * @throws SQLException if the connections are not closed successfully
+     */
+    public synchronized static void releaseConnections() throws SQLException {
+        final String methodName = "releaseConnections";
+        LOGGER.entering(CLASSNAME, methodName);
+
+        if (pool != null) {
             try {
-                conx.close();
+                pool.close();
             } finally {
-                conx = null;
+                pool = null;
             }
         }
-        
+
         LOGGER.exiting(CLASSNAME, methodName);
     }
+
+    private synchronized static ConnectionPool getPool() {
+        if (pool == null) {
+            pool = new ConnectionPool(URL, USERNAME, PASSWORD,
+                    getIntProperty(POOL_PROPERTIES, "pool.minIdle", 1),
+                    getIntProperty(POOL_PROPERTIES, "pool.maxSize", 4),
+                    getIntProperty(POOL_PROPERTIES, "pool.borrowTimeout", 10000),
+                    getIntProperty(POOL_PROPERTIES, "pool.idleTimeout", 300000),
+                    getIntProperty(POOL_PROPERTIES, "pool.evictionInterval", 60000),
+                    POOL_PROPERTIES.getProperty("pool.validationQuery"),
+                    getIntProperty(POOL_PROPERTIES, "pool.validationInterval", 30000),
+                    getIntProperty(POOL_PROPERTIES, "pool.statementCacheSize", 32));
+        }
+
+        return pool;
+    }
     
     private JDBCAccess() {
         // never instantiated
@@ -5,14 +5,16 @@
 package net.ninthtest.stopwatch.model;
 
 import java.io.IOException;
-import java.sql.CallableStatement;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.sql.Timestamp;
+import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Properties;
 import java.util.logging.Level;
@@ -21,10 +23,14 @@ import java.util.logging.Logger;
 /**
  * This class provides JDBC access to interruption data.
  *
+ * <P>When the {@link TaskArchive} is open, the interruptions of archived tasks
+ * are found together with the interruptions in the database, in the same
+ * order. Archived interruptions cannot be saved.</P>
+ *
  * @author Matthew Zipay (ninthtest@gmail.com)
  * @version $Revision: 84 $
  */
-public class JDBCInterruptionDAO implements InterruptionDAO {
+public class JDBCInterruptionDAO implements InterruptionDAO, DAOLifecycle {
     private static final String CLASSNAME = JDBCInterruptionDAO.class.getName();
     
     private static final Logger LOGGER = Logger.getLogger(JDBCInterruptionDAO.class.getPackage().getName());
@@ -37,6 +43,28 @@ public class JDBCInterruptionDAO implements InterruptionDAO {
     
     private static final String UPDATE_INTERRUPTION_SQL;
     
+    private static final String BATCH_INSERT_INTERRUPTION_SQL;
+    
+    private static final PageQuery INTERRUPTION_PAGES;
+    
+    private static final PageQuery.RowReader INTERRUPTION_READER = new PageQuery.RowReader() {
+        public Object readRow(ResultSet results) throws SQLException {
+            Long id = Long.valueOf(results.getLong(1));
+            Long relatedTaskId = Long.valueOf(results.getLong(2));
+            String desc = DescriptionDictionary.intern(results.getString(3));
+            
+            // use Timestamp to preserve H:M:S
+            Timestamp startTS = results.getTimestamp(4);
+            java.util.Date start = (startTS != null) ? new java.util.Date(startTS.getTime()) : null;
+            
+            // use Timestamp to preserve H:M:S
+            Timestamp endTS = results.getTimestamp(5);
+            java.util.Date end = (endTS != null) ? new java.util.Date(endTS.getTime()) : null;
+            
+            return new Interruption(id, relatedTaskId, desc, start, end, getDuration(results, 6));
+        }
+    };
+    
     static {
         final String methodName = "<clinit>";
         LOGGER.entering(CLASSNAME, methodName);
@@ -52,10 +80,49 @@ public class JDBCInterruptionDAO implements InterruptionDAO {
         FIND_INTERRUPTIONS_FOR_TASK_SQL = sqlProps.getProperty("findInterruptionsForTask");
         INSERT_INTERRUPTION_SQL = sqlProps.getProperty("insertInterruption");
         UPDATE_INTERRUPTION_SQL = sqlProps.getProperty("updateInterruption");
+        BATCH_INSERT_INTERRUPTION_SQL = sqlProps.getProperty("batchInsertInterruption");
+        // the sortable columns; the indexed ones have a (column, id) index (see schema-sql.properties)
+        INTERRUPTION_PAGES = new PageQuery(sqlProps.getProperty("selectInterruptionsPage"), sqlProps.getProperty("countInterruptionsPage"),
+                sqlProps.getProperty("selectInterruptionsPageByDescription"), sqlProps.getProperty("countInterruptionsPageByDescription"), new PageQuery.Column[] {
+                new PageQuery.Column(QueryCriteria.ID, PageQuery.BIGINT, false, true),
+                new PageQuery.Column(QueryCriteria.RELATED_TASK_ID, PageQuery.BIGINT, false, false),
+                new PageQuery.Column(QueryCriteria.DESCRIPTION, PageQuery.VARCHAR, true, false, true),
+                new PageQuery.Column(QueryCriteria.START_TIME, PageQuery.TIMESTAMP, true, true),
+                new PageQuery.Column(QueryCriteria.END_TIME, PageQuery.TIMESTAMP, true, false)});
         
         LOGGER.exiting(CLASSNAME, methodName);
     }
     
+    /**
+     * Prepares the statements that save an interruption, and the query for
+     * the interruptions of a task, in the statement cache of a pooled
+     * connection.
+     *
+     * @throws DataAccessException if the statements cannot be prepared
+     */
+    public void initialize() throws DataAccessException {
+        final String methodName = "initialize";
+        LOGGER.entering(CLASSNAME, methodName);
+        
+        try {
+            JDBCAccess.prepareStatements(new String[] {"insertInterruption", "updateInterruption", "findInterruptionsForTask"},
+                    new String[] {INSERT_INTERRUPTION_SQL, UPDATE_INTERRUPTION_SQL, FIND_INTERRUPTIONS_FOR_TASK_SQL}, new boolean[] {true, false, false});
+        } catch (SQLException ex) {
+            LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "failed to prepare interruption statements", ex);
+            throw new DataAccessException(ex);
+        }
+        
+        LOGGER.exiting(CLASSNAME, methodName);
+    }
+    
+    /**
+     * Does nothing, since the prepared statements are closed with their
+     * connections.
+     */
+    public void release() {
+        // nothing of its own to release
+    }
+    
     /**
      * {@inheritDoc}
      *
@@ -65,6 +132,9 @@ public class JDBCInterruptionDAO implements InterruptionDAO {
     public List findAllInterruptions() throws DataAccessException {
         final String methodName = "findAllInterruptions";
         LOGGER.entering(CLASSNAME, methodName);
+
+        // make any journaled changes visible to this query
+        WriteBehindJournal.flushInterruptions();
         
         if ((FIND_ALL_INTERRUPTIONS_SQL == null) || (FIND_ALL_INTERRUPTIONS_SQL.equals(""))) {
             throw new DataAccessException("undefined or empty SQL template");
@@ -82,9 +152,9 @@ public class JDBCInterruptionDAO implements InterruptionDAO {
         }
         
         try {
-            Statement select = conx.createStatement();
+            PreparedStatement select = JDBCAccess.prepareStatement(conx, "findAllInterruptions", FIND_ALL_INTERRUPTIONS_SQL);
             
-            if (!select.execute(FIND_ALL_INTERRUPTIONS_SQL)) {
+            if (!select.execute()) {
                 LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "interruption query execution returned false");
                 throw new DataAccessException("interruption query failed");
             }
@@ -93,7 +163,7 @@ public class JDBCInterruptionDAO implements InterruptionDAO {
             while (intrResults.next()) {
                 Long id = Long.valueOf(intrResults.getLong(1));
                 Long taskId = Long.valueOf(intrResults.getLong(2));
-                String desc = intrResults.getString(3);
+                String desc = DescriptionDictionary.intern(intrResults.getString(3));
                 
                 // use Timestamp to preserve H:M:S
                 Timestamp startTS = intrResults.getTimestamp(4);
@@ -103,18 +173,25 @@ public class JDBCInterruptionDAO implements InterruptionDAO {
                 Timestamp endTS = intrResults.getTimestamp(5);
                 java.util.Date end = (endTS != null) ? new java.util.Date(endTS.getTime()) : null;
                 
-                allInterruptions.add(new Interruption(id, taskId, desc, start, end));
+                allInterruptions.add(new Interruption(id, taskId, desc, start, end, getDuration(intrResults, 6)));
             }
             
             try {
                 intrResults.close();
-                select.close();
             } catch (SQLException ex) {
-                LOGGER.logp(Level.WARNING, CLASSNAME, methodName, "failed to close select result set or statement", ex);
+                LOGGER.logp(Level.WARNING, CLASSNAME, methodName, "failed to close select result set", ex);
             }
         } catch (SQLException ex) {
             LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "interruption select failed", ex);
             throw new DataAccessException(ex);
+        } finally {
+            JDBCAccess.returnConnection(conx);
+        }
+        
+        if (TaskArchive.isOpen()) {
+            QueryCriteria startTimeOrder = new QueryCriteria();
+            allInterruptions = TaskArchive.merge(allInterruptions, TaskArchive.findArchived(startTimeOrder, null, Integer.MAX_VALUE, true),
+                    startTimeOrder, 0, Integer.MAX_VALUE);
         }
         
         LOGGER.exiting(CLASSNAME, methodName, allInterruptions);
@@ -131,6 +208,9 @@ public class JDBCInterruptionDAO implements InterruptionDAO {
     public List findInterruptionsForTask(Task task) throws DataAccessException {
         final String methodName = "findInterruptionsForTask";
         LOGGER.entering(CLASSNAME, methodName, task);
+
+        // make any journaled changes visible to this query
+        WriteBehindJournal.flushInterruptions(task.getId());
         
         if ((FIND_INTERRUPTIONS_FOR_TASK_SQL == null) || (FIND_INTERRUPTIONS_FOR_TASK_SQL.equals(""))) {
             throw new DataAccessException("undefined or empty SQL template");
@@ -148,7 +228,7 @@ public class JDBCInterruptionDAO implements InterruptionDAO {
         }
         
         try {
-            PreparedStatement select = conx.prepareStatement(FIND_INTERRUPTIONS_FOR_TASK_SQL);
+            PreparedStatement select = JDBCAccess.prepareStatement(conx, "findInterruptionsForTask", FIND_INTERRUPTIONS_FOR_TASK_SQL);
             select.setLong(1, task.getId());
             
             if (!select.execute()) {
@@ -160,7 +240,7 @@ public class JDBCInterruptionDAO implements InterruptionDAO {
             while (intrResults.next()) {
                 Long id = Long.valueOf(intrResults.getLong(1));
                 Long taskId = Long.valueOf(intrResults.getLong(2));
-                String desc = intrResults.getString(3);
+                String desc = DescriptionDictionary.intern(intrResults.getString(3));
                 
                 // use Timestamp to preserve H:M:S
                 Timestamp startTS = intrResults.getTimestamp(4);
@@ -170,24 +250,168 @@ public class JDBCInterruptionDAO implements InterruptionDAO {
                 Timestamp endTS = intrResults.getTimestamp(5);
                 java.util.Date end = (endTS != null) ? new java.util.Date(endTS.getTime()) : null;
                 
-                intrsForTask.add(new Interruption(id, taskId, desc, start, end));
+                intrsForTask.add(new Interruption(id, taskId, desc, start, end, getDuration(intrResults, 6)));
             }
             
             try {
                 intrResults.close();
-                select.close();
             } catch (SQLException ex) {
-                LOGGER.logp(Level.WARNING, CLASSNAME, methodName, "failed to close select result set or statement", ex);
+                LOGGER.logp(Level.WARNING, CLASSNAME, methodName, "failed to close select result set", ex);
             }
         } catch (SQLException ex) {
             LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "interruption select failed", ex);
             throw new DataAccessException(ex);
+        } finally {
+            JDBCAccess.returnConnection(conx);
+        }
+        
+        if (intrsForTask.isEmpty()) {
+            // the task may be archived
+            intrsForTask = TaskArchive.findArchivedInterruptions(task.getId().longValue());
         }
         
         LOGGER.exiting(CLASSNAME, methodName, intrsForTask);
         return intrsForTask;
     }
     
+    /**
+     * {@inheritDoc}
+     *
+     * @param criteria the query criteria
+     * @return the interruption count
+     * @throws DataAccessException if access to the data store fails
+     */
+    public int countInterruptions(QueryCriteria criteria) throws DataAccessException {
+        final String methodName = "countInterruptions";
+        LOGGER.entering(CLASSNAME, methodName, criteria);
+        
+        // make any journaled changes visible to this query
+        WriteBehindJournal.flushInterruptions();
+        
+        Connection conx = null;
+        try {
+            conx = JDBCAccess.getConnection();
+        } catch (SQLException ex) {
+            String msg = "failed to open database connection";
+            LOGGER.logp(Level.WARNING, CLASSNAME, methodName, msg, ex);
+            throw new DataAccessException(msg, ex);
+        }
+        
+        int count = 0;
+        
+        try {
+            count = INTERRUPTION_PAGES.count(conx, criteria);
+        } catch (SQLException ex) {
+            LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "interruption count failed", ex);
+            throw new DataAccessException(ex);
+        } finally {
+            JDBCAccess.returnConnection(conx);
+        }
+        
+        count += TaskArchive.countArchived(criteria, true);
+        
+        LOGGER.exiting(CLASSNAME, methodName, Integer.valueOf(count));
+        return count;
+    }
+    
+    /**
+     * {@inheritDoc}
+     *
+     * @param criteria the query criteria
+     * @param firstResult the position of the first interruption to return
+     * @param maxResults the maximum number of interruptions to return
+     * @return a list of at most <I>maxResults</I> interruptions
+     * @throws DataAccessException if access to the data store fails
+     */
+    public List findInterruptions(QueryCriteria criteria, int firstResult, int maxResults) throws DataAccessException {
+        final String methodName = "findInterruptions";
+        LOGGER.entering(CLASSNAME, methodName, new Object[] {criteria, Integer.valueOf(firstResult), Integer.valueOf(maxResults)});
+        
+        // make any journaled changes visible to this query
+        WriteBehindJournal.flushInterruptions();
+        
+        List intrs = new ArrayList(maxResults);
+        
+        Connection conx = null;
+        try {
+            conx = JDBCAccess.getConnection();
+        } catch (SQLException ex) {
+            String msg = "failed to open database connection";
+            LOGGER.logp(Level.WARNING, CLASSNAME, methodName, msg, ex);
+            throw new DataAccessException(msg, ex);
+        }
+        
+        try {
+            if (TaskArchive.isOpen()) {
+                // the page may hold interruptions from both, so both pages start at the first interruption
+                int lastResult = (int) Math.min((long) firstResult + maxResults, Integer.MAX_VALUE);
+                List storedIntrs = new ArrayList();
+                INTERRUPTION_PAGES.select(conx, criteria, 0, lastResult, INTERRUPTION_READER, storedIntrs);
+                intrs = TaskArchive.merge(storedIntrs, TaskArchive.findArchived(criteria, null, lastResult, true), criteria, firstResult, maxResults);
+            } else {
+                INTERRUPTION_PAGES.select(conx, criteria, firstResult, maxResults, INTERRUPTION_READER, intrs);
+            }
+        } catch (SQLException ex) {
+            LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "interruption page select failed", ex);
+            throw new DataAccessException(ex);
+        } finally {
+            JDBCAccess.returnConnection(conx);
+        }
+        
+        LOGGER.exiting(CLASSNAME, methodName, Integer.valueOf(intrs.size()));
+        return intrs;
+    }
+    
+    /**
+     * {@inheritDoc}
+     *
+     * @param criteria the query criteria
+     * @param lastInterruption the last interruption of the preceding page, or
+     *      <CODE>null</CODE> for the first page
+     * @param maxResults the maximum number of interruptions to return
+     * @return a list of at most <I>maxResults</I> interruptions
+     * @throws DataAccessException if access to the data store fails
+     */
+    public List findInterruptionsAfter(QueryCriteria criteria, Interruption lastInterruption, int maxResults) throws DataAccessException {
+        final String methodName = "findInterruptionsAfter";
+        LOGGER.entering(CLASSNAME, methodName, new Object[] {criteria, lastInterruption, Integer.valueOf(maxResults)});
+        
+        // make any journaled changes visible to this query
+        WriteBehindJournal.flushInterruptions();
+        
+        List intrs = new ArrayList(maxResults);
+        
+        Connection conx = null;
+        try {
+            conx = JDBCAccess.getConnection();
+        } catch (SQLException ex) {
+            String msg = "failed to open database connection";
+            LOGGER.logp(Level.WARNING, CLASSNAME, methodName, msg, ex);
+            throw new DataAccessException(msg, ex);
+        }
+        
+        try {
+            if (lastInterruption != null) {
+                Object[] lastKey = new Object[] {getSortValue(lastInterruption, criteria.getSortColumn())};
+                INTERRUPTION_PAGES.selectAfter(conx, criteria, lastKey, lastInterruption.getId().longValue(), maxResults, INTERRUPTION_READER, intrs);
+            } else {
+                INTERRUPTION_PAGES.selectAfter(conx, criteria, null, 0L, maxResults, INTERRUPTION_READER, intrs);
+            }
+        } catch (SQLException ex) {
+            LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "interruption page select failed", ex);
+            throw new DataAccessException(ex);
+        } finally {
+            JDBCAccess.returnConnection(conx);
+        }
+        
+        if (TaskArchive.isOpen()) {
+            intrs = TaskArchive.merge(intrs, TaskArchive.findArchived(criteria, lastInterruption, maxResults, true), criteria, 0, maxResults);
+        }
+        
+        LOGGER.exiting(CLASSNAME, methodName, Integer.valueOf(intrs.size()));
+        return intrs;
+    }
+    
     /**
      * {@inheritDoc}
      *
@@ -198,7 +422,11 @@ public class JDBCInterruptionDAO implements InterruptionDAO {
         final String methodName = "saveInterruption";
         LOGGER.entering(CLASSNAME, methodName, intr);
         
-        if (intr.getId() == null) {
+        if (WriteBehindJournal.isEnabled()) {
+            int type = (intr.getId() == null) ? DataChangeEvent.INSERTED : DataChangeEvent.UPDATED;
+            WriteBehindJournal.saveInterruption(intr);
+            DAOFactory.fireDataChanged(this, Interruption.class, type, Collections.singletonList(intr));
+        } else if (intr.getId() == null) {
             insertInterruption(intr);
         } else {
             updateInterruption(intr);
@@ -207,6 +435,196 @@ public class JDBCInterruptionDAO implements InterruptionDAO {
         LOGGER.exiting(CLASSNAME, methodName);
     }
     
+    /**
+     * {@inheritDoc}
+     *
+     * <P>The interruptions are written in JDBC batches of the size configured in
+     * <CODE>jdbc.properties</CODE>, and each batch is committed as a single
+     * transaction. New interruptions in a batch are inserted (including their start
+     * and end times) and assigned their generated IDs once the batch has been
+     * committed. If a batch fails, the batches before it remain stored.</P>
+     *
+     * @param intrs the interruptions to be stored
+     * @throws DataAccessException if access to the data store fails
+     */
+    public void saveInterruptions(Collection intrs) throws DataAccessException {
+        final String methodName = "saveInterruptions";
+        LOGGER.entering(CLASSNAME, methodName, Integer.valueOf(intrs.size()));
+        
+        if (WriteBehindJournal.isEnabled()) {
+            // the journal batches its own writes
+            List insertInterruptions = new ArrayList();
+            List updateInterruptions = new ArrayList();
+            for (Iterator intrIter = intrs.iterator(); intrIter.hasNext();) {
+                Interruption intr = (Interruption) intrIter.next();
+                ((intr.getId() == null) ? insertInterruptions : updateInterruptions).add(intr);
+                WriteBehindJournal.saveInterruption(intr);
+            }
+            
+            DAOFactory.fireDataChanged(this, Interruption.class, DataChangeEvent.UPDATED, updateInterruptions);
+            DAOFactory.fireDataChanged(this, Interruption.class, DataChangeEvent.INSERTED, insertInterruptions);
+            
+            LOGGER.exiting(CLASSNAME, methodName);
+            return;
+        }
+        
+        if ((BATCH_INSERT_INTERRUPTION_SQL == null) || (BATCH_INSERT_INTERRUPTION_SQL.equals(""))
+                || (UPDATE_INTERRUPTION_SQL == null) || (UPDATE_INTERRUPTION_SQL.equals(""))) {
+            throw new DataAccessException("undefined or empty SQL template");
+        }
+        
+        int batchSize = JDBCAccess.getBatchSize();
+        List batch = new ArrayList(Math.min(batchSize, intrs.size()));
+        for (Iterator intrIter = intrs.iterator(); intrIter.hasNext();) {
+            batch.add(intrIter.next());
+            
+            if (batch.size() == batchSize) {
+                saveInterruptionBatch(batch);
+                batch.clear();
+            }
+        }
+        
+        if (!batch.isEmpty()) {
+            saveInterruptionBatch(batch);
+        }
+        
+        LOGGER.exiting(CLASSNAME, methodName);
+    }
+    
+    private void saveInterruptionBatch(List batch) throws DataAccessException {
+        final String methodName = "saveInterruptionBatch";
+        LOGGER.entering(CLASSNAME, methodName, Integer.valueOf(batch.size()));
+        
+        List insertInterruptions = new ArrayList();
+        List updateInterruptions = new ArrayList();
+        for (Iterator intrIter = batch.iterator(); intrIter.hasNext();) {
+            Interruption intr = (Interruption) intrIter.next();
+            if (intr.getId() == null) {
+                insertInterruptions.add(intr);
+            } else {
+                updateInterruptions.add(intr);
+            }
+        }
+        
+        Connection conx = null;
+        try {
+            conx = JDBCAccess.getConnection();
+        } catch (SQLException ex) {
+            String msg = "failed to open database connection";
+            LOGGER.logp(Level.WARNING, CLASSNAME, methodName, msg, ex);
+            throw new DataAccessException(msg, ex);
+        }
+        
+        long[] ids = null;
+        
+        try {
+            DescriptionDictionary.addDescriptions(conx, getDescriptions(batch));
+            
+            executeUpdates(conx, updateInterruptions);
+            ids = executeInserts(conx, insertInterruptions);
+            
+            refreshSummaries(conx, batch);
+            
+            conx.commit();
+        } catch (SQLException ex) {
+            LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "interruption batch save failed", ex);
+            throw new DataAccessException(ex);
+        } finally {
+            JDBCAccess.returnConnection(conx);
+        }
+        
+        assignIds(insertInterruptions, ids);
+        DAOFactory.fireDataChanged(this, Interruption.class, DataChangeEvent.UPDATED, updateInterruptions);
+        DAOFactory.fireDataChanged(this, Interruption.class, DataChangeEvent.INSERTED, insertInterruptions);
+        
+        LOGGER.exiting(CLASSNAME, methodName);
+    }
+    
+    private long[] executeInserts(Connection conx, List intrs) throws SQLException, DataAccessException {
+        final String methodName = "executeInserts";
+        
+        if (intrs.isEmpty()) {
+            return new long[0];
+        }
+        
+        PreparedStatement insert = JDBCAccess.prepareInsert(conx, "batchInsertInterruption", BATCH_INSERT_INTERRUPTION_SQL);
+        insert.clearBatch();
+        
+        for (Iterator intrIter = intrs.iterator(); intrIter.hasNext();) {
+            Interruption intr = (Interruption) intrIter.next();
+            if (intr.getId() != null) {
+                throw new DataAccessException("interruption has already been stored: " + intr);
+            } else if (intr.getRelatedTaskId() == null) {
+                throw new DataAccessException("interrupted task has not been stored: " + intr);
+            }
+            
+            insert.setLong(1, intr.getRelatedTaskId().longValue());
+            insert.setString(2, intr.getDescription());
+            setTimestamp(insert, 3, intr.getStartTime());
+            setTimestamp(insert, 4, intr.getEndTime());
+            setDuration(insert, 5, intr.getDuration());
+            insert.addBatch();
+        }
+        
+        long[] ids = JDBCAccess.executeBatchInsert(conx, insert, intrs.size());
+        LOGGER.logp(Level.INFO, CLASSNAME, methodName, "interruption batch insert rowCount = {0}", Integer.valueOf(ids.length));
+        
+        return ids;
+    }
+    
+    private void executeUpdates(Connection conx, List intrs) throws SQLException, DataAccessException {
+        final String methodName = "executeUpdates";
+        
+        if (intrs.isEmpty()) {
+            return;
+        }
+        
+        PreparedStatement update = JDBCAccess.prepareStatement(conx, "updateInterruption", UPDATE_INTERRUPTION_SQL);
+        update.clearBatch();
+        
+        for (Iterator intrIter = intrs.iterator(); intrIter.hasNext();) {
+            Interruption intr = (Interruption) intrIter.next();
+            update.setString(1, intr.getDescription());
+            setTimestamp(update, 2, intr.getStartTime());
+            setTimestamp(update, 3, intr.getEndTime());
+            setDuration(update, 4, intr.getDuration());
+            update.setLong(5, intr.getId().longValue());
+            update.setLong(6, intr.getRelatedTaskId().longValue());
+            update.addBatch();
+        }
+        
+        int[] rowCounts = update.executeBatch();
+        LOGGER.logp(Level.INFO, CLASSNAME, methodName, "interruption batch update rowCount = {0}", Integer.valueOf(rowCounts.length));
+        for (int i = 0; i < rowCounts.length; ++i) {
+            if (rowCounts[i] == 0) {
+                throw new DataAccessException("interruption was not updated: " + intrs.get(i));
+            }
+        }
+    }
+    
+    private static void refreshSummaries(Connection conx, List intrs) throws SQLException, DataAccessException {
+        TaskSummaryRefresh refresh = new TaskSummaryRefresh();
+        for (Iterator intrIter = intrs.iterator(); intrIter.hasNext();) {
+            refresh.addStoredTask(conx, ((Interruption) intrIter.next()).getRelatedTaskId());
+        }
+        refresh.refresh(conx);
+    }
+    
+    private static List getDescriptions(Collection intrs) {
+        List descriptions = new ArrayList(intrs.size());
+        for (Iterator intrIter = intrs.iterator(); intrIter.hasNext();) {
+            descriptions.add(((Interruption) intrIter.next()).getDescription());
+        }
+        
+        return descriptions;
+    }
+    
+    private static void assignIds(List intrs, long[] ids) {
+        for (int i = 0; i < ids.length; ++i) {
+            ((Interruption) intrs.get(i)).setId(Long.valueOf(ids[i]));
+        }
+    }
+    
     private void insertInterruption(Interruption intr) throws DataAccessException {
         final String methodName = "insertInterruption";
         LOGGER.entering(CLASSNAME, methodName, intr);
@@ -227,9 +645,14 @@ public class JDBCInterruptionDAO implements InterruptionDAO {
         Long id = null;
         
         try {
-            PreparedStatement insert = conx.prepareStatement(INSERT_INTERRUPTION_SQL);
+            DescriptionDictionary.addDescriptions(conx, Collections.singleton(intr.getDescription()));
+            
+            PreparedStatement insert = JDBCAccess.prepareInsert(conx, "insertInterruption", INSERT_INTERRUPTION_SQL);
             insert.setLong(1, intr.getRelatedTaskId());
             insert.setString(2, intr.getDescription());
+            setTimestamp(insert, 3, intr.getStartTime());
+            setTimestamp(insert, 4, intr.getEndTime());
+            setDuration(insert, 5, intr.getDuration());
             
             int rowCount = insert.executeUpdate();
             LOGGER.logp(Level.INFO, CLASSNAME, methodName, "interruption insert rowCount = {0}", Integer.valueOf(rowCount));
@@ -237,42 +660,20 @@ public class JDBCInterruptionDAO implements InterruptionDAO {
                 throw new DataAccessException("interruption was not inserted");
             }
             
-            try {
-                insert.close();
-            } catch (SQLException ex) {
-                LOGGER.logp(Level.WARNING, CLASSNAME, methodName, "failed to close insert statement", ex);
-            }
+            id = Long.valueOf(JDBCAccess.getInsertedKey(conx, insert));
             
-            CallableStatement identity = conx.prepareCall("{CALL IDENTITY()}");
-            if (!identity.execute()) {
-                LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "identity call failed");
-                conx.rollback();
-                throw new DataAccessException("unable to obtain inserted interruption ID");
-            }
-            
-            ResultSet idResult = identity.getResultSet();
-            if (!idResult.next()) {
-                LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "failed to retrieve interruption ID from result set");
-                conx.rollback();
-                throw new DataAccessException("unable to obtain inserted interruption ID");
-            }
-            
-            id = Long.valueOf(idResult.getLong(1));
-            
-            try {
-                idResult.close();
-                identity.close();
-            } catch (SQLException ex) {
-                LOGGER.logp(Level.WARNING, CLASSNAME, methodName, "failed to close identity result set or statement", ex);
-            }
+            refreshSummaries(conx, Collections.singletonList(intr));
             
             conx.commit();
         } catch (SQLException ex) {
             LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "interruption insert failed", ex);
             throw new DataAccessException(ex);
+        } finally {
+            JDBCAccess.returnConnection(conx);
         }
         
         intr.setId(id);
+        DAOFactory.fireDataChanged(this, Interruption.class, DataChangeEvent.INSERTED, Collections.singletonList(intr));
         
         LOGGER.exiting(CLASSNAME, methodName);
     }
@@ -295,13 +696,15 @@ public class JDBCInterruptionDAO implements InterruptionDAO {
         }
         
         try {
-            PreparedStatement update = conx.prepareStatement(UPDATE_INTERRUPTION_SQL);
+            DescriptionDictionary.addDescriptions(conx, Collections.singleton(intr.getDescription()));
+            
+            PreparedStatement update = JDBCAccess.prepareStatement(conx, "updateInterruption", UPDATE_INTERRUPTION_SQL);
             update.setString(1, intr.getDescription());
-            // use Timestamp to preserve H:M:S
-            update.setTimestamp(2, new java.sql.Timestamp(intr.getStartTime().getTime()));
-            update.setTimestamp(3, new java.sql.Timestamp(intr.getEndTime().getTime()));
-            update.setLong(4, intr.getId());
-            update.setLong(5, intr.getRelatedTaskId());
+            setTimestamp(update, 2, intr.getStartTime());
+            setTimestamp(update, 3, intr.getEndTime());
+            setDuration(update, 4, intr.getDuration());
+            update.setLong(5, intr.getId());
+            update.setLong(6, intr.getRelatedTaskId());
             
             int rowCount = update.executeUpdate();
             LOGGER.logp(Level.INFO, CLASSNAME, methodName, "interruption update rowCount = {0}", Integer.valueOf(rowCount));
@@ -309,18 +712,54 @@ public class JDBCInterruptionDAO implements InterruptionDAO {
                 throw new DataAccessException("interruption was not updated");
             }
             
-            try {
-                update.close();
-            } catch (SQLException ex) {
-                LOGGER.logp(Level.WARNING, CLASSNAME, methodName, "failed to close update statement", ex);
-            }
+            refreshSummaries(conx, Collections.singletonList(intr));
             
             conx.commit();
         } catch (SQLException ex) {
             LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "interruption update failed", ex);
             throw new DataAccessException(ex);
+        } finally {
+            JDBCAccess.returnConnection(conx);
         }
         
+        DAOFactory.fireDataChanged(this, Interruption.class, DataChangeEvent.UPDATED, Collections.singletonList(intr));
+        
         LOGGER.exiting(CLASSNAME, methodName);
     }
+    
+    private static Object getSortValue(Interruption intr, String column) {
+        if (QueryCriteria.ID.equals(column)) {
+            return intr.getId();
+        } else if (QueryCriteria.RELATED_TASK_ID.equals(column)) {
+            return intr.getRelatedTaskId();
+        } else if (QueryCriteria.DESCRIPTION.equals(column)) {
+            return intr.getDescription();
+        } else if (QueryCriteria.START_TIME.equals(column)) {
+            return intr.getStartTime();
+        } else {
+            return intr.getEndTime();
+        }
+    }
+    
+    private static void setTimestamp(PreparedStatement stmt, int index, java.util.Date date) throws SQLException {
+        if (date == null) {
+            stmt.setNull(index, Types.TIMESTAMP);
+        } else {
+            // use Timestamp to preserve H:M:S
+            stmt.setTimestamp(index, new Timestamp(date.getTime()));
+        }
+    }
+    
+    private static Long getDuration(ResultSet results, int index) throws SQLException {
+        long durationNanos = results.getLong(index);
+        return results.wasNull() ? null : Long.valueOf(durationNanos);
+    }
+    
+    private static void setDuration(PreparedStatement stmt, int index, Long duration) throws SQLException {
+        if (duration == null) {
+            stmt.setNull(index, Types.BIGINT);
+        } else {
+            stmt.setLong(index, duration.longValue());
+        }
+    }
 }
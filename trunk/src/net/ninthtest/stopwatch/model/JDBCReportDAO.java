@@ -0,0 +1,745 @@
+/*
+ * $Id$
+ */
+
+package net.ninthtest.stopwatch.model;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class provides JDBC access to reporting data. Tasks and their
+ * interruptions are fetched using an outer join, in chunks of at most the
+ * fetch size configured in <CODE>jdbc.properties</CODE> (HSQLDB ignores the
+ * fetch size and reads a whole result set into memory, so each chunk is a
+ * separate query that selects a range of the <CODE>(start_time, id)</CODE>
+ * index).
+ * Task times and time totals by task are aggregated by the database, which
+ * returns one row per task rather than one row per interruption, and are read
+ * in the same chunks. Time totals by day and by description are summed from
+ * the daily <CODE>Task_Summaries</CODE> (see {@link JDBCSummaryDAO}) rather
+ * than from the tasks. Tasks that have been moved to the {@link TaskArchive}
+ * are merged into the results in task start time order; the summaries already
+ * include them.
+ *
+ * @author Matthew Zipay (ninthtest@gmail.com)
+ * @version $Revision$
+ */
+public class JDBCReportDAO implements ReportDAO {
+    private static final String CLASSNAME = JDBCReportDAO.class.getName();
+
+    private static final Logger LOGGER = Logger.getLogger(JDBCReportDAO.class.getPackage().getName());
+
+    private static final String FIND_UNSTARTED_TASK_RECORDS_SQL;
+
+    private static final String FIND_TASK_RECORD_CHUNK_END_SQL;
+
+    private static final String FIND_ALL_TASK_RECORDS_SQL;
+
+    private static final String FIND_ALL_TASK_RECORDS_IN_DATE_RANGE_SQL;
+
+    private static final String FIND_UNSTARTED_TASK_TIMES_SQL;
+
+    private static final String FIND_ALL_TASK_TIMES_SQL;
+
+    private static final String FIND_ALL_TASK_TIMES_IN_DATE_RANGE_SQL;
+
+    /* statement names for each grouping, indexed by GROUP_BY_* */
+    private static final String[] TIME_TOTALS_NAMES = {"findTimeTotalsByTask", "findTimeTotalsByDay", "findTimeTotalsByDescription"};
+
+    private static final String[] FIND_TIME_TOTALS_SQL = new String[TIME_TOTALS_NAMES.length];
+
+    private static final String[] FIND_TIME_TOTALS_IN_DATE_RANGE_SQL = new String[TIME_TOTALS_NAMES.length];
+
+    /* by grouping; the totals by task are not read from the summaries, so they have no overruns */
+    private static final String[] TIME_TOTALS_OVERRUN_NAMES = {null, "findTimeTotalsOverrunByDay", "findTimeTotalsOverrunByDescription"};
+
+    private static final String[] FIND_TIME_TOTALS_OVERRUN_SQL = new String[TIME_TOTALS_NAMES.length];
+
+    /* the number of tasks read per chunk if no fetch size is configured */
+    private static final int DEFAULT_CHUNK_SIZE = 500;
+
+    private static final long MIN_TIMESTAMP = Timestamp.valueOf("0001-01-01 00:00:00").getTime();
+
+    private static final long MAX_TIMESTAMP = Timestamp.valueOf("9999-12-31 23:59:59").getTime();
+
+    /* the width of the first window of start times searched for the end of a chunk */
+    private static final long INITIAL_CHUNK_WINDOW = 24L * 60L * 60L * 1000L;
+
+    static {
+        final String methodName = "<clinit>";
+        LOGGER.entering(CLASSNAME, methodName);
+
+        Properties sqlProps = new Properties();
+        try {
+            sqlProps.load(Thread.currentThread().getContextClassLoader().getResourceAsStream("report-sql.properties"));
+        } catch (IOException ex) {
+            LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "error loading JDBCReportDAO SQL properties", ex);
+        }
+
+        FIND_UNSTARTED_TASK_RECORDS_SQL = sqlProps.getProperty("findUnstartedTaskRecords");
+        FIND_TASK_RECORD_CHUNK_END_SQL = sqlProps.getProperty("findTaskRecordChunkEnd");
+        FIND_ALL_TASK_RECORDS_SQL = sqlProps.getProperty("findAllTaskRecords");
+        FIND_ALL_TASK_RECORDS_IN_DATE_RANGE_SQL = sqlProps.getProperty("findAllTaskRecordsInDateRange");
+        FIND_UNSTARTED_TASK_TIMES_SQL = sqlProps.getProperty("findUnstartedTaskTimes");
+        FIND_ALL_TASK_TIMES_SQL = sqlProps.getProperty("findAllTaskTimes");
+        FIND_ALL_TASK_TIMES_IN_DATE_RANGE_SQL = sqlProps.getProperty("findAllTaskTimesInDateRange");
+        for (int i = 0; i < TIME_TOTALS_NAMES.length; ++i) {
+            FIND_TIME_TOTALS_SQL[i] = sqlProps.getProperty(TIME_TOTALS_NAMES[i]);
+            FIND_TIME_TOTALS_IN_DATE_RANGE_SQL[i] = sqlProps.getProperty(TIME_TOTALS_NAMES[i] + "InDateRange");
+            if (TIME_TOTALS_OVERRUN_NAMES[i] != null) {
+                FIND_TIME_TOTALS_OVERRUN_SQL[i] = sqlProps.getProperty(TIME_TOTALS_OVERRUN_NAMES[i]);
+            }
+        }
+
+        LOGGER.exiting(CLASSNAME, methodName);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @return a list of task records ordered by task start time
+     * @throws DataAccessException if access to the data store fails
+     */
+    public List findAllTaskRecords() throws DataAccessException {
+        final String methodName = "findAllTaskRecords";
+        LOGGER.entering(CLASSNAME, methodName);
+
+        TaskRecordCollector collector = new TaskRecordCollector();
+        processAllTaskRecords(collector);
+
+        LOGGER.exiting(CLASSNAME, methodName, collector.taskRecords);
+        return collector.taskRecords;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param startDate the start date in the date range (inclusive)
+     * @param endDate the end date in the date range (exclusive)
+     * @return a list of task records ordered by task start time
+     * @throws DataAccessException if access to the data store fails
+     */
+    public List findAllTaskRecordsInDateRange(java.util.Date startDate, java.util.Date endDate) throws DataAccessException {
+        final String methodName = "findAllTaskRecordsInDateRange";
+        LOGGER.entering(CLASSNAME, methodName, new Object[] {startDate, endDate});
+
+        TaskRecordCollector collector = new TaskRecordCollector();
+        processAllTaskRecordsInDateRange(startDate, endDate, collector);
+
+        LOGGER.exiting(CLASSNAME, methodName, collector.taskRecords);
+        return collector.taskRecords;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param handler the callback that receives each task record
+     * @throws DataAccessException if access to the data store fails, or if the
+     *      handler fails
+     */
+    public void processAllTaskRecords(TaskRecordHandler handler) throws DataAccessException {
+        final String methodName = "processAllTaskRecords";
+        LOGGER.entering(CLASSNAME, methodName, handler);
+
+        // make any journaled changes visible to this query
+        WriteBehindJournal.flush();
+
+        if ((FIND_ALL_TASK_RECORDS_SQL == null) || (FIND_ALL_TASK_RECORDS_SQL.equals(""))
+                || (FIND_UNSTARTED_TASK_RECORDS_SQL == null) || (FIND_UNSTARTED_TASK_RECORDS_SQL.equals(""))) {
+            throw new DataAccessException("undefined or empty SQL template");
+        }
+
+        Connection conx = null;
+        try {
+            conx = JDBCAccess.getConnection();
+        } catch (SQLException ex) {
+            String msg = "failed to open database connection";
+            LOGGER.logp(Level.WARNING, CLASSNAME, methodName, msg, ex);
+            throw new DataAccessException(msg, ex);
+        }
+
+        try {
+            TaskArchive.RecordMerger merger = new TaskArchive.RecordMerger(null, null, handler);
+
+            // tasks without a start time sort first
+            PreparedStatement select = JDBCAccess.prepareStatement(conx, "findUnstartedTaskRecords", FIND_UNSTARTED_TASK_RECORDS_SQL);
+            readTaskRecords(select, merger);
+
+            streamTaskRecords(conx, "findAllTaskRecords", FIND_ALL_TASK_RECORDS_SQL, null, null, new Object[0], merger);
+            merger.finish();
+        } catch (SQLException ex) {
+            LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "task record select failed", ex);
+            throw new DataAccessException(ex);
+        } finally {
+            JDBCAccess.returnConnection(conx);
+        }
+
+        LOGGER.exiting(CLASSNAME, methodName);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param startDate the start date in the date range (inclusive)
+     * @param endDate the end date in the date range (exclusive)
+     * @param handler the callback that receives each task record
+     * @throws DataAccessException if access to the data store fails, or if the
+     *      handler fails
+     */
+    public void processAllTaskRecordsInDateRange(java.util.Date startDate, java.util.Date endDate, TaskRecordHandler handler) throws DataAccessException {
+        final String methodName = "processAllTaskRecordsInDateRange";
+        LOGGER.entering(CLASSNAME, methodName, new Object[] {startDate, endDate, handler});
+
+        // make any journaled changes visible to this query
+        WriteBehindJournal.flush();
+
+        if ((FIND_ALL_TASK_RECORDS_IN_DATE_RANGE_SQL == null) || (FIND_ALL_TASK_RECORDS_IN_DATE_RANGE_SQL.equals(""))) {
+            throw new DataAccessException("undefined or empty SQL template");
+        }
+
+        Connection conx = null;
+        try {
+            conx = JDBCAccess.getConnection();
+        } catch (SQLException ex) {
+            String msg = "failed to open database connection";
+            LOGGER.logp(Level.WARNING, CLASSNAME, methodName, msg, ex);
+            throw new DataAccessException(msg, ex);
+        }
+
+        try {
+            TaskArchive.RecordMerger merger = new TaskArchive.RecordMerger(startDate, endDate, handler);
+            streamTaskRecords(conx, "findAllTaskRecordsInDateRange", FIND_ALL_TASK_RECORDS_IN_DATE_RANGE_SQL, startDate, endDate,
+                    new Object[] {new java.sql.Date(endDate.getTime())}, merger);
+            merger.finish();
+        } catch (SQLException ex) {
+            LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "task record select failed", ex);
+            throw new DataAccessException(ex);
+        } finally {
+            JDBCAccess.returnConnection(conx);
+        }
+
+        LOGGER.exiting(CLASSNAME, methodName);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param handler the callback that receives the times of each task
+     * @throws DataAccessException if access to the data store fails, or if the
+     *      handler fails
+     */
+    public void processAllTaskTimes(TaskTimeHandler handler) throws DataAccessException {
+        final String methodName = "processAllTaskTimes";
+        LOGGER.entering(CLASSNAME, methodName, handler);
+
+        processTaskTimes("findAllTaskTimes", FIND_ALL_TASK_TIMES_SQL, null, null, handler);
+
+        LOGGER.exiting(CLASSNAME, methodName);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param startDate the start date in the date range (inclusive)
+     * @param endDate the end date in the date range (exclusive)
+     * @param handler the callback that receives the times of each task
+     * @throws DataAccessException if access to the data store fails, or if the
+     *      handler fails
+     */
+    public void processAllTaskTimesInDateRange(java.util.Date startDate, java.util.Date endDate, TaskTimeHandler handler) throws DataAccessException {
+        final String methodName = "processAllTaskTimesInDateRange";
+        LOGGER.entering(CLASSNAME, methodName, new Object[] {startDate, endDate, handler});
+
+        processTaskTimes("findAllTaskTimesInDateRange", FIND_ALL_TASK_TIMES_IN_DATE_RANGE_SQL, startDate, endDate, handler);
+
+        LOGGER.exiting(CLASSNAME, methodName);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param grouping {@link #GROUP_BY_TASK}, {@link #GROUP_BY_DAY} or
+     *      {@link #GROUP_BY_DESCRIPTION}
+     * @return the totals for each group
+     * @throws DataAccessException if access to the data store fails
+     */
+    public TaskTimeTotals findTimeTotals(int grouping) throws DataAccessException {
+        final String methodName = "findTimeTotals";
+        LOGGER.entering(CLASSNAME, methodName, Integer.valueOf(grouping));
+
+        checkGrouping(grouping);
+        TaskTimeTotals totals = findTimeTotals(grouping, TIME_TOTALS_NAMES[grouping], FIND_TIME_TOTALS_SQL[grouping], null, null);
+
+        LOGGER.exiting(CLASSNAME, methodName, totals);
+        return totals;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param grouping {@link #GROUP_BY_TASK}, {@link #GROUP_BY_DAY} or
+     *      {@link #GROUP_BY_DESCRIPTION}
+     * @param startDate the start date in the date range (inclusive)
+     * @param endDate the end date in the date range (exclusive)
+     * @return the totals for each group
+     * @throws DataAccessException if access to the data store fails
+     */
+    public TaskTimeTotals findTimeTotalsInDateRange(int grouping, java.util.Date startDate, java.util.Date endDate) throws DataAccessException {
+        final String methodName = "findTimeTotalsInDateRange";
+        LOGGER.entering(CLASSNAME, methodName, new Object[] {Integer.valueOf(grouping), startDate, endDate});
+
+        checkGrouping(grouping);
+        TaskTimeTotals totals = findTimeTotals(grouping, TIME_TOTALS_NAMES[grouping] + "InDateRange", FIND_TIME_TOTALS_IN_DATE_RANGE_SQL[grouping], startDate, endDate);
+
+        LOGGER.exiting(CLASSNAME, methodName, totals);
+        return totals;
+    }
+
+    /*
+     * Passes the started tasks selected by a task/interruption join to the
+     * handler, in task start time (then ID) order, reading them in chunks of
+     * at most the fetch size. The end key of each chunk is the key of the
+     * last task in the chunk, found in a window of start times that follows
+     * the previous end key (if the window holds fewer tasks, the chunk ends
+     * with the window, and the next window is four times as wide). The join
+     * then selects the tasks after the previous end key up to and including
+     * this one, so neither statement sorts more than one window. The join's
+     * parameters are the start time, start time and ID of the previous end
+     * key, the same for this one, and then the given parameters. The start
+     * and end dates (either of which may be null) give the days read.
+     * (TaskArchive reads the tasks it moves the same way.)
+     */
+    static void streamTaskRecords(Connection conx, String name, String sql, java.util.Date startDate, java.util.Date endDate, Object[] params,
+            final TaskRecordHandler handler) throws SQLException, DataAccessException {
+        streamChunks(conx, name, sql, startDate, endDate, params, new ChunkReader() {
+            public void readChunk(PreparedStatement select) throws SQLException, DataAccessException {
+                readTaskRecords(select, handler);
+            }
+        });
+    }
+
+    /*
+     * Executes a chunk statement once for each chunk of the started tasks, as
+     * streamTaskRecords describes, and passes it to a reader. The statement
+     * may select any rows keyed by task start time and ID.
+     */
+    private static void streamChunks(Connection conx, String name, String sql, java.util.Date startDate, java.util.Date endDate, Object[] params,
+            ChunkReader reader) throws SQLException, DataAccessException {
+        final String methodName = "streamChunks";
+
+        if ((sql == null) || (sql.equals("")) || (FIND_TASK_RECORD_CHUNK_END_SQL == null) || (FIND_TASK_RECORD_CHUNK_END_SQL.equals(""))) {
+            throw new DataAccessException("undefined or empty SQL template");
+        }
+
+        int chunkSize = (JDBCAccess.getFetchSize() > 0) ? JDBCAccess.getFetchSize() : DEFAULT_CHUNK_SIZE;
+        PreparedStatement findEnd = JDBCAccess.prepareStatement(conx, "findTaskRecordChunkEnd", FIND_TASK_RECORD_CHUNK_END_SQL);
+        PreparedStatement select = JDBCAccess.prepareStatement(conx, name, sql);
+
+        Timestamp lastStart = new Timestamp((startDate != null) ? MemoryTable.getDayStart(startDate.getTime()) : MIN_TIMESTAMP);
+        long lastId = Long.MIN_VALUE;
+        long limit = (endDate != null) ? MemoryTable.getDayStart(endDate.getTime()) : MAX_TIMESTAMP;
+        long width = INITIAL_CHUNK_WINDOW;
+        int chunkCount = 0;
+        boolean more = (lastStart.getTime() < limit);
+        while (more) {
+            long windowEnd = ((limit - lastStart.getTime()) <= width) ? limit : (lastStart.getTime() + width);
+
+            findEnd.setInt(1, chunkSize - 1);
+            findEnd.setInt(2, 1);
+            setKey(findEnd, 3, lastStart, lastId);
+            findEnd.setTimestamp(6, new Timestamp(windowEnd));
+
+            // a key that precedes every task that starts at the end of the window
+            Timestamp endStart = new Timestamp(windowEnd);
+            long endId = Long.MIN_VALUE;
+            ResultSet results = findEnd.executeQuery();
+            try {
+                if (results.next()) {
+                    endStart = results.getTimestamp(1);
+                    endId = results.getLong(2);
+                    width = Math.max(INITIAL_CHUNK_WINDOW, (endStart.getTime() - lastStart.getTime()) * 2);
+                } else {
+                    more = (windowEnd < limit);
+                    width = (width > (Long.MAX_VALUE / 4)) ? Long.MAX_VALUE : (width * 4);
+                }
+            } finally {
+                try {
+                    results.close();
+                } catch (SQLException ex) {
+                    LOGGER.logp(Level.WARNING, CLASSNAME, methodName, "failed to close select result set", ex);
+                }
+            }
+
+            setKey(select, 1, lastStart, lastId);
+            setKey(select, 4, endStart, endId);
+            for (int i = 0; i < params.length; ++i) {
+                select.setObject(7 + i, params[i]);
+            }
+            reader.readChunk(select);
+            ++chunkCount;
+
+            lastStart = endStart;
+            lastId = endId;
+        }
+
+        LOGGER.logp(Level.FINER, CLASSNAME, methodName, "read {0} in {1} chunks", new Object[] {name, Integer.valueOf(chunkCount)});
+    }
+
+    private static void setKey(PreparedStatement statement, int index, Timestamp startTime, long id) throws SQLException {
+        statement.setTimestamp(index, startTime);
+        statement.setTimestamp(index + 1, startTime);
+        statement.setLong(index + 2, id);
+    }
+
+    /*
+     * Executes a task/interruption join and groups the joined rows into task
+     * records in a single pass. The rows for any one task must be adjacent in
+     * the result set. Each record is passed to the handler as soon as its last
+     * row has been read.
+     */
+    private static void readTaskRecords(PreparedStatement select, TaskRecordHandler handler) throws SQLException, DataAccessException {
+        final String methodName = "readTaskRecords";
+
+        select.setFetchSize(JDBCAccess.getFetchSize());
+
+        if (!select.execute()) {
+            LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "task record query execution returned false");
+            throw new DataAccessException("task record query failed");
+        }
+
+        ResultSet results = select.getResultSet();
+        try {
+            results.setFetchSize(JDBCAccess.getFetchSize());
+
+            TaskRecord current = null;
+            while (results.next()) {
+                long taskId = results.getLong(1);
+
+                if ((current == null) || (current.getTask().getId().longValue() != taskId)) {
+                    if (current != null) {
+                        handler.handleTaskRecord(current);
+                    }
+
+                    String desc = DescriptionDictionary.intern(results.getString(2));
+
+                    // use Timestamp to preserve H:M:S
+                    Timestamp startTS = results.getTimestamp(3);
+                    java.util.Date start = (startTS != null) ? new java.util.Date(startTS.getTime()) : null;
+
+                    // use Timestamp to preserve H:M:S
+                    Timestamp endTS = results.getTimestamp(4);
+                    java.util.Date end = (endTS != null) ? new java.util.Date(endTS.getTime()) : null;
+
+                    current = new TaskRecord(new Task(Long.valueOf(taskId), desc, start, end, getDuration(results, 5)));
+                }
+
+                long intrId = results.getLong(6);
+                if (!results.wasNull()) {
+                    String desc = DescriptionDictionary.intern(results.getString(8));
+
+                    // use Timestamp to preserve H:M:S
+                    Timestamp startTS = results.getTimestamp(9);
+                    java.util.Date start = (startTS != null) ? new java.util.Date(startTS.getTime()) : null;
+
+                    // use Timestamp to preserve H:M:S
+                    Timestamp endTS = results.getTimestamp(10);
+                    java.util.Date end = (endTS != null) ? new java.util.Date(endTS.getTime()) : null;
+
+                    current.addInterruption(new Interruption(Long.valueOf(intrId), Long.valueOf(results.getLong(7)), desc, start, end, getDuration(results, 11)));
+                }
+            }
+
+            if (current != null) {
+                handler.handleTaskRecord(current);
+            }
+        } finally {
+            try {
+                results.close();
+            } catch (SQLException ex) {
+                LOGGER.logp(Level.WARNING, CLASSNAME, methodName, "failed to close select result set", ex);
+            }
+        }
+    }
+
+    /*
+     * Passes each row of a task times query to the handler, reading the rows
+     * in chunks (see streamTaskRecords). A null start date means that every
+     * task is read, starting with the tasks that have no start time.
+     */
+    private void processTaskTimes(String name, String sql, java.util.Date startDate, java.util.Date endDate, TaskTimeHandler handler) throws DataAccessException {
+        final String methodName = "processTaskTimes";
+
+        // make any journaled changes visible to this query
+        WriteBehindJournal.flush();
+
+        if ((sql == null) || (sql.equals("")) || (FIND_UNSTARTED_TASK_TIMES_SQL == null) || (FIND_UNSTARTED_TASK_TIMES_SQL.equals(""))) {
+            throw new DataAccessException("undefined or empty SQL template");
+        }
+
+        Connection conx = null;
+        try {
+            conx = JDBCAccess.getConnection();
+        } catch (SQLException ex) {
+            String msg = "failed to open database connection";
+            LOGGER.logp(Level.WARNING, CLASSNAME, methodName, msg, ex);
+            throw new DataAccessException(msg, ex);
+        }
+
+        try {
+            final TaskArchive.TimeMerger merger = new TaskArchive.TimeMerger(startDate, endDate, handler);
+            ChunkReader reader = new ChunkReader() {
+                public void readChunk(PreparedStatement select) throws SQLException, DataAccessException {
+                    readTaskTimes(select, merger);
+                }
+            };
+
+            if (startDate == null) {
+                // tasks without a start time sort first
+                readTaskTimes(JDBCAccess.prepareStatement(conx, "findUnstartedTaskTimes", FIND_UNSTARTED_TASK_TIMES_SQL), merger);
+                streamChunks(conx, name, sql, null, null, new Object[0], reader);
+            } else {
+                streamChunks(conx, name, sql, startDate, endDate, new Object[] {new java.sql.Date(endDate.getTime())}, reader);
+            }
+
+            merger.finish();
+        } catch (SQLException ex) {
+            LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "task times select failed", ex);
+            throw new DataAccessException(ex);
+        } finally {
+            JDBCAccess.returnConnection(conx);
+        }
+    }
+
+    /*
+     * Executes a task times statement and passes each row to the merger.
+     */
+    private static void readTaskTimes(PreparedStatement select, TaskArchive.TimeMerger merger) throws SQLException, DataAccessException {
+        final String methodName = "readTaskTimes";
+
+        select.setFetchSize(JDBCAccess.getFetchSize());
+
+        ResultSet results = select.executeQuery();
+        try {
+            while (results.next()) {
+                // use Timestamp to preserve H:M:S
+                Timestamp startTS = results.getTimestamp(3);
+                java.util.Date start = (startTS != null) ? new java.util.Date(startTS.getTime()) : null;
+
+                // use Timestamp to preserve H:M:S
+                Timestamp endTS = results.getTimestamp(4);
+                java.util.Date end = (endTS != null) ? new java.util.Date(endTS.getTime()) : null;
+
+                merger.handleTaskTime(results.getLong(1), results.getString(2), start, end, results.getLong(5));
+            }
+        } finally {
+            try {
+                results.close();
+            } catch (SQLException ex) {
+                LOGGER.logp(Level.WARNING, CLASSNAME, methodName, "failed to close select result set", ex);
+            }
+        }
+    }
+
+    /*
+     * Reads the rows of a time totals query. A null start date means that the
+     * query has no date range parameters. The totals by task have a row per
+     * task (its ID, description and start time, by which archived tasks are
+     * merged, then the task count, gross time and interruption time), so they
+     * are read in chunks (see streamTaskRecords). The totals by day and by
+     * description are read from the task summaries (see sumSummaries).
+     */
+    private TaskTimeTotals findTimeTotals(int grouping, String name, String sql, java.util.Date startDate, java.util.Date endDate) throws DataAccessException {
+        final String methodName = "findTimeTotals";
+
+        // make any journaled changes visible to this query
+        WriteBehindJournal.flush();
+
+        if ((sql == null) || (sql.equals(""))) {
+            throw new DataAccessException("undefined or empty SQL template");
+        }
+
+        TaskTimeTotals totals = new TaskTimeTotals(grouping);
+
+        Connection conx = null;
+        try {
+            conx = JDBCAccess.getConnection();
+        } catch (SQLException ex) {
+            String msg = "failed to open database connection";
+            LOGGER.logp(Level.WARNING, CLASSNAME, methodName, msg, ex);
+            throw new DataAccessException(msg, ex);
+        }
+
+        try {
+            if (grouping == GROUP_BY_TASK) {
+                final TaskArchive.TotalsMerger merger = new TaskArchive.TotalsMerger(startDate, endDate, totals);
+                Object[] params = (startDate != null) ? new Object[] {new java.sql.Date(endDate.getTime())} : new Object[0];
+                streamChunks(conx, name, sql, startDate, endDate, params, new ChunkReader() {
+                    public void readChunk(PreparedStatement select) throws SQLException {
+                        readTaskTotals(select, merger);
+                    }
+                });
+                merger.finish();
+            } else {
+                sumSummaries(conx, grouping, name, sql, startDate, endDate, totals);
+            }
+        } catch (SQLException ex) {
+            LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "time totals select failed", ex);
+            throw new DataAccessException(ex);
+        } finally {
+            JDBCAccess.returnConnection(conx);
+        }
+
+        return totals;
+    }
+
+    /*
+     * Executes a totals by task statement and adds each row to the merger.
+     */
+    private static void readTaskTotals(PreparedStatement select, TaskArchive.TotalsMerger merger) throws SQLException {
+        final String methodName = "readTaskTotals";
+
+        select.setFetchSize(JDBCAccess.getFetchSize());
+
+        ResultSet results = select.executeQuery();
+        try {
+            while (results.next()) {
+                merger.add(results.getLong(1), results.getTimestamp(3).getTime(), results.getString(2), results.getInt(4), results.getLong(5),
+                        results.getLong(6));
+            }
+        } finally {
+            try {
+                results.close();
+            } catch (SQLException ex) {
+                LOGGER.logp(Level.WARNING, CLASSNAME, methodName, "failed to close select result set", ex);
+            }
+        }
+    }
+
+    /*
+     * Adds the totals by day or by description to the time totals, summing
+     * the task summaries (which include the archived tasks) of the days in
+     * the date range. A summary counts each completed task on the day it
+     * started, whereas the totals in a date range include only the tasks that
+     * also ended before the end date, so the tasks that end later (in the
+     * database and in the archive) are subtracted.
+     */
+    private static void sumSummaries(Connection conx, int grouping, String name, String sql, java.util.Date startDate, java.util.Date endDate,
+            TaskTimeTotals totals) throws SQLException, DataAccessException {
+        // day start (Long) or description -> {count, gross, interruption}, in key order
+        Map sums = new TreeMap();
+
+        PreparedStatement select = JDBCAccess.prepareStatement(conx, name, sql);
+        if (startDate != null) {
+            select.setDate(1, new java.sql.Date(startDate.getTime()));
+            select.setDate(2, new java.sql.Date(endDate.getTime()));
+        }
+        readSums(select, grouping, sums, 1);
+
+        if (startDate != null) {
+            String overrunSql = FIND_TIME_TOTALS_OVERRUN_SQL[grouping];
+            if ((overrunSql == null) || (overrunSql.equals(""))) {
+                throw new DataAccessException("undefined or empty SQL template");
+            }
+
+            PreparedStatement overruns = JDBCAccess.prepareStatement(conx, TIME_TOTALS_OVERRUN_NAMES[grouping], overrunSql);
+            overruns.setDate(1, new java.sql.Date(endDate.getTime()));
+            overruns.setDate(2, new java.sql.Date(startDate.getTime()));
+            overruns.setDate(3, new java.sql.Date(endDate.getTime()));
+            readSums(overruns, grouping, sums, -1);
+
+            for (Iterator overrunIter = TaskArchive.sumOverruns(grouping, startDate, endDate).entrySet().iterator(); overrunIter.hasNext();) {
+                Map.Entry overrun = (Map.Entry) overrunIter.next();
+                long[] overrunSums = (long[]) overrun.getValue();
+                addSums(sums, overrun.getKey(), -overrunSums[0], -overrunSums[1], -overrunSums[2]);
+            }
+        }
+
+        for (Iterator sumIter = sums.entrySet().iterator(); sumIter.hasNext();) {
+            Map.Entry sum = (Map.Entry) sumIter.next();
+            long[] keySums = (long[]) sum.getValue();
+            if (keySums[0] == 0) {
+                // every task of the group ends after the date range
+                continue;
+            }
+
+            if (grouping == GROUP_BY_DAY) {
+                totals.add(0L, ((Long) sum.getKey()).longValue(), null, (int) keySums[0], keySums[1], keySums[2]);
+            } else {
+                totals.add(0L, 0L, (String) sum.getKey(), (int) keySums[0], keySums[1], keySums[2]);
+            }
+        }
+    }
+
+    /*
+     * Executes a statement that selects a day or description and then a task
+     * count, gross time and interruption time, and adds (or, with a negative
+     * sign, subtracts) each row to the sums.
+     */
+    private static void readSums(PreparedStatement select, int grouping, Map sums, int sign) throws SQLException {
+        final String methodName = "readSums";
+
+        ResultSet results = select.executeQuery();
+        try {
+            while (results.next()) {
+                Object key = (grouping == GROUP_BY_DAY) ? (Object) Long.valueOf(results.getDate(1).getTime()) : results.getString(1);
+                addSums(sums, key, sign * results.getLong(2), sign * results.getLong(3), sign * results.getLong(4));
+            }
+        } finally {
+            try {
+                results.close();
+            } catch (SQLException ex) {
+                LOGGER.logp(Level.WARNING, CLASSNAME, methodName, "failed to close select result set", ex);
+            }
+        }
+    }
+
+    private static void addSums(Map sums, Object key, long count, long gross, long interruption) {
+        long[] keySums = (long[]) sums.get(key);
+        if (keySums == null) {
+            keySums = new long[3];
+            sums.put(key, keySums);
+        }
+        keySums[0] += count;
+        keySums[1] += gross;
+        keySums[2] += interruption;
+    }
+
+    private static void checkGrouping(int grouping) throws DataAccessException {
+        if ((grouping < 0) || (grouping >= TIME_TOTALS_NAMES.length)) {
+            throw new DataAccessException("unknown grouping: " + grouping);
+        }
+    }
+
+    private static Long getDuration(ResultSet results, int index) throws SQLException {
+        long durationNanos = results.getLong(index);
+        return results.wasNull() ? null : Long.valueOf(durationNanos);
+    }
+
+    /*
+     * Reads the rows that a chunk statement selects.
+     */
+    private interface ChunkReader {
+        void readChunk(PreparedStatement select) throws SQLException, DataAccessException;
+    }
+
+    private static class TaskRecordCollector implements TaskRecordHandler {
+        private List taskRecords = new ArrayList();
+
+        public void handleTaskRecord(TaskRecord taskRecord) {
+            taskRecords.add(taskRecord);
+        }
+    }
+}
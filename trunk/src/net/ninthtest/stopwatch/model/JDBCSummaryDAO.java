@@ -0,0 +1,194 @@
+/*
+ * $Id$
+ */
+
+package net.ninthtest.stopwatch.model;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class provides JDBC access to summarized task data. Summaries are read
+ * from the <CODE>Task_Summaries</CODE> table, which the JDBC task and
+ * interruption DAOs keep up to date, so their cost depends on the number of
+ * days and descriptions in the date range rather than on the number of tasks.
+ *
+ * @author Matthew Zipay (ninthtest@gmail.com)
+ * @version $Revision$
+ */
+public class JDBCSummaryDAO implements SummaryDAO {
+    private static final String CLASSNAME = JDBCSummaryDAO.class.getName();
+
+    private static final Logger LOGGER = Logger.getLogger(JDBCSummaryDAO.class.getPackage().getName());
+
+    private static final String FIND_DAILY_SUMMARIES_SQL;
+
+    private static final String FIND_DESCRIPTION_SUMMARIES_SQL;
+
+    static {
+        final String methodName = "<clinit>";
+        LOGGER.entering(CLASSNAME, methodName);
+
+        Properties sqlProps = new Properties();
+        try {
+            sqlProps.load(Thread.currentThread().getContextClassLoader().getResourceAsStream("summary-sql.properties"));
+        } catch (IOException ex) {
+            LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "error loading JDBCSummaryDAO SQL properties", ex);
+        }
+
+        FIND_DAILY_SUMMARIES_SQL = sqlProps.getProperty("findDailySummaries");
+        FIND_DESCRIPTION_SUMMARIES_SQL = sqlProps.getProperty("findDescriptionSummaries");
+
+        LOGGER.exiting(CLASSNAME, methodName);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param startDate the start date in the date range (inclusive)
+     * @param endDate the end date in the date range (exclusive)
+     * @return a list of task summaries ordered by day, then description
+     * @throws DataAccessException if access to the data store fails
+     */
+    public List findDailySummaries(java.util.Date startDate, java.util.Date endDate) throws DataAccessException {
+        final String methodName = "findDailySummaries";
+        LOGGER.entering(CLASSNAME, methodName, new Object[] {startDate, endDate});
+
+        List summaries = findSummaries("findDailySummaries", FIND_DAILY_SUMMARIES_SQL, startDate, endDate, true);
+
+        LOGGER.exiting(CLASSNAME, methodName, summaries);
+        return summaries;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param startDate the start date in the date range (inclusive)
+     * @param endDate the end date in the date range (exclusive)
+     * @return a list of task summaries ordered by week, then description
+     * @throws DataAccessException if access to the data store fails
+     */
+    public List findWeeklySummaries(java.util.Date startDate, java.util.Date endDate) throws DataAccessException {
+        final String methodName = "findWeeklySummaries";
+        LOGGER.entering(CLASSNAME, methodName, new Object[] {startDate, endDate});
+
+        List dailySummaries = findSummaries("findDailySummaries", FIND_DAILY_SUMMARIES_SQL, startDate, endDate, true);
+
+        // week start (millis) -> description -> summary
+        Map weeks = new TreeMap();
+        Calendar cal = Calendar.getInstance();
+        for (Iterator summaryIter = dailySummaries.iterator(); summaryIter.hasNext();) {
+            TaskSummary daily = (TaskSummary) summaryIter.next();
+
+            cal.setTime(daily.getPeriodStart());
+            cal.set(Calendar.DAY_OF_WEEK, cal.getFirstDayOfWeek());
+            Long weekStart = Long.valueOf(cal.getTimeInMillis());
+
+            Map week = (Map) weeks.get(weekStart);
+            if (week == null) {
+                week = new TreeMap();
+                weeks.put(weekStart, week);
+            }
+
+            TaskSummary weekly = (TaskSummary) week.get(daily.getDescription());
+            if (weekly == null) {
+                weekly = new TaskSummary(new java.util.Date(weekStart.longValue()), daily.getDescription(), 0, 0L, 0, 0L);
+                week.put(daily.getDescription(), weekly);
+            }
+            weekly.add(daily);
+        }
+
+        List weeklySummaries = new ArrayList();
+        for (Iterator weekIter = weeks.values().iterator(); weekIter.hasNext();) {
+            weeklySummaries.addAll(((Map) weekIter.next()).values());
+        }
+
+        LOGGER.exiting(CLASSNAME, methodName, weeklySummaries);
+        return weeklySummaries;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param startDate the start date in the date range (inclusive)
+     * @param endDate the end date in the date range (exclusive)
+     * @return a list of task summaries (without period start dates) ordered by
+     *      description
+     * @throws DataAccessException if access to the data store fails
+     */
+    public List findDescriptionSummaries(java.util.Date startDate, java.util.Date endDate) throws DataAccessException {
+        final String methodName = "findDescriptionSummaries";
+        LOGGER.entering(CLASSNAME, methodName, new Object[] {startDate, endDate});
+
+        List summaries = findSummaries("findDescriptionSummaries", FIND_DESCRIPTION_SUMMARIES_SQL, startDate, endDate, false);
+
+        LOGGER.exiting(CLASSNAME, methodName, summaries);
+        return summaries;
+    }
+
+    private List findSummaries(String name, String sql, java.util.Date startDate, java.util.Date endDate, boolean daily) throws DataAccessException {
+        final String methodName = "findSummaries";
+
+        // make any journaled changes visible to this query
+        WriteBehindJournal.flush();
+
+        if ((sql == null) || (sql.equals(""))) {
+            throw new DataAccessException("undefined or empty SQL template");
+        }
+
+        List summaries = new ArrayList();
+
+        Connection conx = null;
+        try {
+            conx = JDBCAccess.getConnection();
+        } catch (SQLException ex) {
+            String msg = "failed to open database connection";
+            LOGGER.logp(Level.WARNING, CLASSNAME, methodName, msg, ex);
+            throw new DataAccessException(msg, ex);
+        }
+
+        try {
+            PreparedStatement select = JDBCAccess.prepareStatement(conx, name, sql);
+            select.setDate(1, new java.sql.Date(startDate.getTime()));
+            select.setDate(2, new java.sql.Date(endDate.getTime()));
+
+            ResultSet results = select.executeQuery();
+            while (results.next()) {
+                int column = 1;
+                java.util.Date periodStart = daily ? new java.util.Date(results.getDate(column++).getTime()) : null;
+                String desc = results.getString(column++);
+                int taskCount = results.getInt(column++);
+                long grossMillis = results.getLong(column++);
+                int intrCount = results.getInt(column++);
+                long intrMillis = results.getLong(column++);
+
+                summaries.add(new TaskSummary(periodStart, desc, taskCount, grossMillis, intrCount, intrMillis));
+            }
+
+            try {
+                results.close();
+            } catch (SQLException ex) {
+                LOGGER.logp(Level.WARNING, CLASSNAME, methodName, "failed to close select result set", ex);
+            }
+        } catch (SQLException ex) {
+            LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "task summary select failed", ex);
+            throw new DataAccessException(ex);
+        } finally {
+            JDBCAccess.returnConnection(conx);
+        }
+
+        return summaries;
+    }
+}
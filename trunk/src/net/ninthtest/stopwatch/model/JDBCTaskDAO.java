@@ -5,14 +5,16 @@
 package net.ninthtest.stopwatch.model;
 
 import java.io.IOException;
-import java.sql.CallableStatement;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.sql.Timestamp;
+import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Properties;
 import java.util.logging.Level;
@@ -21,10 +23,14 @@ import java.util.logging.Logger;
 /**
  * This class provides JDBC access to task data.
  *
+ * <P>When the {@link TaskArchive} is open, the archived tasks are found
+ * together with the tasks in the database, in the same order. Archived tasks
+ * cannot be saved.</P>
+ *
  * @author Matthew Zipay (ninthtest@gmail.com)
  * @version $Revision: 84 $
  */
-public class JDBCTaskDAO implements TaskDAO {
+public class JDBCTaskDAO implements TaskDAO, DAOLifecycle {
     private static final String CLASSNAME = JDBCTaskDAO.class.getName();
     
     private static final Logger LOGGER = Logger.getLogger(JDBCTaskDAO.class.getPackage().getName());
@@ -33,10 +39,35 @@ public class JDBCTaskDAO implements TaskDAO {
     
     private static final String FIND_ALL_TASKS_IN_DATE_RANGE_SQL;
     
+    private static final String FIND_TASK_DESCRIPTIONS_SQL;
+    
+    private static final String FIND_TASK_DATE_RANGE_SQL;
+    
     private static final String INSERT_TASK_SQL;
     
     private static final String UPDATE_TASK_SQL;
     
+    private static final String BATCH_INSERT_TASK_SQL;
+    
+    private static final PageQuery TASK_PAGES;
+    
+    private static final PageQuery.RowReader TASK_READER = new PageQuery.RowReader() {
+        public Object readRow(ResultSet results) throws SQLException {
+            Long id = Long.valueOf(results.getLong(1));
+            String desc = DescriptionDictionary.intern(results.getString(2));
+            
+            // use Timestamp to preserve H:M:S
+            Timestamp startTS = results.getTimestamp(3);
+            java.util.Date start = (startTS != null) ? new java.util.Date(startTS.getTime()) : null;
+            
+            // use Timestamp to preserve H:M:S
+            Timestamp endTS = results.getTimestamp(4);
+            java.util.Date end = (endTS != null) ? new java.util.Date(endTS.getTime()) : null;
+            
+            return new Task(id, desc, start, end, getDuration(results, 5));
+        }
+    };
+    
     static {
         final String methodName = "<clinit>";
         LOGGER.entering(CLASSNAME, methodName);
@@ -50,12 +81,52 @@ public class JDBCTaskDAO implements TaskDAO {
         
         FIND_ALL_TASKS_SQL = sqlProps.getProperty("findAllTasks");
         FIND_ALL_TASKS_IN_DATE_RANGE_SQL = sqlProps.getProperty("findAllTasksInDateRange");
+        FIND_TASK_DESCRIPTIONS_SQL = sqlProps.getProperty("findTaskDescriptions");
+        FIND_TASK_DATE_RANGE_SQL = sqlProps.getProperty("findTaskDateRange");
         INSERT_TASK_SQL = sqlProps.getProperty("insertTask");
         UPDATE_TASK_SQL = sqlProps.getProperty("updateTask");
+        BATCH_INSERT_TASK_SQL = sqlProps.getProperty("batchInsertTask");
+        // the sortable columns; the indexed ones have a (column, id) index (see schema-sql.properties)
+        TASK_PAGES = new PageQuery(sqlProps.getProperty("selectTasksPage"), sqlProps.getProperty("countTasksPage"),
+                sqlProps.getProperty("selectTasksPageByDescription"), sqlProps.getProperty("countTasksPageByDescription"), new PageQuery.Column[] {
+                new PageQuery.Column(QueryCriteria.ID, PageQuery.BIGINT, false, true),
+                new PageQuery.Column(QueryCriteria.DESCRIPTION, PageQuery.VARCHAR, false, false, true),
+                new PageQuery.Column(QueryCriteria.START_TIME, PageQuery.TIMESTAMP, true, true),
+                new PageQuery.Column(QueryCriteria.END_TIME, PageQuery.TIMESTAMP, true, true)});
+        
+        LOGGER.exiting(CLASSNAME, methodName);
+    }
+    
+    /**
+     * Prepares the statements that save a task, and the description query
+     * that the application runs when it starts, in the statement cache of a
+     * pooled connection.
+     *
+     * @throws DataAccessException if the statements cannot be prepared
+     */
+    public void initialize() throws DataAccessException {
+        final String methodName = "initialize";
+        LOGGER.entering(CLASSNAME, methodName);
+        
+        try {
+            JDBCAccess.prepareStatements(new String[] {"insertTask", "updateTask", "findTaskDescriptions"},
+                    new String[] {INSERT_TASK_SQL, UPDATE_TASK_SQL, FIND_TASK_DESCRIPTIONS_SQL}, new boolean[] {true, false, false});
+        } catch (SQLException ex) {
+            LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "failed to prepare task statements", ex);
+            throw new DataAccessException(ex);
+        }
         
         LOGGER.exiting(CLASSNAME, methodName);
     }
     
+    /**
+     * Does nothing, since the prepared statements are closed with their
+     * connections.
+     */
+    public void release() {
+        // nothing of its own to release
+    }
+    
     /**
      * {@inheritDoc}
      *
@@ -65,6 +136,9 @@ public class JDBCTaskDAO implements TaskDAO {
     public List findAllTasks() throws DataAccessException {
         final String methodName = "findAllTasks";
         LOGGER.entering(CLASSNAME, methodName);
+
+        // make any journaled changes visible to this query
+        WriteBehindJournal.flushTasks();
         
         if ((FIND_ALL_TASKS_SQL == null) || (FIND_ALL_TASKS_SQL.equals(""))) {
             throw new DataAccessException("undefined or empty SQL template");
@@ -82,9 +156,9 @@ public class JDBCTaskDAO implements TaskDAO {
         }
         
         try {
-            Statement select = conx.createStatement();
+            PreparedStatement select = JDBCAccess.prepareStatement(conx, "findAllTasks", FIND_ALL_TASKS_SQL);
             
-            if (!select.execute(FIND_ALL_TASKS_SQL)) {
+            if (!select.execute()) {
                 LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "task query execution returned false");
                 throw new DataAccessException("task query failed");
             }
@@ -92,7 +166,7 @@ public class JDBCTaskDAO implements TaskDAO {
             ResultSet taskResults = select.getResultSet();
             while (taskResults.next()) {
                 Long id = Long.valueOf(taskResults.getLong(1));
-                String desc = taskResults.getString(2);
+                String desc = DescriptionDictionary.intern(taskResults.getString(2));
                 
                 // use Timestamp to preserve H:M:S
                 Timestamp startTS = taskResults.getTimestamp(3);
@@ -102,18 +176,23 @@ public class JDBCTaskDAO implements TaskDAO {
                 Timestamp endTS = taskResults.getTimestamp(4);
                 java.util.Date end = (endTS != null) ? new java.util.Date(endTS.getTime()) : null;
                 
-                allTasks.add(new Task(id, desc, start, end));
+                allTasks.add(new Task(id, desc, start, end, getDuration(taskResults, 5)));
             }
             
             try {
                 taskResults.close();
-                select.close();
             } catch (SQLException ex) {
-                LOGGER.logp(Level.WARNING, CLASSNAME, methodName, "failed to close select result set or statement", ex);
+                LOGGER.logp(Level.WARNING, CLASSNAME, methodName, "failed to close select result set", ex);
             }
         } catch (SQLException ex) {
             LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "task select failed", ex);
             throw new DataAccessException(ex);
+        } finally {
+            JDBCAccess.returnConnection(conx);
+        }
+        
+        if (TaskArchive.isOpen()) {
+            allTasks = TaskArchive.merge(allTasks, TaskArchive.findArchivedTasks(null, null), new QueryCriteria(), 0, Integer.MAX_VALUE);
         }
         
         LOGGER.exiting(CLASSNAME, methodName, allTasks);
@@ -131,6 +210,9 @@ public class JDBCTaskDAO implements TaskDAO {
     public List findAllTasksInDateRange(java.util.Date startDate, java.util.Date endDate) throws DataAccessException {
         final String methodName = "findAllTasksInDateRange";
         LOGGER.entering(CLASSNAME, methodName, new Object[] {startDate, endDate});
+
+        // make any journaled changes visible to this query
+        WriteBehindJournal.flushTasks();
         
         if ((FIND_ALL_TASKS_IN_DATE_RANGE_SQL == null) || (FIND_ALL_TASKS_IN_DATE_RANGE_SQL.equals(""))) {
             throw new DataAccessException("undefined or empty SQL template");
@@ -148,7 +230,7 @@ public class JDBCTaskDAO implements TaskDAO {
         }
         
         try {
-            PreparedStatement select = conx.prepareStatement(FIND_ALL_TASKS_IN_DATE_RANGE_SQL);
+            PreparedStatement select = JDBCAccess.prepareStatement(conx, "findAllTasksInDateRange", FIND_ALL_TASKS_IN_DATE_RANGE_SQL);
             select.setDate(1, new java.sql.Date(startDate.getTime()));
             select.setDate(2, new java.sql.Date(endDate.getTime()));
             
@@ -160,7 +242,7 @@ public class JDBCTaskDAO implements TaskDAO {
             ResultSet taskResults = select.getResultSet();
             while (taskResults.next()) {
                 Long id = Long.valueOf(taskResults.getLong(1));
-                String desc = taskResults.getString(2);
+                String desc = DescriptionDictionary.intern(taskResults.getString(2));
                 
                 // use Timestamp to preserve H:M:S
                 Timestamp startTS = taskResults.getTimestamp(3);
@@ -170,24 +252,285 @@ public class JDBCTaskDAO implements TaskDAO {
                 Timestamp endTS = taskResults.getTimestamp(4);
                 java.util.Date end = (endTS != null) ? new java.util.Date(endTS.getTime()) : null;
                 
-                allTasksInDateRange.add(new Task(id, desc, start, end));
+                allTasksInDateRange.add(new Task(id, desc, start, end, getDuration(taskResults, 5)));
             }
             
             try {
                 taskResults.close();
-                select.close();
             } catch (SQLException ex) {
-                LOGGER.logp(Level.WARNING, CLASSNAME, methodName, "failed to close select result set or statement", ex);
+                LOGGER.logp(Level.WARNING, CLASSNAME, methodName, "failed to close select result set", ex);
             }
         } catch (SQLException ex) {
             LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "task select failed", ex);
             throw new DataAccessException(ex);
+        } finally {
+            JDBCAccess.returnConnection(conx);
+        }
+        
+        if (TaskArchive.isOpen()) {
+            allTasksInDateRange = TaskArchive.merge(allTasksInDateRange, TaskArchive.findArchivedTasks(startDate, endDate),
+                    new QueryCriteria(), 0, Integer.MAX_VALUE);
         }
         
         LOGGER.exiting(CLASSNAME, methodName, allTasksInDateRange);
         return allTasksInDateRange;
     }
     
+    /**
+     * {@inheritDoc}
+     *
+     * @return a list of task descriptions
+     * @throws DataAccessException if access to the data store fails
+     */
+    public List findTaskDescriptions() throws DataAccessException {
+        final String methodName = "findTaskDescriptions";
+        LOGGER.entering(CLASSNAME, methodName);
+        
+        // make any journaled changes visible to this query
+        WriteBehindJournal.flushTasks();
+        
+        if ((FIND_TASK_DESCRIPTIONS_SQL == null) || (FIND_TASK_DESCRIPTIONS_SQL.equals(""))) {
+            throw new DataAccessException("undefined or empty SQL template");
+        }
+        
+        List descriptions = new ArrayList();
+        
+        Connection conx = null;
+        try {
+            conx = JDBCAccess.getConnection();
+        } catch (SQLException ex) {
+            String msg = "failed to open database connection";
+            LOGGER.logp(Level.WARNING, CLASSNAME, methodName, msg, ex);
+            throw new DataAccessException(msg, ex);
+        }
+        
+        try {
+            PreparedStatement select = JDBCAccess.prepareStatement(conx, "findTaskDescriptions", FIND_TASK_DESCRIPTIONS_SQL);
+            
+            ResultSet descResults = select.executeQuery();
+            while (descResults.next()) {
+                // use Timestamp to preserve H:M:S
+                Timestamp lastStartTS = descResults.getTimestamp(3);
+                java.util.Date lastStart = (lastStartTS != null) ? new java.util.Date(lastStartTS.getTime()) : null;
+                
+                descriptions.add(new TaskDescription(DescriptionDictionary.intern(descResults.getString(1)), descResults.getInt(2), lastStart));
+            }
+            
+            try {
+                descResults.close();
+            } catch (SQLException ex) {
+                LOGGER.logp(Level.WARNING, CLASSNAME, methodName, "failed to close select result set", ex);
+            }
+        } catch (SQLException ex) {
+            LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "task description select failed", ex);
+            throw new DataAccessException(ex);
+        } finally {
+            JDBCAccess.returnConnection(conx);
+        }
+        
+        descriptions = TaskArchive.addTaskDescriptions(descriptions);
+        
+        LOGGER.exiting(CLASSNAME, methodName, Integer.valueOf(descriptions.size()));
+        return descriptions;
+    }
+    
+    /**
+     * {@inheritDoc}
+     *
+     * @return the earliest and the latest task start time
+     * @throws DataAccessException if access to the data store fails
+     */
+    public java.util.Date[] findTaskDateRange() throws DataAccessException {
+        final String methodName = "findTaskDateRange";
+        LOGGER.entering(CLASSNAME, methodName);
+        
+        // make any journaled changes visible to this query
+        WriteBehindJournal.flushTasks();
+        
+        if ((FIND_TASK_DATE_RANGE_SQL == null) || (FIND_TASK_DATE_RANGE_SQL.equals(""))) {
+            throw new DataAccessException("undefined or empty SQL template");
+        }
+        
+        long[] range = {MemoryTable.NULL, MemoryTable.NULL};
+        
+        Connection conx = null;
+        try {
+            conx = JDBCAccess.getConnection();
+        } catch (SQLException ex) {
+            String msg = "failed to open database connection";
+            LOGGER.logp(Level.WARNING, CLASSNAME, methodName, msg, ex);
+            throw new DataAccessException(msg, ex);
+        }
+        
+        try {
+            PreparedStatement select = JDBCAccess.prepareStatement(conx, "findTaskDateRange", FIND_TASK_DATE_RANGE_SQL);
+            
+            ResultSet rangeResults = select.executeQuery();
+            if (rangeResults.next()) {
+                // use Timestamp to preserve H:M:S
+                Timestamp minTS = rangeResults.getTimestamp(1);
+                Timestamp maxTS = rangeResults.getTimestamp(2);
+                range[0] = (minTS != null) ? minTS.getTime() : MemoryTable.NULL;
+                range[1] = (maxTS != null) ? maxTS.getTime() : MemoryTable.NULL;
+            }
+            
+            try {
+                rangeResults.close();
+            } catch (SQLException ex) {
+                LOGGER.logp(Level.WARNING, CLASSNAME, methodName, "failed to close select result set", ex);
+            }
+        } catch (SQLException ex) {
+            LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "task date range select failed", ex);
+            throw new DataAccessException(ex);
+        } finally {
+            JDBCAccess.returnConnection(conx);
+        }
+        
+        range = TaskArchive.addTaskDateRange(range);
+        
+        java.util.Date[] dateRange = {MemoryTable.toDate(range[0]), MemoryTable.toDate(range[1])};
+        LOGGER.exiting(CLASSNAME, methodName, dateRange);
+        return dateRange;
+    }
+    
+    /**
+     * {@inheritDoc}
+     *
+     * @param criteria the query criteria
+     * @return the task count
+     * @throws DataAccessException if access to the data store fails
+     */
+    public int countTasks(QueryCriteria criteria) throws DataAccessException {
+        final String methodName = "countTasks";
+        LOGGER.entering(CLASSNAME, methodName, criteria);
+        
+        // make any journaled changes visible to this query
+        WriteBehindJournal.flushTasks();
+        
+        Connection conx = null;
+        try {
+            conx = JDBCAccess.getConnection();
+        } catch (SQLException ex) {
+            String msg = "failed to open database connection";
+            LOGGER.logp(Level.WARNING, CLASSNAME, methodName, msg, ex);
+            throw new DataAccessException(msg, ex);
+        }
+        
+        int count = 0;
+        
+        try {
+            count = TASK_PAGES.count(conx, criteria);
+        } catch (SQLException ex) {
+            LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "task count failed", ex);
+            throw new DataAccessException(ex);
+        } finally {
+            JDBCAccess.returnConnection(conx);
+        }
+        
+        count += TaskArchive.countArchived(criteria, false);
+        
+        LOGGER.exiting(CLASSNAME, methodName, Integer.valueOf(count));
+        return count;
+    }
+    
+    /**
+     * {@inheritDoc}
+     *
+     * @param criteria the query criteria
+     * @param firstResult the position of the first task to return
+     * @param maxResults the maximum number of tasks to return
+     * @return a list of at most <I>maxResults</I> tasks
+     * @throws DataAccessException if access to the data store fails
+     */
+    public List findTasks(QueryCriteria criteria, int firstResult, int maxResults) throws DataAccessException {
+        final String methodName = "findTasks";
+        LOGGER.entering(CLASSNAME, methodName, new Object[] {criteria, Integer.valueOf(firstResult), Integer.valueOf(maxResults)});
+        
+        // make any journaled changes visible to this query
+        WriteBehindJournal.flushTasks();
+        
+        List tasks = new ArrayList(maxResults);
+        
+        Connection conx = null;
+        try {
+            conx = JDBCAccess.getConnection();
+        } catch (SQLException ex) {
+            String msg = "failed to open database connection";
+            LOGGER.logp(Level.WARNING, CLASSNAME, methodName, msg, ex);
+            throw new DataAccessException(msg, ex);
+        }
+        
+        try {
+            if (TaskArchive.isOpen()) {
+                // the page may hold tasks from both, so both pages start at the first task
+                int lastResult = (int) Math.min((long) firstResult + maxResults, Integer.MAX_VALUE);
+                List storedTasks = new ArrayList();
+                TASK_PAGES.select(conx, criteria, 0, lastResult, TASK_READER, storedTasks);
+                tasks = TaskArchive.merge(storedTasks, TaskArchive.findArchived(criteria, null, lastResult, false), criteria, firstResult, maxResults);
+            } else {
+                TASK_PAGES.select(conx, criteria, firstResult, maxResults, TASK_READER, tasks);
+            }
+        } catch (SQLException ex) {
+            LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "task page select failed", ex);
+            throw new DataAccessException(ex);
+        } finally {
+            JDBCAccess.returnConnection(conx);
+        }
+        
+        LOGGER.exiting(CLASSNAME, methodName, Integer.valueOf(tasks.size()));
+        return tasks;
+    }
+    
+    /**
+     * {@inheritDoc}
+     *
+     * @param criteria the query criteria
+     * @param lastTask the last task of the preceding page, or
+     *      <CODE>null</CODE> for the first page
+     * @param maxResults the maximum number of tasks to return
+     * @return a list of at most <I>maxResults</I> tasks
+     * @throws DataAccessException if access to the data store fails
+     */
+    public List findTasksAfter(QueryCriteria criteria, Task lastTask, int maxResults) throws DataAccessException {
+        final String methodName = "findTasksAfter";
+        LOGGER.entering(CLASSNAME, methodName, new Object[] {criteria, lastTask, Integer.valueOf(maxResults)});
+        
+        // make any journaled changes visible to this query
+        WriteBehindJournal.flushTasks();
+        
+        List tasks = new ArrayList(maxResults);
+        
+        Connection conx = null;
+        try {
+            conx = JDBCAccess.getConnection();
+        } catch (SQLException ex) {
+            String msg = "failed to open database connection";
+            LOGGER.logp(Level.WARNING, CLASSNAME, methodName, msg, ex);
+            throw new DataAccessException(msg, ex);
+        }
+        
+        try {
+            if (lastTask != null) {
+                Object[] lastKey = new Object[] {getSortValue(lastTask, criteria.getSortColumn())};
+                TASK_PAGES.selectAfter(conx, criteria, lastKey, lastTask.getId().longValue(), maxResults, TASK_READER, tasks);
+            } else {
+                TASK_PAGES.selectAfter(conx, criteria, null, 0L, maxResults, TASK_READER, tasks);
+            }
+        } catch (SQLException ex) {
+            LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "task page select failed", ex);
+            throw new DataAccessException(ex);
+        } finally {
+            JDBCAccess.returnConnection(conx);
+        }
+        
+        if (TaskArchive.isOpen()) {
+            tasks = TaskArchive.merge(tasks, TaskArchive.findArchived(criteria, lastTask, maxResults, false), criteria, 0, maxResults);
+        }
+        
+        LOGGER.exiting(CLASSNAME, methodName, Integer.valueOf(tasks.size()));
+        return tasks;
+    }
+    
     /**
      * {@inheritDoc}
      *
@@ -198,7 +541,11 @@ public class JDBCTaskDAO implements TaskDAO {
         final String methodName = "saveTask";
         LOGGER.entering(CLASSNAME, methodName, task);
         
-        if (task.getId() == null) {
+        if (WriteBehindJournal.isEnabled()) {
+            int type = (task.getId() == null) ? DataChangeEvent.INSERTED : DataChangeEvent.UPDATED;
+            WriteBehindJournal.saveTask(task);
+            DAOFactory.fireDataChanged(this, Task.class, type, Collections.singletonList(task));
+        } else if (task.getId() == null) {
             insertTask(task);
         } else {
             updateTask(task);
@@ -207,6 +554,193 @@ public class JDBCTaskDAO implements TaskDAO {
         LOGGER.exiting(CLASSNAME, methodName);
     }
     
+    /**
+     * {@inheritDoc}
+     *
+     * <P>The tasks are written in JDBC batches of the size configured in
+     * <CODE>jdbc.properties</CODE>, and each batch is committed as a single
+     * transaction. New tasks in a batch are inserted (including their start
+     * and end times) and assigned their generated IDs once the batch has been
+     * committed. If a batch fails, the batches before it remain stored.</P>
+     *
+     * @param tasks the tasks to be stored
+     * @throws DataAccessException if access to the data store fails
+     */
+    public void saveTasks(Collection tasks) throws DataAccessException {
+        final String methodName = "saveTasks";
+        LOGGER.entering(CLASSNAME, methodName, Integer.valueOf(tasks.size()));
+        
+        if (WriteBehindJournal.isEnabled()) {
+            // the journal batches its own writes
+            List insertTasks = new ArrayList();
+            List updateTasks = new ArrayList();
+            for (Iterator taskIter = tasks.iterator(); taskIter.hasNext();) {
+                Task task = (Task) taskIter.next();
+                ((task.getId() == null) ? insertTasks : updateTasks).add(task);
+                WriteBehindJournal.saveTask(task);
+            }
+            
+            DAOFactory.fireDataChanged(this, Task.class, DataChangeEvent.UPDATED, updateTasks);
+            DAOFactory.fireDataChanged(this, Task.class, DataChangeEvent.INSERTED, insertTasks);
+            
+            LOGGER.exiting(CLASSNAME, methodName);
+            return;
+        }
+        
+        if ((BATCH_INSERT_TASK_SQL == null) || (BATCH_INSERT_TASK_SQL.equals(""))
+                || (UPDATE_TASK_SQL == null) || (UPDATE_TASK_SQL.equals(""))) {
+            throw new DataAccessException("undefined or empty SQL template");
+        }
+        
+        int batchSize = JDBCAccess.getBatchSize();
+        List batch = new ArrayList(Math.min(batchSize, tasks.size()));
+        for (Iterator taskIter = tasks.iterator(); taskIter.hasNext();) {
+            batch.add(taskIter.next());
+            
+            if (batch.size() == batchSize) {
+                saveTaskBatch(batch);
+                batch.clear();
+            }
+        }
+        
+        if (!batch.isEmpty()) {
+            saveTaskBatch(batch);
+        }
+        
+        LOGGER.exiting(CLASSNAME, methodName);
+    }
+    
+    private void saveTaskBatch(List batch) throws DataAccessException {
+        final String methodName = "saveTaskBatch";
+        LOGGER.entering(CLASSNAME, methodName, Integer.valueOf(batch.size()));
+        
+        List insertTasks = new ArrayList();
+        List updateTasks = new ArrayList();
+        for (Iterator taskIter = batch.iterator(); taskIter.hasNext();) {
+            Task task = (Task) taskIter.next();
+            if (task.getId() == null) {
+                insertTasks.add(task);
+            } else {
+                updateTasks.add(task);
+            }
+        }
+        
+        Connection conx = null;
+        try {
+            conx = JDBCAccess.getConnection();
+        } catch (SQLException ex) {
+            String msg = "failed to open database connection";
+            LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, msg, ex);
+            throw new DataAccessException(msg, ex);
+        }
+        
+        long[] ids = null;
+        
+        try {
+            DescriptionDictionary.addDescriptions(conx, getDescriptions(batch));
+            
+            // the summaries that updated tasks belonged to before this change
+            TaskSummaryRefresh refresh = new TaskSummaryRefresh();
+            for (Iterator taskIter = updateTasks.iterator(); taskIter.hasNext();) {
+                refresh.addStoredTask(conx, ((Task) taskIter.next()).getId());
+            }
+            
+            executeUpdates(conx, updateTasks);
+            ids = executeInserts(conx, insertTasks);
+            
+            for (Iterator taskIter = batch.iterator(); taskIter.hasNext();) {
+                refresh.addTask((Task) taskIter.next());
+            }
+            refresh.refresh(conx);
+            
+            conx.commit();
+        } catch (SQLException ex) {
+            LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "task batch save failed", ex);
+            throw new DataAccessException(ex);
+        } finally {
+            JDBCAccess.returnConnection(conx);
+        }
+        
+        assignIds(insertTasks, ids);
+        DAOFactory.fireDataChanged(this, Task.class, DataChangeEvent.UPDATED, updateTasks);
+        DAOFactory.fireDataChanged(this, Task.class, DataChangeEvent.INSERTED, insertTasks);
+        
+        LOGGER.exiting(CLASSNAME, methodName);
+    }
+    
+    private long[] executeInserts(Connection conx, List tasks) throws SQLException, DataAccessException {
+        final String methodName = "executeInserts";
+        
+        if (tasks.isEmpty()) {
+            return new long[0];
+        }
+        
+        PreparedStatement insert = JDBCAccess.prepareInsert(conx, "batchInsertTask", BATCH_INSERT_TASK_SQL);
+        insert.clearBatch();
+        
+        for (Iterator taskIter = tasks.iterator(); taskIter.hasNext();) {
+            Task task = (Task) taskIter.next();
+            if (task.getId() != null) {
+                throw new DataAccessException("task has already been stored: " + task);
+            }
+            
+            insert.setString(1, task.getDescription());
+            setTimestamp(insert, 2, task.getStartTime());
+            setTimestamp(insert, 3, task.getEndTime());
+            setDuration(insert, 4, task.getDuration());
+            insert.addBatch();
+        }
+        
+        long[] ids = JDBCAccess.executeBatchInsert(conx, insert, tasks.size());
+        LOGGER.logp(Level.INFO, CLASSNAME, methodName, "task batch insert rowCount = {0}", Integer.valueOf(ids.length));
+        
+        return ids;
+    }
+    
+    private void executeUpdates(Connection conx, List tasks) throws SQLException, DataAccessException {
+        final String methodName = "executeUpdates";
+        
+        if (tasks.isEmpty()) {
+            return;
+        }
+        
+        PreparedStatement update = JDBCAccess.prepareStatement(conx, "updateTask", UPDATE_TASK_SQL);
+        update.clearBatch();
+        
+        for (Iterator taskIter = tasks.iterator(); taskIter.hasNext();) {
+            Task task = (Task) taskIter.next();
+            update.setString(1, task.getDescription());
+            setTimestamp(update, 2, task.getStartTime());
+            setTimestamp(update, 3, task.getEndTime());
+            setDuration(update, 4, task.getDuration());
+            update.setLong(5, task.getId().longValue());
+            update.addBatch();
+        }
+        
+        int[] rowCounts = update.executeBatch();
+        LOGGER.logp(Level.INFO, CLASSNAME, methodName, "task batch update rowCount = {0}", Integer.valueOf(rowCounts.length));
+        for (int i = 0; i < rowCounts.length; ++i) {
+            if (rowCounts[i] == 0) {
+                throw new DataAccessException("task was not updated: " + tasks.get(i));
+            }
+        }
+    }
+    
+    private static List getDescriptions(Collection tasks) {
+        List descriptions = new ArrayList(tasks.size());
+        for (Iterator taskIter = tasks.iterator(); taskIter.hasNext();) {
+            descriptions.add(((Task) taskIter.next()).getDescription());
+        }
+        
+        return descriptions;
+    }
+    
+    private static void assignIds(List tasks, long[] ids) {
+        for (int i = 0; i < ids.length; ++i) {
+            ((Task) tasks.get(i)).setId(Long.valueOf(ids[i]));
+        }
+    }
+    
     private void insertTask(Task task) throws DataAccessException {
         final String methodName = "insertTask";
         LOGGER.entering(CLASSNAME, methodName, task);
@@ -229,8 +763,13 @@ public class JDBCTaskDAO implements TaskDAO {
         Long id = null;
         
         try {
-            PreparedStatement insert = conx.prepareStatement(INSERT_TASK_SQL);
+            DescriptionDictionary.addDescriptions(conx, Collections.singleton(task.getDescription()));
+            
+            PreparedStatement insert = JDBCAccess.prepareInsert(conx, "insertTask", INSERT_TASK_SQL);
             insert.setString(1, task.getDescription());
+            setTimestamp(insert, 2, task.getStartTime());
+            setTimestamp(insert, 3, task.getEndTime());
+            setDuration(insert, 4, task.getDuration());
             
             int rowCount = insert.executeUpdate();
             LOGGER.logp(Level.INFO, CLASSNAME, methodName, "task insert rowCount = {0}", Integer.valueOf(rowCount));
@@ -238,42 +777,22 @@ public class JDBCTaskDAO implements TaskDAO {
                 throw new DataAccessException("task was not inserted");
             }
             
-            try {
-                insert.close();
-            } catch (SQLException ex) {
-                LOGGER.logp(Level.WARNING, CLASSNAME, methodName, "failed to close insert statement", ex);
-            }
+            id = Long.valueOf(JDBCAccess.getInsertedKey(conx, insert));
             
-            CallableStatement identity = conx.prepareCall("{CALL IDENTITY()}");
-            if (!identity.execute()) {
-                LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "identity call failed");
-                conx.rollback();
-                throw new DataAccessException("unable to obtain inserted task ID");
-            }
-            
-            ResultSet idResult = identity.getResultSet();
-            if (!idResult.next()) {
-                LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "failed to retrieve task ID from result set");
-                conx.rollback();
-                throw new DataAccessException("unable to obtain inserted task ID");
-            }
-            
-            id = Long.valueOf(idResult.getLong(1));
-            
-            try {
-                idResult.close();
-                identity.close();
-            } catch (SQLException ex) {
-                LOGGER.logp(Level.WARNING, CLASSNAME, methodName, "failed to close identity result set or statement", ex);
-            }
+            TaskSummaryRefresh refresh = new TaskSummaryRefresh();
+            refresh.addTask(task);
+            refresh.refresh(conx);
             
             conx.commit();
         } catch (SQLException ex) {
             LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "task insert failed", ex);
             throw new DataAccessException(ex);
+        } finally {
+            JDBCAccess.returnConnection(conx);
         }
         
         task.setId(id);
+        DAOFactory.fireDataChanged(this, Task.class, DataChangeEvent.INSERTED, Collections.singletonList(task));
         
         LOGGER.exiting(CLASSNAME, methodName);
     }
@@ -296,12 +815,17 @@ public class JDBCTaskDAO implements TaskDAO {
         }
         
         try {
-            PreparedStatement update = conx.prepareStatement(UPDATE_TASK_SQL);
+            DescriptionDictionary.addDescriptions(conx, Collections.singleton(task.getDescription()));
+            
+            TaskSummaryRefresh refresh = new TaskSummaryRefresh();
+            refresh.addStoredTask(conx, task.getId());
+            
+            PreparedStatement update = JDBCAccess.prepareStatement(conx, "updateTask", UPDATE_TASK_SQL);
             update.setString(1, task.getDescription());
-            // use Timestamp to preserve H:M:S
-            update.setTimestamp(2, new java.sql.Timestamp(task.getStartTime().getTime()));
-            update.setTimestamp(3, new java.sql.Timestamp(task.getEndTime().getTime()));
-            update.setLong(4, task.getId());
+            setTimestamp(update, 2, task.getStartTime());
+            setTimestamp(update, 3, task.getEndTime());
+            setDuration(update, 4, task.getDuration());
+            update.setLong(5, task.getId());
             
             int rowCount = update.executeUpdate();
             LOGGER.logp(Level.INFO, CLASSNAME, methodName, "task update rowCount = {0}", Integer.valueOf(rowCount));
@@ -309,18 +833,53 @@ public class JDBCTaskDAO implements TaskDAO {
                 throw new DataAccessException("task was not updated");
             }
             
-            try {
-                update.close();
-            } catch (SQLException ex) {
-                LOGGER.logp(Level.WARNING, CLASSNAME, methodName, "failed to close update statement", ex);
-            }
+            refresh.addTask(task);
+            refresh.refresh(conx);
             
             conx.commit();
         } catch (SQLException ex) {
             LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "task update failed", ex);
             throw new DataAccessException(ex);
+        } finally {
+            JDBCAccess.returnConnection(conx);
         }
         
+        DAOFactory.fireDataChanged(this, Task.class, DataChangeEvent.UPDATED, Collections.singletonList(task));
+        
         LOGGER.exiting(CLASSNAME, methodName);
     }
+    
+    private static Object getSortValue(Task task, String column) {
+        if (QueryCriteria.ID.equals(column)) {
+            return task.getId();
+        } else if (QueryCriteria.DESCRIPTION.equals(column)) {
+            return task.getDescription();
+        } else if (QueryCriteria.START_TIME.equals(column)) {
+            return task.getStartTime();
+        } else {
+            return task.getEndTime();
+        }
+    }
+    
+    private static void setTimestamp(PreparedStatement stmt, int index, java.util.Date date) throws SQLException {
+        if (date == null) {
+            stmt.setNull(index, Types.TIMESTAMP);
+        } else {
+            // use Timestamp to preserve H:M:S
+            stmt.setTimestamp(index, new Timestamp(date.getTime()));
+        }
+    }
+    
+    private static Long getDuration(ResultSet results, int index) throws SQLException {
+        long durationNanos = results.getLong(index);
+        return results.wasNull() ? null : Long.valueOf(durationNanos);
+    }
+    
+    private static void setDuration(PreparedStatement stmt, int index, Long duration) throws SQLException {
+        if (duration == null) {
+            stmt.setNull(index, Types.BIGINT);
+        } else {
+            stmt.setLong(index, duration.longValue());
+        }
+    }
 }
@@ -0,0 +1,249 @@
+/*
+ * $Id$
+ */
+
+package net.ninthtest.stopwatch.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * This class provides access to interruption data that is kept in memory
+ * only.
+ *
+ * <P>The interruptions are held in the {@link MemoryStore}, which also
+ * indexes them by task, and are lost when the application exits unless the
+ * store is backed by the {@link RecordLog} (<CODE>implementation=LOG</CODE>).
+ * A stored interruption is a copy, so changes to an interruption are not seen
+ * until it is saved again.</P>
+ *
+ * @author Matthew Zipay (ninthtest@gmail.com)
+ * @version $Revision$
+ */
+public class MemoryInterruptionDAO implements InterruptionDAO {
+    private static final String CLASSNAME = MemoryInterruptionDAO.class.getName();
+
+    private static final Logger LOGGER = Logger.getLogger(MemoryInterruptionDAO.class.getPackage().getName());
+
+    /**
+     * {@inheritDoc}
+     *
+     * @return a list of interruptions
+     * @throws DataAccessException if access to the data store fails
+     */
+    public List findAllInterruptions() throws DataAccessException {
+        final String methodName = "findAllInterruptions";
+        LOGGER.entering(CLASSNAME, methodName);
+
+        List allInterruptions;
+
+        MemoryStore.ensureLoaded();
+        MemoryStore.readLock().lock();
+        try {
+            MemoryTable interruptions = MemoryStore.getInterruptions();
+            allInterruptions = new ArrayList(interruptions.size());
+            for (int i = 0; i < interruptions.size(); ++i) {
+                allInterruptions.add(interruptions.toTask(interruptions.getRowByStartTime(i)));
+            }
+        } finally {
+            MemoryStore.readLock().unlock();
+        }
+
+        LOGGER.exiting(CLASSNAME, methodName, allInterruptions);
+        return allInterruptions;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param task the task being queried
+     * @return a list of interruptions for the specified task
+     * @throws DataAccessException if access to the data store fails
+     */
+    public List findInterruptionsForTask(Task task) throws DataAccessException {
+        final String methodName = "findInterruptionsForTask";
+        LOGGER.entering(CLASSNAME, methodName, task);
+
+        List taskInterruptions = new ArrayList();
+
+        MemoryStore.ensureLoaded();
+        MemoryStore.readLock().lock();
+        try {
+            int taskRow = (task.getId() != null) ? MemoryStore.getTasks().getRow(task.getId().longValue()) : -1;
+            if (taskRow != -1) {
+                MemoryTable interruptions = MemoryStore.getInterruptions();
+                int[] rows = MemoryStore.getInterruptionRows(taskRow);
+                for (int i = 0; i < rows.length; ++i) {
+                    taskInterruptions.add(interruptions.toTask(rows[i]));
+                }
+            }
+        } finally {
+            MemoryStore.readLock().unlock();
+        }
+
+        LOGGER.exiting(CLASSNAME, methodName, taskInterruptions);
+        return taskInterruptions;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param criteria the query criteria
+     * @return the interruption count
+     * @throws DataAccessException if access to the data store fails
+     */
+    public int countInterruptions(QueryCriteria criteria) throws DataAccessException {
+        final String methodName = "countInterruptions";
+        LOGGER.entering(CLASSNAME, methodName, criteria);
+
+        int count;
+
+        MemoryStore.ensureLoaded();
+        MemoryStore.readLock().lock();
+        try {
+            count = MemoryStore.getInterruptions().count(criteria);
+        } finally {
+            MemoryStore.readLock().unlock();
+        }
+
+        LOGGER.exiting(CLASSNAME, methodName, Integer.valueOf(count));
+        return count;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param criteria the query criteria
+     * @param firstResult the position of the first interruption to return
+     * @param maxResults the maximum number of interruptions to return
+     * @return a list of at most <I>maxResults</I> interruptions
+     * @throws DataAccessException if access to the data store fails
+     */
+    public List findInterruptions(QueryCriteria criteria, int firstResult, int maxResults) throws DataAccessException {
+        final String methodName = "findInterruptions";
+        LOGGER.entering(CLASSNAME, methodName, new Object[] {criteria, Integer.valueOf(firstResult), Integer.valueOf(maxResults)});
+
+        List intrs = new ArrayList(maxResults);
+
+        MemoryStore.ensureLoaded();
+        MemoryStore.readLock().lock();
+        try {
+            MemoryTable table = MemoryStore.getInterruptions();
+            int[] rows = table.select(criteria);
+            for (int i = firstResult; (i < rows.length) && (intrs.size() < maxResults); ++i) {
+                intrs.add(table.toTask(rows[i]));
+            }
+        } finally {
+            MemoryStore.readLock().unlock();
+        }
+
+        LOGGER.exiting(CLASSNAME, methodName, Integer.valueOf(intrs.size()));
+        return intrs;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param criteria the query criteria
+     * @param lastInterruption the last interruption of the preceding page,
+     *      or <CODE>null</CODE> for the first page
+     * @param maxResults the maximum number of interruptions to return
+     * @return a list of at most <I>maxResults</I> interruptions
+     * @throws DataAccessException if access to the data store fails
+     */
+    public List findInterruptionsAfter(QueryCriteria criteria, Interruption lastInterruption, int maxResults) throws DataAccessException {
+        final String methodName = "findInterruptionsAfter";
+        LOGGER.entering(CLASSNAME, methodName, new Object[] {criteria, lastInterruption, Integer.valueOf(maxResults)});
+
+        List intrs = new ArrayList(maxResults);
+
+        MemoryStore.ensureLoaded();
+        MemoryStore.readLock().lock();
+        try {
+            MemoryTable table = MemoryStore.getInterruptions();
+            int[] rows = table.select(criteria);
+            int first = (lastInterruption != null) ? table.findAfter(rows, criteria, lastInterruption) : 0;
+            for (int i = first; (i < rows.length) && (intrs.size() < maxResults); ++i) {
+                intrs.add(table.toTask(rows[i]));
+            }
+        } finally {
+            MemoryStore.readLock().unlock();
+        }
+
+        LOGGER.exiting(CLASSNAME, methodName, Integer.valueOf(intrs.size()));
+        return intrs;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <P>A new interruption is stored with its start and end times, and is
+     * assigned its ID.</P>
+     *
+     * @param intr the interruption to be stored
+     * @throws DataAccessException if access to the data store fails
+     */
+    public void saveInterruption(Interruption intr) throws DataAccessException {
+        final String methodName = "saveInterruption";
+        LOGGER.entering(CLASSNAME, methodName, intr);
+
+        saveInterruptions(Collections.singletonList(intr));
+
+        LOGGER.exiting(CLASSNAME, methodName);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <P>The interruptions are stored at once; if an interruption cannot be
+     * stored, none of the interruptions is stored.</P>
+     *
+     * @param intrs the interruptions to be stored
+     * @throws DataAccessException if access to the data store fails
+     */
+    public void saveInterruptions(Collection intrs) throws DataAccessException {
+        final String methodName = "saveInterruptions";
+        LOGGER.entering(CLASSNAME, methodName, Integer.valueOf(intrs.size()));
+
+        List insertInterruptions = new ArrayList();
+        List updateInterruptions = new ArrayList();
+        for (Iterator intrIter = intrs.iterator(); intrIter.hasNext();) {
+            Interruption intr = (Interruption) intrIter.next();
+            ((intr.getId() == null) ? insertInterruptions : updateInterruptions).add(intr);
+        }
+
+        MemoryStore.ensureLoaded();
+        MemoryStore.writeLock().lock();
+        try {
+            MemoryTable tasks = MemoryStore.getTasks();
+            MemoryTable table = MemoryStore.getInterruptions();
+            for (Iterator intrIter = updateInterruptions.iterator(); intrIter.hasNext();) {
+                Interruption intr = (Interruption) intrIter.next();
+                int row = table.getRow(intr.getId().longValue());
+                if ((row == -1) || (intr.getRelatedTaskId() == null)
+                        || (table.getRelatedTaskId(row) != intr.getRelatedTaskId().longValue())) {
+                    throw new DataAccessException("interruption was not updated: " + intr);
+                }
+            }
+            for (Iterator intrIter = insertInterruptions.iterator(); intrIter.hasNext();) {
+                Interruption intr = (Interruption) intrIter.next();
+                if ((intr.getRelatedTaskId() == null) || (tasks.getRow(intr.getRelatedTaskId().longValue()) == -1)) {
+                    throw new DataAccessException("interrupted task has not been stored: " + intr);
+                }
+            }
+
+            MemoryStore.saveInterruptions(updateInterruptions, insertInterruptions);
+        } finally {
+            MemoryStore.writeLock().unlock();
+        }
+
+        DAOFactory.fireDataChanged(this, Interruption.class, DataChangeEvent.UPDATED, updateInterruptions);
+        DAOFactory.fireDataChanged(this, Interruption.class, DataChangeEvent.INSERTED, insertInterruptions);
+
+        LOGGER.exiting(CLASSNAME, methodName);
+    }
+}
@@ -0,0 +1,393 @@
+/*
+ * $Id$
+ */
+
+package net.ninthtest.stopwatch.model;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+/**
+ * This class provides access to reporting data that is kept in memory only.
+ *
+ * <P>The interruptions of each task are found through the task index of the
+ * {@link MemoryStore}, and the tasks in a date range by a binary search of the
+ * tasks in start time order. As in the database, tasks are selected by the
+ * dates (not the times) of a date range. Until the store has been loaded from
+ * the {@link RecordLog}, the records and times in a date range are read from
+ * the log instead.</P>
+ *
+ * <P>The records or times passed to a handler are copied while the store is
+ * locked, and passed to the handler afterwards, so a handler may store tasks
+ * and interruptions.</P>
+ *
+ * @author Matthew Zipay (ninthtest@gmail.com)
+ * @version $Revision$
+ */
+public class MemoryReportDAO implements ReportDAO {
+    private static final String CLASSNAME = MemoryReportDAO.class.getName();
+
+    private static final Logger LOGGER = Logger.getLogger(MemoryReportDAO.class.getPackage().getName());
+
+    /**
+     * {@inheritDoc}
+     *
+     * @return a list of task records ordered by task start time
+     * @throws DataAccessException if access to the data store fails
+     */
+    public List findAllTaskRecords() throws DataAccessException {
+        final String methodName = "findAllTaskRecords";
+        LOGGER.entering(CLASSNAME, methodName);
+
+        List taskRecords = findTaskRecords(null, null);
+
+        LOGGER.exiting(CLASSNAME, methodName, taskRecords);
+        return taskRecords;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param startDate the start date in the date range (inclusive)
+     * @param endDate the end date in the date range (exclusive)
+     * @return a list of task records ordered by task start time
+     * @throws DataAccessException if access to the data store fails
+     */
+    public List findAllTaskRecordsInDateRange(Date startDate, Date endDate) throws DataAccessException {
+        final String methodName = "findAllTaskRecordsInDateRange";
+        LOGGER.entering(CLASSNAME, methodName, new Object[] {startDate, endDate});
+
+        List taskRecords = findTaskRecords(startDate, endDate);
+
+        LOGGER.exiting(CLASSNAME, methodName, taskRecords);
+        return taskRecords;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param handler the callback that receives each task record
+     * @throws DataAccessException if access to the data store fails, or if the
+     *      handler fails
+     */
+    public void processAllTaskRecords(TaskRecordHandler handler) throws DataAccessException {
+        final String methodName = "processAllTaskRecords";
+        LOGGER.entering(CLASSNAME, methodName, handler);
+
+        processTaskRecords(findTaskRecords(null, null), handler);
+
+        LOGGER.exiting(CLASSNAME, methodName);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param startDate the start date in the date range (inclusive)
+     * @param endDate the end date in the date range (exclusive)
+     * @param handler the callback that receives each task record
+     * @throws DataAccessException if access to the data store fails, or if the
+     *      handler fails
+     */
+    public void processAllTaskRecordsInDateRange(Date startDate, Date endDate, TaskRecordHandler handler) throws DataAccessException {
+        final String methodName = "processAllTaskRecordsInDateRange";
+        LOGGER.entering(CLASSNAME, methodName, new Object[] {startDate, endDate, handler});
+
+        processTaskRecords(findTaskRecords(startDate, endDate), handler);
+
+        LOGGER.exiting(CLASSNAME, methodName);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param handler the callback that receives the times of each task
+     * @throws DataAccessException if access to the data store fails, or if the
+     *      handler fails
+     */
+    public void processAllTaskTimes(TaskTimeHandler handler) throws DataAccessException {
+        final String methodName = "processAllTaskTimes";
+        LOGGER.entering(CLASSNAME, methodName, handler);
+
+        processTaskTimes(null, null, handler);
+
+        LOGGER.exiting(CLASSNAME, methodName);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param startDate the start date in the date range (inclusive)
+     * @param endDate the end date in the date range (exclusive)
+     * @param handler the callback that receives the times of each task
+     * @throws DataAccessException if access to the data store fails, or if the
+     *      handler fails
+     */
+    public void processAllTaskTimesInDateRange(Date startDate, Date endDate, TaskTimeHandler handler) throws DataAccessException {
+        final String methodName = "processAllTaskTimesInDateRange";
+        LOGGER.entering(CLASSNAME, methodName, new Object[] {startDate, endDate, handler});
+
+        processTaskTimes(startDate, endDate, handler);
+
+        LOGGER.exiting(CLASSNAME, methodName);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param grouping {@link #GROUP_BY_TASK}, {@link #GROUP_BY_DAY} or
+     *      {@link #GROUP_BY_DESCRIPTION}
+     * @return the totals for each group
+     * @throws DataAccessException if access to the data store fails
+     */
+    public TaskTimeTotals findTimeTotals(int grouping) throws DataAccessException {
+        final String methodName = "findTimeTotals";
+        LOGGER.entering(CLASSNAME, methodName, Integer.valueOf(grouping));
+
+        TaskTimeTotals totals = findTimeTotals(grouping, null, null);
+
+        LOGGER.exiting(CLASSNAME, methodName, totals);
+        return totals;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param grouping {@link #GROUP_BY_TASK}, {@link #GROUP_BY_DAY} or
+     *      {@link #GROUP_BY_DESCRIPTION}
+     * @param startDate the start date in the date range (inclusive)
+     * @param endDate the end date in the date range (exclusive)
+     * @return the totals for each group
+     * @throws DataAccessException if access to the data store fails
+     */
+    public TaskTimeTotals findTimeTotalsInDateRange(int grouping, Date startDate, Date endDate) throws DataAccessException {
+        final String methodName = "findTimeTotalsInDateRange";
+        LOGGER.entering(CLASSNAME, methodName, new Object[] {Integer.valueOf(grouping), startDate, endDate});
+
+        TaskTimeTotals totals = findTimeTotals(grouping, startDate, endDate);
+
+        LOGGER.exiting(CLASSNAME, methodName, totals);
+        return totals;
+    }
+
+    /*
+     * Returns the records of the tasks that have a description, in start time
+     * order. A null start date selects all such tasks; otherwise only the tasks
+     * that started on or after the start date and ended before the end date are
+     * selected. Called while holding the read lock.
+     */
+    private static int[] selectTaskRows(Date startDate, Date endDate) {
+        MemoryTable tasks = MemoryStore.getTasks();
+
+        int first = 0;
+        long endTime = Long.MAX_VALUE;
+        if (startDate != null) {
+            first = tasks.findStartTime(MemoryTable.getDayStart(startDate.getTime()));
+            endTime = MemoryTable.getDayStart(endDate.getTime());
+        }
+
+        int[] rows = new int[tasks.size() - first];
+        int count = 0;
+        for (int i = first; i < tasks.size(); ++i) {
+            int row = tasks.getRowByStartTime(i);
+            if ((tasks.getDescription(row) == null) || ((startDate != null)
+                    && ((tasks.getEndTime(row) == MemoryTable.NULL) || (tasks.getEndTime(row) >= endTime)))) {
+                continue;
+            }
+            rows[count++] = row;
+        }
+
+        int[] selected = new int[count];
+        System.arraycopy(rows, 0, selected, 0, count);
+        return selected;
+    }
+
+    /*
+     * Returns the records of the tasks in a date range that the record log
+     * holds, if it has not been loaded into the store; otherwise returns null.
+     */
+    private static List findLoggedTaskRecords(Date startDate, Date endDate) throws DataAccessException {
+        if (startDate == null) {
+            return null;
+        }
+
+        List taskRecords = RecordLog.findTaskRecords(MemoryTable.getDayStart(startDate.getTime()),
+                MemoryTable.getDayStart(endDate.getTime()), true);
+        if (taskRecords != null) {
+            for (Iterator recordIter = taskRecords.iterator(); recordIter.hasNext();) {
+                if (((TaskRecord) recordIter.next()).getTask().getDescription() == null) {
+                    recordIter.remove();
+                }
+            }
+        }
+
+        return taskRecords;
+    }
+
+    private static List findTaskRecords(Date startDate, Date endDate) throws DataAccessException {
+        List taskRecords = findLoggedTaskRecords(startDate, endDate);
+        if (taskRecords != null) {
+            return taskRecords;
+        }
+
+        MemoryStore.ensureLoaded();
+        MemoryStore.readLock().lock();
+        try {
+            MemoryTable tasks = MemoryStore.getTasks();
+            MemoryTable interruptions = MemoryStore.getInterruptions();
+
+            int[] taskRows = selectTaskRows(startDate, endDate);
+            taskRecords = new ArrayList(taskRows.length);
+            for (int i = 0; i < taskRows.length; ++i) {
+                TaskRecord taskRecord = new TaskRecord(tasks.toTask(taskRows[i]));
+
+                int[] intrRows = MemoryStore.getInterruptionRows(taskRows[i]);
+                for (int j = 0; j < intrRows.length; ++j) {
+                    taskRecord.addInterruption((Interruption) interruptions.toTask(intrRows[j]));
+                }
+
+                taskRecords.add(taskRecord);
+            }
+        } finally {
+            MemoryStore.readLock().unlock();
+        }
+
+        return taskRecords;
+    }
+
+    private static void processTaskRecords(List taskRecords, TaskRecordHandler handler) throws DataAccessException {
+        for (Iterator recordIter = taskRecords.iterator(); recordIter.hasNext();) {
+            handler.handleTaskRecord((TaskRecord) recordIter.next());
+        }
+    }
+
+    private static void processTaskTimes(Date startDate, Date endDate, TaskTimeHandler handler) throws DataAccessException {
+        List taskRecords = findLoggedTaskRecords(startDate, endDate);
+        if (taskRecords != null) {
+            for (Iterator recordIter = taskRecords.iterator(); recordIter.hasNext();) {
+                TaskRecord taskRecord = (TaskRecord) recordIter.next();
+                Task task = taskRecord.getTask();
+
+                // the total time of the completed interruptions, as in the store
+                long interruptionMillis = 0L;
+                for (Iterator intrIter = taskRecord.getInterruptions().iterator(); intrIter.hasNext();) {
+                    Interruption intr = (Interruption) intrIter.next();
+                    if ((intr.getStartTime() != null) && (intr.getEndTime() != null)) {
+                        interruptionMillis += intr.getEndTime().getTime() - intr.getStartTime().getTime();
+                    }
+                }
+
+                handler.handleTaskTime(task.getId().longValue(), task.getDescription(), task.getStartTime(), task.getEndTime(),
+                        interruptionMillis);
+            }
+            return;
+        }
+
+        long[] ids;
+        String[] descriptions;
+        long[] startTimes;
+        long[] endTimes;
+        long[] interruptionMillis;
+
+        MemoryStore.ensureLoaded();
+        MemoryStore.readLock().lock();
+        try {
+            MemoryTable tasks = MemoryStore.getTasks();
+
+            int[] rows = selectTaskRows(startDate, endDate);
+            ids = new long[rows.length];
+            descriptions = new String[rows.length];
+            startTimes = new long[rows.length];
+            endTimes = new long[rows.length];
+            interruptionMillis = new long[rows.length];
+            for (int i = 0; i < rows.length; ++i) {
+                ids[i] = rows[i] + 1;
+                descriptions[i] = tasks.getDescription(rows[i]);
+                startTimes[i] = tasks.getStartTime(rows[i]);
+                endTimes[i] = tasks.getEndTime(rows[i]);
+                interruptionMillis[i] = MemoryStore.getInterruptionMillis(rows[i]);
+            }
+        } finally {
+            MemoryStore.readLock().unlock();
+        }
+
+        for (int i = 0; i < ids.length; ++i) {
+            Date start = (startTimes[i] != MemoryTable.NULL) ? new Date(startTimes[i]) : null;
+            Date end = (endTimes[i] != MemoryTable.NULL) ? new Date(endTimes[i]) : null;
+            handler.handleTaskTime(ids[i], descriptions[i], start, end, interruptionMillis[i]);
+        }
+    }
+
+    /*
+     * Totals the completed tasks in the order of a grouping. Unlike the other
+     * reports, the totals by day include the tasks without a description.
+     */
+    private static TaskTimeTotals findTimeTotals(int grouping, Date startDate, Date endDate) throws DataAccessException {
+        if ((grouping != GROUP_BY_TASK) && (grouping != GROUP_BY_DAY) && (grouping != GROUP_BY_DESCRIPTION)) {
+            throw new DataAccessException("unknown grouping: " + grouping);
+        }
+
+        TaskTimeTotals totals = new TaskTimeTotals(grouping);
+
+        // day start (Long) or description -> {task count, gross, interruption}
+        Map groups = new TreeMap();
+
+        MemoryStore.ensureLoaded();
+        MemoryStore.readLock().lock();
+        try {
+            MemoryTable tasks = MemoryStore.getTasks();
+
+            int first = tasks.findStartTime(MemoryTable.NULL + 1);
+            long endTime = Long.MAX_VALUE;
+            if (startDate != null) {
+                first = tasks.findStartTime(MemoryTable.getDayStart(startDate.getTime()));
+                endTime = MemoryTable.getDayStart(endDate.getTime());
+            }
+
+            for (int i = first; i < tasks.size(); ++i) {
+                int row = tasks.getRowByStartTime(i);
+                long start = tasks.getStartTime(row);
+                long end = tasks.getEndTime(row);
+                String description = tasks.getDescription(row);
+                if ((end == MemoryTable.NULL) || (end >= endTime) || ((description == null) && (grouping != GROUP_BY_DAY))) {
+                    continue;
+                }
+
+                long gross = end - start;
+                long interruption = MemoryStore.getInterruptionMillis(row);
+                if (grouping == GROUP_BY_TASK) {
+                    totals.add(row + 1, 0L, description, 1, gross, interruption);
+                    continue;
+                }
+
+                Object key = (grouping == GROUP_BY_DAY) ? (Object) Long.valueOf(MemoryTable.getDayStart(start)) : description;
+                long[] group = (long[]) groups.get(key);
+                if (group == null) {
+                    group = new long[3];
+                    groups.put(key, group);
+                }
+                ++group[0];
+                group[1] += gross;
+                group[2] += interruption;
+            }
+        } finally {
+            MemoryStore.readLock().unlock();
+        }
+
+        for (Iterator groupIter = groups.entrySet().iterator(); groupIter.hasNext();) {
+            Map.Entry entry = (Map.Entry) groupIter.next();
+            long[] group = (long[]) entry.getValue();
+            if (grouping == GROUP_BY_DAY) {
+                totals.add(0L, ((Long) entry.getKey()).longValue(), null, (int) group[0], group[1], group[2]);
+            } else {
+                totals.add(0L, 0L, (String) entry.getKey(), (int) group[0], group[1], group[2]);
+            }
+        }
+
+        return totals;
+    }
+}
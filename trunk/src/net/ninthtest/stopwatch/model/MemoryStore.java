@@ -0,0 +1,334 @@
+/*
+ * $Id$
+ */
+
+package net.ninthtest.stopwatch.model;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Logger;
+
+/**
+ * This class holds the tasks and interruptions of the in-memory DAOs.
+ *
+ * <P>Tasks and interruptions are held in a {@link MemoryTable} each. The
+ * interruptions of each task are chained by ID, so the interruptions of a task
+ * are found without searching the interruptions table.</P>
+ *
+ * <P>The tables are read while holding the read lock and written while
+ * holding the write lock. Nothing is kept between sessions unless the
+ * {@link RecordLog} is open, in which case every change is written to the log
+ * before it is made, and the tables are loaded from the log when it is
+ * opened, or before they are first used if the log defers that.</P>
+ *
+ * @author Matthew Zipay (ninthtest@gmail.com)
+ * @version $Revision$
+ */
+final class MemoryStore {
+    private static final String CLASSNAME = MemoryStore.class.getName();
+
+    private static final Logger LOGGER = Logger.getLogger(MemoryStore.class.getPackage().getName());
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private static final ReadWriteLock LOCK = new ReentrantReadWriteLock();
+
+    private static MemoryTable tasks = new MemoryTable(false);
+
+    private static MemoryTable interruptions = new MemoryTable(true);
+
+    /* the first and last interruption ID of each task row (0 if none) */
+    private static long[] firstInterruptionIds = new long[INITIAL_CAPACITY];
+
+    private static long[] lastInterruptionIds = new long[INITIAL_CAPACITY];
+
+    /* the next interruption ID of the same task, by interruption row (0 if none) */
+    private static long[] nextInterruptionIds = new long[INITIAL_CAPACITY];
+
+    /**
+     * Loads the tables from the {@link RecordLog} if the log deferred that
+     * when it was opened. Called before taking either lock.
+     *
+     * @throws DataAccessException if the log cannot be read
+     */
+    static void ensureLoaded() throws DataAccessException {
+        if (RecordLog.isDeferred()) {
+            RecordLog.loadDeferred();
+        }
+    }
+
+    /**
+     * Returns the lock held while reading the tables.
+     *
+     * @return the read lock
+     */
+    static Lock readLock() {
+        return LOCK.readLock();
+    }
+
+    /**
+     * Returns the lock held while writing the tables.
+     *
+     * @return the write lock
+     */
+    static Lock writeLock() {
+        return LOCK.writeLock();
+    }
+
+    /**
+     * Returns the tasks table.
+     *
+     * @return the tasks
+     */
+    static MemoryTable getTasks() {
+        return tasks;
+    }
+
+    /**
+     * Returns the interruptions table.
+     *
+     * @return the interruptions
+     */
+    static MemoryTable getInterruptions() {
+        return interruptions;
+    }
+
+    /**
+     * Stores tasks. If the store is backed by the {@link RecordLog}, the tasks
+     * are written to the log first, and nothing is changed if that fails. New
+     * tasks are assigned their IDs. Called while holding the write lock.
+     *
+     * @param updateTasks the stored tasks to be replaced
+     * @param insertTasks the new tasks
+     * @throws DataAccessException if the tasks cannot be written to the log
+     */
+    static void saveTasks(List updateTasks, List insertTasks) throws DataAccessException {
+        if (RecordLog.isOpen()) {
+            // the new tasks are assigned the next IDs in sequence
+            RecordLog.appendTasks(updateTasks, insertTasks, tasks.size() + 1);
+        }
+
+        for (Iterator taskIter = updateTasks.iterator(); taskIter.hasNext();) {
+            Task task = (Task) taskIter.next();
+            putTask(task.getId().longValue(), task.getDescription(), MemoryTable.toTime(task.getStartTime()),
+                    MemoryTable.toTime(task.getEndTime()), MemoryTable.toDuration(task.getDuration()));
+        }
+        for (Iterator taskIter = insertTasks.iterator(); taskIter.hasNext();) {
+            Task task = (Task) taskIter.next();
+            long id = tasks.size() + 1;
+            putTask(id, task.getDescription(), MemoryTable.toTime(task.getStartTime()),
+                    MemoryTable.toTime(task.getEndTime()), MemoryTable.toDuration(task.getDuration()));
+            task.setId(Long.valueOf(id));
+        }
+    }
+
+    /**
+     * Stores interruptions of stored tasks. If the store is backed by the
+     * {@link RecordLog}, the interruptions are written to the log first, and
+     * nothing is changed if that fails. New interruptions are assigned their
+     * IDs. Called while holding the write lock.
+     *
+     * @param updateInterruptions the stored interruptions to be replaced
+     * @param insertInterruptions the new interruptions
+     * @throws DataAccessException if the interruptions cannot be written to
+     *      the log
+     */
+    static void saveInterruptions(List updateInterruptions, List insertInterruptions) throws DataAccessException {
+        if (RecordLog.isOpen()) {
+            // the new interruptions are assigned the next IDs in sequence
+            RecordLog.appendInterruptions(updateInterruptions, insertInterruptions, interruptions.size() + 1);
+        }
+
+        for (Iterator intrIter = updateInterruptions.iterator(); intrIter.hasNext();) {
+            Interruption intr = (Interruption) intrIter.next();
+            putInterruption(intr.getId().longValue(), intr.getRelatedTaskId().longValue(), intr.getDescription(),
+                    MemoryTable.toTime(intr.getStartTime()), MemoryTable.toTime(intr.getEndTime()), MemoryTable.toDuration(intr.getDuration()));
+        }
+        for (Iterator intrIter = insertInterruptions.iterator(); intrIter.hasNext();) {
+            Interruption intr = (Interruption) intrIter.next();
+            long id = interruptions.size() + 1;
+            putInterruption(id, intr.getRelatedTaskId().longValue(), intr.getDescription(),
+                    MemoryTable.toTime(intr.getStartTime()), MemoryTable.toTime(intr.getEndTime()), MemoryTable.toDuration(intr.getDuration()));
+            intr.setId(Long.valueOf(id));
+        }
+    }
+
+    /**
+     * Adds or replaces a task. A new task must have the next ID in sequence.
+     * Called while holding the write lock.
+     *
+     * @param id the task ID
+     * @param description the description
+     * @param startTime the start time, or {@link MemoryTable#NULL}
+     * @param endTime the end time, or {@link MemoryTable#NULL}
+     * @param duration the duration in nanoseconds, or {@link MemoryTable#NULL}
+     * @return <CODE>false</CODE> if <I>id</I> is neither stored nor the next
+     *      ID
+     */
+    static boolean putTask(long id, String description, long startTime, long endTime, long duration) {
+        int row = tasks.getRow(id);
+        if (row != -1) {
+            tasks.update(row, DescriptionDictionary.intern(description), startTime, endTime, duration);
+            return true;
+        } else if (id != tasks.size() + 1) {
+            return false;
+        }
+
+        tasks.insert(0L, DescriptionDictionary.intern(description), startTime, endTime, duration);
+
+        row = tasks.getRow(id);
+        if (row == firstInterruptionIds.length) {
+            firstInterruptionIds = copyOf(firstInterruptionIds, row * 2);
+            lastInterruptionIds = copyOf(lastInterruptionIds, row * 2);
+        }
+
+        return true;
+    }
+
+    /**
+     * Adds or replaces an interruption of a stored task. A new interruption
+     * must have the next ID in sequence. Called while holding the write lock.
+     *
+     * @param id the interruption ID
+     * @param relatedTaskId the interrupted task's ID
+     * @param description the description
+     * @param startTime the start time, or {@link MemoryTable#NULL}
+     * @param endTime the end time, or {@link MemoryTable#NULL}
+     * @param duration the duration in nanoseconds, or {@link MemoryTable#NULL}
+     * @return <CODE>false</CODE> if <I>id</I> is neither stored (for the
+     *      task) nor the next ID, or if the task has not been stored
+     */
+    static boolean putInterruption(long id, long relatedTaskId, String description, long startTime, long endTime, long duration) {
+        int taskRow = tasks.getRow(relatedTaskId);
+        int row = interruptions.getRow(id);
+        if (row != -1) {
+            if (interruptions.getRelatedTaskId(row) != relatedTaskId) {
+                return false;
+            }
+            interruptions.update(row, DescriptionDictionary.intern(description), startTime, endTime, duration);
+            return true;
+        } else if ((taskRow == -1) || (id != interruptions.size() + 1)) {
+            return false;
+        }
+
+        interruptions.insert(relatedTaskId, DescriptionDictionary.intern(description), startTime, endTime, duration);
+
+        row = interruptions.getRow(id);
+        if (row == nextInterruptionIds.length) {
+            nextInterruptionIds = copyOf(nextInterruptionIds, row * 2);
+        }
+
+        if (lastInterruptionIds[taskRow] == 0L) {
+            firstInterruptionIds[taskRow] = id;
+        } else {
+            nextInterruptionIds[interruptions.getRow(lastInterruptionIds[taskRow])] = id;
+        }
+        lastInterruptionIds[taskRow] = id;
+
+        return true;
+    }
+
+    /**
+     * Returns the interruption rows of a task, in start time order. Called
+     * while holding the read lock.
+     *
+     * @param taskRow the task row
+     * @return the interruption rows
+     */
+    static int[] getInterruptionRows(int taskRow) {
+        int count = 0;
+        for (long id = firstInterruptionIds[taskRow]; id != 0L; id = nextInterruptionIds[(int) (id - 1)]) {
+            ++count;
+        }
+
+        int[] rows = new int[count];
+        int n = 0;
+        for (long id = firstInterruptionIds[taskRow]; id != 0L; id = nextInterruptionIds[(int) (id - 1)]) {
+            // insertion sort, since a task has few interruptions (mostly in order already)
+            int row = (int) (id - 1);
+            long startTime = interruptions.getStartTime(row);
+            int i = n++;
+            while ((i > 0) && (interruptions.getStartTime(rows[i - 1]) > startTime)) {
+                rows[i] = rows[i - 1];
+                --i;
+            }
+            rows[i] = row;
+        }
+
+        return rows;
+    }
+
+    /**
+     * Returns the total time of the completed interruptions of a task. Called
+     * while holding the read lock.
+     *
+     * @param taskRow the task row
+     * @return the interruption time, in milliseconds
+     */
+    static long getInterruptionMillis(int taskRow) {
+        long millis = 0L;
+        for (long id = firstInterruptionIds[taskRow]; id != 0L; id = nextInterruptionIds[(int) (id - 1)]) {
+            int row = (int) (id - 1);
+            long startTime = interruptions.getStartTime(row);
+            long endTime = interruptions.getEndTime(row);
+            if ((startTime != MemoryTable.NULL) && (endTime != MemoryTable.NULL)) {
+                millis += endTime - startTime;
+            }
+        }
+
+        return millis;
+    }
+
+    /**
+     * Returns the number of completed interruptions of a task. Called while
+     * holding the read lock.
+     *
+     * @param taskRow the task row
+     * @return the interruption count
+     */
+    static int getInterruptionCount(int taskRow) {
+        int count = 0;
+        for (long id = firstInterruptionIds[taskRow]; id != 0L; id = nextInterruptionIds[(int) (id - 1)]) {
+            int row = (int) (id - 1);
+            if ((interruptions.getStartTime(row) != MemoryTable.NULL) && (interruptions.getEndTime(row) != MemoryTable.NULL)) {
+                ++count;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Discards all tasks and interruptions.
+     */
+    static void clear() {
+        final String methodName = "clear";
+        LOGGER.entering(CLASSNAME, methodName);
+
+        LOCK.writeLock().lock();
+        try {
+            tasks = new MemoryTable(false);
+            interruptions = new MemoryTable(true);
+            firstInterruptionIds = new long[INITIAL_CAPACITY];
+            lastInterruptionIds = new long[INITIAL_CAPACITY];
+            nextInterruptionIds = new long[INITIAL_CAPACITY];
+        } finally {
+            LOCK.writeLock().unlock();
+        }
+
+        LOGGER.exiting(CLASSNAME, methodName);
+    }
+
+    private static long[] copyOf(long[] values, int capacity) {
+        long[] copy = new long[capacity];
+        System.arraycopy(values, 0, copy, 0, values.length);
+        return copy;
+    }
+
+    private MemoryStore() {
+        // never instantiated
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * $Id$
+ */
+
+package net.ninthtest.stopwatch.model;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+/**
+ * This class provides access to summarized task data that is kept in memory
+ * only. Summaries are calculated when they are requested, from the completed
+ * tasks that started in the date range (found by a binary search of the tasks
+ * in start time order).
+ *
+ * @author Matthew Zipay (ninthtest@gmail.com)
+ * @version $Revision$
+ */
+public class MemorySummaryDAO implements SummaryDAO {
+    private static final String CLASSNAME = MemorySummaryDAO.class.getName();
+
+    private static final Logger LOGGER = Logger.getLogger(MemorySummaryDAO.class.getPackage().getName());
+
+    /* how the summaries of each day are grouped */
+    private static final int DAYS = 0;
+
+    private static final int WEEKS = 1;
+
+    private static final int ALL_DAYS = 2;
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param startDate the start date in the date range (inclusive)
+     * @param endDate the end date in the date range (exclusive)
+     * @return a list of task summaries ordered by day, then description
+     * @throws DataAccessException if access to the data store fails
+     */
+    public List findDailySummaries(Date startDate, Date endDate) throws DataAccessException {
+        final String methodName = "findDailySummaries";
+        LOGGER.entering(CLASSNAME, methodName, new Object[] {startDate, endDate});
+
+        List summaries = findSummaries(startDate, endDate, DAYS);
+
+        LOGGER.exiting(CLASSNAME, methodName, summaries);
+        return summaries;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param startDate the start date in the date range (inclusive)
+     * @param endDate the end date in the date range (exclusive)
+     * @return a list of task summaries ordered by week, then description
+     * @throws DataAccessException if access to the data store fails
+     */
+    public List findWeeklySummaries(Date startDate, Date endDate) throws DataAccessException {
+        final String methodName = "findWeeklySummaries";
+        LOGGER.entering(CLASSNAME, methodName, new Object[] {startDate, endDate});
+
+        List summaries = findSummaries(startDate, endDate, WEEKS);
+
+        LOGGER.exiting(CLASSNAME, methodName, summaries);
+        return summaries;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param startDate the start date in the date range (inclusive)
+     * @param endDate the end date in the date range (exclusive)
+     * @return a list of task summaries (without period start dates) ordered by
+     *      description
+     * @throws DataAccessException if access to the data store fails
+     */
+    public List findDescriptionSummaries(Date startDate, Date endDate) throws DataAccessException {
+        final String methodName = "findDescriptionSummaries";
+        LOGGER.entering(CLASSNAME, methodName, new Object[] {startDate, endDate});
+
+        List summaries = findSummaries(startDate, endDate, ALL_DAYS);
+
+        LOGGER.exiting(CLASSNAME, methodName, summaries);
+        return summaries;
+    }
+
+    /*
+     * Summarizes the completed tasks with a description that started in a
+     * date range, by period (day or week, unless all days are summarized
+     * together), then by description.
+     */
+    private static List findSummaries(Date startDate, Date endDate, int period) throws DataAccessException {
+        long startTime = MemoryTable.getDayStart(startDate.getTime());
+        long endTime = MemoryTable.getDayStart(endDate.getTime());
+
+        // period start (Long) -> description -> summary
+        Map periods = new TreeMap();
+        Calendar cal = Calendar.getInstance();
+
+        MemoryStore.ensureLoaded();
+        MemoryStore.readLock().lock();
+        try {
+            MemoryTable tasks = MemoryStore.getTasks();
+            for (int i = tasks.findStartTime(startTime), last = tasks.findStartTime(endTime); i < last; ++i) {
+                int row = tasks.getRowByStartTime(i);
+                String description = tasks.getDescription(row);
+                long start = tasks.getStartTime(row);
+                long end = tasks.getEndTime(row);
+                if ((description == null) || (end == MemoryTable.NULL)) {
+                    continue;
+                }
+
+                // all days are summarized under one key
+                Long periodStart = Long.valueOf(MemoryTable.NULL);
+                if (period != ALL_DAYS) {
+                    cal.setTimeInMillis(MemoryTable.getDayStart(start));
+                    if (period == WEEKS) {
+                        cal.set(Calendar.DAY_OF_WEEK, cal.getFirstDayOfWeek());
+                    }
+                    periodStart = Long.valueOf(cal.getTimeInMillis());
+                }
+
+                Map summaries = (Map) periods.get(periodStart);
+                if (summaries == null) {
+                    summaries = new TreeMap();
+                    periods.put(periodStart, summaries);
+                }
+
+                TaskSummary summary = (TaskSummary) summaries.get(description);
+                if (summary == null) {
+                    summary = new TaskSummary((period != ALL_DAYS) ? new Date(periodStart.longValue()) : null, description, 0, 0L, 0, 0L);
+                    summaries.put(description, summary);
+                }
+                summary.add(new TaskSummary(null, description, 1, end - start,
+                        MemoryStore.getInterruptionCount(row), MemoryStore.getInterruptionMillis(row)));
+            }
+        } finally {
+            MemoryStore.readLock().unlock();
+        }
+
+        List summaries = new ArrayList();
+        for (Iterator periodIter = periods.values().iterator(); periodIter.hasNext();) {
+            summaries.addAll(((Map) periodIter.next()).values());
+        }
+
+        return summaries;
+    }
+}
@@ -0,0 +1,490 @@
+/*
+ * $Id$
+ */
+
+package net.ninthtest.stopwatch.model;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Comparator;
+import java.util.Date;
+
+/**
+ * This class holds the rows of the in-memory task or interruption table.
+ *
+ * <P>Each column is an array indexed by row, and the row of an ID is the ID
+ * minus one, since IDs are assigned in sequence from 1. A separate array holds
+ * the rows in start time order (rows without a start time first, then by ID),
+ * so the rows that started in a date range are found by a binary search.
+ * Missing times and durations are held as {@link #NULL}.</P>
+ *
+ * <P>This class is not thread-safe; {@link MemoryStore} guards it.</P>
+ *
+ * @author Matthew Zipay (ninthtest@gmail.com)
+ * @version $Revision$
+ */
+final class MemoryTable {
+    /** The value of a missing time or duration. */
+    static final long NULL = Long.MIN_VALUE;
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private boolean interruptions;
+
+    private int size;
+
+    private long[] relatedTaskIds;
+
+    private String[] descriptions = new String[INITIAL_CAPACITY];
+
+    private long[] startTimes = new long[INITIAL_CAPACITY];
+
+    private long[] endTimes = new long[INITIAL_CAPACITY];
+
+    private long[] durations = new long[INITIAL_CAPACITY];
+
+    /* rows, ordered by start time, then by row */
+    private int[] byStartTime = new int[INITIAL_CAPACITY];
+
+    /**
+     * Creates an empty table.
+     *
+     * @param interruptions <CODE>true</CODE> if the table holds interruptions
+     */
+    MemoryTable(boolean interruptions) {
+        this.interruptions = interruptions;
+        relatedTaskIds = interruptions ? new long[INITIAL_CAPACITY] : null;
+    }
+
+    /**
+     * Returns the number of rows.
+     *
+     * @return the row count
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the row of an ID.
+     *
+     * @param id a task or interruption ID
+     * @return the row, or <CODE>-1</CODE> if no row has the ID
+     */
+    int getRow(long id) {
+        return ((id >= 1) && (id <= size)) ? (int) (id - 1) : -1;
+    }
+
+    /**
+     * Adds a row, and returns its ID.
+     *
+     * @param relatedTaskId the interrupted task's ID (interruptions only)
+     * @param description the description
+     * @param startTime the start time, or {@link #NULL}
+     * @param endTime the end time, or {@link #NULL}
+     * @param duration the duration in nanoseconds, or {@link #NULL}
+     * @return the ID of the new row
+     */
+    long insert(long relatedTaskId, String description, long startTime, long endTime, long duration) {
+        if (size == descriptions.length) {
+            grow();
+        }
+
+        int row = size++;
+        if (interruptions) {
+            relatedTaskIds[row] = relatedTaskId;
+        }
+        descriptions[row] = description;
+        startTimes[row] = startTime;
+        endTimes[row] = endTime;
+        durations[row] = duration;
+
+        // the new row has the highest ID, so it follows every row with its start time
+        int index = upperBound(startTime, size - 1);
+        System.arraycopy(byStartTime, index, byStartTime, index + 1, size - 1 - index);
+        byStartTime[index] = row;
+
+        return row + 1;
+    }
+
+    /**
+     * Replaces the values of a row.
+     *
+     * @param row the row
+     * @param description the description
+     * @param startTime the start time, or {@link #NULL}
+     * @param endTime the end time, or {@link #NULL}
+     * @param duration the duration in nanoseconds, or {@link #NULL}
+     */
+    void update(int row, String description, long startTime, long endTime, long duration) {
+        if (startTimes[row] != startTime) {
+            // move the row to its new place in start time order
+            int from = indexOf(row);
+            System.arraycopy(byStartTime, from + 1, byStartTime, from, size - 1 - from);
+
+            startTimes[row] = startTime;
+            int to = lowerBound(startTime, row, size - 1);
+            System.arraycopy(byStartTime, to, byStartTime, to + 1, size - 1 - to);
+            byStartTime[to] = row;
+        }
+
+        descriptions[row] = description;
+        endTimes[row] = endTime;
+        durations[row] = duration;
+    }
+
+    /**
+     * Returns the row at a position in start time order.
+     *
+     * @param index the position
+     * @return the row
+     */
+    int getRowByStartTime(int index) {
+        return byStartTime[index];
+    }
+
+    /**
+     * Returns the first position in start time order whose start time is not
+     * before a time.
+     *
+     * @param time a time, in milliseconds
+     * @return the position (the row count if every row started before)
+     */
+    int findStartTime(long time) {
+        return lowerBound(time, -1, size);
+    }
+
+    long getRelatedTaskId(int row) {
+        return relatedTaskIds[row];
+    }
+
+    String getDescription(int row) {
+        return descriptions[row];
+    }
+
+    long getStartTime(int row) {
+        return startTimes[row];
+    }
+
+    long getEndTime(int row) {
+        return endTimes[row];
+    }
+
+    long getDuration(int row) {
+        return durations[row];
+    }
+
+    /**
+     * Indicates whether a row passes the filters of some criteria, exactly as
+     * {@link QueryCriteria#accepts(Task)} would decide.
+     *
+     * @param row the row
+     * @param criteria the query criteria
+     * @return <CODE>true</CODE> if the row would be selected
+     */
+    boolean accepts(int row, QueryCriteria criteria) {
+        Date startDate = criteria.getStartDate();
+        Date endDate = criteria.getEndDate();
+        if ((startDate != null) || (endDate != null)) {
+            long startTime = startTimes[row];
+            if ((startTime == NULL) || ((startDate != null) && (startTime < startDate.getTime()))
+                    || ((endDate != null) && (startTime >= endDate.getTime()))) {
+                return false;
+            }
+        }
+
+        String prefix = criteria.getDescriptionPrefix();
+        if (prefix != null) {
+            String description = descriptions[row];
+            if ((description == null) || (description.compareTo(prefix) < 0)
+                    || (description.compareTo(prefix + '\uffff') >= 0)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the number of rows that pass the filters of some criteria.
+     *
+     * @param criteria the query criteria
+     * @return the row count
+     */
+    int count(QueryCriteria criteria) {
+        int count = 0;
+        for (int i = getFirstCandidate(criteria), last = getLastCandidate(criteria); i < last; ++i) {
+            if (accepts(byStartTime[i], criteria)) {
+                ++count;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Returns the rows that pass the filters of some criteria, in the order of
+     * the criteria (see {@link QueryCriteria#compare(Task, Task)}). Only the
+     * rows that started in the date range of the criteria are examined.
+     *
+     * @param criteria the query criteria
+     * @return the rows
+     */
+    int[] select(QueryCriteria criteria) {
+        int first = getFirstCandidate(criteria);
+        int last = getLastCandidate(criteria);
+
+        int[] rows = new int[Math.max(0, last - first)];
+        int count = 0;
+        for (int i = first; i < last; ++i) {
+            if (accepts(byStartTime[i], criteria)) {
+                rows[count++] = byStartTime[i];
+            }
+        }
+        if (count < rows.length) {
+            int[] selected = new int[count];
+            System.arraycopy(rows, 0, selected, 0, count);
+            rows = selected;
+        }
+
+        // the rows are in start time order already
+        final String column = criteria.getSortColumn();
+        if (QueryCriteria.ID.equals(column)) {
+            Arrays.sort(rows);
+        } else if (!QueryCriteria.START_TIME.equals(column)) {
+            Integer[] boxed = new Integer[rows.length];
+            for (int i = 0; i < rows.length; ++i) {
+                boxed[i] = Integer.valueOf(rows[i]);
+            }
+
+            Arrays.sort(boxed, new Comparator() {
+                public int compare(Object obj1, Object obj2) {
+                    int row1 = ((Integer) obj1).intValue();
+                    int row2 = ((Integer) obj2).intValue();
+
+                    int result = compareColumn(column, row1, row2);
+                    return (result != 0) ? result : ((row1 < row2) ? -1 : ((row1 == row2) ? 0 : 1));
+                }
+            });
+
+            for (int i = 0; i < rows.length; ++i) {
+                rows[i] = boxed[i].intValue();
+            }
+        }
+
+        if (!criteria.isAscending()) {
+            for (int i = 0, j = rows.length - 1; i < j; ++i, --j) {
+                int row = rows[i];
+                rows[i] = rows[j];
+                rows[j] = row;
+            }
+        }
+
+        return rows;
+    }
+
+    /**
+     * Returns the position of the first selected row that follows a task or
+     * interruption in the order of some criteria.
+     *
+     * @param rows the rows selected by the criteria
+     * @param criteria the query criteria
+     * @param last the task or interruption
+     * @return the position (the number of rows if none follows)
+     */
+    int findAfter(int[] rows, QueryCriteria criteria, Task last) {
+        int low = 0;
+        int high = rows.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (criteria.compare(toTask(rows[mid]), last) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * Returns a row as a task or interruption.
+     *
+     * @param row the row
+     * @return a new {@link Task} or {@link Interruption}
+     */
+    Task toTask(int row) {
+        Long id = Long.valueOf(row + 1);
+        Date start = toDate(startTimes[row]);
+        Date end = toDate(endTimes[row]);
+        Long duration = (durations[row] != NULL) ? Long.valueOf(durations[row]) : null;
+
+        if (interruptions) {
+            return new Interruption(id, Long.valueOf(relatedTaskIds[row]), descriptions[row], start, end, duration);
+        }
+        return new Task(id, descriptions[row], start, end, duration);
+    }
+
+    /**
+     * Returns the value of a time column.
+     *
+     * @param date a date, or <CODE>null</CODE>
+     * @return the time in milliseconds, or {@link #NULL}
+     */
+    static long toTime(Date date) {
+        return (date != null) ? date.getTime() : NULL;
+    }
+
+    /**
+     * Returns the value of a duration column.
+     *
+     * @param duration a duration in nanoseconds, or <CODE>null</CODE>
+     * @return the duration, or {@link #NULL}
+     */
+    static long toDuration(Long duration) {
+        return (duration != null) ? duration.longValue() : NULL;
+    }
+
+    /**
+     * Returns the start of the day of a time, which is how the database
+     * compares a date with a timestamp.
+     *
+     * @param time a time, in milliseconds
+     * @return midnight of the day (local time), in milliseconds
+     */
+    static long getDayStart(long time) {
+        Calendar cal = Calendar.getInstance();
+        cal.setTimeInMillis(time);
+        cal.set(Calendar.HOUR_OF_DAY, 0);
+        cal.set(Calendar.MINUTE, 0);
+        cal.set(Calendar.SECOND, 0);
+        cal.set(Calendar.MILLISECOND, 0);
+
+        return cal.getTimeInMillis();
+    }
+
+    /**
+     * Returns the date of a time column value.
+     *
+     * @param time a time in milliseconds, or {@link #NULL}
+     * @return the date, or <CODE>null</CODE>
+     */
+    static Date toDate(long time) {
+        return (time != NULL) ? new Date(time) : null;
+    }
+
+    /*
+     * Returns the first position in start time order that may pass the date
+     * filters of some criteria.
+     */
+    private int getFirstCandidate(QueryCriteria criteria) {
+        if (criteria.getStartDate() != null) {
+            return findStartTime(criteria.getStartDate().getTime());
+        } else if (criteria.getEndDate() != null) {
+            // rows without a start time are not in any date range
+            return findStartTime(NULL + 1);
+        }
+
+        return 0;
+    }
+
+    /*
+     * Returns the position that follows the last one in start time order that
+     * may pass the date filters of some criteria.
+     */
+    private int getLastCandidate(QueryCriteria criteria) {
+        return (criteria.getEndDate() != null) ? findStartTime(criteria.getEndDate().getTime()) : size;
+    }
+
+    /*
+     * Compares the sort column of two rows; NULL values come first.
+     */
+    private int compareColumn(String column, int row1, int row2) {
+        if (QueryCriteria.DESCRIPTION.equals(column)) {
+            String description1 = descriptions[row1];
+            String description2 = descriptions[row2];
+            if (description1 == null) {
+                return (description2 == null) ? 0 : -1;
+            }
+            return (description2 == null) ? 1 : description1.compareTo(description2);
+        }
+
+        // NULL sorts first as the least long value
+        long value1 = QueryCriteria.RELATED_TASK_ID.equals(column) ? relatedTaskIds[row1] : endTimes[row1];
+        long value2 = QueryCriteria.RELATED_TASK_ID.equals(column) ? relatedTaskIds[row2] : endTimes[row2];
+        return (value1 < value2) ? -1 : ((value1 == value2) ? 0 : 1);
+    }
+
+    /*
+     * Returns the position of a row in start time order.
+     */
+    private int indexOf(int row) {
+        return lowerBound(startTimes[row], row, size);
+    }
+
+    /*
+     * Returns the first of the first count positions whose row sorts at or
+     * after (startTime, row).
+     */
+    private int lowerBound(long startTime, int row, int count) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int midRow = byStartTime[mid];
+            long midTime = startTimes[midRow];
+            if ((midTime < startTime) || ((midTime == startTime) && (midRow < row))) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+
+    /*
+     * Returns the first of the first count positions whose start time is after
+     * a time.
+     */
+    private int upperBound(long startTime, int count) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (startTimes[byStartTime[mid]] <= startTime) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+
+    private void grow() {
+        int capacity = descriptions.length * 2;
+
+        if (interruptions) {
+            relatedTaskIds = copyOf(relatedTaskIds, capacity);
+        }
+
+        String[] newDescriptions = new String[capacity];
+        System.arraycopy(descriptions, 0, newDescriptions, 0, size);
+        descriptions = newDescriptions;
+
+        startTimes = copyOf(startTimes, capacity);
+        endTimes = copyOf(endTimes, capacity);
+        durations = copyOf(durations, capacity);
+
+        int[] newByStartTime = new int[capacity];
+        System.arraycopy(byStartTime, 0, newByStartTime, 0, size);
+        byStartTime = newByStartTime;
+    }
+
+    private static long[] copyOf(long[] values, int capacity) {
+        long[] copy = new long[capacity];
+        System.arraycopy(values, 0, copy, 0, values.length);
+        return copy;
+    }
+}
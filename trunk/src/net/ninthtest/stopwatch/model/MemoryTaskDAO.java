@@ -0,0 +1,340 @@
+/*
+ * $Id$
+ */
+
+package net.ninthtest.stopwatch.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * This class provides access to task data that is kept in memory only.
+ *
+ * <P>The tasks are held in the {@link MemoryStore}, in start time order, and
+ * are lost when the application exits unless the store is backed by the
+ * {@link RecordLog} (<CODE>implementation=LOG</CODE>). A stored task is a
+ * copy, so changes to a task are not seen until it is saved again.</P>
+ *
+ * @author Matthew Zipay (ninthtest@gmail.com)
+ * @version $Revision$
+ */
+public class MemoryTaskDAO implements TaskDAO {
+    private static final String CLASSNAME = MemoryTaskDAO.class.getName();
+
+    private static final Logger LOGGER = Logger.getLogger(MemoryTaskDAO.class.getPackage().getName());
+
+    /**
+     * {@inheritDoc}
+     *
+     * @return a list of tasks
+     * @throws DataAccessException if access to the data store fails
+     */
+    public List findAllTasks() throws DataAccessException {
+        final String methodName = "findAllTasks";
+        LOGGER.entering(CLASSNAME, methodName);
+
+        List allTasks;
+
+        MemoryStore.ensureLoaded();
+        MemoryStore.readLock().lock();
+        try {
+            MemoryTable tasks = MemoryStore.getTasks();
+            allTasks = new ArrayList(tasks.size());
+            for (int i = 0; i < tasks.size(); ++i) {
+                allTasks.add(tasks.toTask(tasks.getRowByStartTime(i)));
+            }
+        } finally {
+            MemoryStore.readLock().unlock();
+        }
+
+        LOGGER.exiting(CLASSNAME, methodName, allTasks);
+        return allTasks;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <P>As in the database, tasks are selected by the dates (not the times) of
+     * the range, and only tasks that have ended are selected.</P>
+     *
+     * @param startDate the start date in the date range (inclusive)
+     * @param endDate the end date in the date range (exclusive)
+     * @return a list of tasks in the specified date range
+     * @throws DataAccessException if access to the data store fails
+     */
+    public List findAllTasksInDateRange(Date startDate, Date endDate) throws DataAccessException {
+        final String methodName = "findAllTasksInDateRange";
+        LOGGER.entering(CLASSNAME, methodName, new Object[] {startDate, endDate});
+
+        long startTime = MemoryTable.getDayStart(startDate.getTime());
+        long endTime = MemoryTable.getDayStart(endDate.getTime());
+
+        List allTasksInDateRange = new ArrayList();
+
+        // read from the record log if it has not been loaded
+        List taskRecords = RecordLog.findTaskRecords(startTime, endTime, false);
+        if (taskRecords != null) {
+            for (Iterator recordIter = taskRecords.iterator(); recordIter.hasNext();) {
+                allTasksInDateRange.add(((TaskRecord) recordIter.next()).getTask());
+            }
+
+            LOGGER.exiting(CLASSNAME, methodName, allTasksInDateRange);
+            return allTasksInDateRange;
+        }
+
+        MemoryStore.ensureLoaded();
+        MemoryStore.readLock().lock();
+        try {
+            MemoryTable tasks = MemoryStore.getTasks();
+            for (int i = tasks.findStartTime(startTime); i < tasks.size(); ++i) {
+                int row = tasks.getRowByStartTime(i);
+                long end = tasks.getEndTime(row);
+                if ((end != MemoryTable.NULL) && (end < endTime)) {
+                    allTasksInDateRange.add(tasks.toTask(row));
+                }
+            }
+        } finally {
+            MemoryStore.readLock().unlock();
+        }
+
+        LOGGER.exiting(CLASSNAME, methodName, allTasksInDateRange);
+        return allTasksInDateRange;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @return a list of task descriptions
+     * @throws DataAccessException if access to the data store fails
+     */
+    public List findTaskDescriptions() throws DataAccessException {
+        final String methodName = "findTaskDescriptions";
+        LOGGER.entering(CLASSNAME, methodName);
+
+        List descriptions = new ArrayList();
+
+        MemoryStore.ensureLoaded();
+        MemoryStore.readLock().lock();
+        try {
+            MemoryTable tasks = MemoryStore.getTasks();
+
+            // description -> {task count, latest start time}; in start time
+            // order, the latest start time is the last one seen
+            Map counts = new HashMap();
+            for (int i = 0; i < tasks.size(); ++i) {
+                int row = tasks.getRowByStartTime(i);
+                String description = tasks.getDescription(row);
+                if (description == null) {
+                    continue;
+                }
+
+                long[] count = (long[]) counts.get(description);
+                if (count == null) {
+                    count = new long[] {0L, MemoryTable.NULL};
+                    counts.put(description, count);
+                }
+                ++count[0];
+                count[1] = tasks.getStartTime(row);
+            }
+
+            for (Iterator countIter = counts.entrySet().iterator(); countIter.hasNext();) {
+                Map.Entry entry = (Map.Entry) countIter.next();
+                long[] count = (long[]) entry.getValue();
+                descriptions.add(new TaskDescription((String) entry.getKey(), (int) count[0],
+                        (count[1] != MemoryTable.NULL) ? new Date(count[1]) : null));
+            }
+        } finally {
+            MemoryStore.readLock().unlock();
+        }
+
+        LOGGER.exiting(CLASSNAME, methodName, Integer.valueOf(descriptions.size()));
+        return descriptions;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @return the earliest and the latest task start time
+     * @throws DataAccessException if access to the data store fails
+     */
+    public Date[] findTaskDateRange() throws DataAccessException {
+        final String methodName = "findTaskDateRange";
+        LOGGER.entering(CLASSNAME, methodName);
+
+        Date[] dateRange = new Date[2];
+
+        MemoryStore.ensureLoaded();
+        MemoryStore.readLock().lock();
+        try {
+            MemoryTable tasks = MemoryStore.getTasks();
+
+            // a missing start time sorts before every other
+            int first = tasks.findStartTime(MemoryTable.NULL + 1);
+            if (first < tasks.size()) {
+                dateRange[0] = new Date(tasks.getStartTime(tasks.getRowByStartTime(first)));
+                dateRange[1] = new Date(tasks.getStartTime(tasks.getRowByStartTime(tasks.size() - 1)));
+            }
+        } finally {
+            MemoryStore.readLock().unlock();
+        }
+
+        LOGGER.exiting(CLASSNAME, methodName, dateRange);
+        return dateRange;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param criteria the query criteria
+     * @return the task count
+     * @throws DataAccessException if access to the data store fails
+     */
+    public int countTasks(QueryCriteria criteria) throws DataAccessException {
+        final String methodName = "countTasks";
+        LOGGER.entering(CLASSNAME, methodName, criteria);
+
+        int count;
+
+        MemoryStore.ensureLoaded();
+        MemoryStore.readLock().lock();
+        try {
+            count = MemoryStore.getTasks().count(criteria);
+        } finally {
+            MemoryStore.readLock().unlock();
+        }
+
+        LOGGER.exiting(CLASSNAME, methodName, Integer.valueOf(count));
+        return count;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param criteria the query criteria
+     * @param firstResult the position of the first task to return
+     * @param maxResults the maximum number of tasks to return
+     * @return a list of at most <I>maxResults</I> tasks
+     * @throws DataAccessException if access to the data store fails
+     */
+    public List findTasks(QueryCriteria criteria, int firstResult, int maxResults) throws DataAccessException {
+        final String methodName = "findTasks";
+        LOGGER.entering(CLASSNAME, methodName, new Object[] {criteria, Integer.valueOf(firstResult), Integer.valueOf(maxResults)});
+
+        List tasks = new ArrayList(maxResults);
+
+        MemoryStore.ensureLoaded();
+        MemoryStore.readLock().lock();
+        try {
+            MemoryTable table = MemoryStore.getTasks();
+            int[] rows = table.select(criteria);
+            for (int i = firstResult; (i < rows.length) && (tasks.size() < maxResults); ++i) {
+                tasks.add(table.toTask(rows[i]));
+            }
+        } finally {
+            MemoryStore.readLock().unlock();
+        }
+
+        LOGGER.exiting(CLASSNAME, methodName, Integer.valueOf(tasks.size()));
+        return tasks;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param criteria the query criteria
+     * @param lastTask the last task of the preceding page, or
+     *      <CODE>null</CODE> for the first page
+     * @param maxResults the maximum number of tasks to return
+     * @return a list of at most <I>maxResults</I> tasks
+     * @throws DataAccessException if access to the data store fails
+     */
+    public List findTasksAfter(QueryCriteria criteria, Task lastTask, int maxResults) throws DataAccessException {
+        final String methodName = "findTasksAfter";
+        LOGGER.entering(CLASSNAME, methodName, new Object[] {criteria, lastTask, Integer.valueOf(maxResults)});
+
+        List tasks = new ArrayList(maxResults);
+
+        MemoryStore.ensureLoaded();
+        MemoryStore.readLock().lock();
+        try {
+            MemoryTable table = MemoryStore.getTasks();
+            int[] rows = table.select(criteria);
+            int first = (lastTask != null) ? table.findAfter(rows, criteria, lastTask) : 0;
+            for (int i = first; (i < rows.length) && (tasks.size() < maxResults); ++i) {
+                tasks.add(table.toTask(rows[i]));
+            }
+        } finally {
+            MemoryStore.readLock().unlock();
+        }
+
+        LOGGER.exiting(CLASSNAME, methodName, Integer.valueOf(tasks.size()));
+        return tasks;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <P>A new task is stored with its start and end times, and is assigned its
+     * ID.</P>
+     *
+     * @param task the task to be stored
+     * @throws DataAccessException if access to the data store fails
+     */
+    public void saveTask(Task task) throws DataAccessException {
+        final String methodName = "saveTask";
+        LOGGER.entering(CLASSNAME, methodName, task);
+
+        saveTasks(Collections.singletonList(task));
+
+        LOGGER.exiting(CLASSNAME, methodName);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <P>The tasks are stored at once; if a task cannot be updated, none of the
+     * tasks is stored.</P>
+     *
+     * @param tasks the tasks to be stored
+     * @throws DataAccessException if access to the data store fails
+     */
+    public void saveTasks(Collection tasks) throws DataAccessException {
+        final String methodName = "saveTasks";
+        LOGGER.entering(CLASSNAME, methodName, Integer.valueOf(tasks.size()));
+
+        List insertTasks = new ArrayList();
+        List updateTasks = new ArrayList();
+        for (Iterator taskIter = tasks.iterator(); taskIter.hasNext();) {
+            Task task = (Task) taskIter.next();
+            ((task.getId() == null) ? insertTasks : updateTasks).add(task);
+        }
+
+        MemoryStore.ensureLoaded();
+        MemoryStore.writeLock().lock();
+        try {
+            MemoryTable table = MemoryStore.getTasks();
+            for (Iterator taskIter = updateTasks.iterator(); taskIter.hasNext();) {
+                Task task = (Task) taskIter.next();
+                if (table.getRow(task.getId().longValue()) == -1) {
+                    throw new DataAccessException("task was not updated: " + task);
+                }
+            }
+
+            MemoryStore.saveTasks(updateTasks, insertTasks);
+        } finally {
+            MemoryStore.writeLock().unlock();
+        }
+
+        DAOFactory.fireDataChanged(this, Task.class, DataChangeEvent.UPDATED, updateTasks);
+        DAOFactory.fireDataChanged(this, Task.class, DataChangeEvent.INSERTED, insertTasks);
+
+        LOGGER.exiting(CLASSNAME, methodName);
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ * $Id$
+ */
+
+package net.ninthtest.stopwatch.model;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * This interface declares the contract for one step of a schema migration.
+ *
+ * <P>Steps that cannot be expressed as a single SQL statement (for example,
+ * populating a new table from existing data) implement this interface and are
+ * named in <CODE>schema-sql.properties</CODE> as
+ * <CODE>class:</CODE><I>fully.qualified.ClassName</I>. Implementations must
+ * have a no-argument constructor.</P>
+ *
+ * @author Matthew Zipay (ninthtest@gmail.com)
+ * @version $Revision$
+ */
+interface MigrationStep {
+    /**
+     * Applies this step. The step must not commit; the migration engine
+     * commits the step's work together with its history record.
+     *
+     * @param conx the connection on which the migration is running
+     * @throws SQLException if the step fails
+     */
+    public void apply(Connection conx) throws SQLException;
+}
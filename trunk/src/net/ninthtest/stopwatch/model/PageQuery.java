@@ -0,0 +1,701 @@
+/*
+ * $Id$
+ */
+
+package net.ninthtest.stopwatch.model;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class builds and runs the statements that read one page of a table
+ * under a {@link QueryCriteria}.
+ *
+ * <P>HSQLDB sorts the whole result of any <CODE>ORDER BY</CODE>, even when an
+ * index matches it and only one page is wanted, but returns the rows of an
+ * index range scan in index order. So where the sort column has a
+ * <CODE>(column, id)</CODE> index and no other indexed column is filtered on
+ * (which could make HSQLDB scan a different index), a page is read as
+ * follows:</P>
+ * <UL>
+ * <LI>in ascending order, by a range scan of the index that starts at the
+ * last row of the previous page (keyset pagination);</LI>
+ * <LI>in descending order, for time and ID columns, by sorting a window of
+ * the index that ends at the last row of the previous page and is widened
+ * (fourfold each time) until it holds a page.</LI>
+ * </UL>
+ * <P>Any other page is read with <CODE>ORDER BY</CODE>, so the database sorts
+ * the rows that pass the filters. Reading a page by position rather than by
+ * the previous row costs time proportional to the position.</P>
+ *
+ * <P>A column may belong to a table joined to the paged one (such as the
+ * <CODE>Descriptions</CODE> table). Filtering on such a column reads that
+ * table first, through its own index, so the rows come in no useful order and
+ * the page is always read with <CODE>ORDER BY</CODE>.</P>
+ *
+ * <P>Rows whose sort column is <CODE>NULL</CODE> form a separate segment,
+ * ordered by ID, that is read before (ascending) or after (descending) the
+ * other rows.</P>
+ *
+ * <P>Statements are cached under their generated SQL text.</P>
+ *
+ * @author Matthew Zipay (ninthtest@gmail.com)
+ * @version $Revision$
+ */
+final class PageQuery {
+    private static final String CLASSNAME = PageQuery.class.getName();
+
+    private static final Logger LOGGER = Logger.getLogger(PageQuery.class.getPackage().getName());
+
+    /** The type of an ID column. */
+    static final int BIGINT = 0;
+
+    /** The type of a time column. */
+    static final int TIMESTAMP = 1;
+
+    /** The type of a text column. */
+    static final int VARCHAR = 2;
+
+    /* how a page is read (see the class comment) */
+    private static final int INDEX_ORDER = 0;
+
+    private static final int INDEX_WINDOWS = 1;
+
+    private static final int SORTED = 2;
+
+    /* the segments of a page query */
+    private static final int NULLS = 0;
+
+    private static final int VALUES = 1;
+
+    private static final long MIN_TIMESTAMP = Timestamp.valueOf("0001-01-01 00:00:00").getTime();
+
+    private static final long MAX_TIMESTAMP = Timestamp.valueOf("9999-12-31 23:59:59").getTime();
+
+    /* the width of the first window read in descending order */
+    private static final long INITIAL_TIMESTAMP_WINDOW = 60L * 60L * 1000L;
+
+    private static final long INITIAL_BIGINT_WINDOW = 256L;
+
+    private String selectSql;
+
+    private String countSql;
+
+    private String joinedSelectSql;
+
+    private String joinedCountSql;
+
+    private Column[] columns;
+
+    /**
+     * Creates a page query for a table.
+     *
+     * @param selectSql the SQL that selects the columns of the table, which
+     *      must start with <CODE>SELECT LIMIT ? ?</CODE> and have no
+     *      <CODE>WHERE</CODE> clause
+     * @param countSql the SQL that counts the rows of the table, which must
+     *      have no <CODE>WHERE</CODE> clause
+     * @param joinedSelectSql the SQL used instead of <I>selectSql</I> when a
+     *      joined column is filtered on, which reads the joined table first
+     *      (or <CODE>null</CODE> if no column is joined)
+     * @param joinedCountSql the SQL used instead of <I>countSql</I> when a
+     *      joined column is filtered on (or <CODE>null</CODE>)
+     * @param columns the columns that may be sorted on, which must include
+     *      every column that the criteria filter on
+     */
+    PageQuery(String selectSql, String countSql, String joinedSelectSql, String joinedCountSql, Column[] columns) {
+        this.selectSql = selectSql;
+        this.countSql = countSql;
+        this.joinedSelectSql = joinedSelectSql;
+        this.joinedCountSql = joinedCountSql;
+        this.columns = columns;
+    }
+
+    /**
+     * Returns the number of rows that pass the filters of some criteria.
+     *
+     * @param conx a connection obtained from {@link JDBCAccess#getConnection()}
+     * @param criteria the query criteria
+     * @return the row count
+     * @throws SQLException if the count fails
+     * @throws DataAccessException if the criteria or SQL templates are invalid
+     */
+    int count(Connection conx, QueryCriteria criteria) throws SQLException, DataAccessException {
+        Plan plan = new Plan(criteria);
+
+        Query query = new Query(getSql(plan.getCountSql()));
+        plan.appendFilters(query);
+        plan.appendBounds(query);
+
+        return query.selectInt(conx);
+    }
+
+    /**
+     * Reads the rows at a position in the order of some criteria.
+     *
+     * @param conx a connection obtained from {@link JDBCAccess#getConnection()}
+     * @param criteria the query criteria
+     * @param firstResult the position of the first row to read
+     * @param maxResults the maximum number of rows to read
+     * @param reader creates the row objects
+     * @param rows receives the row objects
+     * @throws SQLException if the select fails
+     * @throws DataAccessException if the criteria or SQL templates are invalid
+     */
+    void select(Connection conx, QueryCriteria criteria, int firstResult, int maxResults, RowReader reader, List rows)
+            throws SQLException, DataAccessException {
+        Plan plan = new Plan(criteria);
+        int[] segments = plan.getSegments();
+
+        int offset = firstResult;
+        for (int i = 0; (i < segments.length) && (rows.size() < maxResults); ++i) {
+            int size = -1;
+            if ((i < segments.length - 1) || ((segments[i] == VALUES) && (plan.method == INDEX_WINDOWS) && (offset > 0))) {
+                size = countSegment(conx, plan, segments[i]);
+                if (offset >= size) {
+                    offset -= size;
+                    continue;
+                }
+            }
+
+            if ((segments[i] == VALUES) && (plan.method == INDEX_WINDOWS) && (offset > 0)) {
+                // read the same rows in ascending index order, then reverse them
+                int end = size - offset;
+                int begin = Math.max(0, end - (maxResults - rows.size()));
+                List page = new ArrayList(end - begin);
+                readValues(conx, plan, INDEX_ORDER, begin, end - begin, null, 0L, reader, page);
+                Collections.reverse(page);
+                rows.addAll(page);
+            } else {
+                readSegment(conx, plan, segments[i], offset, maxResults - rows.size(), null, 0L, reader, rows);
+            }
+
+            offset = 0;
+        }
+    }
+
+    /**
+     * Reads the rows that follow a row in the order of some criteria.
+     *
+     * @param conx a connection obtained from {@link JDBCAccess#getConnection()}
+     * @param criteria the query criteria
+     * @param lastKey the sort column value of the preceding row (an
+     *      <CODE>Object[]</CODE> so that it may itself be <CODE>null</CODE>),
+     *      or <CODE>null</CODE> to read the first rows
+     * @param lastId the ID of the preceding row
+     * @param maxResults the maximum number of rows to read
+     * @param reader creates the row objects
+     * @param rows receives the row objects
+     * @throws SQLException if the select fails
+     * @throws DataAccessException if the criteria or SQL templates are invalid
+     */
+    void selectAfter(Connection conx, QueryCriteria criteria, Object[] lastKey, long lastId, int maxResults, RowReader reader, List rows)
+            throws SQLException, DataAccessException {
+        Plan plan = new Plan(criteria);
+        int[] segments = plan.getSegments();
+
+        int first = 0;
+        if (lastKey != null) {
+            int lastSegment = (lastKey[0] == null) ? NULLS : VALUES;
+            while ((first < segments.length) && (segments[first] != lastSegment)) {
+                ++first;
+            }
+        }
+
+        for (int i = first; (i < segments.length) && (rows.size() < maxResults); ++i) {
+            // only the segment of the preceding row is read from a key
+            Object[] key = (i == first) ? lastKey : null;
+            readSegment(conx, plan, segments[i], 0, maxResults - rows.size(), key, lastId, reader, rows);
+        }
+    }
+
+    private int countSegment(Connection conx, Plan plan, int segment) throws SQLException, DataAccessException {
+        Query query = new Query(getSql(plan.getCountSql()));
+        plan.appendFilters(query);
+        if (segment == NULLS) {
+            query.where(plan.column.name + " IS NULL");
+        } else {
+            plan.appendBounds(query);
+            if (plan.column.nullable && !plan.isBounded()) {
+                query.where(plan.column.name + " IS NOT NULL");
+            }
+        }
+
+        return query.selectInt(conx);
+    }
+
+    private void readSegment(Connection conx, Plan plan, int segment, int offset, int maxResults, Object[] key, long keyId,
+            RowReader reader, List rows) throws SQLException, DataAccessException {
+        if (segment == VALUES) {
+            readValues(conx, plan, plan.method, offset, maxResults, key, keyId, reader, rows);
+            return;
+        }
+
+        Query query = new Query(getSql(plan.getSelectSql()), offset, maxResults);
+        plan.appendFilters(query);
+        query.where(plan.column.name + " IS NULL");
+        if (key != null) {
+            query.where(plan.ascending ? "id>?" : "id<?", Long.valueOf(keyId));
+        }
+        if (!plan.ascending || (plan.method != INDEX_ORDER)) {
+            query.append(plan.ascending ? " ORDER BY id" : " ORDER BY id DESC");
+        }
+
+        query.select(conx, reader, rows);
+    }
+
+    private void readValues(Connection conx, Plan plan, int method, int offset, int maxResults, Object[] key, long keyId,
+            RowReader reader, List rows) throws SQLException, DataAccessException {
+        String name = plan.column.name;
+
+        if (method == INDEX_WINDOWS) {
+            readWindows(conx, plan, maxResults, key, keyId, reader, rows);
+            return;
+        }
+
+        Query query = new Query(getSql(plan.getSelectSql()), offset, maxResults);
+        plan.appendFilters(query);
+
+        if (method == INDEX_ORDER) {
+            if (key != null) {
+                // the key is never below the lower bound, so it replaces it
+                Object keyValue = plan.column.toParameter(key[0]);
+                query.where(name + ">=? AND (" + name + ">? OR id>?)", keyValue, keyValue, Long.valueOf(keyId));
+            } else {
+                // a range condition makes HSQLDB scan the index
+                query.where(name + ">=?", (plan.lowerBound != null) ? plan.lowerBound : plan.column.getMinimum());
+            }
+            if (plan.upperBound != null) {
+                query.where(name + "<?", plan.upperBound);
+            }
+        } else {
+            plan.appendBounds(query);
+            if (plan.column.nullable && !plan.isBounded()) {
+                query.where(name + " IS NOT NULL");
+            }
+            if (key != null) {
+                Object keyValue = plan.column.toParameter(key[0]);
+                query.where(plan.ascending ? (name + ">=? AND (" + name + ">? OR id>?)") : (name + "<=? AND (" + name + "<? OR id<?)"),
+                        keyValue, keyValue, Long.valueOf(keyId));
+            }
+            query.append(plan.ascending ? (" ORDER BY " + name + ", id") : (" ORDER BY " + name + " DESC, id DESC"));
+        }
+
+        query.select(conx, reader, rows);
+    }
+
+    private void readWindows(Connection conx, Plan plan, int maxResults, Object[] key, long keyId, RowReader reader, List rows)
+            throws SQLException, DataAccessException {
+        final String methodName = "readWindows";
+        Column column = plan.column;
+
+        Long floor = findSuccessor(conx, plan, (plan.lowerBound != null) ? column.toLong(plan.lowerBound) : column.toLong(column.getMinimum()));
+        if (floor == null) {
+            // no rows in range
+            return;
+        }
+
+        long top;
+        if (key != null) {
+            top = column.toLong(key[0]);
+        } else {
+            top = findMaximum(conx, plan, floor.longValue());
+        }
+
+        long width = (column.type == TIMESTAMP) ? INITIAL_TIMESTAMP_WINDOW : INITIAL_BIGINT_WINDOW;
+        List window = new ArrayList(maxResults);
+        int windowCount = 0;
+        while (true) {
+            long bottom = ((top - floor.longValue()) <= width) ? floor.longValue() : (top - width);
+
+            Query query = new Query(getSql(selectSql), 0, maxResults);
+            plan.appendFilters(query);
+            query.where(column.name + ">=? AND " + column.name + "<=?", column.fromLong(bottom), column.fromLong(top));
+            if (key != null) {
+                query.where("(" + column.name + "<? OR id<?)", column.toParameter(key[0]), Long.valueOf(keyId));
+            }
+            query.append(" ORDER BY " + column.name + " DESC, id DESC");
+
+            window.clear();
+            query.select(conx, reader, window);
+            ++windowCount;
+
+            if ((window.size() >= maxResults) || (bottom == floor.longValue())) {
+                break;
+            }
+            width = (width > (Long.MAX_VALUE / 4)) ? Long.MAX_VALUE : (width * 4);
+        }
+
+        LOGGER.logp(Level.FINER, CLASSNAME, methodName, "read {0} rows in {1} windows", new Object[] {Integer.valueOf(window.size()), Integer.valueOf(windowCount)});
+        rows.addAll(window);
+    }
+
+    private long findMaximum(Connection conx, Plan plan, long floor) throws SQLException, DataAccessException {
+        Column column = plan.column;
+
+        // binary search for the greatest value that has a successor
+        long low = floor;
+        long high = (plan.upperBound != null) ? (column.toLong(plan.upperBound) - 1) : column.getMaximumLong();
+        while (low < high) {
+            long middle = low + ((high - low) / 2) + 1;
+            Long successor = findSuccessor(conx, plan, middle);
+            if (successor != null) {
+                low = successor.longValue();
+            } else {
+                high = middle - 1;
+            }
+        }
+
+        return low;
+    }
+
+    /*
+     * Returns the least value of the sort column that is at least value (and
+     * below the upper bound), or null if there is none.
+     */
+    private Long findSuccessor(Connection conx, Plan plan, long value) throws SQLException, DataAccessException {
+        final String methodName = "findSuccessor";
+        Column column = plan.column;
+
+        Query query = new Query(getSql(selectSql), 0, 1);
+        query.where(column.name + ">=?", column.fromLong(value));
+        if (plan.upperBound != null) {
+            query.where(column.name + "<?", plan.upperBound);
+        }
+
+        ResultSet results = query.execute(conx);
+        try {
+            if (!results.next()) {
+                return null;
+            }
+
+            return Long.valueOf((column.type == TIMESTAMP) ? results.getTimestamp(column.name).getTime() : results.getLong(column.name));
+        } finally {
+            try {
+                results.close();
+            } catch (SQLException ex) {
+                LOGGER.logp(Level.WARNING, CLASSNAME, methodName, "failed to close select result set", ex);
+            }
+        }
+    }
+
+    private static String getSql(String sql) throws DataAccessException {
+        if ((sql == null) || (sql.equals(""))) {
+            throw new DataAccessException("undefined or empty SQL template");
+        }
+
+        return sql;
+    }
+
+    /**
+     * Describes a column that may be sorted on.
+     */
+    static final class Column {
+        private String name;
+
+        private int type;
+
+        private boolean nullable;
+
+        private boolean indexed;
+
+        private boolean joined;
+
+        /**
+         * Creates a description of a column of the paged table.
+         *
+         * @param name the column name
+         * @param type {@link PageQuery#BIGINT}, {@link PageQuery#TIMESTAMP} or
+         *      {@link PageQuery#VARCHAR}
+         * @param nullable whether the column may be <CODE>NULL</CODE>
+         * @param indexed whether the column has a <CODE>(column, id)</CODE>
+         *      index (or is the ID)
+         */
+        Column(String name, int type, boolean nullable, boolean indexed) {
+            this(name, type, nullable, indexed, false);
+        }
+
+        /**
+         * Creates a column description.
+         *
+         * @param name the column name
+         * @param type {@link PageQuery#BIGINT}, {@link PageQuery#TIMESTAMP} or
+         *      {@link PageQuery#VARCHAR}
+         * @param nullable whether the column may be <CODE>NULL</CODE>
+         * @param indexed whether the column has a <CODE>(column, id)</CODE>
+         *      index (or is the ID)
+         * @param joined whether the column belongs to a joined table
+         */
+        Column(String name, int type, boolean nullable, boolean indexed, boolean joined) {
+            this.name = name;
+            this.type = type;
+            this.nullable = nullable;
+            this.indexed = indexed;
+            this.joined = joined;
+        }
+
+        private Object getMinimum() {
+            switch (type) {
+                case BIGINT:
+                    return Long.valueOf(Long.MIN_VALUE);
+                case TIMESTAMP:
+                    return new Timestamp(MIN_TIMESTAMP);
+                default:
+                    return "";
+            }
+        }
+
+        private long getMaximumLong() {
+            return (type == TIMESTAMP) ? MAX_TIMESTAMP : Long.MAX_VALUE;
+        }
+
+        private Object toParameter(Object value) {
+            return ((type == TIMESTAMP) && !(value instanceof Timestamp)) ? new Timestamp(((java.util.Date) value).getTime()) : value;
+        }
+
+        private long toLong(Object value) {
+            return (value instanceof java.util.Date) ? ((java.util.Date) value).getTime() : ((Number) value).longValue();
+        }
+
+        private Object fromLong(long value) {
+            return (type == TIMESTAMP) ? (Object) new Timestamp(value) : (Object) Long.valueOf(value);
+        }
+    }
+
+    /**
+     * Creates the row objects of a page.
+     */
+    interface RowReader {
+        /**
+         * Creates an object from the current row of a result set.
+         *
+         * @param results a result set positioned on a row
+         * @return the row object
+         * @throws SQLException if the row cannot be read
+         */
+        Object readRow(ResultSet results) throws SQLException;
+    }
+
+    /*
+     * The criteria resolved against the columns of the table.
+     */
+    private class Plan {
+        private Column column;
+
+        private boolean ascending;
+
+        private int method;
+
+        /* whether a joined column is filtered on */
+        private boolean joined;
+
+        /* the filters on the sort column, as an inclusive lower and an exclusive upper bound */
+        private Object lowerBound;
+
+        private Object upperBound;
+
+        /* the filters on other columns */
+        private Query filters = new Query(null);
+
+        Plan(QueryCriteria criteria) throws DataAccessException {
+            column = getColumn(criteria.getSortColumn());
+            ascending = criteria.isAscending();
+
+            boolean otherIndexFiltered = false;
+
+            if ((criteria.getStartDate() != null) || (criteria.getEndDate() != null)) {
+                Timestamp start = (criteria.getStartDate() != null) ? new Timestamp(criteria.getStartDate().getTime()) : null;
+                Timestamp end = (criteria.getEndDate() != null) ? new Timestamp(criteria.getEndDate().getTime()) : null;
+                otherIndexFiltered |= addFilter(getColumn(QueryCriteria.START_TIME), start, end);
+            }
+
+            String prefix = criteria.getDescriptionPrefix();
+            if (prefix != null) {
+                // every description that starts with the prefix sorts below this
+                otherIndexFiltered |= addFilter(getColumn(QueryCriteria.DESCRIPTION), prefix, prefix + '\uffff');
+            }
+
+            if (!column.indexed || otherIndexFiltered || joined) {
+                method = SORTED;
+            } else if (ascending) {
+                method = INDEX_ORDER;
+            } else {
+                method = (column.type != VARCHAR) ? INDEX_WINDOWS : SORTED;
+            }
+        }
+
+        /*
+         * Returns true if the filtered column is indexed and is not the sort
+         * column.
+         */
+        private boolean addFilter(Column filtered, Object lower, Object upper) {
+            joined |= filtered.joined;
+
+            if (filtered == column) {
+                lowerBound = lower;
+                upperBound = upper;
+                return false;
+            }
+
+            if (lower != null) {
+                filters.where(filtered.name + ">=?", lower);
+            }
+            if (upper != null) {
+                filters.where(filtered.name + "<?", upper);
+            }
+
+            return filtered.indexed;
+        }
+
+        private Column getColumn(String name) throws DataAccessException {
+            for (int i = 0; i < columns.length; ++i) {
+                if (columns[i].name.equals(name)) {
+                    return columns[i];
+                }
+            }
+
+            throw new DataAccessException("unsupported column: " + name);
+        }
+
+        String getSelectSql() {
+            return joined ? joinedSelectSql : selectSql;
+        }
+
+        String getCountSql() {
+            return joined ? joinedCountSql : countSql;
+        }
+
+        boolean isBounded() {
+            return (lowerBound != null) || (upperBound != null);
+        }
+
+        int[] getSegments() {
+            if (!column.nullable || isBounded()) {
+                // a filter on the sort column excludes NULLs
+                return new int[] {VALUES};
+            }
+
+            return ascending ? new int[] {NULLS, VALUES} : new int[] {VALUES, NULLS};
+        }
+
+        void appendFilters(Query query) {
+            query.where(filters);
+        }
+
+        void appendBounds(Query query) {
+            if (lowerBound != null) {
+                query.where(column.name + ">=?", lowerBound);
+            }
+            if (upperBound != null) {
+                query.where(column.name + "<?", upperBound);
+            }
+        }
+    }
+
+    /*
+     * An SQL statement under construction, with its parameters.
+     */
+    private static class Query {
+        private String sql;
+
+        private List conditions = new ArrayList();
+
+        private String tail = "";
+
+        private List parameters = new ArrayList();
+
+        Query(String sql) {
+            this.sql = sql;
+        }
+
+        Query(String sql, int offset, int limit) {
+            this(sql);
+            parameters.add(Integer.valueOf(offset));
+            parameters.add(Integer.valueOf(limit));
+        }
+
+        void where(String condition, Object param1, Object param2, Object param3) {
+            where(condition, param1, param2);
+            parameters.add(param3);
+        }
+
+        void where(String condition, Object param1, Object param2) {
+            where(condition, param1);
+            parameters.add(param2);
+        }
+
+        void where(String condition, Object param) {
+            where(condition);
+            parameters.add(param);
+        }
+
+        void where(String condition) {
+            conditions.add(condition);
+        }
+
+        void where(Query other) {
+            conditions.addAll(other.conditions);
+            parameters.addAll(other.parameters);
+        }
+
+        void append(String clause) {
+            tail += clause;
+        }
+
+        ResultSet execute(Connection conx) throws SQLException {
+            StringBuffer text = new StringBuffer(sql);
+            for (int i = 0; i < conditions.size(); ++i) {
+                text.append((i == 0) ? " WHERE " : " AND ").append(conditions.get(i));
+            }
+            text.append(tail);
+
+            String statementSql = text.toString();
+            PreparedStatement select = JDBCAccess.prepareStatement(conx, statementSql, statementSql);
+            for (int i = 0; i < parameters.size(); ++i) {
+                select.setObject(i + 1, parameters.get(i));
+            }
+
+            return select.executeQuery();
+        }
+
+        int selectInt(Connection conx) throws SQLException {
+            final String methodName = "selectInt";
+
+            ResultSet result = execute(conx);
+            try {
+                return result.next() ? result.getInt(1) : 0;
+            } finally {
+                try {
+                    result.close();
+                } catch (SQLException ex) {
+                    LOGGER.logp(Level.WARNING, CLASSNAME, methodName, "failed to close select result set", ex);
+                }
+            }
+        }
+
+        void select(Connection conx, RowReader reader, List rows) throws SQLException {
+            final String methodName = "select";
+
+            ResultSet results = execute(conx);
+            try {
+                while (results.next()) {
+                    rows.add(reader.readRow(results));
+                }
+            } finally {
+                try {
+                    results.close();
+                } catch (SQLException ex) {
+                    LOGGER.logp(Level.WARNING, CLASSNAME, methodName, "failed to close select result set", ex);
+                }
+            }
+        }
+    }
+}
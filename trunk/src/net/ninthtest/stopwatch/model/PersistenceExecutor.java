@@ -0,0 +1,266 @@
+/*
+ * $Id$
+ */
+
+package net.ninthtest.stopwatch.model;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class executes data access operations off the caller's thread.
+ *
+ * <P>All operations that modify the data store are executed in submission
+ * order by a single writer thread, so a task is always inserted before any of
+ * its interruptions. Read-only operations are executed by a separate reader
+ * thread so that long queries (such as exports) never delay writes.</P>
+ *
+ * <P>Callbacks are dispatched through the configured callback executor; a UI
+ * will typically supply one that runs callbacks on its event thread.</P>
+ *
+ * @author Matthew Zipay (ninthtest@gmail.com)
+ * @version $Revision$
+ */
+public final class PersistenceExecutor {
+    private static final String CLASSNAME = PersistenceExecutor.class.getName();
+
+    private static final Logger LOGGER = Logger.getLogger(PersistenceExecutor.class.getPackage().getName());
+
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+    private static ExecutorService writer;
+
+    private static ExecutorService reader;
+
+    private static volatile Executor callbackExecutor = new Executor() {
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    /**
+     * Specifies the executor used to dispatch callbacks. By default, callbacks
+     * run on the thread that executed the operation.
+     *
+     * @param executor the executor that runs callbacks
+     */
+    public static void setCallbackExecutor(Executor executor) {
+        callbackExecutor = executor;
+    }
+
+    /**
+     * Runs a notification through the callback executor.
+     *
+     * @param command the notification
+     */
+    static void dispatch(Runnable command) {
+        callbackExecutor.execute(command);
+    }
+
+    /**
+     * Stores a task asynchronously. A snapshot of the task is taken on the
+     * calling thread and stored, so the caller may go on changing the task;
+     * the ID assigned when the task is first stored is set on the task itself
+     * by the writer thread.
+     *
+     * @param task the task to be stored
+     * @param callback notified with the stored snapshot when the task has
+     *      been stored (may be <CODE>null</CODE>)
+     * @return a future representing the pending save
+     */
+    public static Future saveTask(final Task task, DataAccessCallback callback) {
+        final Task snapshot = new Task(task);
+        return submitWrite(new DataAccessOperation() {
+            public Object execute() throws DataAccessException {
+                // an earlier save of the task may have assigned its ID since the snapshot was taken
+                if (snapshot.getId() == null) {
+                    snapshot.setId(task.getId());
+                }
+                DAOFactory.getTaskDAO().saveTask(snapshot);
+                task.setId(snapshot.getId());
+                return snapshot;
+            }
+        }, callback);
+    }
+
+    /**
+     * Stores an interruption asynchronously, in the same way as
+     * {@link #saveTask(Task, DataAccessCallback)}.
+     *
+     * @param intr the interruption to be stored
+     * @param callback notified with the stored snapshot when the interruption
+     *      has been stored (may be <CODE>null</CODE>)
+     * @return a future representing the pending save
+     */
+    public static Future saveInterruption(final Interruption intr, DataAccessCallback callback) {
+        final Interruption snapshot = new Interruption(intr);
+        return submitWrite(new DataAccessOperation() {
+            public Object execute() throws DataAccessException {
+                if (snapshot.getId() == null) {
+                    snapshot.setId(intr.getId());
+                }
+                DAOFactory.getInterruptionDAO().saveInterruption(snapshot);
+                intr.setId(snapshot.getId());
+                return snapshot;
+            }
+        }, callback);
+    }
+
+    /**
+     * Queues an operation that modifies the data store. Write operations are
+     * executed one at a time, in submission order.
+     *
+     * @param operation the data access work
+     * @param callback notified when the operation completes (may be
+     *      <CODE>null</CODE>)
+     * @return a future representing the pending operation
+     */
+    public static Future submitWrite(DataAccessOperation operation, DataAccessCallback callback) {
+        return getWriter().submit(new OperationCall(operation, callback));
+    }
+
+    /**
+     * Queues an operation that only reads from the data store.
+     *
+     * @param operation the data access work
+     * @param callback notified when the operation completes (may be
+     *      <CODE>null</CODE>)
+     * @return a future representing the pending operation
+     */
+    public static Future submitRead(DataAccessOperation operation, DataAccessCallback callback) {
+        return getReader().submit(new OperationCall(operation, callback));
+    }
+
+    /**
+     * Waits for all queued operations to complete, then stops the writer and
+     * reader threads.
+     */
+    public static void shutdown() {
+        final String methodName = "shutdown";
+        LOGGER.entering(CLASSNAME, methodName);
+
+        ExecutorService pendingReader = null;
+        ExecutorService pendingWriter = null;
+
+        synchronized (PersistenceExecutor.class) {
+            pendingReader = reader;
+            pendingWriter = writer;
+            reader = null;
+            writer = null;
+        }
+
+        if (pendingReader != null) {
+            pendingReader.shutdownNow();
+        }
+
+        if (pendingWriter != null) {
+            pendingWriter.shutdown();
+            try {
+                if (!pendingWriter.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "timed out waiting for pending writes");
+                }
+            } catch (InterruptedException ex) {
+                LOGGER.logp(Level.WARNING, CLASSNAME, methodName, "interrupted while waiting for pending writes", ex);
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        LOGGER.exiting(CLASSNAME, methodName);
+    }
+
+    private static synchronized ExecutorService getWriter() {
+        if (writer == null) {
+            writer = Executors.newSingleThreadExecutor(new NamedThreadFactory("StopWatch-writer"));
+        }
+
+        return writer;
+    }
+
+    private static synchronized ExecutorService getReader() {
+        if (reader == null) {
+            reader = Executors.newSingleThreadExecutor(new NamedThreadFactory("StopWatch-reader"));
+        }
+
+        return reader;
+    }
+
+    private PersistenceExecutor() {
+        // never instantiated
+    }
+
+    /*
+     * Executes an operation and dispatches its outcome to a callback.
+     */
+    private static class OperationCall implements Callable {
+        private DataAccessOperation operation;
+
+        private DataAccessCallback callback;
+
+        OperationCall(DataAccessOperation operation, DataAccessCallback callback) {
+            this.operation = operation;
+            this.callback = callback;
+        }
+
+        public Object call() throws DataAccessException {
+            final String methodName = "call";
+
+            Object result = null;
+            try {
+                result = operation.execute();
+            } catch (DataAccessException ex) {
+                LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "asynchronous data access failed", ex);
+                notifyFailed(ex);
+                throw ex;
+            } catch (RuntimeException ex) {
+                LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "asynchronous data access failed", ex);
+                DataAccessException wrapped = new DataAccessException(ex);
+                notifyFailed(wrapped);
+                throw wrapped;
+            }
+
+            notifySucceeded(result);
+            return result;
+        }
+
+        private void notifySucceeded(final Object result) {
+            if (callback != null) {
+                callbackExecutor.execute(new Runnable() {
+                    public void run() {
+                        callback.succeeded(result);
+                    }
+                });
+            }
+        }
+
+        private void notifyFailed(final DataAccessException ex) {
+            if (callback != null) {
+                callbackExecutor.execute(new Runnable() {
+                    public void run() {
+                        callback.failed(ex);
+                    }
+                });
+            }
+        }
+    }
+
+    private static class NamedThreadFactory implements ThreadFactory {
+        private String name;
+
+        NamedThreadFactory(String name) {
+            this.name = name;
+        }
+
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * $Id$
+ */
+
+package net.ninthtest.stopwatch.model;
+
+import java.util.Date;
+
+/**
+ * This class describes the order and filters applied when tasks or
+ * interruptions are read one page at a time.
+ *
+ * <P>Rows are sorted by one column, then by ID in the same direction. Rows
+ * whose sort column is <CODE>NULL</CODE> come first in ascending order and
+ * last in descending order. The filters select rows whose start time falls in
+ * a date range and whose description starts with a prefix (case-sensitive);
+ * either end of the date range may be open.</P>
+ *
+ * <P>Instances are immutable.</P>
+ *
+ * @author Matthew Zipay (ninthtest@gmail.com)
+ * @version $Revision$
+ */
+public class QueryCriteria {
+    private static final String CLASSNAME = QueryCriteria.class.getName();
+
+    /** The ID column. */
+    public static final String ID = "id";
+
+    /** The related task ID column (interruptions only). */
+    public static final String RELATED_TASK_ID = "related_task_id";
+
+    /** The description column. */
+    public static final String DESCRIPTION = "description";
+
+    /** The start time column. */
+    public static final String START_TIME = "start_time";
+
+    /** The end time column. */
+    public static final String END_TIME = "end_time";
+
+    private String sortColumn;
+
+    private boolean ascending;
+
+    private Date startDate;
+
+    private Date endDate;
+
+    private String descriptionPrefix;
+
+    /**
+     * Creates the default criteria: ascending by start time, without filters.
+     */
+    public QueryCriteria() {
+        this(START_TIME, true, null, null, null);
+    }
+
+    /**
+     * Creates criteria with the specified order and filters.
+     *
+     * @param sortColumn the name of the column to sort by
+     * @param ascending <CODE>true</CODE> to sort in ascending order
+     * @param startDate the earliest start time (inclusive), or
+     *      <CODE>null</CODE>
+     * @param endDate the latest start time (exclusive), or <CODE>null</CODE>
+     * @param descriptionPrefix the prefix of the description, or
+     *      <CODE>null</CODE>
+     */
+    public QueryCriteria(String sortColumn, boolean ascending, Date startDate, Date endDate, String descriptionPrefix) {
+        if (sortColumn == null) {
+            throw new IllegalArgumentException("sortColumn cannot be null");
+        }
+
+        this.sortColumn = sortColumn;
+        this.ascending = ascending;
+        this.startDate = (startDate != null) ? new Date(startDate.getTime()) : null;
+        this.endDate = (endDate != null) ? new Date(endDate.getTime()) : null;
+        this.descriptionPrefix = ((descriptionPrefix != null) && (descriptionPrefix.length() > 0)) ? descriptionPrefix : null;
+    }
+
+    /**
+     * Returns criteria with the same filters as these, sorted by the specified
+     * column.
+     *
+     * @param column the name of the column to sort by
+     * @param ascendingOrder <CODE>true</CODE> to sort in ascending order
+     * @return the new criteria
+     */
+    public QueryCriteria sortedBy(String column, boolean ascendingOrder) {
+        return new QueryCriteria(column, ascendingOrder, startDate, endDate, descriptionPrefix);
+    }
+
+    /**
+     * Returns criteria with the same order as these and the specified filters.
+     *
+     * @param fromDate the earliest start time (inclusive), or
+     *      <CODE>null</CODE>
+     * @param toDate the latest start time (exclusive), or <CODE>null</CODE>
+     * @param prefix the prefix of the description, or <CODE>null</CODE>
+     * @return the new criteria
+     */
+    public QueryCriteria filteredBy(Date fromDate, Date toDate, String prefix) {
+        return new QueryCriteria(sortColumn, ascending, fromDate, toDate, prefix);
+    }
+
+    /**
+     * Returns the name of the column to sort by.
+     *
+     * @return the sort column name
+     */
+    public String getSortColumn() {
+        return sortColumn;
+    }
+
+    /**
+     * Indicates whether rows are sorted in ascending order.
+     *
+     * @return <CODE>true</CODE> for ascending order
+     */
+    public boolean isAscending() {
+        return ascending;
+    }
+
+    /**
+     * Returns the earliest start time of the rows selected.
+     *
+     * @return the start of the date range (inclusive), or <CODE>null</CODE>
+     */
+    public Date getStartDate() {
+        return (startDate != null) ? new Date(startDate.getTime()) : null;
+    }
+
+    /**
+     * Returns the latest start time of the rows selected.
+     *
+     * @return the end of the date range (exclusive), or <CODE>null</CODE>
+     */
+    public Date getEndDate() {
+        return (endDate != null) ? new Date(endDate.getTime()) : null;
+    }
+
+    /**
+     * Returns the prefix of the descriptions of the rows selected.
+     *
+     * @return the description prefix, or <CODE>null</CODE>
+     */
+    public String getDescriptionPrefix() {
+        return descriptionPrefix;
+    }
+
+    /**
+     * Indicates whether a task or interruption passes the filters of these
+     * criteria, exactly as a query would decide.
+     *
+     * @param task a task or interruption
+     * @return <CODE>true</CODE> if the row would be selected
+     */
+    public boolean accepts(Task task) {
+        if ((startDate != null) || (endDate != null)) {
+            Date startTime = task.getStartTime();
+            if ((startTime == null) || ((startDate != null) && startTime.before(startDate))
+                    || ((endDate != null) && !startTime.before(endDate))) {
+                return false;
+            }
+        }
+
+        if (descriptionPrefix != null) {
+            // the same bounds as the query: [prefix, prefix + '\uffff')
+            String description = task.getDescription();
+            if ((description == null) || (description.compareTo(descriptionPrefix) < 0)
+                    || (description.compareTo(descriptionPrefix + '\uffff') >= 0)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Compares two tasks or interruptions in the order defined by these
+     * criteria. Both must have an ID.
+     *
+     * @param task1 a task or interruption
+     * @param task2 another task or interruption
+     * @return a negative integer, zero, or a positive integer as
+     *      <I>task1</I> sorts before, with, or after <I>task2</I>
+     */
+    public int compare(Task task1, Task task2) {
+        Comparable value1 = getSortValue(task1);
+        Comparable value2 = getSortValue(task2);
+
+        int result;
+        if (value1 == null) {
+            result = (value2 == null) ? 0 : -1;
+        } else {
+            result = (value2 == null) ? 1 : value1.compareTo(value2);
+        }
+
+        if (result == 0) {
+            result = task1.getId().compareTo(task2.getId());
+        }
+
+        return ascending ? result : -result;
+    }
+
+    private Comparable getSortValue(Task task) {
+        if (ID.equals(sortColumn)) {
+            return task.getId();
+        } else if (RELATED_TASK_ID.equals(sortColumn)) {
+            return ((Interruption) task).getRelatedTaskId();
+        } else if (DESCRIPTION.equals(sortColumn)) {
+            return task.getDescription();
+        } else if (START_TIME.equals(sortColumn)) {
+            return task.getStartTime();
+        } else {
+            return task.getEndTime();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param obj the reference object with which to compare
+     * @return <CODE>true</CODE> if the criteria are equal
+     * @see java.lang.Object#equals(Object)
+     */
+    public boolean equals(Object obj) {
+        if (!(obj instanceof QueryCriteria)) {
+            return false;
+        }
+
+        QueryCriteria other = (QueryCriteria) obj;
+        return sortColumn.equals(other.sortColumn) && (ascending == other.ascending)
+                && ((startDate == null) ? (other.startDate == null) : startDate.equals(other.startDate))
+                && ((endDate == null) ? (other.endDate == null) : endDate.equals(other.endDate))
+                && ((descriptionPrefix == null) ? (other.descriptionPrefix == null) : descriptionPrefix.equals(other.descriptionPrefix));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @return a hash code value for these criteria
+     * @see java.lang.Object#hashCode
+     */
+    public int hashCode() {
+        int hash = sortColumn.hashCode() * 31 + (ascending ? 1 : 0);
+        hash = hash * 31 + ((startDate != null) ? startDate.hashCode() : 0);
+        hash = hash * 31 + ((endDate != null) ? endDate.hashCode() : 0);
+        return hash * 31 + ((descriptionPrefix != null) ? descriptionPrefix.hashCode() : 0);
+    }
+
+    /**
+     * Returns a string representation of the criteria.
+     *
+     * @return the string representation of the criteria
+     * @see java.lang.Object#toString
+     */
+    public String toString() {
+        return new StringBuffer(CLASSNAME)
+        .append("[sortColumn=").append(sortColumn)
+        .append(";ascending=").append(ascending)
+        .append(";startDate=").append(startDate)
+        .append(";endDate=").append(endDate)
+        .append(";descriptionPrefix=\"").append(descriptionPrefix)
+        .append("\"]")
+        .toString();
+    }
+}
@@ -0,0 +1,1120 @@
+/*
+ * $Id$
+ */
+
+package net.ninthtest.stopwatch.model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class keeps the tasks and interruptions of the {@link MemoryStore} in
+ * an append-only log file (<CODE>implementation=LOG</CODE>).
+ *
+ * <P>Every save appends one record per task or interruption, holding all of
+ * its values, and a later record for the same ID supersedes an earlier one.
+ * The log is handed to the operating system on every save and forced to disk
+ * at a configurable interval. A record that was only partly written when the
+ * application stopped, or that is not a valid record, is discarded together
+ * with everything after it.</P>
+ *
+ * <P>Once enough records have been superseded or appended, the log is
+ * compacted in the background: the current rows are written to a new segment
+ * file (tasks, then interruptions, in ID order), which then replaces the log,
+ * and a sparse index of the segment is written beside it. The index holds the
+ * offset of every <I>N</I>th record (<CODE>log.indexInterval</CODE>), and
+ * the latest start time and earliest end time of each block of tasks, or the
+ * lowest and highest task ID of each block of interruptions.</P>
+ *
+ * <P>When the log is opened with an index, only the index and the records
+ * after the segment (the tail) are read. Until a query needs every row, the
+ * tasks and task records in a date range are read from the segment blocks
+ * that can hold them, and the tail supersedes those; since task IDs are
+ * assigned as tasks start, a range covers few blocks. Any other query, or a
+ * save, first reads the whole log into the store, which answers every query
+ * from then on. A log without an index is read into the store when it is
+ * opened.</P>
+ *
+ * @author Matthew Zipay (ninthtest@gmail.com)
+ * @version $Revision$
+ */
+final class RecordLog {
+    private static final String CLASSNAME = RecordLog.class.getName();
+
+    private static final Logger LOGGER = Logger.getLogger(RecordLog.class.getPackage().getName());
+
+    private static final byte TASK_RECORD = 't';
+
+    private static final byte INTERRUPTION_RECORD = 'i';
+
+    /* the tag, four longs and the description length */
+    private static final int FIXED_RECORD_LENGTH = 1 + (5 * 8) + 4;
+
+    /* the description column holds 257 characters, each at most 3 bytes in UTF-8 */
+    private static final int MAX_DESCRIPTION_CHARS = 257;
+
+    private static final int MAX_DESCRIPTION_LENGTH = MAX_DESCRIPTION_CHARS * 3;
+
+    /* "SWLI" */
+    private static final int INDEX_MAGIC = 0x53574c49;
+
+    private static final Comparator START_TIME_ORDER = new Comparator() {
+        public int compare(Object o1, Object o2) {
+            Task row1 = (Task) o1;
+            Task row2 = (Task) o2;
+            long start1 = MemoryTable.toTime(row1.getStartTime());
+            long start2 = MemoryTable.toTime(row2.getStartTime());
+            if (start1 != start2) {
+                return (start1 < start2) ? -1 : 1;
+            }
+            return row1.getId().compareTo(row2.getId());
+        }
+    };
+
+    /* guards the log file and the counters */
+    private static final Object LOCK = new Object();
+
+    private static volatile boolean open;
+
+    private static File logFile;
+
+    private static File indexFile;
+
+    private static FileOutputStream fileOut;
+
+    /* null if the log could not be reopened after a compaction */
+    private static DataOutputStream out;
+
+    /* the length of the log up to the last complete save */
+    private static long length;
+
+    private static boolean unsynced;
+
+    private static long syncInterval;
+
+    private static int compactThreshold;
+
+    private static int indexInterval;
+
+    /* the records in the log that a later record supersedes */
+    private static int supersededCount;
+
+    /* the records after the compacted segment */
+    private static int tailCount;
+
+    /* true until the log has been read into the store */
+    private static volatile boolean deferred;
+
+    /* the length and row counts of the indexed segment (0 if there is no index) */
+    private static long segmentLength;
+
+    private static int segmentTaskCount;
+
+    private static int segmentInterruptionCount;
+
+    private static int segmentInterval;
+
+    /* the offset, latest start time and earliest end time of each block of tasks */
+    private static long[] taskBlockOffsets;
+
+    private static long[] taskBlockMaxStartTimes;
+
+    private static long[] taskBlockMinEndTimes;
+
+    /* the offset and lowest and highest task ID of each block of interruptions */
+    private static long[] interruptionBlockOffsets;
+
+    private static long[] interruptionBlockMinTaskIds;
+
+    private static long[] interruptionBlockMaxTaskIds;
+
+    /* the row counts, and the rows in the tail by ID while loading is deferred */
+    private static int taskCount;
+
+    private static int interruptionCount;
+
+    private static Map tailTasks;
+
+    private static Map tailInterruptions;
+
+    private static boolean compactPending;
+
+    private static ScheduledExecutorService scheduler;
+
+    private static final Runnable COMPACT = new Runnable() {
+        public void run() {
+            // saves wait while the rows are copied
+            MemoryStore.readLock().lock();
+            try {
+                synchronized (LOCK) {
+                    compactPending = false;
+                    if (open && (out != null)) {
+                        compact();
+                    }
+                }
+            } catch (DataAccessException ex) {
+                // the log is still usable; compaction is tried again after the next save
+                LOGGER.logp(Level.WARNING, CLASSNAME, "run", "failed to compact record log " + logFile, ex);
+            } finally {
+                MemoryStore.readLock().unlock();
+            }
+        }
+    };
+
+    /**
+     * Opens the log for appending, and loads the tasks and interruptions in
+     * the log into the store unless the log has an index. The log is created
+     * if it does not exist.
+     *
+     * @param config the DAO configuration properties
+     * @throws DataAccessException if the log cannot be read or opened
+     */
+    static void open(Properties config) throws DataAccessException {
+        final String methodName = "open";
+        LOGGER.entering(CLASSNAME, methodName);
+
+        MemoryStore.clear();
+
+        MemoryStore.writeLock().lock();
+        try {
+            synchronized (LOCK) {
+                logFile = new File(config.getProperty("log.file", "stopwatch.records"));
+                syncInterval = Long.parseLong(config.getProperty("log.syncInterval", "500"));
+                compactThreshold = Integer.parseInt(config.getProperty("log.compactThreshold", "1000"));
+                indexFile = new File(logFile.getPath() + ".index");
+                indexInterval = Integer.parseInt(config.getProperty("log.indexInterval", "256"));
+
+                finishCompaction();
+                deferred = readIndex() && readTail();
+                if (!deferred) {
+                    loadAll();
+                }
+
+                try {
+                    fileOut = new FileOutputStream(logFile, true);
+                    out = new DataOutputStream(new BufferedOutputStream(fileOut));
+                } catch (IOException ex) {
+                    LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "failed to open record log " + logFile, ex);
+                    throw new DataAccessException("failed to open record log", ex);
+                }
+                open = true;
+
+                if (!deferred && isCompactionDue()) {
+                    compact();
+                }
+
+                scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "StopWatch-log");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+                if (syncInterval > 0) {
+                    scheduler.scheduleWithFixedDelay(new Runnable() {
+                        public void run() {
+                            sync();
+                        }
+                    }, syncInterval, syncInterval, TimeUnit.MILLISECONDS);
+                }
+            }
+        } finally {
+            MemoryStore.writeLock().unlock();
+        }
+
+        LOGGER.logp(Level.INFO, CLASSNAME, methodName, "record log {0} opened ({1} tasks, {2} interruptions{3})", new Object[] {logFile,
+                Integer.valueOf(taskCount), Integer.valueOf(interruptionCount), deferred ? ", not loaded" : ""});
+        LOGGER.exiting(CLASSNAME, methodName);
+    }
+
+    /**
+     * Indicates whether the log has not been read into the store yet.
+     *
+     * @return <CODE>true</CODE> if the store must be loaded before it is used
+     */
+    static boolean isDeferred() {
+        return deferred;
+    }
+
+    /**
+     * Reads the whole log into the store, if that was deferred when the log
+     * was opened. Called without holding either lock of the
+     * {@link MemoryStore}.
+     *
+     * @throws DataAccessException if the log cannot be read
+     */
+    static void loadDeferred() throws DataAccessException {
+        final String methodName = "loadDeferred";
+
+        MemoryStore.writeLock().lock();
+        try {
+            synchronized (LOCK) {
+                if (!deferred) {
+                    return;
+                }
+
+                try {
+                    loadAll();
+                } catch (DataAccessException ex) {
+                    MemoryStore.clear();
+                    throw ex;
+                }
+                deferred = false;
+                tailTasks = null;
+                tailInterruptions = null;
+            }
+        } finally {
+            MemoryStore.writeLock().unlock();
+        }
+
+        LOGGER.logp(Level.INFO, CLASSNAME, methodName, "record log {0} loaded ({1} tasks, {2} interruptions)", new Object[] {logFile,
+                Integer.valueOf(taskCount), Integer.valueOf(interruptionCount)});
+    }
+
+    /**
+     * Reads the records of the completed tasks in a time range from the
+     * segment and the tail, while loading is deferred. A task is in the range
+     * if it started at or after the start time and ended before the end time.
+     *
+     * @param startTime the start of the range (inclusive), in milliseconds
+     * @param endTime the end of the range (exclusive), in milliseconds
+     * @param withInterruptions <CODE>false</CODE> if the records need not
+     *      hold the interruptions of their tasks
+     * @return the task records in start time order, or <CODE>null</CODE> if
+     *      the log has been read into the store
+     * @throws DataAccessException if the log cannot be read
+     */
+    static List findTaskRecords(long startTime, long endTime, boolean withInterruptions) throws DataAccessException {
+        final String methodName = "findTaskRecords";
+
+        synchronized (LOCK) {
+            if (!deferred) {
+                return null;
+            }
+
+            try {
+                FileInputStream fileIn = new FileInputStream(logFile);
+                try {
+                    List tasks = new ArrayList();
+                    for (int block = 0; block < taskBlockOffsets.length; ++block) {
+                        if ((taskBlockMaxStartTimes[block] < startTime) || (taskBlockMinEndTimes[block] >= endTime)) {
+                            continue;
+                        }
+
+                        List rows = readBlock(fileIn, taskBlockOffsets[block], TASK_RECORD, block, segmentTaskCount);
+                        for (Iterator rowIter = rows.iterator(); rowIter.hasNext();) {
+                            Task task = (Task) rowIter.next();
+                            if (!tailTasks.containsKey(task.getId()) && isInRange(task, startTime, endTime)) {
+                                tasks.add(task);
+                            }
+                        }
+                    }
+                    for (Iterator taskIter = tailTasks.values().iterator(); taskIter.hasNext();) {
+                        Task task = (Task) taskIter.next();
+                        if (isInRange(task, startTime, endTime)) {
+                            tasks.add(task);
+                        }
+                    }
+                    Collections.sort(tasks, START_TIME_ORDER);
+
+                    List taskRecords = new ArrayList(tasks.size());
+                    Map recordsById = new HashMap();
+                    long minTaskId = Long.MAX_VALUE;
+                    long maxTaskId = 0L;
+                    for (Iterator taskIter = tasks.iterator(); taskIter.hasNext();) {
+                        Task task = (Task) taskIter.next();
+                        TaskRecord taskRecord = new TaskRecord(task);
+                        taskRecords.add(taskRecord);
+                        recordsById.put(task.getId(), taskRecord);
+                        minTaskId = Math.min(minTaskId, task.getId().longValue());
+                        maxTaskId = Math.max(maxTaskId, task.getId().longValue());
+                    }
+
+                    if (withInterruptions && !tasks.isEmpty()) {
+                        List intrs = new ArrayList();
+                        for (int block = 0; block < interruptionBlockOffsets.length; ++block) {
+                            if ((interruptionBlockMaxTaskIds[block] < minTaskId) || (interruptionBlockMinTaskIds[block] > maxTaskId)) {
+                                continue;
+                            }
+
+                            List rows = readBlock(fileIn, interruptionBlockOffsets[block], INTERRUPTION_RECORD, block, segmentInterruptionCount);
+                            for (Iterator rowIter = rows.iterator(); rowIter.hasNext();) {
+                                Interruption intr = (Interruption) rowIter.next();
+                                if (!tailInterruptions.containsKey(intr.getId()) && recordsById.containsKey(intr.getRelatedTaskId())) {
+                                    intrs.add(intr);
+                                }
+                            }
+                        }
+                        for (Iterator intrIter = tailInterruptions.values().iterator(); intrIter.hasNext();) {
+                            Interruption intr = (Interruption) intrIter.next();
+                            if (recordsById.containsKey(intr.getRelatedTaskId())) {
+                                intrs.add(intr);
+                            }
+                        }
+                        Collections.sort(intrs, START_TIME_ORDER);
+
+                        for (Iterator intrIter = intrs.iterator(); intrIter.hasNext();) {
+                            Interruption intr = (Interruption) intrIter.next();
+                            ((TaskRecord) recordsById.get(intr.getRelatedTaskId())).addInterruption(intr);
+                        }
+                    }
+
+                    return taskRecords;
+                } finally {
+                    fileIn.close();
+                }
+            } catch (IOException ex) {
+                LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "failed to read record log " + logFile, ex);
+                throw new DataAccessException("failed to read record log", ex);
+            }
+        }
+    }
+
+    /**
+     * Indicates whether the log is open.
+     *
+     * @return <CODE>true</CODE> if saves are written to the log
+     */
+    static boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Appends the records of saved tasks. Called while holding the write lock
+     * of the {@link MemoryStore}.
+     *
+     * @param updateTasks the stored tasks being replaced
+     * @param insertTasks the new tasks
+     * @param firstId the ID that the first new task will be assigned
+     * @throws DataAccessException if the records cannot be written
+     */
+    static void appendTasks(List updateTasks, List insertTasks, long firstId) throws DataAccessException {
+        checkDescriptions(updateTasks);
+        checkDescriptions(insertTasks);
+
+        synchronized (LOCK) {
+            checkWritable();
+            try {
+                long appended = 0L;
+                for (Iterator taskIter = updateTasks.iterator(); taskIter.hasNext();) {
+                    Task task = (Task) taskIter.next();
+                    appended += writeRecord(out, TASK_RECORD, task.getId().longValue(), 0L, task);
+                }
+                long id = firstId;
+                for (Iterator taskIter = insertTasks.iterator(); taskIter.hasNext();) {
+                    appended += writeRecord(out, TASK_RECORD, id++, 0L, (Task) taskIter.next());
+                }
+
+                commit(appended, updateTasks.size() + insertTasks.size(), updateTasks.size());
+            } catch (IOException ex) {
+                rollBack(ex);
+            }
+        }
+    }
+
+    /**
+     * Appends the records of saved interruptions. Called while holding the
+     * write lock of the {@link MemoryStore}.
+     *
+     * @param updateInterruptions the stored interruptions being replaced
+     * @param insertInterruptions the new interruptions
+     * @param firstId the ID that the first new interruption will be assigned
+     * @throws DataAccessException if the records cannot be written
+     */
+    static void appendInterruptions(List updateInterruptions, List insertInterruptions, long firstId) throws DataAccessException {
+        checkDescriptions(updateInterruptions);
+        checkDescriptions(insertInterruptions);
+
+        synchronized (LOCK) {
+            checkWritable();
+            try {
+                long appended = 0L;
+                for (Iterator intrIter = updateInterruptions.iterator(); intrIter.hasNext();) {
+                    Interruption intr = (Interruption) intrIter.next();
+                    appended += writeRecord(out, INTERRUPTION_RECORD, intr.getId().longValue(), intr.getRelatedTaskId().longValue(), intr);
+                }
+                long id = firstId;
+                for (Iterator intrIter = insertInterruptions.iterator(); intrIter.hasNext();) {
+                    Interruption intr = (Interruption) intrIter.next();
+                    appended += writeRecord(out, INTERRUPTION_RECORD, id++, intr.getRelatedTaskId().longValue(), intr);
+                }
+
+                commit(appended, updateInterruptions.size() + insertInterruptions.size(), updateInterruptions.size());
+            } catch (IOException ex) {
+                rollBack(ex);
+            }
+        }
+    }
+
+    /**
+     * Forces the log to disk and closes it.
+     *
+     * @throws DataAccessException if the log cannot be closed
+     */
+    static void close() throws DataAccessException {
+        final String methodName = "close";
+        LOGGER.entering(CLASSNAME, methodName);
+
+        if (open) {
+            scheduler.shutdown();
+            try {
+                scheduler.awaitTermination(syncInterval + 1000, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+
+            synchronized (LOCK) {
+                open = false;
+                deferred = false;
+                tailTasks = null;
+                tailInterruptions = null;
+                if (out == null) {
+                    return;
+                }
+
+                try {
+                    out.flush();
+                    fileOut.getChannel().force(false);
+                    out.close();
+                    out = null;
+                } catch (IOException ex) {
+                    LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "failed to close record log " + logFile, ex);
+                    throw new DataAccessException("failed to close record log", ex);
+                }
+            }
+        }
+
+        LOGGER.exiting(CLASSNAME, methodName);
+    }
+
+    /*
+     * Finishes a compaction that was interrupted. The segment replaces the
+     * log only if the log was deleted, since the segment may be incomplete
+     * otherwise.
+     */
+    private static void finishCompaction() throws DataAccessException {
+        File segmentFile = new File(logFile.getPath() + ".compact");
+        if (segmentFile.exists()) {
+            if (logFile.exists()) {
+                segmentFile.delete();
+            } else if (!segmentFile.renameTo(logFile)) {
+                throw new DataAccessException("failed to rename " + segmentFile + " to " + logFile);
+            }
+        }
+    }
+
+    /*
+     * Reads the index of the segment at the start of the log, and returns
+     * false if there is no index or it cannot be read. An index is only
+     * written for the segment that is the log, and is deleted before that
+     * segment is replaced or cut off.
+     */
+    private static boolean readIndex() {
+        final String methodName = "readIndex";
+
+        segmentLength = 0L;
+        segmentTaskCount = 0;
+        segmentInterruptionCount = 0;
+        if (!indexFile.exists() || !logFile.exists()) {
+            return false;
+        }
+
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+            try {
+                long indexedLength;
+                int indexedTaskCount;
+                int indexedInterruptionCount;
+                if ((in.readInt() != INDEX_MAGIC) || ((indexedLength = in.readLong()) > logFile.length())
+                        || ((indexedTaskCount = in.readInt()) < 0) || ((indexedInterruptionCount = in.readInt()) < 0)
+                        || ((segmentInterval = in.readInt()) < 1)) {
+                    LOGGER.logp(Level.WARNING, CLASSNAME, methodName, "ignoring index {0}, which does not match {1}",
+                            new Object[] {indexFile, logFile});
+                    return false;
+                }
+
+                int taskBlockCount = (indexedTaskCount + segmentInterval - 1) / segmentInterval;
+                taskBlockOffsets = readLongs(in, taskBlockCount);
+                taskBlockMaxStartTimes = readLongs(in, taskBlockCount);
+                taskBlockMinEndTimes = readLongs(in, taskBlockCount);
+                int interruptionBlockCount = (indexedInterruptionCount + segmentInterval - 1) / segmentInterval;
+                interruptionBlockOffsets = readLongs(in, interruptionBlockCount);
+                interruptionBlockMinTaskIds = readLongs(in, interruptionBlockCount);
+                interruptionBlockMaxTaskIds = readLongs(in, interruptionBlockCount);
+
+                segmentLength = indexedLength;
+                segmentTaskCount = indexedTaskCount;
+                segmentInterruptionCount = indexedInterruptionCount;
+            } finally {
+                in.close();
+            }
+        } catch (IOException ex) {
+            // the log is read into the store instead
+            LOGGER.logp(Level.WARNING, CLASSNAME, methodName, "failed to read index " + indexFile, ex);
+            return false;
+        }
+
+        return true;
+    }
+
+    /*
+     * Reads the records after the segment into the tail rows, and returns
+     * false if the log should be read into the store instead: if a record is
+     * not valid (reading the log cuts it off), or if the log is due to be
+     * compacted.
+     */
+    private static boolean readTail() throws DataAccessException {
+        final String methodName = "readTail";
+
+        taskCount = segmentTaskCount;
+        interruptionCount = segmentInterruptionCount;
+        supersededCount = 0;
+        tailCount = 0;
+        tailTasks = new HashMap();
+        tailInterruptions = new HashMap();
+        length = segmentLength;
+
+        try {
+            long fileLength = logFile.length();
+
+            FileInputStream fileIn = new FileInputStream(logFile);
+            try {
+                fileIn.getChannel().position(segmentLength);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(fileIn));
+                while (length < fileLength) {
+                    Task row = readRow(in, fileLength - length);
+                    if ((row == null) || !putTailRow(row)) {
+                        return false;
+                    }
+                    length += FIXED_RECORD_LENGTH + getLength(row.getDescription());
+                }
+            } catch (EOFException ex) {
+                return false;
+            } finally {
+                fileIn.close();
+            }
+        } catch (IOException ex) {
+            LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "failed to read record log " + logFile, ex);
+            throw new DataAccessException("failed to read record log", ex);
+        }
+
+        return !isCompactionDue();
+    }
+
+    /*
+     * Adds a row read from the tail, and returns false if the row is neither
+     * stored nor the next in sequence, or if it is an interruption of a task
+     * that has not been stored or of another task than before.
+     */
+    private static boolean putTailRow(Task row) {
+        long id = row.getId().longValue();
+        if (row instanceof Interruption) {
+            Long relatedTaskId = ((Interruption) row).getRelatedTaskId();
+            Interruption previous = (Interruption) tailInterruptions.get(row.getId());
+            if ((relatedTaskId.longValue() < 1L) || (relatedTaskId.longValue() > taskCount)
+                    || ((previous != null) && !previous.getRelatedTaskId().equals(relatedTaskId))) {
+                return false;
+            }
+
+            if ((id >= 1L) && (id <= interruptionCount)) {
+                ++supersededCount;
+            } else if (id == interruptionCount + 1) {
+                ++interruptionCount;
+            } else {
+                return false;
+            }
+            tailInterruptions.put(row.getId(), row);
+        } else {
+            if ((id >= 1L) && (id <= taskCount)) {
+                ++supersededCount;
+            } else if (id == taskCount + 1) {
+                ++taskCount;
+            } else {
+                return false;
+            }
+            tailTasks.put(row.getId(), row);
+        }
+
+        ++tailCount;
+        return true;
+    }
+
+    /*
+     * Reads the log into the store, and counts the rows and records.
+     */
+    private static void loadAll() throws DataAccessException {
+        int recordCount = load();
+        taskCount = MemoryStore.getTasks().size();
+        interruptionCount = MemoryStore.getInterruptions().size();
+        supersededCount = recordCount - taskCount - interruptionCount;
+        tailCount = recordCount - segmentTaskCount - segmentInterruptionCount;
+    }
+
+    /*
+     * Reads the log into the store, and returns the number of records read.
+     * The log is cut off at the first record that is partly written or not
+     * valid, such as one whose tag is unknown, whose description does not fit
+     * in the rest of the file or the description column, or whose ID is out
+     * of sequence.
+     */
+    private static int load() throws DataAccessException {
+        final String methodName = "load";
+
+        length = 0L;
+        if (!logFile.exists()) {
+            return 0;
+        }
+
+        int count = 0;
+        try {
+            long fileLength = logFile.length();
+            boolean valid = true;
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(logFile)));
+            try {
+                while (valid && (length < fileLength)) {
+                    Task row = readRow(in, fileLength - length);
+                    if (row == null) {
+                        valid = false;
+                        break;
+                    }
+
+                    long startTime = MemoryTable.toTime(row.getStartTime());
+                    long endTime = MemoryTable.toTime(row.getEndTime());
+                    long duration = MemoryTable.toDuration(row.getDuration());
+                    if (row instanceof Interruption) {
+                        valid = MemoryStore.putInterruption(row.getId().longValue(), ((Interruption) row).getRelatedTaskId().longValue(),
+                                row.getDescription(), startTime, endTime, duration);
+                    } else {
+                        valid = MemoryStore.putTask(row.getId().longValue(), row.getDescription(), startTime, endTime, duration);
+                    }
+
+                    if (valid) {
+                        length += FIXED_RECORD_LENGTH + getLength(row.getDescription());
+                        ++count;
+                    }
+                }
+            } catch (EOFException ex) {
+                // the log was shortened while it was read
+                valid = false;
+            } finally {
+                in.close();
+            }
+
+            if (!valid) {
+                LOGGER.logp(Level.WARNING, CLASSNAME, methodName, "discarding incomplete or invalid records of {0} from offset {1}",
+                        new Object[] {logFile, Long.valueOf(length)});
+
+                if (length < segmentLength) {
+                    // the index no longer matches the log
+                    indexFile.delete();
+                    segmentLength = 0L;
+                    segmentTaskCount = 0;
+                    segmentInterruptionCount = 0;
+                }
+
+                RandomAccessFile file = new RandomAccessFile(logFile, "rw");
+                try {
+                    file.setLength(length);
+                } finally {
+                    file.close();
+                }
+            }
+        } catch (IOException ex) {
+            LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "failed to read record log " + logFile, ex);
+            throw new DataAccessException("failed to read record log", ex);
+        }
+
+        return count;
+    }
+
+    /*
+     * Reads one record as a task or interruption, or returns null if it is not
+     * a valid record: if its tag is unknown, or if its description does not
+     * fit in the available bytes or the description column.
+     */
+    private static Task readRow(DataInput in, long available) throws IOException {
+        if (available < FIXED_RECORD_LENGTH) {
+            return null;
+        }
+
+        byte tag = in.readByte();
+        long id = in.readLong();
+        long relatedTaskId = in.readLong();
+        long startTime = in.readLong();
+        long endTime = in.readLong();
+        long duration = in.readLong();
+        int descriptionLength = in.readInt();
+        if (((tag != TASK_RECORD) && (tag != INTERRUPTION_RECORD)) || (descriptionLength < -1)
+                || (descriptionLength > MAX_DESCRIPTION_LENGTH) || (descriptionLength > available - FIXED_RECORD_LENGTH)) {
+            return null;
+        }
+
+        String description = null;
+        if (descriptionLength >= 0) {
+            byte[] bytes = new byte[descriptionLength];
+            in.readFully(bytes);
+            description = new String(bytes, "UTF-8");
+        }
+
+        Date start = MemoryTable.toDate(startTime);
+        Date end = MemoryTable.toDate(endTime);
+        Long nanos = (duration != MemoryTable.NULL) ? Long.valueOf(duration) : null;
+        if (tag == INTERRUPTION_RECORD) {
+            return new Interruption(Long.valueOf(id), Long.valueOf(relatedTaskId), description, start, end, nanos);
+        }
+        return new Task(Long.valueOf(id), description, start, end, nanos);
+    }
+
+    /*
+     * Reads a block of task or interruption records of the segment. The
+     * records must have the tag and IDs that the index gives them.
+     */
+    private static List readBlock(FileInputStream fileIn, long offset, byte tag, int block, int rowCount) throws IOException {
+        fileIn.getChannel().position(offset);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(fileIn));
+
+        long firstId = (long) block * segmentInterval + 1;
+        int count = Math.min(segmentInterval, rowCount - block * segmentInterval);
+        List rows = new ArrayList(count);
+        long position = offset;
+        for (int i = 0; i < count; ++i) {
+            Task row = readRow(in, segmentLength - position);
+            if ((row == null) || ((row instanceof Interruption) != (tag == INTERRUPTION_RECORD))
+                    || (row.getId().longValue() != firstId + i)) {
+                throw new IOException("record log does not match index " + indexFile);
+            }
+            rows.add(row);
+            position += FIXED_RECORD_LENGTH + getLength(row.getDescription());
+        }
+
+        return rows;
+    }
+
+    private static boolean isInRange(Task task, long startTime, long endTime) {
+        long end = MemoryTable.toTime(task.getEndTime());
+        return (MemoryTable.toTime(task.getStartTime()) >= startTime) && (end != MemoryTable.NULL) && (end < endTime);
+    }
+
+    private static boolean isCompactionDue() {
+        return (supersededCount >= compactThreshold) || (tailCount >= compactThreshold);
+    }
+
+    /*
+     * Completes a save whose records have been written to the buffer.
+     */
+    private static void commit(long appended, int records, int superseded) throws IOException {
+        // hand the records to the operating system immediately; forcing them
+        // to the disk is deferred to the sync interval
+        out.flush();
+        if (syncInterval <= 0) {
+            fileOut.getChannel().force(false);
+        } else {
+            unsynced = true;
+        }
+        length += appended;
+
+        tailCount += records;
+        supersededCount += superseded;
+        if (isCompactionDue() && !compactPending) {
+            compactPending = true;
+            scheduler.execute(COMPACT);
+        }
+    }
+
+    /*
+     * Cuts the records of a failed save off the log, so that the log ends
+     * with the last complete save.
+     */
+    private static void rollBack(IOException cause) throws DataAccessException {
+        final String methodName = "rollBack";
+        LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "failed to append to record log " + logFile, cause);
+
+        try {
+            fileOut.getChannel().truncate(length);
+        } catch (IOException ex) {
+            LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "failed to truncate record log " + logFile, ex);
+        }
+        // discard whatever is left in the buffer
+        out = new DataOutputStream(new BufferedOutputStream(fileOut));
+
+        throw new DataAccessException("failed to write to record log", cause);
+    }
+
+    /*
+     * Replaces the log with a segment that holds one record per row, and
+     * writes the index of the segment. Called while holding the read (or
+     * write) lock of the store and the log lock.
+     */
+    private static void compact() throws DataAccessException {
+        final String methodName = "compact";
+        LOGGER.entering(CLASSNAME, methodName);
+
+        MemoryTable tasks = MemoryStore.getTasks();
+        MemoryTable interruptions = MemoryStore.getInterruptions();
+        int taskBlockCount = (tasks.size() + indexInterval - 1) / indexInterval;
+        long[] taskOffsets = new long[taskBlockCount];
+        long[] maxStartTimes = new long[taskBlockCount];
+        long[] minEndTimes = new long[taskBlockCount];
+        int interruptionBlockCount = (interruptions.size() + indexInterval - 1) / indexInterval;
+        long[] interruptionOffsets = new long[interruptionBlockCount];
+        long[] minTaskIds = new long[interruptionBlockCount];
+        long[] maxTaskIds = new long[interruptionBlockCount];
+
+        File segmentFile = new File(logFile.getPath() + ".compact");
+        long newSegmentLength = 0L;
+        try {
+            FileOutputStream segmentOut = new FileOutputStream(segmentFile);
+            try {
+                DataOutputStream segment = new DataOutputStream(new BufferedOutputStream(segmentOut));
+
+                // tasks first, so that every interruption follows its task
+                for (int row = 0; row < tasks.size(); ++row) {
+                    int block = row / indexInterval;
+                    if (row % indexInterval == 0) {
+                        taskOffsets[block] = newSegmentLength;
+                        maxStartTimes[block] = MemoryTable.NULL;
+                        minEndTimes[block] = Long.MAX_VALUE;
+                    }
+                    // a missing start time is the lowest, so it never raises the latest
+                    maxStartTimes[block] = Math.max(maxStartTimes[block], tasks.getStartTime(row));
+                    if (tasks.getEndTime(row) != MemoryTable.NULL) {
+                        minEndTimes[block] = Math.min(minEndTimes[block], tasks.getEndTime(row));
+                    }
+
+                    newSegmentLength += writeRecord(segment, TASK_RECORD, row + 1, 0L, tasks, row);
+                }
+                for (int row = 0; row < interruptions.size(); ++row) {
+                    int block = row / indexInterval;
+                    if (row % indexInterval == 0) {
+                        interruptionOffsets[block] = newSegmentLength;
+                        minTaskIds[block] = Long.MAX_VALUE;
+                        maxTaskIds[block] = 0L;
+                    }
+                    minTaskIds[block] = Math.min(minTaskIds[block], interruptions.getRelatedTaskId(row));
+                    maxTaskIds[block] = Math.max(maxTaskIds[block], interruptions.getRelatedTaskId(row));
+
+                    newSegmentLength += writeRecord(segment, INTERRUPTION_RECORD, row + 1, interruptions.getRelatedTaskId(row), interruptions, row);
+                }
+
+                segment.flush();
+                segmentOut.getChannel().force(false);
+            } finally {
+                segmentOut.close();
+            }
+
+            out.flush();
+            out.close();
+            // the index of the log being replaced must not be taken for the index of the segment
+            if (indexFile.exists() && !indexFile.delete()) {
+                throw new IOException("failed to delete " + indexFile);
+            }
+            if (!logFile.delete()) {
+                throw new IOException("failed to delete " + logFile);
+            }
+        } catch (IOException ex) {
+            // keep the existing log
+            segmentFile.delete();
+            reopen();
+            throw new DataAccessException("failed to compact record log", ex);
+        }
+
+        if (!segmentFile.renameTo(logFile)) {
+            // the segment is the only copy of the rows now; it is renamed when the log is next opened
+            out = null;
+            LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "failed to rename {0} to {1}", new Object[] {segmentFile, logFile});
+            throw new DataAccessException("failed to replace record log with compacted segment");
+        }
+
+        LOGGER.logp(Level.INFO, CLASSNAME, methodName, "record log {0} compacted ({1} superseded records removed)",
+                new Object[] {logFile, Integer.valueOf(supersededCount)});
+        length = newSegmentLength;
+        supersededCount = 0;
+        tailCount = 0;
+        unsynced = false;
+
+        segmentLength = newSegmentLength;
+        segmentTaskCount = tasks.size();
+        segmentInterruptionCount = interruptions.size();
+        segmentInterval = indexInterval;
+        taskBlockOffsets = taskOffsets;
+        taskBlockMaxStartTimes = maxStartTimes;
+        taskBlockMinEndTimes = minEndTimes;
+        interruptionBlockOffsets = interruptionOffsets;
+        interruptionBlockMinTaskIds = minTaskIds;
+        interruptionBlockMaxTaskIds = maxTaskIds;
+        writeIndex();
+
+        reopen();
+
+        LOGGER.exiting(CLASSNAME, methodName);
+    }
+
+    /*
+     * Writes the index of the segment. The log is still complete without it,
+     * so a failure only means that the log is read into the store when it is
+     * next opened.
+     */
+    private static void writeIndex() {
+        final String methodName = "writeIndex";
+
+        try {
+            FileOutputStream indexOut = new FileOutputStream(indexFile);
+            try {
+                DataOutputStream index = new DataOutputStream(new BufferedOutputStream(indexOut));
+                index.writeInt(INDEX_MAGIC);
+                index.writeLong(segmentLength);
+                index.writeInt(segmentTaskCount);
+                index.writeInt(segmentInterruptionCount);
+                index.writeInt(segmentInterval);
+                writeLongs(index, taskBlockOffsets);
+                writeLongs(index, taskBlockMaxStartTimes);
+                writeLongs(index, taskBlockMinEndTimes);
+                writeLongs(index, interruptionBlockOffsets);
+                writeLongs(index, interruptionBlockMinTaskIds);
+                writeLongs(index, interruptionBlockMaxTaskIds);
+                index.flush();
+            } finally {
+                indexOut.close();
+            }
+        } catch (IOException ex) {
+            LOGGER.logp(Level.WARNING, CLASSNAME, methodName, "failed to write index " + indexFile, ex);
+            indexFile.delete();
+        }
+    }
+
+    private static void reopen() throws DataAccessException {
+        final String methodName = "reopen";
+
+        try {
+            fileOut = new FileOutputStream(logFile, true);
+            out = new DataOutputStream(new BufferedOutputStream(fileOut));
+        } catch (IOException ex) {
+            out = null;
+            LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "failed to reopen record log " + logFile, ex);
+            throw new DataAccessException("failed to reopen record log", ex);
+        }
+    }
+
+    /*
+     * Refuses descriptions that the description column could not hold, so
+     * that every record written can be read back.
+     */
+    private static void checkDescriptions(List rows) throws DataAccessException {
+        for (Iterator rowIter = rows.iterator(); rowIter.hasNext();) {
+            String description = ((Task) rowIter.next()).getDescription();
+            if ((description != null) && (description.length() > MAX_DESCRIPTION_CHARS)) {
+                throw new DataAccessException("description is longer than " + MAX_DESCRIPTION_CHARS + " characters");
+            }
+        }
+    }
+
+    private static void checkWritable() throws DataAccessException {
+        if (deferred) {
+            // the new rows would not be assigned the next IDs
+            throw new DataAccessException("record log " + logFile + " has not been loaded");
+        } else if (out == null) {
+            // saves are refused rather than kept in memory only
+            throw new DataAccessException("record log " + logFile + " cannot be written");
+        }
+    }
+
+    private static void sync() {
+        final String methodName = "sync";
+
+        synchronized (LOCK) {
+            if (open && (out != null) && unsynced) {
+                try {
+                    fileOut.getChannel().force(false);
+                    unsynced = false;
+                } catch (IOException ex) {
+                    LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "failed to sync record log " + logFile, ex);
+                }
+            }
+        }
+    }
+
+    private static int writeRecord(DataOutput out, byte tag, long id, long relatedTaskId, Task task) throws IOException {
+        return writeRecord(out, tag, id, relatedTaskId, task.getDescription(), MemoryTable.toTime(task.getStartTime()),
+                MemoryTable.toTime(task.getEndTime()), MemoryTable.toDuration(task.getDuration()));
+    }
+
+    private static int writeRecord(DataOutput out, byte tag, long id, long relatedTaskId, MemoryTable table, int row) throws IOException {
+        return writeRecord(out, tag, id, relatedTaskId, table.getDescription(row), table.getStartTime(row), table.getEndTime(row),
+                table.getDuration(row));
+    }
+
+    /*
+     * Writes one record, and returns its length. Missing times and durations
+     * are written as MemoryTable.NULL, and a missing description as length -1.
+     */
+    private static int writeRecord(DataOutput out, byte tag, long id, long relatedTaskId, String description, long startTime, long endTime,
+            long duration) throws IOException {
+        byte[] bytes = getBytes(description);
+
+        out.writeByte(tag);
+        out.writeLong(id);
+        out.writeLong(relatedTaskId);
+        out.writeLong(startTime);
+        out.writeLong(endTime);
+        out.writeLong(duration);
+        out.writeInt((bytes != null) ? bytes.length : -1);
+        if (bytes != null) {
+            out.write(bytes);
+        }
+
+        return FIXED_RECORD_LENGTH + ((bytes != null) ? bytes.length : 0);
+    }
+
+    private static byte[] getBytes(String description) throws UnsupportedEncodingException {
+        return (description != null) ? description.getBytes("UTF-8") : null;
+    }
+
+    private static int getLength(String description) throws UnsupportedEncodingException {
+        return (description != null) ? getBytes(description).length : 0;
+    }
+
+    private static long[] readLongs(DataInput in, int count) throws IOException {
+        long[] values = new long[count];
+        for (int i = 0; i < count; ++i) {
+            values[i] = in.readLong();
+        }
+        return values;
+    }
+
+    private static void writeLongs(DataOutput out, long[] values) throws IOException {
+        for (int i = 0; i < values.length; ++i) {
+            out.writeLong(values[i]);
+        }
+    }
+
+    private RecordLog() {
+        // never instantiated
+    }
+}
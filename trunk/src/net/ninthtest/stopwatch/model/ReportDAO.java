@@ -0,0 +1,118 @@
+/*
+ * $Id$
+ */
+
+package net.ninthtest.stopwatch.model;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * This interface declares the contract for access to reporting data, i.e.
+ * tasks combined with their interruptions.
+ *
+ * @author Matthew Zipay (ninthtest@gmail.com)
+ * @version $Revision$
+ */
+public interface ReportDAO {
+    /** Totals are grouped by task, in task start time order. */
+    public static final int GROUP_BY_TASK = 0;
+
+    /** Totals are grouped by the day each task started, in date order. */
+    public static final int GROUP_BY_DAY = 1;
+
+    /** Totals are grouped by task description, in description order. */
+    public static final int GROUP_BY_DESCRIPTION = 2;
+
+    /**
+     * Returns a record for every known task, each containing the task's
+     * interruptions.
+     *
+     * @return a list of task records ordered by task start time
+     * @throws DataAccessException if access to the data store fails
+     */
+    public List findAllTaskRecords() throws DataAccessException;
+
+    /**
+     * Returns a record for every known task in a specified date range, each
+     * containing the task's interruptions.
+     *
+     * @param startDate the start date in the date range (inclusive)
+     * @param endDate the end date in the date range (exclusive)
+     * @return a list of task records ordered by task start time
+     * @throws DataAccessException if access to the data store fails
+     */
+    public List findAllTaskRecordsInDateRange(Date startDate, Date endDate) throws DataAccessException;
+
+    /**
+     * Passes a record for every known task to a handler, in task start time
+     * order. Records are read incrementally, so memory use does not depend on
+     * the number of tasks.
+     *
+     * @param handler the callback that receives each task record
+     * @throws DataAccessException if access to the data store fails, or if the
+     *      handler fails
+     */
+    public void processAllTaskRecords(TaskRecordHandler handler) throws DataAccessException;
+
+    /**
+     * Passes a record for every known task in a specified date range to a
+     * handler, in task start time order. Records are read incrementally, so
+     * memory use does not depend on the number of tasks.
+     *
+     * @param startDate the start date in the date range (inclusive)
+     * @param endDate the end date in the date range (exclusive)
+     * @param handler the callback that receives each task record
+     * @throws DataAccessException if access to the data store fails, or if the
+     *      handler fails
+     */
+    public void processAllTaskRecordsInDateRange(Date startDate, Date endDate, TaskRecordHandler handler) throws DataAccessException;
+
+    /**
+     * Passes the times of every known task to a handler, in task start time
+     * order. Interruption times are totalled for each task by the data store,
+     * so individual interruptions are not read.
+     *
+     * @param handler the callback that receives the times of each task
+     * @throws DataAccessException if access to the data store fails, or if the
+     *      handler fails
+     */
+    public void processAllTaskTimes(TaskTimeHandler handler) throws DataAccessException;
+
+    /**
+     * Passes the times of every known task in a specified date range to a
+     * handler, in task start time order. Interruption times are totalled for
+     * each task by the data store, so individual interruptions are not read.
+     *
+     * @param startDate the start date in the date range (inclusive)
+     * @param endDate the end date in the date range (exclusive)
+     * @param handler the callback that receives the times of each task
+     * @throws DataAccessException if access to the data store fails, or if the
+     *      handler fails
+     */
+    public void processAllTaskTimesInDateRange(Date startDate, Date endDate, TaskTimeHandler handler) throws DataAccessException;
+
+    /**
+     * Returns the time totals of all completed tasks, calculated by the data
+     * store.
+     *
+     * @param grouping {@link #GROUP_BY_TASK}, {@link #GROUP_BY_DAY} or
+     *      {@link #GROUP_BY_DESCRIPTION}
+     * @return the totals for each group
+     * @throws DataAccessException if access to the data store fails
+     */
+    public TaskTimeTotals findTimeTotals(int grouping) throws DataAccessException;
+
+    /**
+     * Returns the time totals of the completed tasks in a specified date
+     * range, calculated by the data store.
+     *
+     * @param grouping {@link #GROUP_BY_TASK}, {@link #GROUP_BY_DAY} or
+     *      {@link #GROUP_BY_DESCRIPTION}
+     * @param startDate the start date in the date range (inclusive)
+     * @param endDate the end date in the date range (exclusive)
+     * @return the totals for each group
+     * @throws DataAccessException if access to the data store fails
+     */
+    public TaskTimeTotals findTimeTotalsInDateRange(int grouping, Date startDate, Date endDate) throws DataAccessException;
+}
@@ -0,0 +1,290 @@
+/*
+ * $Id$
+ */
+
+package net.ninthtest.stopwatch.model;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class brings the database schema up to the version expected by the
+ * JDBC DAOs.
+ *
+ * <P>The current schema version is recorded in the <CODE>Schema_Version</CODE>
+ * table; a database without that table is at version 0. Migrations are defined
+ * in <CODE>schema-sql.properties</CODE>: the migration to version <I>n</I>
+ * consists of the steps <CODE>migration.</CODE><I>n</I><CODE>.1</CODE>,
+ * <CODE>migration.</CODE><I>n</I><CODE>.2</CODE>, and so on, each of which is
+ * either an SQL statement or <CODE>class:</CODE> followed by the name of a
+ * {@link MigrationStep} implementation. Every version above the recorded one
+ * is applied in order.</P>
+ *
+ * <P>Each step is committed in its own transaction together with a record in
+ * the <CODE>Schema_History</CODE> table that includes the time the step took.
+ * Because the database commits DDL statements immediately, a migration that
+ * is interrupted part-way is resumed at its first unrecorded step the next
+ * time the application starts. The schema version is advanced only when all
+ * of a migration's steps have been applied.</P>
+ *
+ * <P>Steps only touch the tables and indexes they name, so upgrading a large
+ * database does not rewrite tables that a migration does not change.</P>
+ *
+ * @author Matthew Zipay (ninthtest@gmail.com)
+ * @version $Revision$
+ */
+final class SchemaMigration {
+    private static final String CLASSNAME = SchemaMigration.class.getName();
+
+    private static final Logger LOGGER = Logger.getLogger(SchemaMigration.class.getPackage().getName());
+
+    private static final Properties SQL_PROPERTIES = new Properties();
+
+    private static final String CLASS_STEP_PREFIX = "class:";
+
+    static {
+        final String methodName = "<clinit>";
+        LOGGER.entering(CLASSNAME, methodName);
+
+        try {
+            SQL_PROPERTIES.load(Thread.currentThread().getContextClassLoader().getResourceAsStream("schema-sql.properties"));
+        } catch (IOException ex) {
+            LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "error loading SchemaMigration SQL properties", ex);
+        }
+
+        LOGGER.exiting(CLASSNAME, methodName);
+    }
+
+    /**
+     * Applies every migration above the database's current schema version.
+     *
+     * @throws DataAccessException if a migration fails
+     */
+    static void migrate() throws DataAccessException {
+        final String methodName = "migrate";
+        LOGGER.entering(CLASSNAME, methodName);
+
+        Connection conx = null;
+        try {
+            conx = JDBCAccess.getConnection();
+        } catch (SQLException ex) {
+            String msg = "failed to open database connection";
+            LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, msg, ex);
+            throw new DataAccessException(msg, ex);
+        }
+
+        try {
+            createTrackingTables(conx);
+
+            int version = findSchemaVersion(conx);
+            while (SQL_PROPERTIES.getProperty("migration." + (version + 1) + ".1") != null) {
+                applyMigration(conx, ++version);
+            }
+
+            LOGGER.logp(Level.CONFIG, CLASSNAME, methodName, "database schema version is {0}", Integer.valueOf(version));
+        } catch (SQLException ex) {
+            LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "schema migration failed", ex);
+            throw new DataAccessException(ex);
+        } finally {
+            JDBCAccess.returnConnection(conx);
+        }
+
+        LOGGER.exiting(CLASSNAME, methodName);
+    }
+
+    private static void applyMigration(Connection conx, int version) throws SQLException, DataAccessException {
+        final String methodName = "applyMigration";
+        LOGGER.entering(CLASSNAME, methodName, Integer.valueOf(version));
+
+        String description = SQL_PROPERTIES.getProperty("migration." + version + ".description", "");
+        LOGGER.logp(Level.INFO, CLASSNAME, methodName, "upgrading database schema to version {0}: {1}", new Object[] {Integer.valueOf(version), description});
+
+        long migrationStart = System.nanoTime();
+        Set appliedSteps = findAppliedSteps(conx, version);
+
+        String stepSpec = null;
+        for (int step = 1; (stepSpec = SQL_PROPERTIES.getProperty("migration." + version + "." + step)) != null; ++step) {
+            if (appliedSteps.contains(Integer.valueOf(step))) {
+                LOGGER.logp(Level.INFO, CLASSNAME, methodName, "schema version {0} step {1} was already applied", new Object[] {Integer.valueOf(version), Integer.valueOf(step)});
+                continue;
+            }
+
+            long stepStart = System.nanoTime();
+            try {
+                createStep(stepSpec.trim()).apply(conx);
+            } catch (SQLException ex) {
+                LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "schema version " + version + " step " + step + " failed: " + stepSpec, ex);
+                rollback(conx);
+                throw ex;
+            }
+            long elapsedMillis = (System.nanoTime() - stepStart) / 1000000L;
+
+            PreparedStatement insert = conx.prepareStatement(getSql("insertSchemaHistory"));
+            try {
+                insert.setInt(1, version);
+                insert.setInt(2, step);
+                insert.setString(3, abbreviate(stepSpec.trim()));
+                insert.setTimestamp(4, new Timestamp(System.currentTimeMillis()));
+                insert.setLong(5, elapsedMillis);
+                insert.executeUpdate();
+            } finally {
+                insert.close();
+            }
+
+            conx.commit();
+            LOGGER.logp(Level.INFO, CLASSNAME, methodName, "schema version {0} step {1} applied in {2} ms", new Object[] {Integer.valueOf(version), Integer.valueOf(step), Long.valueOf(elapsedMillis)});
+        }
+
+        PreparedStatement update = conx.prepareStatement(getSql("updateSchemaVersion"));
+        try {
+            update.setInt(1, version);
+            update.executeUpdate();
+        } finally {
+            update.close();
+        }
+        conx.commit();
+
+        LOGGER.logp(Level.INFO, CLASSNAME, methodName, "database schema upgraded to version {0} in {1} ms", new Object[] {Integer.valueOf(version), Long.valueOf((System.nanoTime() - migrationStart) / 1000000L)});
+        LOGGER.exiting(CLASSNAME, methodName);
+    }
+
+    private static MigrationStep createStep(String stepSpec) throws SQLException {
+        if (!stepSpec.startsWith(CLASS_STEP_PREFIX)) {
+            return new SqlMigrationStep(stepSpec);
+        }
+
+        String className = stepSpec.substring(CLASS_STEP_PREFIX.length()).trim();
+        try {
+            return (MigrationStep) Class.forName(className).newInstance();
+        } catch (Exception ex) {
+            SQLException sqlEx = new SQLException("failed to instantiate migration step " + className);
+            sqlEx.initCause(ex);
+            throw sqlEx;
+        }
+    }
+
+    /*
+     * Creates the version and history tables if they do not exist. A new
+     * version table starts at version 0.
+     */
+    private static void createTrackingTables(Connection conx) throws SQLException, DataAccessException {
+        Statement stmt = conx.createStatement();
+        try {
+            if (!tableExists(conx, "SCHEMA_VERSION")) {
+                stmt.execute(getSql("createSchemaVersion"));
+                stmt.executeUpdate(getSql("insertSchemaVersion"));
+            }
+
+            if (!tableExists(conx, "SCHEMA_HISTORY")) {
+                stmt.execute(getSql("createSchemaHistory"));
+            }
+        } finally {
+            stmt.close();
+        }
+
+        conx.commit();
+    }
+
+    private static boolean tableExists(Connection conx, String tableName) throws SQLException {
+        ResultSet tables = conx.getMetaData().getTables(null, null, tableName, null);
+        try {
+            return tables.next();
+        } finally {
+            tables.close();
+        }
+    }
+
+    private static int findSchemaVersion(Connection conx) throws SQLException, DataAccessException {
+        Statement stmt = conx.createStatement();
+        try {
+            ResultSet result = stmt.executeQuery(getSql("findSchemaVersion"));
+            try {
+                return result.next() ? result.getInt(1) : 0;
+            } finally {
+                result.close();
+            }
+        } finally {
+            stmt.close();
+        }
+    }
+
+    private static Set findAppliedSteps(Connection conx, int version) throws SQLException, DataAccessException {
+        Set steps = new HashSet();
+
+        PreparedStatement select = conx.prepareStatement(getSql("findSchemaHistorySteps"));
+        try {
+            select.setInt(1, version);
+
+            ResultSet results = select.executeQuery();
+            try {
+                while (results.next()) {
+                    steps.add(Integer.valueOf(results.getInt(1)));
+                }
+            } finally {
+                results.close();
+            }
+        } finally {
+            select.close();
+        }
+
+        return steps;
+    }
+
+    private static void rollback(Connection conx) {
+        final String methodName = "rollback";
+
+        try {
+            conx.rollback();
+        } catch (SQLException ex) {
+            LOGGER.logp(Level.WARNING, CLASSNAME, methodName, "rollback failed", ex);
+        }
+    }
+
+    private static String abbreviate(String stepSpec) {
+        // fits the Schema_History.step_description column
+        return (stepSpec.length() > 255) ? stepSpec.substring(0, 252) + "..." : stepSpec;
+    }
+
+    private static String getSql(String name) throws DataAccessException {
+        String sql = SQL_PROPERTIES.getProperty(name);
+        if ((sql == null) || (sql.equals(""))) {
+            throw new DataAccessException("undefined or empty SQL template");
+        }
+
+        return sql;
+    }
+
+    private SchemaMigration() {
+        // never instantiated
+    }
+
+    /*
+     * A migration step consisting of a single SQL statement.
+     */
+    private static class SqlMigrationStep implements MigrationStep {
+        private String sql;
+
+        SqlMigrationStep(String sql) {
+            this.sql = sql;
+        }
+
+        public void apply(Connection conx) throws SQLException {
+            Statement stmt = conx.createStatement();
+            try {
+                stmt.execute(sql);
+            } finally {
+                stmt.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * $Id$
+ */
+
+package net.ninthtest.stopwatch.model;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class caches the prepared statements of a single pooled connection.
+ *
+ * <P>Statements are keyed by the name of the SQL property they were prepared
+ * from. When the cache is full, the least recently used statement is
+ * evicted. The borrower may still be using an evicted statement (a result set
+ * that is read in chunks holds its statements from one chunk to the next), so
+ * evicted statements are only closed by {@link #release()}, when the
+ * connection is returned to the pool. A cache is only ever used by the thread
+ * that has borrowed its connection, so it is not synchronized.</P>
+ *
+ * @author Matthew Zipay (ninthtest@gmail.com)
+ * @version $Revision$
+ */
+final class StatementCache {
+    private static final String CLASSNAME = StatementCache.class.getName();
+
+    private static final Logger LOGGER = Logger.getLogger(StatementCache.class.getPackage().getName());
+
+    private Connection conx;
+
+    private Map statements;
+
+    /* the statements evicted while the connection is borrowed */
+    private List evicted = new ArrayList();
+
+    private long hitCount;
+
+    private long missCount;
+
+    private long evictionCount;
+
+    /**
+     * Creates a new statement cache.
+     *
+     * @param conx the connection that prepares the cached statements
+     * @param capacity the maximum number of cached statements (at least one)
+     */
+    StatementCache(Connection conx, final int capacity) {
+        this.conx = conx;
+        statements = new LinkedHashMap(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry eldest) {
+                if (size() > Math.max(1, capacity)) {
+                    ++evictionCount;
+                    evicted.add(eldest.getValue());
+                    return true;
+                }
+
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached statement for an SQL property, preparing it if
+     * necessary. The caller must not close the returned statement.
+     *
+     * @param name the name of the SQL property
+     * @param sql the SQL text of the property
+     * @param returnGeneratedKeys whether the statement should make
+     *      auto-generated keys available after execution
+     * @return a prepared statement for <I>sql</I>
+     * @throws SQLException if the statement cannot be prepared
+     */
+    PreparedStatement getStatement(String name, String sql, boolean returnGeneratedKeys) throws SQLException {
+        PreparedStatement stmt = (PreparedStatement) statements.get(name);
+        if (stmt != null) {
+            ++hitCount;
+        } else {
+            ++missCount;
+            stmt = returnGeneratedKeys ? conx.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS) : conx.prepareStatement(sql);
+            statements.put(name, stmt);
+        }
+
+        return stmt;
+    }
+
+    /**
+     * Returns the number of statement requests served from the cache.
+     *
+     * @return the cache hit count
+     */
+    long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Returns the number of statement requests that required a new statement
+     * to be prepared.
+     *
+     * @return the cache miss count
+     */
+    long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Returns the number of statements evicted to make room for others.
+     *
+     * @return the cache eviction count
+     */
+    long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Closes the statements that were evicted while the connection was
+     * borrowed. Called when the connection is returned to the pool.
+     */
+    void release() {
+        for (Iterator stmtIter = evicted.iterator(); stmtIter.hasNext();) {
+            closeStatement((PreparedStatement) stmtIter.next());
+        }
+        evicted.clear();
+    }
+
+    /**
+     * Closes every cached statement.
+     */
+    void clear() {
+        release();
+        for (Iterator stmtIter = statements.values().iterator(); stmtIter.hasNext();) {
+            closeStatement((PreparedStatement) stmtIter.next());
+        }
+        statements.clear();
+    }
+
+    private static void closeStatement(PreparedStatement stmt) {
+        final String methodName = "closeStatement";
+
+        try {
+            stmt.close();
+        } catch (SQLException ex) {
+            LOGGER.logp(Level.WARNING, CLASSNAME, methodName, "failed to close cached statement", ex);
+        }
+    }
+}
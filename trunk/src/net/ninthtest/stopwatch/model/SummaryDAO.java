@@ -0,0 +1,52 @@
+/*
+ * $Id$
+ */
+
+package net.ninthtest.stopwatch.model;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * This interface declares the contract for access to summarized task data.
+ * Summaries include only completed tasks, and each task is counted on the day
+ * it was started.
+ *
+ * @author Matthew Zipay (ninthtest@gmail.com)
+ * @version $Revision$
+ */
+public interface SummaryDAO {
+    /**
+     * Returns the totals for each day and task description in a specified date
+     * range.
+     *
+     * @param startDate the start date in the date range (inclusive)
+     * @param endDate the end date in the date range (exclusive)
+     * @return a list of task summaries ordered by day, then description
+     * @throws DataAccessException if access to the data store fails
+     */
+    public List findDailySummaries(Date startDate, Date endDate) throws DataAccessException;
+
+    /**
+     * Returns the totals for each week and task description in a specified
+     * date range. Weeks begin on the first day of the week for the default
+     * locale.
+     *
+     * @param startDate the start date in the date range (inclusive)
+     * @param endDate the end date in the date range (exclusive)
+     * @return a list of task summaries ordered by week, then description
+     * @throws DataAccessException if access to the data store fails
+     */
+    public List findWeeklySummaries(Date startDate, Date endDate) throws DataAccessException;
+
+    /**
+     * Returns the totals for each task description in a specified date range.
+     *
+     * @param startDate the start date in the date range (inclusive)
+     * @param endDate the end date in the date range (exclusive)
+     * @return a list of task summaries (without period start dates) ordered by
+     *      description
+     * @throws DataAccessException if access to the data store fails
+     */
+    public List findDescriptionSummaries(Date startDate, Date endDate) throws DataAccessException;
+}
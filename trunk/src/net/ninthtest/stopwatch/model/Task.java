@@ -14,6 +14,11 @@ import java.util.logging.Logger;
 /**
  * This class describes a common work task.
  *
+ * <P>The start time of a task is read from the wall clock, but its duration is
+ * measured in nanoseconds from the monotonic time of the {@link Clock}, and
+ * the end time is the start time plus the duration. Setting or adjusting the
+ * wall clock while a task is running does not change its duration.</P>
+ *
  * @author Matthew Zipay (ninthtest@gmail.com)
  * @version $Revision: 84 $
  */
@@ -22,7 +27,8 @@ public class Task {
     
     private static final Logger LOGGER = Logger.getLogger(Task.class.getPackage().getName());
     
-    private Long id;
+    /* assigned on the persistence writer thread and read on the event thread */
+    private volatile Long id;
     
     private String description;
     
@@ -30,6 +36,12 @@ public class Task {
     
     private Date endTime;
     
+    /* nanoseconds; null until the task has ended */
+    private Long duration;
+    
+    /* the monotonic time at which the task began */
+    private long startNanos;
+    
     /**
      * Creates a new task with a description.
      *
@@ -44,25 +56,48 @@ public class Task {
         LOGGER.exiting(CLASSNAME, methodName);
     }
 
-    Task(Long id, String description, Date startTime, Date endTime) {
+    Task(Long id, String description, Date startTime, Date endTime, Long duration) {
         this.id = id;
         this.description = description;
         this.startTime = startTime;
         this.endTime = endTime;
+        this.duration = duration;
+    }
+
+    /*
+     * Creates a snapshot of the current state of a task.
+     */
+    Task(Task task) {
+        this(task.id, task.description, copyDate(task.startTime), copyDate(task.endTime), task.duration);
+        startNanos = task.startNanos;
+    }
+
+    private static Date copyDate(Date date) {
+        return (date != null) ? new Date(date.getTime()) : null;
     }
 
     /**
      * Marks the start time for this task.
      */
     public void begin() {
-        startTime = new Date();
+        Clock clock = Clock.getInstance();
+        startTime = new Date(clock.currentTimeMillis());
+        startNanos = clock.nanoTime();
     }
     
     /**
      * Marks the stop time for this task.
      */
     public void end() {
-        endTime = new Date();
+        if (startTime == null) {
+            // never begun, so there is no duration to measure
+            endTime = new Date(Clock.getInstance().currentTimeMillis());
+            return;
+        }
+        
+        long elapsedNanos = Math.max(0L, Clock.getInstance().nanoTime() - startNanos);
+        duration = Long.valueOf(elapsedNanos);
+        endTime = new Date(startTime.getTime() + (elapsedNanos / Clock.NANOS_PER_MILLI));
     }
     
     /**
@@ -114,6 +149,17 @@ public class Task {
         return endTime;
     }
     
+    /**
+     * Returns the task duration.
+     *
+     * @return
+     *      the time between the start and stop of this task, in nanoseconds,
+     *      or <CODE>null</CODE> if this task has not ended
+     */
+    public Long getDuration() {
+        return duration;
+    }
+    
     /**
      * {@inheritDoc}
      *
@@ -150,6 +196,7 @@ public class Task {
         .append(";description=\"").append(description)
         .append("\";startTime=").append(startTime)
         .append(";endTime=").append(endTime)
+        .append(";duration=").append(duration)
         .append("]")
         .toString();
     }
@@ -0,0 +1,1981 @@
+/*
+ * $Id$
+ */
+
+package net.ninthtest.stopwatch.model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class moves completed tasks that are older than a configurable age out
+ * of the database and into read-only archive segment files, from which
+ * the JDBC DAOs read them together with the tasks in the database.
+ *
+ * <P>The archive is columnar: each task value (ID, start time, end time,
+ * duration, description and total interruption time) is held in an array of
+ * its own, followed by the arrays of the interruptions, which are grouped by
+ * task. Descriptions are held once and referred to by index. The tasks are in
+ * start time order, and the earliest start time and latest end time of each
+ * block of tasks are indexed, so that a date range query reads only the
+ * blocks that can hold tasks in the range. Each segment file is mapped into
+ * memory when the archive is opened and is read in place, and the segments are
+ * read together as one archive.</P>
+ *
+ * <P>Tasks are moved when the archive is opened: the tasks that ended before
+ * the cutoff are read in start time order and written to new segments of at
+ * most <CODE>archive.segmentSize</CODE> tasks each, so that only one
+ * segment's tasks are held on the heap at a time. Only then are the tasks and
+ * their interruptions deleted from the database. If the application stops
+ * between those steps, the deletion is repeated when the archive is next
+ * opened. Archived tasks are never read back onto the heap to be moved; the
+ * segments are merged into one file only when a compaction is configured
+ * (<CODE>archive.compact</CODE>). The daily summaries of archived tasks stay in
+ * the <CODE>Task_Summaries</CODE> table, and when a summary is recalculated
+ * (see {@link TaskSummaryRefresh}), the archived tasks in it are added to
+ * those in the database.</P>
+ *
+ * <P>Archived tasks and interruptions are read-only: they are found and paged
+ * through like the ones in the database, but cannot be saved again.</P>
+ *
+ * @author Matthew Zipay (ninthtest@gmail.com)
+ * @version $Revision$
+ */
+final class TaskArchive {
+    private static final String CLASSNAME = TaskArchive.class.getName();
+
+    private static final Logger LOGGER = Logger.getLogger(TaskArchive.class.getPackage().getName());
+
+    private static final int MAGIC = 0x53574131;
+
+    /* the archived tasks may still be in the database */
+    private static final int MOVING = 0;
+
+    private static final int MOVED = 1;
+
+    private static final int STATE_OFFSET = 4;
+
+    /* magic number, state, task/interruption/description counts, block size, maximum task and interruption IDs */
+    private static final int HEADER_LENGTH = (6 * 4) + (2 * 8);
+
+    /* a compacted segment, complete but not yet in place of the segments it holds */
+    private static final String COMPACTED_SUFFIX = ".compact";
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final String FIND_ARCHIVABLE_TASK_RECORDS_SQL;
+
+    private static final String DELETE_ARCHIVED_INTERRUPTIONS_SQL;
+
+    private static final String DELETE_ARCHIVED_TASK_SQL;
+
+    /* the first segment; segment n is archiveFile.n */
+    private static File archiveFile;
+
+    private static int blockSize;
+
+    /* null if the archive is not open */
+    private static volatile Segment[] segments;
+
+    static {
+        final String methodName = "<clinit>";
+        LOGGER.entering(CLASSNAME, methodName);
+
+        Properties sqlProps = new Properties();
+        try {
+            sqlProps.load(Thread.currentThread().getContextClassLoader().getResourceAsStream("archive-sql.properties"));
+        } catch (IOException ex) {
+            LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "error loading TaskArchive SQL properties", ex);
+        }
+
+        FIND_ARCHIVABLE_TASK_RECORDS_SQL = sqlProps.getProperty("findArchivableTaskRecords");
+        DELETE_ARCHIVED_INTERRUPTIONS_SQL = sqlProps.getProperty("deleteArchivedInterruptions");
+        DELETE_ARCHIVED_TASK_SQL = sqlProps.getProperty("deleteArchivedTask");
+
+        LOGGER.exiting(CLASSNAME, methodName);
+    }
+
+    /**
+     * Moves the completed tasks that ended more than the configured number of
+     * days ago into a new archive segment, and maps the segments into memory.
+     * The database connections must be open.
+     *
+     * @param config the DAO configuration properties
+     * @throws DataAccessException if the tasks cannot be moved, or the archive
+     *      cannot be read
+     */
+    static synchronized void open(Properties config) throws DataAccessException {
+        final String methodName = "open";
+        LOGGER.entering(CLASSNAME, methodName);
+
+        archiveFile = new File(config.getProperty("archive.file", "stopwatch.archive"));
+        int age = Integer.parseInt(config.getProperty("archive.age", "365"));
+        blockSize = Integer.parseInt(config.getProperty("archive.blockSize", "1024"));
+        int segmentSize = Integer.parseInt(config.getProperty("archive.segmentSize", "100000"));
+        boolean compact = Boolean.valueOf(config.getProperty("archive.compact", "false")).booleanValue();
+
+        try {
+            // sequence number (Integer) -> segment file
+            TreeMap files = recover();
+
+            Calendar cal = Calendar.getInstance();
+            cal.setTimeInMillis(MemoryTable.getDayStart(Clock.getInstance().currentTimeMillis()));
+            cal.add(Calendar.DATE, -age);
+            int sequence = files.isEmpty() ? 1 : ((Integer) files.lastKey()).intValue() + 1;
+            List written = writeSegments(cal.getTimeInMillis(), sequence, segmentSize);
+            for (Iterator fileIter = written.iterator(); fileIter.hasNext();) {
+                File segmentFile = (File) fileIter.next();
+                long[] taskIds = readTaskIds(segmentFile);
+                deleteTasks(taskIds);
+                markMoved(segmentFile);
+                files.put(Integer.valueOf(sequence++), segmentFile);
+
+                LOGGER.logp(Level.INFO, CLASSNAME, methodName, "moved {0} tasks into archive segment {1}",
+                        new Object[] {Integer.valueOf(taskIds.length), segmentFile});
+            }
+
+            if (compact && (files.size() > 1)) {
+                compact(files);
+            }
+
+            Segment[] mapped = new Segment[files.size()];
+            int i = 0;
+            for (Iterator fileIter = files.values().iterator(); fileIter.hasNext();) {
+                mapped[i++] = new Segment((File) fileIter.next());
+            }
+            segments = (mapped.length > 0) ? mapped : null;
+        } catch (IOException ex) {
+            LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "failed to update task archive " + archiveFile, ex);
+            throw new DataAccessException("failed to update task archive", ex);
+        }
+
+        LOGGER.exiting(CLASSNAME, methodName);
+    }
+
+    /**
+     * Returns the highest task ID in the archive, so that a new task is never
+     * assigned the ID of an archived one.
+     *
+     * @return the highest archived task ID, or 0
+     */
+    static long getMaxTaskId() {
+        long maxId = 0L;
+
+        Segment[] current = segments;
+        for (int i = 0; (current != null) && (i < current.length); ++i) {
+            maxId = Math.max(maxId, current[i].maxTaskId);
+        }
+
+        return maxId;
+    }
+
+    /**
+     * Returns the highest interruption ID in the archive.
+     *
+     * @return the highest archived interruption ID, or 0
+     */
+    static long getMaxInterruptionId() {
+        long maxId = 0L;
+
+        Segment[] current = segments;
+        for (int i = 0; (current != null) && (i < current.length); ++i) {
+            maxId = Math.max(maxId, current[i].maxInterruptionId);
+        }
+
+        return maxId;
+    }
+
+    /**
+     * Indicates whether the archive is open.
+     *
+     * @return <CODE>true</CODE> if there are archived tasks to be read
+     */
+    static boolean isOpen() {
+        return segments != null;
+    }
+
+    /**
+     * Returns the archived tasks in a range of days, in start time order. As
+     * in the database, the tasks are selected by the dates (not the times) of
+     * the range.
+     *
+     * @param startDate the start date in the date range (inclusive), or
+     *      <CODE>null</CODE> for all tasks
+     * @param endDate the end date in the date range (exclusive)
+     * @return a list of tasks
+     */
+    static List findArchivedTasks(Date startDate, Date endDate) {
+        List tasks = new ArrayList();
+        for (Cursor cursor = new Cursor(getStartTime(startDate), getEndTime(endDate)); cursor.hasTask(); cursor.next()) {
+            tasks.add(cursor.getTask());
+        }
+
+        return tasks;
+    }
+
+    /**
+     * Returns the totals of the archived tasks that start in a range of days
+     * but end after it, by day or by description. The task summaries include
+     * these tasks, so they are subtracted from the summaries of the range to
+     * give the totals of the tasks in the range. Only the blocks of tasks that
+     * end after the range are read.
+     *
+     * @param grouping {@link ReportDAO#GROUP_BY_DAY} or
+     *      {@link ReportDAO#GROUP_BY_DESCRIPTION}
+     * @param startDate the start date in the date range (inclusive)
+     * @param endDate the end date in the date range (exclusive)
+     * @return day start (<CODE>Long</CODE>) or description -&gt; {task count,
+     *      gross time, interruption time}
+     */
+    static Map sumOverruns(int grouping, Date startDate, Date endDate) {
+        Map sums = new HashMap();
+
+        Segment[] current = segments;
+        for (int i = 0; (current != null) && (i < current.length); ++i) {
+            for (SegmentCursor cursor = new SegmentCursor(current[i], getStartTime(startDate), getEndTime(endDate), true); cursor.hasTask();
+                    cursor.next()) {
+                Object key;
+                if (grouping == ReportDAO.GROUP_BY_DAY) {
+                    key = Long.valueOf(MemoryTable.getDayStart(cursor.getStartTime()));
+                } else {
+                    key = current[i].descriptions[cursor.getDescriptionId()];
+                }
+
+                long[] keySums = (long[]) sums.get(key);
+                if (keySums == null) {
+                    keySums = new long[3];
+                    sums.put(key, keySums);
+                }
+                ++keySums[0];
+                keySums[1] += cursor.getEndTime() - cursor.getStartTime();
+                keySums[2] += cursor.getInterruptionMillis();
+            }
+        }
+
+        return sums;
+    }
+
+    /**
+     * Widens a range of task start times to include the archived tasks.
+     *
+     * @param range the earliest and the latest start time of the tasks in the
+     *      database, each <CODE>MemoryTable.NULL</CODE> if there is none
+     * @return the earliest and the latest start time of all tasks
+     */
+    static long[] addTaskDateRange(long[] range) {
+        long[] widened = {range[0], range[1]};
+
+        Segment[] current = segments;
+        for (int i = 0; (current != null) && (i < current.length); ++i) {
+            Segment segment = current[i];
+            // the rows are in start time order, with missing start times first
+            int first = segment.findFirstRow(MemoryTable.NULL + 1);
+            if (first == segment.taskCount) {
+                continue;
+            }
+
+            long earliest = segment.taskStarts.get(first);
+            long latest = segment.taskStarts.get(segment.taskCount - 1);
+            if ((widened[0] == MemoryTable.NULL) || (earliest < widened[0])) {
+                widened[0] = earliest;
+            }
+            if ((widened[1] == MemoryTable.NULL) || (latest > widened[1])) {
+                widened[1] = latest;
+            }
+        }
+
+        return widened;
+    }
+
+    /**
+     * Returns the archived interruptions of a task, in start time order.
+     *
+     * @param taskId the task ID
+     * @return a list of interruptions, empty if the task is not archived
+     */
+    static List findArchivedInterruptions(long taskId) {
+        List intrs = new ArrayList();
+
+        Segment[] current = segments;
+        for (int s = 0; (current != null) && (s < current.length); ++s) {
+            // a task is in one segment only
+            int row = current[s].getTaskRow(taskId);
+            if (row != -1) {
+                for (int i = current[s].firstInterruptions.get(row), last = current[s].firstInterruptions.get(row + 1); i < last; ++i) {
+                    intrs.add(current[s].toInterruption(i));
+                }
+                break;
+            }
+        }
+
+        return intrs;
+    }
+
+    /**
+     * Returns the number of archived tasks or interruptions that pass the
+     * filters of some criteria. The tasks in a date range are found through
+     * the block index; interruptions are not in start time order, so they are
+     * all read.
+     *
+     * @param criteria the query criteria
+     * @param interruptions <CODE>true</CODE> to count interruptions
+     * @return the count
+     */
+    static int countArchived(QueryCriteria criteria, boolean interruptions) {
+        int count = 0;
+
+        Segment[] current = segments;
+        for (int i = 0; (current != null) && (i < current.length); ++i) {
+            int[] rows = current[i].getRows(interruptions, criteria);
+            if (!interruptions && (criteria.getDescriptionPrefix() == null)) {
+                // every task in the date range passes
+                count += rows[1] - rows[0];
+                continue;
+            }
+
+            for (int row = rows[0]; row < rows[1]; ++row) {
+                if (current[i].accepts(interruptions, row, criteria)) {
+                    ++count;
+                }
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Returns the first archived tasks or interruptions that pass the filters
+     * of some criteria and follow a task or interruption, in the order of the
+     * criteria (see {@link QueryCriteria#compare(Task, Task)}).
+     *
+     * @param criteria the query criteria
+     * @param last the task or interruption that the rows follow, or
+     *      <CODE>null</CODE> for the first rows
+     * @param maxResults the maximum number of rows to return
+     * @param interruptions <CODE>true</CODE> to return interruptions
+     * @return a list of at most <I>maxResults</I> tasks or interruptions
+     */
+    static List findArchived(QueryCriteria criteria, Task last, int maxResults, boolean interruptions) {
+        List rows = new ArrayList();
+
+        Segment[] current = segments;
+        if ((current == null) || (maxResults <= 0)) {
+            return rows;
+        }
+
+        for (int i = 0; i < current.length; ++i) {
+            List segmentRows = current[i].find(criteria, last, maxResults, interruptions);
+            rows = (i == 0) ? segmentRows : merge(rows, segmentRows, criteria, 0, maxResults);
+        }
+
+        return rows;
+    }
+
+    /**
+     * Merges the page of database rows and the page of archived rows that
+     * follow the same position, both in the order of some criteria, and
+     * returns a page of the result.
+     *
+     * @param rows the database tasks or interruptions
+     * @param archivedRows the archived tasks or interruptions
+     * @param criteria the query criteria
+     * @param firstResult the number of merged rows to skip
+     * @param maxResults the maximum number of rows to return
+     * @return a list of at most <I>maxResults</I> tasks or interruptions
+     */
+    static List merge(List rows, List archivedRows, QueryCriteria criteria, int firstResult, int maxResults) {
+        List page = new ArrayList(Math.max(0, Math.min(maxResults, rows.size() + archivedRows.size() - firstResult)));
+
+        int i = 0;
+        int j = 0;
+        for (int position = 0; (page.size() < maxResults) && ((i < rows.size()) || (j < archivedRows.size())); ++position) {
+            Object row;
+            if ((j == archivedRows.size())
+                    || ((i < rows.size()) && (criteria.compare((Task) rows.get(i), (Task) archivedRows.get(j)) <= 0))) {
+                row = rows.get(i++);
+            } else {
+                row = archivedRows.get(j++);
+            }
+
+            if (position >= firstResult) {
+                page.add(row);
+            }
+        }
+
+        return page;
+    }
+
+    /**
+     * Returns the totals of the archived tasks in one daily summary. Only the
+     * tasks that started on the day are read.
+     *
+     * @param dayStart the start of the day
+     * @param dayEnd the start of the next day
+     * @param description the task description
+     * @return the task count, gross milliseconds, completed interruption
+     *      count and interruption milliseconds
+     */
+    static long[] sumSummary(long dayStart, long dayEnd, String description) {
+        long[] totals = new long[4];
+
+        Segment[] current = segments;
+        for (int s = 0; (current != null) && (s < current.length); ++s) {
+            Segment segment = current[s];
+            for (int row = segment.findFirstRow(dayStart); (row < segment.taskCount) && (segment.taskStarts.get(row) < dayEnd); ++row) {
+                if (!description.equals(segment.getDescription(false, row))) {
+                    continue;
+                }
+
+                ++totals[0];
+                totals[1] += segment.taskEnds.get(row) - segment.taskStarts.get(row);
+                for (int i = segment.firstInterruptions.get(row), last = segment.firstInterruptions.get(row + 1); i < last; ++i) {
+                    long start = segment.interruptionStarts.get(i);
+                    long end = segment.interruptionEnds.get(i);
+                    if ((start != MemoryTable.NULL) && (end != MemoryTable.NULL)) {
+                        ++totals[2];
+                        totals[3] += end - start;
+                    }
+                }
+            }
+        }
+
+        return totals;
+    }
+
+    /**
+     * Adds the archived tasks to the task count and latest start time of each
+     * description.
+     *
+     * @param descriptions the {@link TaskDescription}s of the database tasks
+     * @return the {@link TaskDescription}s of all tasks, in no particular
+     *      order
+     */
+    static List addTaskDescriptions(List descriptions) {
+        Segment[] current = segments;
+        if (current == null) {
+            return descriptions;
+        }
+
+        // description -> TaskDescription
+        Map merged = new HashMap();
+        for (Iterator descIter = descriptions.iterator(); descIter.hasNext();) {
+            TaskDescription description = (TaskDescription) descIter.next();
+            merged.put(description.getDescription(), description);
+        }
+
+        for (int s = 0; s < current.length; ++s) {
+            Segment archived = current[s];
+            int[] counts = new int[archived.descriptions.length];
+            long[] lastStarts = new long[archived.descriptions.length];
+            for (int row = 0; row < archived.taskCount; ++row) {
+                int descriptionId = archived.taskDescriptionIds.get(row);
+                ++counts[descriptionId];
+                // in start time order, the latest start time is the last one seen
+                lastStarts[descriptionId] = archived.taskStarts.get(row);
+            }
+
+            for (int i = 0; i < counts.length; ++i) {
+                if (counts[i] == 0) {
+                    // an interruption description
+                    continue;
+                }
+
+                TaskDescription stored = (TaskDescription) merged.get(archived.descriptions[i]);
+                int taskCount = counts[i];
+                long lastStart = lastStarts[i];
+                if (stored != null) {
+                    taskCount += stored.getTaskCount();
+                    if (stored.getLastStartTime() != null) {
+                        lastStart = Math.max(lastStart, stored.getLastStartTime().getTime());
+                    }
+                }
+                merged.put(archived.descriptions[i], new TaskDescription(archived.descriptions[i], taskCount, new Date(lastStart)));
+            }
+        }
+
+        return new ArrayList(merged.values());
+    }
+
+    /**
+     * Stops reading the archive.
+     */
+    static synchronized void close() {
+        // the mappings are released when they are no longer referenced
+        segments = null;
+    }
+
+    private static File getSegmentFile(int sequence) {
+        return (sequence == 0) ? archiveFile : new File(archiveFile.getPath() + "." + sequence);
+    }
+
+    /*
+     * Returns the sequence number of a segment from the end of its file name,
+     * or -1.
+     */
+    private static int getSequence(String suffix) {
+        if ((suffix.length() == 0) || (suffix.length() > 9)) {
+            return -1;
+        }
+        for (int i = 0; i < suffix.length(); ++i) {
+            if (!Character.isDigit(suffix.charAt(i))) {
+                return -1;
+            }
+        }
+
+        return Integer.parseInt(suffix);
+    }
+
+    /*
+     * Finds the segment files, finishing a move or compaction that was
+     * interrupted, and returns them by sequence number.
+     */
+    private static TreeMap recover() throws IOException, DataAccessException {
+        final String methodName = "recover";
+
+        TreeMap files = new TreeMap();
+        if (archiveFile.exists()) {
+            files.put(Integer.valueOf(0), archiveFile);
+        }
+
+        File compacted = null;
+        int compactedThrough = -1;
+
+        File dir = archiveFile.getAbsoluteFile().getParentFile();
+        String prefix = archiveFile.getName() + ".";
+        String[] names = dir.list();
+        for (int i = 0; (names != null) && (i < names.length); ++i) {
+            if (!names[i].startsWith(prefix)) {
+                continue;
+            }
+
+            File file = new File(dir, names[i]);
+            String suffix = names[i].substring(prefix.length());
+            if (suffix.endsWith(TEMP_SUFFIX)) {
+                // an incomplete segment, whose tasks are still in the database (or in the segments being compacted)
+                String name = suffix.substring(0, suffix.length() - TEMP_SUFFIX.length());
+                if (name.endsWith(COMPACTED_SUFFIX)) {
+                    name = name.substring(0, name.length() - COMPACTED_SUFFIX.length());
+                }
+                if (getSequence(name) != -1) {
+                    file.delete();
+                }
+            } else if (suffix.endsWith(COMPACTED_SUFFIX)) {
+                int sequence = getSequence(suffix.substring(0, suffix.length() - COMPACTED_SUFFIX.length()));
+                if (sequence > compactedThrough) {
+                    compacted = file;
+                    compactedThrough = sequence;
+                }
+            } else {
+                int sequence = getSequence(suffix);
+                if (sequence != -1) {
+                    files.put(Integer.valueOf(sequence), file);
+                }
+            }
+        }
+
+        if (compacted != null) {
+            LOGGER.logp(Level.WARNING, CLASSNAME, methodName, "replacing the archive segments held by {0}", compacted);
+            replaceSegments(files, compacted, compactedThrough);
+        }
+
+        for (Iterator fileIter = files.values().iterator(); fileIter.hasNext();) {
+            File file = (File) fileIter.next();
+            if (readState(file) == MOVING) {
+                long[] taskIds = readTaskIds(file);
+                LOGGER.logp(Level.WARNING, CLASSNAME, methodName, "deleting {0} archived tasks from the database", Integer.valueOf(taskIds.length));
+                deleteTasks(taskIds);
+                markMoved(file);
+            }
+        }
+
+        return files;
+    }
+
+    /*
+     * Merges every segment into one file, which takes the place of the
+     * segment with the highest sequence number.
+     */
+    private static void compact(TreeMap files) throws IOException {
+        final String methodName = "compact";
+
+        Columns archived = new Columns();
+        for (Iterator fileIter = files.values().iterator(); fileIter.hasNext();) {
+            archived.addAll(Columns.read((File) fileIter.next()));
+        }
+
+        int segmentCount = files.size();
+        int through = ((Integer) files.lastKey()).intValue();
+        File compacted = new File(getSegmentFile(through).getPath() + COMPACTED_SUFFIX);
+        write(archived, compacted, MOVED);
+        replaceSegments(files, compacted, through);
+
+        LOGGER.logp(Level.INFO, CLASSNAME, methodName, "compacted {0} archive segments into {1}",
+                new Object[] {Integer.valueOf(segmentCount), getSegmentFile(through)});
+    }
+
+    /*
+     * Deletes the segments up to a sequence number, and renames the compacted
+     * segment that holds their tasks in their place. If this is interrupted,
+     * it is finished when the archive is next opened.
+     */
+    private static void replaceSegments(TreeMap files, File compacted, int through) throws IOException {
+        for (Iterator fileIter = files.headMap(Integer.valueOf(through + 1)).values().iterator(); fileIter.hasNext();) {
+            File file = (File) fileIter.next();
+            if (!file.delete()) {
+                throw new IOException("failed to delete " + file);
+            }
+            fileIter.remove();
+        }
+
+        File segmentFile = getSegmentFile(through);
+        if (!compacted.renameTo(segmentFile)) {
+            throw new IOException("failed to rename " + compacted + " to " + segmentFile);
+        }
+        files.put(Integer.valueOf(through), segmentFile);
+    }
+
+    private static int readState(File segmentFile) throws IOException {
+        DataInputStream in = new DataInputStream(new FileInputStream(segmentFile));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("not a task archive: " + segmentFile);
+            }
+            return in.readInt();
+        } finally {
+            in.close();
+        }
+    }
+
+    /*
+     * Reads only the task ID column of a segment file.
+     */
+    private static long[] readTaskIds(File segmentFile) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(segmentFile)));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("not a task archive: " + segmentFile);
+            }
+            in.readInt();
+            long[] taskIds = new long[in.readInt()];
+            // the rest of the header precedes the task ID column
+            in.readFully(new byte[HEADER_LENGTH - 12]);
+            for (int i = 0; i < taskIds.length; ++i) {
+                taskIds[i] = in.readLong();
+            }
+
+            return taskIds;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void markMoved(File segmentFile) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(segmentFile, "rw");
+        try {
+            file.seek(STATE_OFFSET);
+            file.writeInt(MOVED);
+            file.getChannel().force(false);
+        } finally {
+            file.close();
+        }
+    }
+
+    /*
+     * Reads the completed tasks that ended before a time, and their
+     * interruptions, from the database, and writes them to new segments (in
+     * the moving state) of at most a number of tasks each. Returns the
+     * segment files in sequence order.
+     */
+    private static List writeSegments(long cutoffTime, int sequence, int segmentSize) throws DataAccessException {
+        final String methodName = "writeSegments";
+
+        if ((FIND_ARCHIVABLE_TASK_RECORDS_SQL == null) || (FIND_ARCHIVABLE_TASK_RECORDS_SQL.equals(""))) {
+            throw new DataAccessException("undefined or empty SQL template");
+        }
+
+        SegmentWriter writer = new SegmentWriter(sequence, segmentSize);
+
+        Connection conx = null;
+        try {
+            conx = JDBCAccess.getConnection();
+        } catch (SQLException ex) {
+            String msg = "failed to open database connection";
+            LOGGER.logp(Level.WARNING, CLASSNAME, methodName, msg, ex);
+            throw new DataAccessException(msg, ex);
+        }
+
+        try {
+            JDBCReportDAO.streamTaskRecords(conx, "findArchivableTaskRecords", FIND_ARCHIVABLE_TASK_RECORDS_SQL, null, null,
+                    new Object[] {new Timestamp(cutoffTime)}, writer);
+            writer.finish();
+        } catch (SQLException ex) {
+            LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "archivable task select failed", ex);
+            throw new DataAccessException(ex);
+        } finally {
+            JDBCAccess.returnConnection(conx);
+        }
+
+        return writer.files;
+    }
+
+    /*
+     * Deletes archived tasks and their interruptions from the database in a
+     * single transaction. Tasks that are not in the database are ignored.
+     */
+    private static void deleteTasks(long[] taskIds) throws DataAccessException {
+        final String methodName = "deleteTasks";
+
+        if ((DELETE_ARCHIVED_INTERRUPTIONS_SQL == null) || (DELETE_ARCHIVED_TASK_SQL == null)) {
+            throw new DataAccessException("undefined or empty SQL template");
+        }
+
+        Connection conx = null;
+        try {
+            conx = JDBCAccess.getConnection();
+        } catch (SQLException ex) {
+            String msg = "failed to open database connection";
+            LOGGER.logp(Level.WARNING, CLASSNAME, methodName, msg, ex);
+            throw new DataAccessException(msg, ex);
+        }
+
+        try {
+            PreparedStatement deleteIntrs = JDBCAccess.prepareStatement(conx, "deleteArchivedInterruptions", DELETE_ARCHIVED_INTERRUPTIONS_SQL);
+            PreparedStatement deleteTask = JDBCAccess.prepareStatement(conx, "deleteArchivedTask", DELETE_ARCHIVED_TASK_SQL);
+            deleteIntrs.clearBatch();
+            deleteTask.clearBatch();
+
+            int batchSize = JDBCAccess.getBatchSize();
+            int pending = 0;
+            for (int i = 0; i < taskIds.length; ++i) {
+                deleteIntrs.setLong(1, taskIds[i]);
+                deleteIntrs.addBatch();
+                deleteTask.setLong(1, taskIds[i]);
+                deleteTask.addBatch();
+
+                if ((++pending == batchSize) || (i == taskIds.length - 1)) {
+                    // interruptions first, to satisfy the foreign key
+                    deleteIntrs.executeBatch();
+                    deleteTask.executeBatch();
+                    pending = 0;
+                }
+            }
+
+            conx.commit();
+        } catch (SQLException ex) {
+            LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "archived task delete failed", ex);
+            try {
+                conx.rollback();
+            } catch (SQLException rollbackEx) {
+                LOGGER.logp(Level.WARNING, CLASSNAME, methodName, "rollback failed", rollbackEx);
+            }
+            throw new DataAccessException(ex);
+        } finally {
+            JDBCAccess.returnConnection(conx);
+        }
+    }
+
+    /*
+     * Writes archived tasks to a temporary file and renames it to a segment
+     * file that does not yet exist.
+     */
+    private static void write(Columns archived, File segmentFile, int state) throws IOException {
+        final String methodName = "write";
+
+        Integer[] order = archived.sortByStartTime();
+        int blockCount = (archived.taskCount + blockSize - 1) / blockSize;
+
+        File tempFile = new File(segmentFile.getPath() + TEMP_SUFFIX);
+        FileOutputStream fileOut = new FileOutputStream(tempFile);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+
+            out.writeInt(MAGIC);
+            out.writeInt(state);
+            out.writeInt(archived.taskCount);
+            out.writeInt(archived.interruptionCount);
+            out.writeInt(archived.descriptions.size());
+            out.writeInt(blockSize);
+            out.writeLong(archived.maxTaskId);
+            out.writeLong(archived.maxInterruptionId);
+
+            // the long columns first, so that every column is aligned
+            long[][] taskColumns = {archived.taskIds, archived.taskStarts, archived.taskEnds, archived.taskDurations, archived.taskInterruptionMillis};
+            for (int c = 0; c < taskColumns.length; ++c) {
+                for (int i = 0; i < order.length; ++i) {
+                    out.writeLong(taskColumns[c][order[i].intValue()]);
+                }
+            }
+            long[][] intrColumns = {archived.intrIds, archived.intrRelatedTaskIds, archived.intrStarts, archived.intrEnds, archived.intrDurations};
+            for (int c = 0; c < intrColumns.length; ++c) {
+                for (int i = 0; i < order.length; ++i) {
+                    int task = order[i].intValue();
+                    for (int j = archived.firstInterruptions[task], last = j + archived.interruptionCounts[task]; j < last; ++j) {
+                        out.writeLong(intrColumns[c][j]);
+                    }
+                }
+            }
+            for (int block = 0; block < blockCount; ++block) {
+                out.writeLong(archived.taskStarts[order[block * blockSize].intValue()]);
+            }
+            for (int block = 0; block < blockCount; ++block) {
+                long maxEnd = Long.MIN_VALUE;
+                for (int i = block * blockSize, last = Math.min(i + blockSize, order.length); i < last; ++i) {
+                    maxEnd = Math.max(maxEnd, archived.taskEnds[order[i].intValue()]);
+                }
+                out.writeLong(maxEnd);
+            }
+
+            for (int i = 0; i < order.length; ++i) {
+                out.writeInt(archived.taskDescriptionIds[order[i].intValue()]);
+            }
+            int first = 0;
+            for (int i = 0; i < order.length; ++i) {
+                out.writeInt(first);
+                first += archived.interruptionCounts[order[i].intValue()];
+            }
+            out.writeInt(first);
+            for (int i = 0; i < order.length; ++i) {
+                int task = order[i].intValue();
+                for (int j = archived.firstInterruptions[task], last = j + archived.interruptionCounts[task]; j < last; ++j) {
+                    out.writeInt(archived.intrDescriptionIds[j]);
+                }
+            }
+
+            for (Iterator descIter = archived.descriptions.iterator(); descIter.hasNext();) {
+                byte[] bytes = ((String) descIter.next()).getBytes("UTF-8");
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+
+            out.flush();
+            fileOut.getChannel().force(false);
+        } catch (IOException ex) {
+            fileOut.close();
+            tempFile.delete();
+            throw ex;
+        } finally {
+            fileOut.close();
+        }
+
+        if (!tempFile.renameTo(segmentFile)) {
+            // the tasks are still in the database (or in the segments being compacted)
+            LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "failed to rename {0} to {1}", new Object[] {tempFile, segmentFile});
+            tempFile.delete();
+            throw new IOException("failed to rename " + tempFile + " to " + segmentFile);
+        }
+    }
+
+    private static long getStartTime(Date startDate) {
+        return (startDate != null) ? MemoryTable.getDayStart(startDate.getTime()) : Long.MIN_VALUE;
+    }
+
+    private static long getEndTime(Date endDate) {
+        return (endDate != null) ? MemoryTable.getDayStart(endDate.getTime()) : Long.MAX_VALUE;
+    }
+
+    private static Long toDuration(long duration) {
+        return (duration != MemoryTable.NULL) ? Long.valueOf(duration) : null;
+    }
+
+    private TaskArchive() {
+        // never instantiated
+    }
+
+    /*
+     * Writes the task records passed to it into new segments of at most a
+     * number of tasks each. The records arrive in start time order, so each
+     * segment holds a range of start times.
+     */
+    private static final class SegmentWriter implements TaskRecordHandler {
+        private final int segmentSize;
+
+        private int sequence;
+
+        private Columns moving = new Columns();
+
+        /* the segment files written */
+        final List files = new ArrayList();
+
+        SegmentWriter(int sequence, int segmentSize) {
+            this.sequence = sequence;
+            this.segmentSize = segmentSize;
+        }
+
+        public void handleTaskRecord(TaskRecord taskRecord) throws DataAccessException {
+            moving.add(taskRecord);
+            if (moving.taskCount >= segmentSize) {
+                finish();
+            }
+        }
+
+        /* writes the tasks that have not been written yet */
+        void finish() throws DataAccessException {
+            if (moving.taskCount == 0) {
+                return;
+            }
+
+            File segmentFile = getSegmentFile(sequence);
+            try {
+                write(moving, segmentFile, MOVING);
+            } catch (IOException ex) {
+                throw new DataAccessException("failed to write archive segment " + segmentFile, ex);
+            }
+
+            files.add(segmentFile);
+            ++sequence;
+            moving = new Columns();
+        }
+    }
+
+    /**
+     * This class passes archived task records to a handler, merged into the
+     * database records that are passed to it. Both must be in task start time
+     * order; {@link #finish()} passes the archived records that follow the
+     * last database record.
+     */
+    static final class RecordMerger implements TaskRecordHandler {
+        private final Cursor archived;
+
+        private final TaskRecordHandler handler;
+
+        /**
+         * Creates a merger for the archived tasks in a date range.
+         *
+         * @param startDate the start date in the date range (inclusive), or
+         *      <CODE>null</CODE> for all tasks
+         * @param endDate the end date in the date range (exclusive)
+         * @param handler the callback that receives each task record
+         */
+        RecordMerger(Date startDate, Date endDate, TaskRecordHandler handler) {
+            archived = new Cursor(getStartTime(startDate), getEndTime(endDate));
+            this.handler = handler;
+        }
+
+        public void handleTaskRecord(TaskRecord taskRecord) throws DataAccessException {
+            Task task = taskRecord.getTask();
+            passPreceding(MemoryTable.toTime(task.getStartTime()), task.getId().longValue());
+            handler.handleTaskRecord(taskRecord);
+        }
+
+        void finish() throws DataAccessException {
+            passPreceding(Long.MAX_VALUE, Long.MAX_VALUE);
+        }
+
+        private void passPreceding(long startTime, long taskId) throws DataAccessException {
+            while (archived.precedes(startTime, taskId)) {
+                handler.handleTaskRecord(archived.getTaskRecord());
+                archived.next();
+            }
+        }
+    }
+
+    /**
+     * This class passes the times of archived tasks to a handler, merged into
+     * the database task times that are passed to it. Both must be in task
+     * start time order; {@link #finish()} passes the archived times that
+     * follow the last database task.
+     */
+    static final class TimeMerger implements TaskTimeHandler {
+        private final Cursor archived;
+
+        private final TaskTimeHandler handler;
+
+        /**
+         * Creates a merger for the archived tasks in a date range.
+         *
+         * @param startDate the start date in the date range (inclusive), or
+         *      <CODE>null</CODE> for all tasks
+         * @param endDate the end date in the date range (exclusive)
+         * @param handler the callback that receives the times of each task
+         */
+        TimeMerger(Date startDate, Date endDate, TaskTimeHandler handler) {
+            archived = new Cursor(getStartTime(startDate), getEndTime(endDate));
+            this.handler = handler;
+        }
+
+        public void handleTaskTime(long taskId, String description, Date startTime, Date endTime, long interruptionMillis)
+                throws DataAccessException {
+            passPreceding(MemoryTable.toTime(startTime), taskId);
+            handler.handleTaskTime(taskId, description, startTime, endTime, interruptionMillis);
+        }
+
+        void finish() throws DataAccessException {
+            passPreceding(Long.MAX_VALUE, Long.MAX_VALUE);
+        }
+
+        private void passPreceding(long startTime, long taskId) throws DataAccessException {
+            while (archived.precedes(startTime, taskId)) {
+                handler.handleTaskTime(archived.getTaskId(), archived.getDescription(), new Date(archived.getStartTime()),
+                        new Date(archived.getEndTime()), archived.getInterruptionMillis());
+                archived.next();
+            }
+        }
+    }
+
+    /**
+     * This class adds the totals of archived tasks to the time totals by task,
+     * merged into the database totals that are added through it. The database
+     * totals must be in task start time order; {@link #finish()} adds the
+     * archived totals that follow the last database task. (The totals by day
+     * and by description are read from the task summaries, which include the
+     * archived tasks; see {@link TaskArchive#sumOverruns(int, Date, Date)}.)
+     */
+    static final class TotalsMerger {
+        private final TaskTimeTotals totals;
+
+        /* the archived tasks in start time order */
+        private final Cursor archived;
+
+        /**
+         * Creates a merger for the archived tasks in a date range.
+         *
+         * @param startDate the start date in the date range (inclusive), or
+         *      <CODE>null</CODE> for all tasks
+         * @param endDate the end date in the date range (exclusive)
+         * @param totals the totals by task that tasks are added to
+         */
+        TotalsMerger(Date startDate, Date endDate, TaskTimeTotals totals) {
+            this.totals = totals;
+            archived = new Cursor(getStartTime(startDate), getEndTime(endDate));
+        }
+
+        /**
+         * Adds the totals of a database task, after any archived task that
+         * precedes it.
+         */
+        void add(long taskId, long startTime, String description, int taskCount, long gross, long interruption) {
+            addPrecedingTasks(startTime, taskId);
+            totals.add(taskId, 0L, description, taskCount, gross, interruption);
+        }
+
+        void finish() {
+            addPrecedingTasks(Long.MAX_VALUE, Long.MAX_VALUE);
+        }
+
+        private void addPrecedingTasks(long startTime, long taskId) {
+            while (archived.precedes(startTime, taskId)) {
+                totals.add(archived.getTaskId(), 0L, archived.getDescription(), 1, archived.getEndTime() - archived.getStartTime(),
+                        archived.getInterruptionMillis());
+                archived.next();
+            }
+        }
+    }
+
+    /*
+     * Steps through the archived tasks of every segment in a range of days, in
+     * start time order (then ID order). The cursor is positioned on the first
+     * task when it is created.
+     */
+    private static final class Cursor {
+        private final SegmentCursor[] cursors;
+
+        /* the segment cursor on the task that comes first, or null when there are no more tasks */
+        private SegmentCursor current;
+
+        Cursor(long startTime, long endTime) {
+            Segment[] archived = segments;
+            cursors = new SegmentCursor[(archived != null) ? archived.length : 0];
+            for (int i = 0; i < cursors.length; ++i) {
+                cursors[i] = new SegmentCursor(archived[i], startTime, endTime);
+            }
+            select();
+        }
+
+        boolean hasTask() {
+            return current != null;
+        }
+
+        /*
+         * Indicates whether the current task comes before a task with the
+         * specified start time and ID.
+         */
+        boolean precedes(long taskStartTime, long taskId) {
+            return (current != null) && current.precedes(taskStartTime, taskId);
+        }
+
+        void next() {
+            current.next();
+            select();
+        }
+
+        long getTaskId() {
+            return current.getTaskId();
+        }
+
+        long getStartTime() {
+            return current.getStartTime();
+        }
+
+        long getEndTime() {
+            return current.getEndTime();
+        }
+
+        String getDescription() {
+            return current.getDescription();
+        }
+
+        long getInterruptionMillis() {
+            return current.getInterruptionMillis();
+        }
+
+        Task getTask() {
+            return current.segment.toTask(current.row);
+        }
+
+        TaskRecord getTaskRecord() {
+            return current.getTaskRecord();
+        }
+
+        private void select() {
+            current = null;
+            for (int i = 0; i < cursors.length; ++i) {
+                if (cursors[i].hasTask() && ((current == null) || cursors[i].precedes(current.getStartTime(), current.getTaskId()))) {
+                    current = cursors[i];
+                }
+            }
+        }
+    }
+
+    /*
+     * Steps through the archived tasks of one segment in a range of days, in
+     * start time order, skipping the blocks that cannot hold tasks in the
+     * range. Alternatively, it steps through the tasks that start in the range
+     * but end after it. The cursor is positioned on the first task when it is
+     * created.
+     */
+    private static final class SegmentCursor {
+        private final Segment segment;
+
+        private final long startTime;
+
+        private final long endTime;
+
+        /* true to step through the tasks that end at or after the end time instead */
+        private final boolean overrun;
+
+        private int block = -1;
+
+        private int row = -1;
+
+        private int blockEnd;
+
+        private boolean done;
+
+        SegmentCursor(Segment segment, long startTime, long endTime) {
+            this(segment, startTime, endTime, false);
+        }
+
+        SegmentCursor(Segment segment, long startTime, long endTime, boolean overrun) {
+            this.segment = segment;
+            this.startTime = startTime;
+            this.endTime = endTime;
+            this.overrun = overrun;
+            next();
+        }
+
+        boolean hasTask() {
+            return !done;
+        }
+
+        /*
+         * Indicates whether the current task comes before a task with the
+         * specified start time and ID.
+         */
+        boolean precedes(long taskStartTime, long taskId) {
+            if (done) {
+                return false;
+            }
+
+            long start = getStartTime();
+            return (start < taskStartTime) || ((start == taskStartTime) && (getTaskId() < taskId));
+        }
+
+        void next() {
+            while (!done) {
+                if (++row >= blockEnd) {
+                    // the tasks in a block whose latest end time is before the range started before it
+                    // (and, when overruns are read, the tasks in a block that ends within the range end in it)
+                    long minEndTime = overrun ? endTime : startTime;
+                    do {
+                        ++block;
+                    } while ((block < segment.blockCount) && (segment.blockMaxTimes.get(block) < minEndTime));
+
+                    if (block == segment.blockCount) {
+                        done = true;
+                        break;
+                    }
+                    row = block * segment.blockSize;
+                    blockEnd = Math.min(row + segment.blockSize, segment.taskCount);
+                }
+
+                long start = segment.taskStarts.get(row);
+                if (start >= endTime) {
+                    // every later task ends after the range
+                    done = true;
+                } else if ((start >= startTime) && ((segment.taskEnds.get(row) < endTime) != overrun)) {
+                    break;
+                }
+            }
+        }
+
+        long getTaskId() {
+            return segment.taskIds.get(row);
+        }
+
+        long getStartTime() {
+            return segment.taskStarts.get(row);
+        }
+
+        long getEndTime() {
+            return segment.taskEnds.get(row);
+        }
+
+        int getDescriptionId() {
+            return segment.taskDescriptionIds.get(row);
+        }
+
+        String getDescription() {
+            return segment.descriptions[getDescriptionId()];
+        }
+
+        long getInterruptionMillis() {
+            return segment.taskInterruptionMillis.get(row);
+        }
+
+        TaskRecord getTaskRecord() {
+            TaskRecord taskRecord = new TaskRecord(segment.toTask(row));
+            for (int i = segment.firstInterruptions.get(row), last = segment.firstInterruptions.get(row + 1); i < last; ++i) {
+                taskRecord.addInterruption(segment.toInterruption(i));
+            }
+
+            return taskRecord;
+        }
+    }
+
+    /*
+     * Orders archived task or interruption rows as QueryCriteria.compare
+     * orders tasks: by the sort column (missing values first), then by ID.
+     */
+    private static final class RowOrder implements Comparator {
+        private final Segment segment;
+
+        private final boolean interruptions;
+
+        private final String column;
+
+        private final boolean ascending;
+
+        RowOrder(Segment segment, boolean interruptions, QueryCriteria criteria) {
+            this(segment, interruptions, criteria.getSortColumn(), criteria.isAscending());
+        }
+
+        RowOrder(Segment segment, boolean interruptions, String column, boolean ascending) {
+            this.segment = segment;
+            this.interruptions = interruptions;
+            this.column = column;
+            this.ascending = ascending;
+        }
+
+        public int compare(Object obj1, Object obj2) {
+            int row1 = ((Integer) obj1).intValue();
+            int row2 = ((Integer) obj2).intValue();
+
+            int result = QueryCriteria.DESCRIPTION.equals(column) ? compare(getDescription(row1), getDescription(row2))
+                    : compare(getValue(row1), getValue(row2));
+            if (result == 0) {
+                result = compare(getId(row1), getId(row2));
+            }
+
+            return ascending ? result : -result;
+        }
+
+        /*
+         * Compares a row with a task or interruption, which need not be
+         * archived.
+         */
+        int compareTo(int row, Task task) {
+            int result = QueryCriteria.DESCRIPTION.equals(column) ? compare(getDescription(row), task.getDescription())
+                    : compare(getValue(row), getValue(task));
+            if (result == 0) {
+                result = compare(getId(row), task.getId().longValue());
+            }
+
+            return ascending ? result : -result;
+        }
+
+        private long getId(int row) {
+            return interruptions ? segment.interruptionIds.get(row) : segment.taskIds.get(row);
+        }
+
+        private String getDescription(int row) {
+            return segment.getDescription(interruptions, row);
+        }
+
+        /* a missing time is MemoryTable.NULL, which sorts first */
+        private long getValue(int row) {
+            if (QueryCriteria.ID.equals(column)) {
+                return getId(row);
+            } else if (QueryCriteria.RELATED_TASK_ID.equals(column)) {
+                return segment.interruptionRelatedTaskIds.get(row);
+            } else if (QueryCriteria.START_TIME.equals(column)) {
+                return interruptions ? segment.interruptionStarts.get(row) : segment.taskStarts.get(row);
+            } else {
+                return interruptions ? segment.interruptionEnds.get(row) : segment.taskEnds.get(row);
+            }
+        }
+
+        private long getValue(Task task) {
+            if (QueryCriteria.ID.equals(column)) {
+                return task.getId().longValue();
+            } else if (QueryCriteria.RELATED_TASK_ID.equals(column)) {
+                return ((Interruption) task).getRelatedTaskId().longValue();
+            } else if (QueryCriteria.START_TIME.equals(column)) {
+                return MemoryTable.toTime(task.getStartTime());
+            } else {
+                return MemoryTable.toTime(task.getEndTime());
+            }
+        }
+
+        private static int compare(long value1, long value2) {
+            return (value1 < value2) ? -1 : ((value1 == value2) ? 0 : 1);
+        }
+
+        private static int compare(String value1, String value2) {
+            if (value1 == null) {
+                return (value2 == null) ? 0 : -1;
+            }
+            return (value2 == null) ? 1 : value1.compareTo(value2);
+        }
+    }
+
+    /*
+     * The columns of an archive segment file, mapped into memory. Missing
+     * times and durations are MemoryTable.NULL, and a missing interruption
+     * description is -1.
+     */
+    private static final class Segment {
+        final int taskCount;
+
+        final int blockSize;
+
+        final int blockCount;
+
+        final long maxTaskId;
+
+        final long maxInterruptionId;
+
+        final LongBuffer taskIds;
+
+        final LongBuffer taskStarts;
+
+        final LongBuffer taskEnds;
+
+        final LongBuffer taskDurations;
+
+        final LongBuffer taskInterruptionMillis;
+
+        final LongBuffer interruptionIds;
+
+        final LongBuffer interruptionRelatedTaskIds;
+
+        final LongBuffer interruptionStarts;
+
+        final LongBuffer interruptionEnds;
+
+        final LongBuffer interruptionDurations;
+
+        /* the earliest start time and latest end time of each block of tasks */
+        final LongBuffer blockMinTimes;
+
+        final LongBuffer blockMaxTimes;
+
+        final IntBuffer taskDescriptionIds;
+
+        /* the first interruption of each task, followed by the interruption count */
+        final IntBuffer firstInterruptions;
+
+        final IntBuffer interruptionDescriptionIds;
+
+        final String[] descriptions;
+
+        final int interruptionCount;
+
+        /* the task rows in ID order; created when a task is first looked up */
+        private int[] rowsById;
+
+        /*
+         * the task or interruption rows in ascending order of a sort column,
+         * by "t" or "i" and the column name; each is created when a page in
+         * that order is first found
+         */
+        private final Map sortedRows = new HashMap();
+
+        Segment(File file) throws IOException {
+            ByteBuffer buffer;
+            RandomAccessFile in = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = in.getChannel();
+                if (channel.size() > Integer.MAX_VALUE) {
+                    throw new IOException("task archive is too large: " + file);
+                }
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0L, channel.size());
+            } finally {
+                // the mapping remains valid
+                in.close();
+            }
+
+            if ((buffer.capacity() < HEADER_LENGTH) || (buffer.getInt(0) != MAGIC)) {
+                throw new IOException("not a task archive: " + file);
+            }
+            taskCount = buffer.getInt(8);
+            interruptionCount = buffer.getInt(12);
+            int descriptionCount = buffer.getInt(16);
+            blockSize = buffer.getInt(20);
+            blockCount = (taskCount + blockSize - 1) / blockSize;
+            maxTaskId = buffer.getLong(24);
+            maxInterruptionId = buffer.getLong(32);
+
+            int offset = HEADER_LENGTH;
+            taskIds = slice(buffer, offset, taskCount * 8).asLongBuffer();
+            taskStarts = slice(buffer, offset += taskCount * 8, taskCount * 8).asLongBuffer();
+            taskEnds = slice(buffer, offset += taskCount * 8, taskCount * 8).asLongBuffer();
+            taskDurations = slice(buffer, offset += taskCount * 8, taskCount * 8).asLongBuffer();
+            taskInterruptionMillis = slice(buffer, offset += taskCount * 8, taskCount * 8).asLongBuffer();
+            interruptionIds = slice(buffer, offset += taskCount * 8, interruptionCount * 8).asLongBuffer();
+            interruptionRelatedTaskIds = slice(buffer, offset += interruptionCount * 8, interruptionCount * 8).asLongBuffer();
+            interruptionStarts = slice(buffer, offset += interruptionCount * 8, interruptionCount * 8).asLongBuffer();
+            interruptionEnds = slice(buffer, offset += interruptionCount * 8, interruptionCount * 8).asLongBuffer();
+            interruptionDurations = slice(buffer, offset += interruptionCount * 8, interruptionCount * 8).asLongBuffer();
+            blockMinTimes = slice(buffer, offset += interruptionCount * 8, blockCount * 8).asLongBuffer();
+            blockMaxTimes = slice(buffer, offset += blockCount * 8, blockCount * 8).asLongBuffer();
+            taskDescriptionIds = slice(buffer, offset += blockCount * 8, taskCount * 4).asIntBuffer();
+            firstInterruptions = slice(buffer, offset += taskCount * 4, (taskCount + 1) * 4).asIntBuffer();
+            interruptionDescriptionIds = slice(buffer, offset += (taskCount + 1) * 4, interruptionCount * 4).asIntBuffer();
+            offset += interruptionCount * 4;
+
+            descriptions = new String[descriptionCount];
+            for (int i = 0; i < descriptionCount; ++i) {
+                int length = buffer.getInt(offset);
+                byte[] bytes = new byte[length];
+                slice(buffer, offset + 4, length).get(bytes);
+                descriptions[i] = DescriptionDictionary.intern(new String(bytes, "UTF-8"));
+                offset += 4 + length;
+            }
+        }
+
+        int size(boolean interruptions) {
+            return interruptions ? interruptionCount : taskCount;
+        }
+
+        String getDescription(boolean interruptions, int row) {
+            int descriptionId = interruptions ? interruptionDescriptionIds.get(row) : taskDescriptionIds.get(row);
+            return (descriptionId >= 0) ? descriptions[descriptionId] : null;
+        }
+
+        /*
+         * Returns the first row and the row after the last that can pass the
+         * date filters of some criteria. The tasks are in start time order, so
+         * the rows in a date range are found through the block index;
+         * interruptions are not, so every interruption row is returned.
+         */
+        int[] getRows(boolean interruptions, QueryCriteria criteria) {
+            if (interruptions) {
+                return new int[] {0, interruptionCount};
+            }
+
+            Date startDate = criteria.getStartDate();
+            Date endDate = criteria.getEndDate();
+            return new int[] {(startDate != null) ? findFirstRow(startDate.getTime()) : 0,
+                    (endDate != null) ? findFirstRow(endDate.getTime()) : taskCount};
+        }
+
+        /*
+         * Returns the first task row that starts at or after a time, or the
+         * task count.
+         */
+        int findFirstRow(long time) {
+            // the last block whose earliest start time is before the time
+            int block = -1;
+            int low = 0;
+            int high = blockCount - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (blockMinTimes.get(mid) < time) {
+                    block = mid;
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+
+            if (block == -1) {
+                return 0;
+            }
+
+            // only the rows of that block are read
+            int row = block * blockSize;
+            int end = Math.min(row + blockSize, taskCount);
+            while ((row < end) && (taskStarts.get(row) < time)) {
+                ++row;
+            }
+
+            return row;
+        }
+
+        /*
+         * Returns the first rows that pass the filters of some criteria and
+         * follow a task or interruption, in the order of the criteria. The
+         * rows are read from an index in the sort order, starting at the
+         * position of the last row, which is found by a binary search.
+         */
+        List find(QueryCriteria criteria, Task last, int maxResults, boolean interruptions) {
+            List rows = new ArrayList();
+
+            RowOrder order = new RowOrder(this, interruptions, criteria);
+            int[] index;
+            int low;
+            int high;
+            if (!interruptions && QueryCriteria.START_TIME.equals(criteria.getSortColumn())) {
+                // the tasks are in this order already, and only the date range is read
+                index = null;
+                int[] range = getRows(false, criteria);
+                low = range[0];
+                high = range[1];
+            } else {
+                index = getSortedRows(interruptions, criteria.getSortColumn());
+                low = 0;
+                high = index.length;
+            }
+
+            // positions count from the first row in the order of the criteria
+            boolean ascending = criteria.isAscending();
+            int count = high - low;
+            int position = 0;
+            if (last != null) {
+                int end = count;
+                while (position < end) {
+                    int mid = (position + end) >>> 1;
+                    if (order.compareTo(getRow(index, low, high, ascending, mid), last) > 0) {
+                        end = mid;
+                    } else {
+                        position = mid + 1;
+                    }
+                }
+            }
+
+            for (; (position < count) && (rows.size() < maxResults); ++position) {
+                int row = getRow(index, low, high, ascending, position);
+                if (accepts(interruptions, row, criteria)) {
+                    rows.add(interruptions ? toInterruption(row) : toTask(row));
+                }
+            }
+
+            return rows;
+        }
+
+        /*
+         * Returns the row at a position of an ascending index (or of the rows
+         * themselves if the index is null), counted from the first row in the
+         * requested direction.
+         */
+        private static int getRow(int[] index, int low, int high, boolean ascending, int position) {
+            int i = ascending ? low + position : high - 1 - position;
+            return (index != null) ? index[i] : i;
+        }
+
+        /*
+         * Returns the task or interruption rows in ascending order of a sort
+         * column, sorting them the first time.
+         */
+        private synchronized int[] getSortedRows(boolean interruptions, String column) {
+            if (!interruptions && QueryCriteria.ID.equals(column)) {
+                return getRowsById();
+            }
+
+            String key = (interruptions ? "i" : "t") + column;
+            int[] sorted = (int[]) sortedRows.get(key);
+            if (sorted == null) {
+                int size = size(interruptions);
+                Integer[] rows = new Integer[size];
+                for (int row = 0; row < size; ++row) {
+                    rows[row] = Integer.valueOf(row);
+                }
+                Arrays.sort(rows, new RowOrder(this, interruptions, column, true));
+
+                sorted = new int[size];
+                for (int i = 0; i < size; ++i) {
+                    sorted[i] = rows[i].intValue();
+                }
+                sortedRows.put(key, sorted);
+            }
+
+            return sorted;
+        }
+
+        /*
+         * Indicates whether a task or interruption row passes the filters of
+         * some criteria, exactly as QueryCriteria.accepts would decide.
+         */
+        boolean accepts(boolean interruptions, int row, QueryCriteria criteria) {
+            Date startDate = criteria.getStartDate();
+            Date endDate = criteria.getEndDate();
+            if ((startDate != null) || (endDate != null)) {
+                long startTime = interruptions ? interruptionStarts.get(row) : taskStarts.get(row);
+                if ((startTime == MemoryTable.NULL) || ((startDate != null) && (startTime < startDate.getTime()))
+                        || ((endDate != null) && (startTime >= endDate.getTime()))) {
+                    return false;
+                }
+            }
+
+            String prefix = criteria.getDescriptionPrefix();
+            if (prefix != null) {
+                String description = getDescription(interruptions, row);
+                if ((description == null) || (description.compareTo(prefix) < 0)
+                        || (description.compareTo(prefix + '\uffff') >= 0)) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        Task toTask(int row) {
+            return new Task(Long.valueOf(taskIds.get(row)), getDescription(false, row), MemoryTable.toDate(taskStarts.get(row)),
+                    MemoryTable.toDate(taskEnds.get(row)), toDuration(taskDurations.get(row)));
+        }
+
+        Interruption toInterruption(int row) {
+            return new Interruption(Long.valueOf(interruptionIds.get(row)), Long.valueOf(interruptionRelatedTaskIds.get(row)),
+                    getDescription(true, row), MemoryTable.toDate(interruptionStarts.get(row)), MemoryTable.toDate(interruptionEnds.get(row)),
+                    toDuration(interruptionDurations.get(row)));
+        }
+
+        /*
+         * Returns the row of a task, or -1 if the task is not archived.
+         */
+        int getTaskRow(long id) {
+            int[] rows = getRowsById();
+
+            int low = 0;
+            int high = rows.length - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                long midId = taskIds.get(rows[mid]);
+                if (midId < id) {
+                    low = mid + 1;
+                } else if (midId > id) {
+                    high = mid - 1;
+                } else {
+                    return rows[mid];
+                }
+            }
+
+            return -1;
+        }
+
+        private synchronized int[] getRowsById() {
+            if (rowsById == null) {
+                Integer[] rows = new Integer[taskCount];
+                for (int row = 0; row < taskCount; ++row) {
+                    rows[row] = Integer.valueOf(row);
+                }
+                Arrays.sort(rows, new Comparator() {
+                    public int compare(Object obj1, Object obj2) {
+                        long id1 = taskIds.get(((Integer) obj1).intValue());
+                        long id2 = taskIds.get(((Integer) obj2).intValue());
+                        return (id1 < id2) ? -1 : ((id1 == id2) ? 0 : 1);
+                    }
+                });
+
+                int[] sorted = new int[taskCount];
+                for (int i = 0; i < taskCount; ++i) {
+                    sorted[i] = rows[i].intValue();
+                }
+                rowsById = sorted;
+            }
+
+            return rowsById;
+        }
+
+        private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) throws IOException {
+            if (offset + length > buffer.capacity()) {
+                throw new IOException("truncated task archive");
+            }
+
+            ByteBuffer view = buffer.duplicate();
+            view.limit(offset + length);
+            view.position(offset);
+            return view.slice();
+        }
+    }
+
+    /*
+     * The archived tasks held on the heap while a segment is written. The
+     * interruptions of each task are held together, in start time order.
+     */
+    private static final class Columns {
+        private static final int INITIAL_CAPACITY = 256;
+
+        int taskCount;
+
+        long[] taskIds = new long[INITIAL_CAPACITY];
+
+        long[] taskStarts = new long[INITIAL_CAPACITY];
+
+        long[] taskEnds = new long[INITIAL_CAPACITY];
+
+        long[] taskDurations = new long[INITIAL_CAPACITY];
+
+        long[] taskInterruptionMillis = new long[INITIAL_CAPACITY];
+
+        int[] taskDescriptionIds = new int[INITIAL_CAPACITY];
+
+        int[] firstInterruptions = new int[INITIAL_CAPACITY];
+
+        int[] interruptionCounts = new int[INITIAL_CAPACITY];
+
+        int interruptionCount;
+
+        long[] intrIds = new long[INITIAL_CAPACITY];
+
+        long[] intrRelatedTaskIds = new long[INITIAL_CAPACITY];
+
+        long[] intrStarts = new long[INITIAL_CAPACITY];
+
+        long[] intrEnds = new long[INITIAL_CAPACITY];
+
+        long[] intrDurations = new long[INITIAL_CAPACITY];
+
+        int[] intrDescriptionIds = new int[INITIAL_CAPACITY];
+
+        long maxTaskId;
+
+        long maxInterruptionId;
+
+        List descriptions = new ArrayList();
+
+        /* description -> index (Integer) */
+        Map descriptionIds = new HashMap();
+
+        static Columns read(File file) throws IOException {
+            Columns columns = new Columns();
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (in.readInt() != MAGIC) {
+                    throw new IOException("not a task archive: " + file);
+                }
+                in.readInt();
+                int taskCount = in.readInt();
+                int intrCount = in.readInt();
+                int descriptionCount = in.readInt();
+                int blockSize = in.readInt();
+                int blockCount = (taskCount + blockSize - 1) / blockSize;
+                in.readLong();
+                in.readLong();
+
+                long[][] taskColumns = new long[5][taskCount];
+                for (int c = 0; c < taskColumns.length; ++c) {
+                    readLongs(in, taskColumns[c]);
+                }
+                long[][] intrColumns = new long[5][intrCount];
+                for (int c = 0; c < intrColumns.length; ++c) {
+                    readLongs(in, intrColumns[c]);
+                }
+                // the block index is rebuilt when the archive is written
+                readLongs(in, new long[blockCount * 2]);
+                int[] taskDescIds = readInts(in, new int[taskCount]);
+                int[] firstIntrs = readInts(in, new int[taskCount + 1]);
+                int[] intrDescIds = readInts(in, new int[intrCount]);
+
+                String[] descriptions = new String[descriptionCount];
+                for (int i = 0; i < descriptionCount; ++i) {
+                    byte[] bytes = new byte[in.readInt()];
+                    in.readFully(bytes);
+                    descriptions[i] = new String(bytes, "UTF-8");
+                }
+
+                for (int task = 0; task < taskCount; ++task) {
+                    int taskIndex = columns.addTask(taskColumns[0][task], descriptions[taskDescIds[task]], taskColumns[1][task],
+                            taskColumns[2][task], taskColumns[3][task]);
+                    for (int i = firstIntrs[task]; i < firstIntrs[task + 1]; ++i) {
+                        columns.addInterruption(taskIndex, intrColumns[0][i], intrColumns[1][i],
+                                (intrDescIds[i] >= 0) ? descriptions[intrDescIds[i]] : null, intrColumns[2][i], intrColumns[3][i], intrColumns[4][i]);
+                    }
+                }
+            } finally {
+                in.close();
+            }
+
+            return columns;
+        }
+
+        void add(TaskRecord taskRecord) {
+            Task task = taskRecord.getTask();
+            int taskIndex = addTask(task.getId().longValue(), task.getDescription(), MemoryTable.toTime(task.getStartTime()),
+                    MemoryTable.toTime(task.getEndTime()), MemoryTable.toDuration(task.getDuration()));
+
+            for (Iterator intrIter = taskRecord.getInterruptions().iterator(); intrIter.hasNext();) {
+                Interruption intr = (Interruption) intrIter.next();
+                addInterruption(taskIndex, intr.getId().longValue(), intr.getRelatedTaskId().longValue(), intr.getDescription(),
+                        MemoryTable.toTime(intr.getStartTime()), MemoryTable.toTime(intr.getEndTime()), MemoryTable.toDuration(intr.getDuration()));
+            }
+        }
+
+        void addAll(Columns other) {
+            for (int task = 0; task < other.taskCount; ++task) {
+                int taskIndex = addTask(other.taskIds[task], (String) other.descriptions.get(other.taskDescriptionIds[task]),
+                        other.taskStarts[task], other.taskEnds[task], other.taskDurations[task]);
+                for (int i = other.firstInterruptions[task], last = i + other.interruptionCounts[task]; i < last; ++i) {
+                    addInterruption(taskIndex, other.intrIds[i], other.intrRelatedTaskIds[i],
+                            (other.intrDescriptionIds[i] >= 0) ? (String) other.descriptions.get(other.intrDescriptionIds[i]) : null,
+                            other.intrStarts[i], other.intrEnds[i], other.intrDurations[i]);
+                }
+            }
+        }
+
+        /*
+         * Returns the task indexes in start time order (then ID order).
+         */
+        Integer[] sortByStartTime() {
+            Integer[] order = new Integer[taskCount];
+            for (int i = 0; i < taskCount; ++i) {
+                order[i] = Integer.valueOf(i);
+            }
+
+            Arrays.sort(order, new Comparator() {
+                public int compare(Object o1, Object o2) {
+                    int task1 = ((Integer) o1).intValue();
+                    int task2 = ((Integer) o2).intValue();
+                    if (taskStarts[task1] != taskStarts[task2]) {
+                        return (taskStarts[task1] < taskStarts[task2]) ? -1 : 1;
+                    }
+                    return (taskIds[task1] < taskIds[task2]) ? -1 : ((taskIds[task1] == taskIds[task2]) ? 0 : 1);
+                }
+            });
+
+            return order;
+        }
+
+        /*
+         * Adds a task (which must precede its interruptions), and returns its
+         * index.
+         */
+        private int addTask(long id, String description, long startTime, long endTime, long duration) {
+            if (taskCount == taskIds.length) {
+                int capacity = taskCount * 2;
+                taskIds = copyOf(taskIds, capacity);
+                taskStarts = copyOf(taskStarts, capacity);
+                taskEnds = copyOf(taskEnds, capacity);
+                taskDurations = copyOf(taskDurations, capacity);
+                taskInterruptionMillis = copyOf(taskInterruptionMillis, capacity);
+                taskDescriptionIds = copyOf(taskDescriptionIds, capacity);
+                firstInterruptions = copyOf(firstInterruptions, capacity);
+                interruptionCounts = copyOf(interruptionCounts, capacity);
+            }
+
+            taskIds[taskCount] = id;
+            taskStarts[taskCount] = startTime;
+            taskEnds[taskCount] = endTime;
+            taskDurations[taskCount] = duration;
+            taskInterruptionMillis[taskCount] = 0L;
+            taskDescriptionIds[taskCount] = getDescriptionId(description);
+            firstInterruptions[taskCount] = interruptionCount;
+            interruptionCounts[taskCount] = 0;
+            maxTaskId = Math.max(maxTaskId, id);
+
+            return taskCount++;
+        }
+
+        private void addInterruption(int taskIndex, long id, long relatedTaskId, String description, long startTime, long endTime, long duration) {
+            if (interruptionCount == intrIds.length) {
+                int capacity = interruptionCount * 2;
+                intrIds = copyOf(intrIds, capacity);
+                intrRelatedTaskIds = copyOf(intrRelatedTaskIds, capacity);
+                intrStarts = copyOf(intrStarts, capacity);
+                intrEnds = copyOf(intrEnds, capacity);
+                intrDurations = copyOf(intrDurations, capacity);
+                intrDescriptionIds = copyOf(intrDescriptionIds, capacity);
+            }
+
+            intrIds[interruptionCount] = id;
+            intrRelatedTaskIds[interruptionCount] = relatedTaskId;
+            intrStarts[interruptionCount] = startTime;
+            intrEnds[interruptionCount] = endTime;
+            intrDurations[interruptionCount] = duration;
+            intrDescriptionIds[interruptionCount] = (description != null) ? getDescriptionId(description) : -1;
+            maxInterruptionId = Math.max(maxInterruptionId, id);
+            ++interruptionCount;
+
+            ++interruptionCounts[taskIndex];
+            if ((startTime != MemoryTable.NULL) && (endTime != MemoryTable.NULL)) {
+                // only completed interruptions count towards the interruption time
+                taskInterruptionMillis[taskIndex] += endTime - startTime;
+            }
+        }
+
+        private int getDescriptionId(String description) {
+            Integer id = (Integer) descriptionIds.get(description);
+            if (id == null) {
+                id = Integer.valueOf(descriptions.size());
+                descriptions.add(description);
+                descriptionIds.put(description, id);
+            }
+
+            return id.intValue();
+        }
+
+        private static void readLongs(DataInputStream in, long[] values) throws IOException {
+            for (int i = 0; i < values.length; ++i) {
+                values[i] = in.readLong();
+            }
+        }
+
+        private static int[] readInts(DataInputStream in, int[] values) throws IOException {
+            for (int i = 0; i < values.length; ++i) {
+                values[i] = in.readInt();
+            }
+            return values;
+        }
+
+        private static long[] copyOf(long[] values, int capacity) {
+            long[] copy = new long[capacity];
+            System.arraycopy(values, 0, copy, 0, values.length);
+            return copy;
+        }
+
+        private static int[] copyOf(int[] values, int capacity) {
+            int[] copy = new int[capacity];
+            System.arraycopy(values, 0, copy, 0, values.length);
+            return copy;
+        }
+    }
+}
@@ -4,6 +4,7 @@
 
 package net.ninthtest.stopwatch.model;
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 
@@ -32,6 +33,63 @@ public interface TaskDAO {
      */
     public List findAllTasksInDateRange(Date startDate, Date endDate) throws DataAccessException;
     
+    /**
+     * Returns each distinct task description, with the number of tasks that
+     * have it and the latest start time among them.
+     *
+     * @return a list of {@link TaskDescription}s, in no particular order
+     * @throws DataAccessException if access to the data store fails
+     */
+    public List findTaskDescriptions() throws DataAccessException;
+    
+    /**
+     * Returns the earliest and the latest start time of all known tasks,
+     * without reading the tasks themselves.
+     *
+     * @return an array of two dates, the earliest start time and the latest;
+     *      both are <CODE>null</CODE> if no task has a start time
+     * @throws DataAccessException if access to the data store fails
+     */
+    public Date[] findTaskDateRange() throws DataAccessException;
+    
+    /**
+     * Returns the number of tasks that pass the filters of some criteria.
+     *
+     * @param criteria the query criteria
+     * @return the task count
+     * @throws DataAccessException if access to the data store fails
+     */
+    public int countTasks(QueryCriteria criteria) throws DataAccessException;
+    
+    /**
+     * Returns a page of the tasks that pass the filters of some criteria, in
+     * their order. The default criteria give the order of
+     * {@link #findAllTasks()}. Prefer
+     * {@link #findTasksAfter(QueryCriteria, Task, int)} when the preceding task
+     * is known, since skipping <I>firstResult</I> tasks takes time
+     * proportional to <I>firstResult</I>.
+     *
+     * @param criteria the query criteria
+     * @param firstResult the position of the first task to return
+     * @param maxResults the maximum number of tasks to return
+     * @return a list of at most <I>maxResults</I> tasks
+     * @throws DataAccessException if access to the data store fails
+     */
+    public List findTasks(QueryCriteria criteria, int firstResult, int maxResults) throws DataAccessException;
+    
+    /**
+     * Returns the page of tasks that follows a specified task, in the order of
+     * some criteria.
+     *
+     * @param criteria the query criteria
+     * @param lastTask the last task of the preceding page, or
+     *      <CODE>null</CODE> for the first page
+     * @param maxResults the maximum number of tasks to return
+     * @return a list of at most <I>maxResults</I> tasks
+     * @throws DataAccessException if access to the data store fails
+     */
+    public List findTasksAfter(QueryCriteria criteria, Task lastTask, int maxResults) throws DataAccessException;
+    
     /**
      * Stores the data describing a task.
      *
@@ -39,4 +97,13 @@ public interface TaskDAO {
      * @throws DataAccessException if access to the data store fails
      */
     public void saveTask(Task task) throws DataAccessException;
+    
+    /**
+     * Stores the data describing several tasks. Tasks that have not been
+     * stored before are assigned IDs.
+     *
+     * @param tasks the tasks to be stored
+     * @throws DataAccessException if access to the data store fails
+     */
+    public void saveTasks(Collection tasks) throws DataAccessException;
 }
@@ -0,0 +1,73 @@
+/*
+ * $Id$
+ */
+
+package net.ninthtest.stopwatch.model;
+
+import java.util.Date;
+
+/**
+ * This class describes how a distinct task description has been used: by how
+ * many tasks, and when one was last started.
+ *
+ * @author Matthew Zipay (ninthtest@gmail.com)
+ * @version $Revision$
+ */
+public class TaskDescription {
+    private static final String CLASSNAME = TaskDescription.class.getName();
+
+    private String description;
+
+    private int taskCount;
+
+    private Date lastStartTime;
+
+    TaskDescription(String description, int taskCount, Date lastStartTime) {
+        this.description = description;
+        this.taskCount = taskCount;
+        this.lastStartTime = lastStartTime;
+    }
+
+    /**
+     * Returns the task description.
+     *
+     * @return the description
+     */
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * Returns the number of tasks with this description.
+     *
+     * @return the task count
+     */
+    public int getTaskCount() {
+        return taskCount;
+    }
+
+    /**
+     * Returns the latest start time of the tasks with this description.
+     *
+     * @return the last start time, or <CODE>null</CODE> if no task with this
+     *      description has been started
+     */
+    public Date getLastStartTime() {
+        return lastStartTime;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @return a string describing the use of this description
+     * @see java.lang.Object#toString
+     */
+    public String toString() {
+        return new StringBuffer(CLASSNAME)
+        .append("[description=\"").append(description)
+        .append("\";taskCount=").append(taskCount)
+        .append(";lastStartTime=").append(lastStartTime)
+        .append("]")
+        .toString();
+    }
+}
@@ -0,0 +1,443 @@
+/*
+ * $Id$
+ */
+
+package net.ninthtest.stopwatch.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * This class holds task history in memory for analysis, in parallel primitive
+ * arrays rather than as task and interruption objects.
+ *
+ * <P>Each task is a row of the task arrays (ID, start time, end time and
+ * description ID), in start time order. Each interruption is a row of the
+ * interruption arrays (start time and end time) that also holds the row of
+ * its task, its parent. Task descriptions are held once and referred to by
+ * ID. The history is loaded once through a {@link ReportDAO}
+ * and is not updated when tasks are stored afterwards.</P>
+ *
+ * <P>Tasks are selected with {@link #findTasks(Date, Date, String)}, and the
+ * selected tasks are totalled by task, day or description with
+ * {@link #sumTimes(int[], int)}; the interruption time of a group is found by
+ * adding each interruption to the group of its parent, so net times are
+ * calculated without reading any object.</P>
+ *
+ * @author Matthew Zipay (ninthtest@gmail.com)
+ * @version $Revision$
+ */
+public class TaskHistory {
+    private static final String CLASSNAME = TaskHistory.class.getName();
+
+    private static final Logger LOGGER = Logger.getLogger(TaskHistory.class.getPackage().getName());
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private int taskCount;
+
+    private long[] taskIds = new long[INITIAL_CAPACITY];
+
+    private long[] taskStarts = new long[INITIAL_CAPACITY];
+
+    private long[] taskEnds = new long[INITIAL_CAPACITY];
+
+    private int[] taskDescriptionIds = new int[INITIAL_CAPACITY];
+
+    private int interruptionCount;
+
+    private long[] interruptionStarts = new long[INITIAL_CAPACITY];
+
+    private long[] interruptionEnds = new long[INITIAL_CAPACITY];
+
+    /* the task row of each interruption */
+    private int[] parentRows = new int[INITIAL_CAPACITY];
+
+    private List descriptions = new ArrayList();
+
+    /* description -> ID (Integer) */
+    private Map descriptionIds = new HashMap();
+
+    private TaskHistory() {
+        // created by load
+    }
+
+    /**
+     * Loads the history of every known task.
+     *
+     * @param reportDAO the DAO that the task records are read through
+     * @return the task history
+     * @throws DataAccessException if access to the data store fails
+     */
+    public static TaskHistory load(ReportDAO reportDAO) throws DataAccessException {
+        final String methodName = "load";
+        LOGGER.entering(CLASSNAME, methodName, reportDAO);
+
+        TaskHistory history = new TaskHistory();
+        reportDAO.processAllTaskRecords(history.new Loader());
+
+        LOGGER.exiting(CLASSNAME, methodName, history);
+        return history;
+    }
+
+    /**
+     * Loads the history of the tasks in a specified date range.
+     *
+     * @param reportDAO the DAO that the task records are read through
+     * @param startDate the start date in the date range (inclusive)
+     * @param endDate the end date in the date range (exclusive)
+     * @return the task history
+     * @throws DataAccessException if access to the data store fails
+     */
+    public static TaskHistory load(ReportDAO reportDAO, Date startDate, Date endDate) throws DataAccessException {
+        final String methodName = "load";
+        LOGGER.entering(CLASSNAME, methodName, new Object[] {reportDAO, startDate, endDate});
+
+        TaskHistory history = new TaskHistory();
+        reportDAO.processAllTaskRecordsInDateRange(startDate, endDate, history.new Loader());
+
+        LOGGER.exiting(CLASSNAME, methodName, history);
+        return history;
+    }
+
+    /**
+     * Returns the number of tasks in the history.
+     *
+     * @return the task count
+     */
+    public int getTaskCount() {
+        return taskCount;
+    }
+
+    /**
+     * Returns the number of interruptions in the history.
+     *
+     * @return the interruption count
+     */
+    public int getInterruptionCount() {
+        return interruptionCount;
+    }
+
+    /**
+     * Returns the ID of a task.
+     *
+     * @param row the task row
+     * @return the task ID
+     */
+    public long getTaskId(int row) {
+        checkRow(row, taskCount);
+        return taskIds[row];
+    }
+
+    /**
+     * Returns the description of a task.
+     *
+     * @param row the task row
+     * @return the task description
+     */
+    public String getTaskDescription(int row) {
+        checkRow(row, taskCount);
+        return (String) descriptions.get(taskDescriptionIds[row]);
+    }
+
+    /**
+     * Selects the tasks in a date range that have a specified description.
+     * As in the DAOs, tasks are selected by the dates (not the times) of the
+     * range, and a task is only in a range if it has ended.
+     *
+     * @param startDate the start date in the date range (inclusive), or
+     *      <CODE>null</CODE> for no lower bound
+     * @param endDate the end date in the date range (exclusive), or
+     *      <CODE>null</CODE> for no upper bound
+     * @param description the task description, or <CODE>null</CODE> for any
+     *      description
+     * @return the selected task rows, in start time order
+     */
+    public int[] findTasks(Date startDate, Date endDate, String description) {
+        final String methodName = "findTasks";
+        LOGGER.entering(CLASSNAME, methodName, new Object[] {startDate, endDate, description});
+
+        int descriptionId = -1;
+        if (description != null) {
+            Integer id = (Integer) descriptionIds.get(description);
+            if (id == null) {
+                LOGGER.exiting(CLASSNAME, methodName, Integer.valueOf(0));
+                return new int[0];
+            }
+            descriptionId = id.intValue();
+        }
+
+        int first = 0;
+        if (startDate != null) {
+            // the first task that started on or after the start date
+            long startTime = MemoryTable.getDayStart(startDate.getTime());
+            int last = taskCount;
+            while (first < last) {
+                int middle = (first + last) >>> 1;
+                if (taskStarts[middle] < startTime) {
+                    first = middle + 1;
+                } else {
+                    last = middle;
+                }
+            }
+        }
+        long endTime = (endDate != null) ? MemoryTable.getDayStart(endDate.getTime()) : Long.MAX_VALUE;
+
+        int[] rows = new int[taskCount - first];
+        int count = 0;
+        for (int row = first; (row < taskCount) && (taskStarts[row] < endTime); ++row) {
+            if (((descriptionId == -1) || (taskDescriptionIds[row] == descriptionId))
+                    && ((endDate == null) || ((taskEnds[row] != MemoryTable.NULL) && (taskEnds[row] < endTime)))) {
+                rows[count++] = row;
+            }
+        }
+
+        int[] selected = new int[count];
+        System.arraycopy(rows, 0, selected, 0, count);
+
+        LOGGER.exiting(CLASSNAME, methodName, Integer.valueOf(count));
+        return selected;
+    }
+
+    /**
+     * Totals the times of selected tasks. Only completed tasks are totalled,
+     * and only completed interruptions count towards the interruption time.
+     *
+     * @param taskRows task rows in start time order, as returned by
+     *      {@link #findTasks(Date, Date, String)}
+     * @param grouping {@link ReportDAO#GROUP_BY_TASK},
+     *      {@link ReportDAO#GROUP_BY_DAY} or
+     *      {@link ReportDAO#GROUP_BY_DESCRIPTION}
+     * @return the totals for each group
+     * @throws IllegalArgumentException if the grouping is unknown
+     */
+    public TaskTimeTotals sumTimes(int[] taskRows, int grouping) {
+        final String methodName = "sumTimes";
+        LOGGER.entering(CLASSNAME, methodName, new Object[] {Integer.valueOf(taskRows.length), Integer.valueOf(grouping)});
+
+        // the group of each task row, or -1 if the task is not totalled
+        int[] taskGroups = new int[taskCount];
+        Arrays.fill(taskGroups, -1);
+
+        int groupCount = 0;
+        long[] groupKeys = new long[taskRows.length];
+        switch (grouping) {
+            case ReportDAO.GROUP_BY_TASK:
+                for (int i = 0; i < taskRows.length; ++i) {
+                    int row = taskRows[i];
+                    if (isCompleted(row)) {
+                        groupKeys[groupCount] = row;
+                        taskGroups[row] = groupCount++;
+                    }
+                }
+                break;
+            case ReportDAO.GROUP_BY_DAY:
+                // in start time order, a day is only looked up when it changes
+                Calendar cal = Calendar.getInstance();
+                long dayEnd = Long.MIN_VALUE;
+                for (int i = 0; i < taskRows.length; ++i) {
+                    int row = taskRows[i];
+                    if (isCompleted(row)) {
+                        if (taskStarts[row] >= dayEnd) {
+                            long dayStart = MemoryTable.getDayStart(taskStarts[row]);
+                            cal.setTimeInMillis(dayStart);
+                            cal.add(Calendar.DATE, 1);
+                            dayEnd = cal.getTimeInMillis();
+                            groupKeys[groupCount++] = dayStart;
+                        }
+                        taskGroups[row] = groupCount - 1;
+                    }
+                }
+                break;
+            case ReportDAO.GROUP_BY_DESCRIPTION:
+                // one group per description, in description order; as in the
+                // DAOs, tasks without a description are not totalled
+                Integer[] order = getDescriptionOrder();
+                int[] descriptionGroups = new int[descriptions.size()];
+                Arrays.fill(descriptionGroups, -1);
+                for (int i = 0; i < order.length; ++i) {
+                    descriptionGroups[order[i].intValue()] = i;
+                }
+                for (int i = 0; i < taskRows.length; ++i) {
+                    int row = taskRows[i];
+                    if (isCompleted(row)) {
+                        taskGroups[row] = descriptionGroups[taskDescriptionIds[row]];
+                    }
+                }
+                groupCount = order.length;
+                groupKeys = new long[groupCount];
+                for (int i = 0; i < groupCount; ++i) {
+                    groupKeys[i] = order[i].intValue();
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("unknown grouping: " + grouping);
+        }
+
+        int[] taskCounts = new int[groupCount];
+        long[] grossMillis = new long[groupCount];
+        long[] interruptionMillis = new long[groupCount];
+        for (int i = 0; i < taskRows.length; ++i) {
+            int row = taskRows[i];
+            int group = taskGroups[row];
+            if (group != -1) {
+                ++taskCounts[group];
+                grossMillis[group] += taskEnds[row] - taskStarts[row];
+            }
+        }
+        for (int i = 0; i < interruptionCount; ++i) {
+            int group = taskGroups[parentRows[i]];
+            if ((group != -1) && (interruptionStarts[i] != MemoryTable.NULL) && (interruptionEnds[i] != MemoryTable.NULL)) {
+                interruptionMillis[group] += interruptionEnds[i] - interruptionStarts[i];
+            }
+        }
+
+        TaskTimeTotals totals = new TaskTimeTotals(grouping);
+        for (int group = 0; group < groupCount; ++group) {
+            if (taskCounts[group] == 0) {
+                // a description without selected tasks
+                continue;
+            }
+
+            switch (grouping) {
+                case ReportDAO.GROUP_BY_TASK:
+                    int row = (int) groupKeys[group];
+                    totals.add(taskIds[row], 0L, (String) descriptions.get(taskDescriptionIds[row]), 1, grossMillis[group], interruptionMillis[group]);
+                    break;
+                case ReportDAO.GROUP_BY_DAY:
+                    totals.add(0L, groupKeys[group], null, taskCounts[group], grossMillis[group], interruptionMillis[group]);
+                    break;
+                default:
+                    totals.add(0L, 0L, (String) descriptions.get((int) groupKeys[group]), taskCounts[group], grossMillis[group],
+                            interruptionMillis[group]);
+                    break;
+            }
+        }
+
+        LOGGER.exiting(CLASSNAME, methodName, totals);
+        return totals;
+    }
+
+    private boolean isCompleted(int row) {
+        return (taskStarts[row] != MemoryTable.NULL) && (taskEnds[row] != MemoryTable.NULL);
+    }
+
+    /*
+     * Returns the IDs of the descriptions other than null, in description
+     * order.
+     */
+    private Integer[] getDescriptionOrder() {
+        Integer nullId = (Integer) descriptionIds.get(null);
+        Integer[] order = new Integer[descriptions.size() - ((nullId != null) ? 1 : 0)];
+        int count = 0;
+        for (int i = 0; i < descriptions.size(); ++i) {
+            if ((nullId == null) || (i != nullId.intValue())) {
+                order[count++] = Integer.valueOf(i);
+            }
+        }
+
+        Arrays.sort(order, new Comparator() {
+            public int compare(Object o1, Object o2) {
+                return ((String) descriptions.get(((Integer) o1).intValue())).compareTo((String) descriptions.get(((Integer) o2).intValue()));
+            }
+        });
+
+        return order;
+    }
+
+    private int getDescriptionId(String description) {
+        Integer id = (Integer) descriptionIds.get(description);
+        if (id == null) {
+            id = Integer.valueOf(descriptions.size());
+            descriptions.add(description);
+            descriptionIds.put(description, id);
+        }
+
+        return id.intValue();
+    }
+
+    private void addTask(Task task) {
+        if (taskCount == taskIds.length) {
+            int capacity = taskCount * 2;
+            taskIds = copyOf(taskIds, capacity);
+            taskStarts = copyOf(taskStarts, capacity);
+            taskEnds = copyOf(taskEnds, capacity);
+            taskDescriptionIds = copyOf(taskDescriptionIds, capacity);
+        }
+
+        taskIds[taskCount] = task.getId().longValue();
+        taskStarts[taskCount] = MemoryTable.toTime(task.getStartTime());
+        taskEnds[taskCount] = MemoryTable.toTime(task.getEndTime());
+        taskDescriptionIds[taskCount] = getDescriptionId(task.getDescription());
+        ++taskCount;
+    }
+
+    private void addInterruption(Interruption intr, int parentRow) {
+        if (interruptionCount == interruptionStarts.length) {
+            int capacity = interruptionCount * 2;
+            interruptionStarts = copyOf(interruptionStarts, capacity);
+            interruptionEnds = copyOf(interruptionEnds, capacity);
+            parentRows = copyOf(parentRows, capacity);
+        }
+
+        interruptionStarts[interruptionCount] = MemoryTable.toTime(intr.getStartTime());
+        interruptionEnds[interruptionCount] = MemoryTable.toTime(intr.getEndTime());
+        parentRows[interruptionCount] = parentRow;
+        ++interruptionCount;
+    }
+
+    private static long[] copyOf(long[] values, int capacity) {
+        long[] copy = new long[capacity];
+        System.arraycopy(values, 0, copy, 0, values.length);
+        return copy;
+    }
+
+    private static int[] copyOf(int[] values, int capacity) {
+        int[] copy = new int[capacity];
+        System.arraycopy(values, 0, copy, 0, values.length);
+        return copy;
+    }
+
+    private static void checkRow(int row, int count) {
+        if ((row < 0) || (row >= count)) {
+            throw new IndexOutOfBoundsException("row " + row + " (count " + count + ")");
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @return a string describing the size of this history
+     * @see java.lang.Object#toString
+     */
+    public String toString() {
+        return new StringBuffer(TaskHistory.class.getName())
+        .append("[tasks=").append(taskCount)
+        .append(";interruptions=").append(interruptionCount)
+        .append(";descriptions=").append(descriptions.size())
+        .append("]")
+        .toString();
+    }
+
+    /*
+     * Copies each task record into the arrays as it is read, so that the
+     * records themselves are not kept.
+     */
+    private class Loader implements TaskRecordHandler {
+        public void handleTaskRecord(TaskRecord taskRecord) {
+            int parentRow = taskCount;
+            addTask(taskRecord.getTask());
+            for (Iterator intrIter = taskRecord.getInterruptions().iterator(); intrIter.hasNext();) {
+                addInterruption((Interruption) intrIter.next(), parentRow);
+            }
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * $Id$
+ */
+
+package net.ninthtest.stopwatch.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This class groups a task together with the interruptions that occurred
+ * while the task was in progress.
+ *
+ * @author Matthew Zipay (ninthtest@gmail.com)
+ * @version $Revision$
+ */
+public class TaskRecord {
+    private Task task;
+
+    private List interruptions;
+
+    TaskRecord(Task task) {
+        this.task = task;
+        interruptions = new ArrayList();
+    }
+
+    /**
+     * Returns the task described by this record.
+     *
+     * @return the recorded task
+     */
+    public Task getTask() {
+        return task;
+    }
+
+    /**
+     * Returns the interruptions of the recorded task, ordered by start time.
+     *
+     * @return an unmodifiable list of interruptions
+     */
+    public List getInterruptions() {
+        return Collections.unmodifiableList(interruptions);
+    }
+
+    void addInterruption(Interruption intr) {
+        interruptions.add(intr);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @return a string describing the task and interruptions of this record
+     * @see java.lang.Object#toString
+     */
+    public String toString() {
+        return new StringBuffer(TaskRecord.class.getName())
+        .append("[task=").append(task)
+        .append(";interruptions=").append(interruptions)
+        .append("]")
+        .toString();
+    }
+}
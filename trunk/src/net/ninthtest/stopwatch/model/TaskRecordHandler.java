@@ -0,0 +1,23 @@
+/*
+ * $Id$
+ */
+
+package net.ninthtest.stopwatch.model;
+
+/**
+ * This interface declares a callback that receives task records one at a time
+ * as they are read from the data store.
+ *
+ * @author Matthew Zipay (ninthtest@gmail.com)
+ * @version $Revision$
+ */
+public interface TaskRecordHandler {
+    /**
+     * Processes a single task record. The record is not retained by the DAO
+     * after this method returns.
+     *
+     * @param taskRecord a task and its interruptions
+     * @throws DataAccessException if the record cannot be processed
+     */
+    public void handleTaskRecord(TaskRecord taskRecord) throws DataAccessException;
+}
@@ -0,0 +1,128 @@
+/*
+ * $Id$
+ */
+
+package net.ninthtest.stopwatch.model;
+
+import java.util.Date;
+
+/**
+ * This class holds the totals for a group of completed tasks that share a
+ * description (and, for daily and weekly summaries, a period).
+ *
+ * @author Matthew Zipay (ninthtest@gmail.com)
+ * @version $Revision$
+ */
+public class TaskSummary {
+    private Date periodStart;
+
+    private String description;
+
+    private int taskCount;
+
+    private long grossMillis;
+
+    private int interruptionCount;
+
+    private long interruptionMillis;
+
+    TaskSummary(Date periodStart, String description, int taskCount, long grossMillis, int interruptionCount, long interruptionMillis) {
+        this.periodStart = periodStart;
+        this.description = description;
+        this.taskCount = taskCount;
+        this.grossMillis = grossMillis;
+        this.interruptionCount = interruptionCount;
+        this.interruptionMillis = interruptionMillis;
+    }
+
+    /**
+     * Returns the first day of the summarized period.
+     *
+     * @return the period start date, or <CODE>null</CODE> if this summary is
+     *      not divided by period
+     */
+    public Date getPeriodStart() {
+        return periodStart;
+    }
+
+    /**
+     * Returns the description shared by the summarized tasks.
+     *
+     * @return the task description
+     */
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * Returns the number of summarized tasks.
+     *
+     * @return the task count
+     */
+    public int getTaskCount() {
+        return taskCount;
+    }
+
+    /**
+     * Returns the total elapsed time of the summarized tasks, including time
+     * spent on interruptions.
+     *
+     * @return the gross task time in milliseconds
+     */
+    public long getGrossMillis() {
+        return grossMillis;
+    }
+
+    /**
+     * Returns the number of completed interruptions of the summarized tasks.
+     *
+     * @return the interruption count
+     */
+    public int getInterruptionCount() {
+        return interruptionCount;
+    }
+
+    /**
+     * Returns the total elapsed time of the completed interruptions of the
+     * summarized tasks.
+     *
+     * @return the interruption time in milliseconds
+     */
+    public long getInterruptionMillis() {
+        return interruptionMillis;
+    }
+
+    /**
+     * Returns the time spent on the summarized tasks, excluding interruptions.
+     *
+     * @return the net task time in milliseconds
+     */
+    public long getNetMillis() {
+        return grossMillis - interruptionMillis;
+    }
+
+    void add(TaskSummary other) {
+        taskCount += other.taskCount;
+        grossMillis += other.grossMillis;
+        interruptionCount += other.interruptionCount;
+        interruptionMillis += other.interruptionMillis;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @return a string describing the totals of this summary
+     * @see java.lang.Object#toString
+     */
+    public String toString() {
+        return new StringBuffer(TaskSummary.class.getName())
+        .append("[periodStart=").append(periodStart)
+        .append(";description=\"").append(description).append("\"")
+        .append(";taskCount=").append(taskCount)
+        .append(";grossMillis=").append(grossMillis)
+        .append(";interruptionCount=").append(interruptionCount)
+        .append(";interruptionMillis=").append(interruptionMillis)
+        .append("]")
+        .toString();
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * $Id$
+ */
+
+package net.ninthtest.stopwatch.model;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This migration step populates the <CODE>Task_Summaries</CODE> table from the
+ * tasks and interruptions already stored, using one grouped query for each.
+ *
+ * @author Matthew Zipay (ninthtest@gmail.com)
+ * @version $Revision$
+ */
+class TaskSummaryBackfill implements MigrationStep {
+    private static final String CLASSNAME = TaskSummaryBackfill.class.getName();
+
+    private static final Logger LOGGER = Logger.getLogger(TaskSummaryBackfill.class.getPackage().getName());
+
+    private static final String SUM_ALL_TASK_TIMES_SQL;
+
+    private static final String SUM_ALL_INTERRUPTION_TIMES_SQL;
+
+    private static final String INSERT_TASK_SUMMARY_SQL;
+
+    static {
+        final String methodName = "<clinit>";
+        LOGGER.entering(CLASSNAME, methodName);
+
+        Properties sqlProps = new Properties();
+        try {
+            sqlProps.load(Thread.currentThread().getContextClassLoader().getResourceAsStream("summary-sql.properties"));
+        } catch (IOException ex) {
+            LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "error loading TaskSummaryBackfill SQL properties", ex);
+        }
+
+        SUM_ALL_TASK_TIMES_SQL = sqlProps.getProperty("sumAllTaskTimes");
+        SUM_ALL_INTERRUPTION_TIMES_SQL = sqlProps.getProperty("sumAllInterruptionTimes");
+        INSERT_TASK_SUMMARY_SQL = sqlProps.getProperty("backfillTaskSummary");
+
+        LOGGER.exiting(CLASSNAME, methodName);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param conx the connection on which the migration is running
+     * @throws SQLException if the summaries cannot be calculated or stored
+     */
+    public void apply(Connection conx) throws SQLException {
+        final String methodName = "apply";
+        LOGGER.entering(CLASSNAME, methodName);
+
+        if ((SUM_ALL_TASK_TIMES_SQL == null) || (SUM_ALL_INTERRUPTION_TIMES_SQL == null) || (INSERT_TASK_SUMMARY_SQL == null)) {
+            throw new SQLException("undefined or empty SQL template");
+        }
+
+        // keyed by "date|description"
+        Map summaries = new LinkedHashMap();
+
+        Statement select = conx.createStatement();
+        try {
+            ResultSet results = select.executeQuery(SUM_ALL_TASK_TIMES_SQL);
+            while (results.next()) {
+                java.sql.Date date = results.getDate(1);
+                String desc = results.getString(2);
+                summaries.put(date + "|" + desc, new TaskSummary(date, desc, results.getInt(3), results.getLong(4), 0, 0L));
+            }
+            results.close();
+
+            results = select.executeQuery(SUM_ALL_INTERRUPTION_TIMES_SQL);
+            while (results.next()) {
+                TaskSummary summary = (TaskSummary) summaries.get(results.getDate(1) + "|" + results.getString(2));
+                if (summary != null) {
+                    summary.add(new TaskSummary(null, null, 0, 0L, results.getInt(3), results.getLong(4)));
+                }
+            }
+            results.close();
+        } finally {
+            select.close();
+        }
+
+        PreparedStatement insert = conx.prepareStatement(INSERT_TASK_SUMMARY_SQL);
+        try {
+            int batchSize = JDBCAccess.getBatchSize();
+            int pending = 0;
+            for (Iterator summaryIter = summaries.values().iterator(); summaryIter.hasNext();) {
+                TaskSummary summary = (TaskSummary) summaryIter.next();
+                insert.setDate(1, (java.sql.Date) summary.getPeriodStart());
+                insert.setString(2, summary.getDescription());
+                insert.setInt(3, summary.getTaskCount());
+                insert.setLong(4, summary.getGrossMillis());
+                insert.setInt(5, summary.getInterruptionCount());
+                insert.setLong(6, summary.getInterruptionMillis());
+                insert.addBatch();
+
+                if (++pending == batchSize) {
+                    insert.executeBatch();
+                    pending = 0;
+                }
+            }
+
+            if (pending > 0) {
+                insert.executeBatch();
+            }
+        } finally {
+            insert.close();
+        }
+
+        LOGGER.logp(Level.INFO, CLASSNAME, methodName, "created {0} task summaries", Integer.valueOf(summaries.size()));
+        LOGGER.exiting(CLASSNAME, methodName);
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * $Id$
+ */
+
+package net.ninthtest.stopwatch.model;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class keeps the <CODE>Task_Summaries</CODE> table up to date as tasks
+ * and interruptions are stored.
+ *
+ * <P>A DAO records the summaries (day and description) that a change may
+ * affect: for a task, both the summary it belonged to before the change and the
+ * one it belongs to afterwards; for an interruption, the summary of its task.
+ * Only completed tasks belong to a summary, so starting a task or an
+ * interruption of a running task affects nothing. After making its change, the
+ * DAO calls {@link #refresh(Connection)} in the same transaction, which
+ * recalculates only the recorded summaries. The tasks in a summary that have
+ * been moved to the {@link TaskArchive} are included.</P>
+ *
+ * @author Matthew Zipay (ninthtest@gmail.com)
+ * @version $Revision$
+ */
+final class TaskSummaryRefresh {
+    private static final String CLASSNAME = TaskSummaryRefresh.class.getName();
+
+    private static final Logger LOGGER = Logger.getLogger(TaskSummaryRefresh.class.getPackage().getName());
+
+    private static final String FIND_TASK_SUMMARY_KEY_SQL;
+
+    private static final String DELETE_TASK_SUMMARY_SQL;
+
+    private static final String INSERT_TASK_SUMMARY_SQL;
+
+    private static final String SUM_TASK_TIMES_SQL;
+
+    private static final String SUM_INTERRUPTION_TIMES_SQL;
+
+    private Set summaryKeys = new HashSet();
+
+    private Set taskIds = new HashSet();
+
+    static {
+        final String methodName = "<clinit>";
+        LOGGER.entering(CLASSNAME, methodName);
+
+        Properties sqlProps = new Properties();
+        try {
+            sqlProps.load(Thread.currentThread().getContextClassLoader().getResourceAsStream("summary-sql.properties"));
+        } catch (IOException ex) {
+            LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "error loading TaskSummaryRefresh SQL properties", ex);
+        }
+
+        FIND_TASK_SUMMARY_KEY_SQL = sqlProps.getProperty("findTaskSummaryKey");
+        DELETE_TASK_SUMMARY_SQL = sqlProps.getProperty("deleteTaskSummary");
+        INSERT_TASK_SUMMARY_SQL = sqlProps.getProperty("insertTaskSummary");
+        SUM_TASK_TIMES_SQL = sqlProps.getProperty("sumTaskTimes");
+        SUM_INTERRUPTION_TIMES_SQL = sqlProps.getProperty("sumInterruptionTimes");
+
+        LOGGER.exiting(CLASSNAME, methodName);
+    }
+
+    /**
+     * Records the summary that a task belongs to, as described by the task
+     * object.
+     *
+     * @param task a task whose state is about to be (or has been) stored
+     */
+    void addTask(Task task) {
+        addSummary(task.getDescription(), task.getStartTime(), task.getEndTime());
+    }
+
+    /**
+     * Records the summary that a task with the specified state belongs to.
+     *
+     * @param description the task description
+     * @param startTime the task start time
+     * @param endTime the task end time
+     */
+    void addSummary(String description, java.util.Date startTime, java.util.Date endTime) {
+        if ((description == null) || (startTime == null) || (endTime == null)) {
+            // incomplete tasks are not summarized
+            return;
+        }
+
+        Calendar cal = Calendar.getInstance();
+        cal.setTime(startTime);
+        cal.set(Calendar.HOUR_OF_DAY, 0);
+        cal.set(Calendar.MINUTE, 0);
+        cal.set(Calendar.SECOND, 0);
+        cal.set(Calendar.MILLISECOND, 0);
+        long dayStart = cal.getTimeInMillis();
+        cal.add(Calendar.DATE, 1);
+
+        summaryKeys.add(new SummaryKey(dayStart, cal.getTimeInMillis(), description));
+    }
+
+    /**
+     * Records the summary that a task belongs to, as currently stored in the
+     * database. Each task is read at most once.
+     *
+     * @param conx the connection on which the change is being made
+     * @param taskId the ID of the stored task
+     * @throws SQLException if the task cannot be read
+     * @throws DataAccessException if the SQL template is undefined
+     */
+    void addStoredTask(Connection conx, Long taskId) throws SQLException, DataAccessException {
+        final String methodName = "addStoredTask";
+
+        if ((taskId == null) || !taskIds.add(taskId)) {
+            return;
+        }
+
+        PreparedStatement select = JDBCAccess.prepareStatement(conx, "findTaskSummaryKey", getSql(FIND_TASK_SUMMARY_KEY_SQL));
+        select.setLong(1, taskId.longValue());
+
+        ResultSet result = select.executeQuery();
+        try {
+            if (result.next()) {
+                addSummary(result.getString(1), result.getTimestamp(2), result.getTimestamp(3));
+            }
+        } finally {
+            try {
+                result.close();
+            } catch (SQLException ex) {
+                LOGGER.logp(Level.WARNING, CLASSNAME, methodName, "failed to close select result set", ex);
+            }
+        }
+    }
+
+    /**
+     * Recalculates every recorded summary from the tasks and interruptions
+     * currently stored, in the database and in the archive. The caller is
+     * responsible for committing.
+     *
+     * @param conx the connection on which the change is being made
+     * @throws SQLException if a summary cannot be recalculated
+     * @throws DataAccessException if an SQL template is undefined
+     */
+    void refresh(Connection conx) throws SQLException, DataAccessException {
+        final String methodName = "refresh";
+        LOGGER.entering(CLASSNAME, methodName, Integer.valueOf(summaryKeys.size()));
+
+        for (Iterator keyIter = summaryKeys.iterator(); keyIter.hasNext();) {
+            SummaryKey key = (SummaryKey) keyIter.next();
+            java.sql.Date summaryDate = new java.sql.Date(key.dayStart);
+            Timestamp dayStart = new Timestamp(key.dayStart);
+            Timestamp dayEnd = new Timestamp(key.dayEnd);
+
+            PreparedStatement delete = JDBCAccess.prepareStatement(conx, "deleteTaskSummary", getSql(DELETE_TASK_SUMMARY_SQL));
+            delete.setDate(1, summaryDate);
+            delete.setString(2, key.description);
+            delete.executeUpdate();
+
+            long[] taskTotals = sum(conx, "sumTaskTimes", getSql(SUM_TASK_TIMES_SQL), dayStart, dayEnd, key.description);
+            long[] archivedTotals = TaskArchive.sumSummary(key.dayStart, key.dayEnd, key.description);
+            if (taskTotals[0] + archivedTotals[0] == 0) {
+                // no completed tasks remain in this summary
+                continue;
+            }
+
+            long[] intrTotals = sum(conx, "sumInterruptionTimes", getSql(SUM_INTERRUPTION_TIMES_SQL), dayStart, dayEnd, key.description);
+
+            PreparedStatement insert = JDBCAccess.prepareStatement(conx, "insertTaskSummary", getSql(INSERT_TASK_SUMMARY_SQL));
+            insert.setDate(1, summaryDate);
+            insert.setString(2, key.description);
+            insert.setInt(3, (int) (taskTotals[0] + archivedTotals[0]));
+            insert.setLong(4, taskTotals[1] + archivedTotals[1]);
+            insert.setInt(5, (int) (intrTotals[0] + archivedTotals[2]));
+            insert.setLong(6, intrTotals[1] + archivedTotals[3]);
+            insert.executeUpdate();
+        }
+
+        summaryKeys.clear();
+        taskIds.clear();
+
+        LOGGER.exiting(CLASSNAME, methodName);
+    }
+
+    private static long[] sum(Connection conx, String name, String sql, Timestamp dayStart, Timestamp dayEnd, String description) throws SQLException {
+        final String methodName = "sum";
+
+        PreparedStatement select = JDBCAccess.prepareStatement(conx, name, sql);
+        select.setTimestamp(1, dayStart);
+        select.setTimestamp(2, dayEnd);
+        select.setString(3, description);
+
+        long[] totals = new long[2];
+        ResultSet result = select.executeQuery();
+        try {
+            if (result.next()) {
+                totals[0] = result.getLong(1);
+                totals[1] = result.getLong(2);
+            }
+        } finally {
+            try {
+                result.close();
+            } catch (SQLException ex) {
+                LOGGER.logp(Level.WARNING, CLASSNAME, methodName, "failed to close select result set", ex);
+            }
+        }
+
+        return totals;
+    }
+
+    private static String getSql(String sql) throws DataAccessException {
+        if ((sql == null) || (sql.equals(""))) {
+            throw new DataAccessException("undefined or empty SQL template");
+        }
+
+        return sql;
+    }
+
+    /*
+     * Identifies one row of the summary table.
+     */
+    private static class SummaryKey {
+        private long dayStart;
+
+        private long dayEnd;
+
+        private String description;
+
+        SummaryKey(long dayStart, long dayEnd, String description) {
+            this.dayStart = dayStart;
+            this.dayEnd = dayEnd;
+            this.description = description;
+        }
+
+        public boolean equals(Object obj) {
+            if (!(obj instanceof SummaryKey)) {
+                return false;
+            }
+
+            SummaryKey other = (SummaryKey) obj;
+            return (dayStart == other.dayStart) && description.equals(other.description);
+        }
+
+        public int hashCode() {
+            return (int) (dayStart ^ (dayStart >>> 32)) * 31 + description.hashCode();
+        }
+    }
+}
@@ -0,0 +1,32 @@
+/*
+ * $Id$
+ */
+
+package net.ninthtest.stopwatch.model;
+
+import java.util.Date;
+
+/**
+ * This interface declares a callback that receives the times of one task at a
+ * time as they are read from the data store. The interruptions of the task are
+ * not read; only their total elapsed time is.
+ *
+ * @author Matthew Zipay (ninthtest@gmail.com)
+ * @version $Revision$
+ */
+public interface TaskTimeHandler {
+    /**
+     * Processes the times of a single task.
+     *
+     * @param taskId the task ID
+     * @param description the task description
+     * @param startTime the task start time, or <CODE>null</CODE> if the task
+     *      has not been started
+     * @param endTime the task end time, or <CODE>null</CODE> if the task has
+     *      not been completed
+     * @param interruptionMillis the total elapsed time of the task's completed
+     *      interruptions
+     * @throws DataAccessException if the task times cannot be processed
+     */
+    public void handleTaskTime(long taskId, String description, Date startTime, Date endTime, long interruptionMillis) throws DataAccessException;
+}
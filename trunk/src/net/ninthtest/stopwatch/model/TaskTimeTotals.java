@@ -0,0 +1,193 @@
+/*
+ * $Id$
+ */
+
+package net.ninthtest.stopwatch.model;
+
+/**
+ * This class holds the totals of completed tasks grouped by task, day or
+ * description. The totals are stored in primitive arrays (one element per
+ * group) rather than as an object per group.
+ *
+ * <P>Each group is identified by the key of its grouping: a task ID and
+ * description for {@link ReportDAO#GROUP_BY_TASK}, the start of a day for
+ * {@link ReportDAO#GROUP_BY_DAY}, or a description for
+ * {@link ReportDAO#GROUP_BY_DESCRIPTION}. Keys that do not belong to the
+ * grouping are undefined.</P>
+ *
+ * @author Matthew Zipay (ninthtest@gmail.com)
+ * @version $Revision$
+ */
+public class TaskTimeTotals {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private int grouping;
+
+    private int size;
+
+    private long[] taskIds = new long[INITIAL_CAPACITY];
+
+    private long[] dayStarts = new long[INITIAL_CAPACITY];
+
+    private String[] descriptions = new String[INITIAL_CAPACITY];
+
+    private int[] taskCounts = new int[INITIAL_CAPACITY];
+
+    private long[] grossMillis = new long[INITIAL_CAPACITY];
+
+    private long[] interruptionMillis = new long[INITIAL_CAPACITY];
+
+    TaskTimeTotals(int grouping) {
+        this.grouping = grouping;
+    }
+
+    /**
+     * Returns the grouping of these totals.
+     *
+     * @return one of the <CODE>GROUP_BY_*</CODE> constants of
+     *      {@link ReportDAO}
+     */
+    public int getGrouping() {
+        return grouping;
+    }
+
+    /**
+     * Returns the number of groups.
+     *
+     * @return the group count
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the task ID of a group.
+     *
+     * @param index the group index
+     * @return the task ID (tasks grouping only)
+     */
+    public long getTaskId(int index) {
+        checkIndex(index);
+        return taskIds[index];
+    }
+
+    /**
+     * Returns the day of a group.
+     *
+     * @param index the group index
+     * @return the start of the day in milliseconds (days grouping only)
+     */
+    public long getDayStart(int index) {
+        checkIndex(index);
+        return dayStarts[index];
+    }
+
+    /**
+     * Returns the description of a group.
+     *
+     * @param index the group index
+     * @return the task description (tasks and descriptions groupings only)
+     */
+    public String getDescription(int index) {
+        checkIndex(index);
+        return descriptions[index];
+    }
+
+    /**
+     * Returns the number of completed tasks in a group.
+     *
+     * @param index the group index
+     * @return the task count
+     */
+    public int getTaskCount(int index) {
+        checkIndex(index);
+        return taskCounts[index];
+    }
+
+    /**
+     * Returns the total elapsed time of the tasks in a group, including time
+     * spent on interruptions.
+     *
+     * @param index the group index
+     * @return the gross task time in milliseconds
+     */
+    public long getGrossMillis(int index) {
+        checkIndex(index);
+        return grossMillis[index];
+    }
+
+    /**
+     * Returns the total elapsed time of the completed interruptions of the
+     * tasks in a group.
+     *
+     * @param index the group index
+     * @return the interruption time in milliseconds
+     */
+    public long getInterruptionMillis(int index) {
+        checkIndex(index);
+        return interruptionMillis[index];
+    }
+
+    /**
+     * Returns the time spent on the tasks in a group, excluding interruptions.
+     *
+     * @param index the group index
+     * @return the net task time in milliseconds
+     */
+    public long getNetMillis(int index) {
+        checkIndex(index);
+        return grossMillis[index] - interruptionMillis[index];
+    }
+
+    void add(long taskId, long dayStart, String description, int taskCount, long gross, long interruption) {
+        if (size == taskCounts.length) {
+            int capacity = size * 2;
+            taskIds = copyOf(taskIds, capacity);
+            dayStarts = copyOf(dayStarts, capacity);
+            grossMillis = copyOf(grossMillis, capacity);
+            interruptionMillis = copyOf(interruptionMillis, capacity);
+
+            int[] counts = new int[capacity];
+            System.arraycopy(taskCounts, 0, counts, 0, size);
+            taskCounts = counts;
+
+            String[] descs = new String[capacity];
+            System.arraycopy(descriptions, 0, descs, 0, size);
+            descriptions = descs;
+        }
+
+        taskIds[size] = taskId;
+        dayStarts[size] = dayStart;
+        descriptions[size] = description;
+        taskCounts[size] = taskCount;
+        grossMillis[size] = gross;
+        interruptionMillis[size] = interruption;
+        ++size;
+    }
+
+    private static long[] copyOf(long[] values, int capacity) {
+        long[] copy = new long[capacity];
+        System.arraycopy(values, 0, copy, 0, values.length);
+        return copy;
+    }
+
+    private void checkIndex(int index) {
+        if ((index < 0) || (index >= size)) {
+            throw new IndexOutOfBoundsException("index " + index + " (size " + size + ")");
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @return a string describing the grouping and size of these totals
+     * @see java.lang.Object#toString
+     */
+    public String toString() {
+        return new StringBuffer(TaskTimeTotals.class.getName())
+        .append("[grouping=").append(grouping)
+        .append(";size=").append(size)
+        .append("]")
+        .toString();
+    }
+}
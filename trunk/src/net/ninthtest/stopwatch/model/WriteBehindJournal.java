@@ -0,0 +1,1043 @@
+/*
+ * $Id$
+ */
+
+package net.ninthtest.stopwatch.model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class implements the write-behind mode of the JDBC DAOs.
+ *
+ * <P>When write-behind is enabled, every task and interruption save is
+ * appended to a local journal file instead of being written to the database.
+ * The journal is forced to disk at a configurable interval, and its entries are
+ * written to the database in batches (one transaction per batch). IDs for new
+ * tasks and interruptions are allocated from the journal so that callers see
+ * them immediately. Only the rows of those IDs are inserted; saving any other
+ * task or interruption whose row does not exist fails when it is written, as
+ * it does without the journal.</P>
+ *
+ * <P>Saves are checked before they are journaled, so that every entry can be
+ * written. An entry that the database still refuses is moved to a file named
+ * after the journal, with the suffix <CODE>.rejected</CODE>, and logged; the
+ * entries after it are written as usual.</P>
+ *
+ * <P>If the application terminates before the journal has been flushed, the
+ * remaining entries are replayed into the database the next time
+ * {@link DAOFactory#initializeResources()} is called.</P>
+ *
+ * @author Matthew Zipay (ninthtest@gmail.com)
+ * @version $Revision$
+ */
+final class WriteBehindJournal {
+    private static final String CLASSNAME = WriteBehindJournal.class.getName();
+
+    private static final Logger LOGGER = Logger.getLogger(WriteBehindJournal.class.getPackage().getName());
+
+    private static final byte TASK_ENTRY = 't';
+
+    private static final byte INTERRUPTION_ENTRY = 'i';
+
+    private static final long NO_TIME = -1L;
+
+    /* the description column holds 257 characters */
+    private static final int MAX_DESCRIPTION_CHARS = 257;
+
+    private static final String FIND_TASK_ID_SQL;
+
+    private static final String FIND_MAX_TASK_ID_SQL;
+
+    private static final String INSERT_TASK_WITH_ID_SQL;
+
+    private static final String UPDATE_TASK_SQL;
+
+    private static final String FIND_MAX_INTERRUPTION_ID_SQL;
+
+    private static final String INSERT_INTERRUPTION_WITH_ID_SQL;
+
+    private static final String UPDATE_INTERRUPTION_SQL;
+
+    /* guards the journal file, the pending entries and the ID counters */
+    private static final Object LOCK = new Object();
+
+    /* serializes database flushes */
+    private static final Object FLUSH_LOCK = new Object();
+
+    private static volatile boolean enabled;
+
+    private static File journalFile;
+
+    private static FileOutputStream fileOut;
+
+    private static DataOutputStream out;
+
+    private static boolean unsynced;
+
+    /* whether the journal holds entries that have been written to the database */
+    private static boolean written;
+
+    private static long syncInterval;
+
+    private static int flushSize;
+
+    private static Map pending = new LinkedHashMap();
+
+    /* the entries being written to the database by a flush, or null */
+    private static Map flushing;
+
+    private static long nextTaskId;
+
+    private static long nextInterruptionId;
+
+    /* the IDs of the tasks that interruptions may refer to */
+    private static Set knownTaskIds = new HashSet();
+
+    private static ScheduledExecutorService scheduler;
+
+    static {
+        final String methodName = "<clinit>";
+        LOGGER.entering(CLASSNAME, methodName);
+
+        Properties taskSqlProps = new Properties();
+        Properties intrSqlProps = new Properties();
+        try {
+            taskSqlProps.load(Thread.currentThread().getContextClassLoader().getResourceAsStream("task-sql.properties"));
+            intrSqlProps.load(Thread.currentThread().getContextClassLoader().getResourceAsStream("interruption-sql.properties"));
+        } catch (IOException ex) {
+            LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "error loading WriteBehindJournal SQL properties", ex);
+        }
+
+        FIND_TASK_ID_SQL = taskSqlProps.getProperty("findTaskId");
+        FIND_MAX_TASK_ID_SQL = taskSqlProps.getProperty("findMaxTaskId");
+        INSERT_TASK_WITH_ID_SQL = taskSqlProps.getProperty("insertTaskWithId");
+        UPDATE_TASK_SQL = taskSqlProps.getProperty("updateTask");
+        FIND_MAX_INTERRUPTION_ID_SQL = intrSqlProps.getProperty("findMaxInterruptionId");
+        INSERT_INTERRUPTION_WITH_ID_SQL = intrSqlProps.getProperty("insertInterruptionWithId");
+        UPDATE_INTERRUPTION_SQL = intrSqlProps.getProperty("updateInterruption");
+
+        LOGGER.exiting(CLASSNAME, methodName);
+    }
+
+    /**
+     * Writes any entries left in the journal file by a previous session to
+     * the database, then removes the file. This is done whether or not
+     * write-behind is currently enabled. A final entry that was cut off while
+     * it was written is discarded; any other invalid entry leaves the journal
+     * in place, unreplayed. Entries that the database refuses are rejected
+     * as they are when the journal is flushed.
+     *
+     * @param config the DAO configuration properties
+     * @throws DataAccessException if the journal cannot be read, if it holds
+     *      an invalid entry, or if the database cannot be reached
+     */
+    static void recover(Properties config) throws DataAccessException {
+        final String methodName = "recover";
+        LOGGER.entering(CLASSNAME, methodName);
+
+        File file = new File(config.getProperty("writeBehind.journal", "stopwatch.journal"));
+
+        // finish a rewrite that was interrupted
+        File tempFile = getTempFile(file);
+        if (tempFile.exists()) {
+            if (file.exists()) {
+                // the journal was not replaced; the temporary file may be incomplete
+                tempFile.delete();
+            } else if (!tempFile.renameTo(file)) {
+                throw new DataAccessException("failed to rename " + tempFile + " to " + file);
+            }
+        }
+
+        if (file.exists()) {
+            Map entries = new LinkedHashMap();
+            int count = 0;
+
+            try {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+                try {
+                    int tag;
+                    while ((tag = in.read()) != -1) {
+                        JournalEntry entry;
+                        try {
+                            entry = JournalEntry.read((byte) tag, in);
+                        } catch (EOFException ex) {
+                            // the final entry was cut off while it was written (e.g. in
+                            // the middle of its description); the entries before it are kept
+                            LOGGER.logp(Level.WARNING, CLASSNAME, methodName, "discarding incomplete journal entry after " + count + " entries", ex);
+                            break;
+                        } catch (IOException ex) {
+                            // the entries after this one may be valid, so nothing is replayed or deleted
+                            String msg = "invalid write-behind journal entry after " + count + " entries; " + file + " has been kept";
+                            LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, msg, ex);
+                            throw new DataAccessException(msg, ex);
+                        }
+
+                        // later entries for the same task or interruption supersede earlier ones
+                        supersede(entries, entry);
+                        ++count;
+                    }
+                } finally {
+                    in.close();
+                }
+            } catch (IOException ex) {
+                LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "failed to read journal " + file, ex);
+                throw new DataAccessException("failed to read write-behind journal", ex);
+            }
+
+            if (!entries.isEmpty()) {
+                LOGGER.logp(Level.WARNING, CLASSNAME, methodName, "replaying {0} journal entries", Integer.valueOf(count));
+                writeEntries(entries.values(), file);
+            }
+
+            if (!file.delete()) {
+                LOGGER.logp(Level.WARNING, CLASSNAME, methodName, "failed to delete replayed journal {0}", file);
+            }
+        }
+
+        LOGGER.exiting(CLASSNAME, methodName);
+    }
+
+    /**
+     * Enables write-behind mode.
+     *
+     * @param config the DAO configuration properties
+     * @throws DataAccessException if the journal cannot be opened
+     */
+    static void open(Properties config) throws DataAccessException {
+        final String methodName = "open";
+        LOGGER.entering(CLASSNAME, methodName);
+
+        synchronized (LOCK) {
+            journalFile = new File(config.getProperty("writeBehind.journal", "stopwatch.journal"));
+            syncInterval = Long.parseLong(config.getProperty("writeBehind.syncInterval", "500"));
+            long flushInterval = Long.parseLong(config.getProperty("writeBehind.flushInterval", "5000"));
+            flushSize = Integer.parseInt(config.getProperty("writeBehind.flushSize", "100"));
+
+            // IDs are never reused, including those of archived tasks
+            nextTaskId = Math.max(findId("findMaxTaskId", FIND_MAX_TASK_ID_SQL, null), TaskArchive.getMaxTaskId()) + 1;
+            nextInterruptionId = Math.max(findId("findMaxInterruptionId", FIND_MAX_INTERRUPTION_ID_SQL, null), TaskArchive.getMaxInterruptionId()) + 1;
+            knownTaskIds.clear();
+
+            try {
+                fileOut = new FileOutputStream(journalFile, true);
+                out = new DataOutputStream(new BufferedOutputStream(fileOut));
+            } catch (IOException ex) {
+                LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "failed to open journal " + journalFile, ex);
+                throw new DataAccessException("failed to open write-behind journal", ex);
+            }
+
+            scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "StopWatch-journal");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            if (syncInterval > 0) {
+                scheduler.scheduleWithFixedDelay(new Runnable() {
+                    public void run() {
+                        sync();
+                    }
+                }, syncInterval, syncInterval, TimeUnit.MILLISECONDS);
+            }
+            scheduler.scheduleWithFixedDelay(new FlushTask(), flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+
+            enabled = true;
+        }
+
+        LOGGER.logp(Level.INFO, CLASSNAME, methodName, "write-behind journal {0} opened", journalFile);
+        LOGGER.exiting(CLASSNAME, methodName);
+    }
+
+    /**
+     * Indicates whether write-behind mode is enabled.
+     *
+     * @return <CODE>true</CODE> if saves are journaled
+     */
+    static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Journals the current state of a task, assigning it an ID if it does not
+     * have one.
+     *
+     * @param task the task to be stored
+     * @throws DataAccessException if the task has no description or its
+     *      description is too long, or if the journal cannot be written
+     */
+    static void saveTask(Task task) throws DataAccessException {
+        if (task.getDescription() == null) {
+            throw new DataAccessException("task has no description");
+        }
+        checkDescription(task.getDescription());
+
+        synchronized (LOCK) {
+            boolean assigned = (task.getId() == null);
+            if (assigned) {
+                task.setId(Long.valueOf(nextTaskId++));
+                knownTaskIds.add(task.getId());
+            }
+
+            append(new JournalEntry(TASK_ENTRY, task.getId().longValue(), 0L, assigned, task.getDescription(), task.getStartTime(), task.getEndTime(), task.getDuration()));
+        }
+    }
+
+    /**
+     * Journals the current state of an interruption, assigning it an ID if it
+     * does not have one.
+     *
+     * @param intr the interruption to be stored
+     * @throws DataAccessException if the interrupted task has not been stored
+     *      or the description is too long, or if the journal cannot be
+     *      written
+     */
+    static void saveInterruption(Interruption intr) throws DataAccessException {
+        if ((intr.getRelatedTaskId() == null) || !isKnownTask(intr.getRelatedTaskId())) {
+            throw new DataAccessException("interrupted task has not been stored");
+        }
+        checkDescription(intr.getDescription());
+
+        synchronized (LOCK) {
+            boolean assigned = (intr.getId() == null);
+            if (assigned) {
+                intr.setId(Long.valueOf(nextInterruptionId++));
+            }
+
+            append(new JournalEntry(INTERRUPTION_ENTRY, intr.getId().longValue(), intr.getRelatedTaskId().longValue(), assigned, intr.getDescription(), intr.getStartTime(), intr.getEndTime(), intr.getDuration()));
+        }
+    }
+
+    /**
+     * Writes all pending journal entries to the database. The JDBC DAOs call
+     * this method (or one of the narrower flush methods) before a query so
+     * that journaled changes are visible to it. The journal file itself is
+     * only rewritten by the scheduled flush, so a query never waits for the
+     * disk. Entries that the database refuses are rejected rather than kept
+     * pending.
+     *
+     * @throws DataAccessException if the database cannot be reached, in which
+     *      case the entries remain pending
+     */
+    static void flush() throws DataAccessException {
+        final String methodName = "flush";
+
+        synchronized (FLUSH_LOCK) {
+            Map batch = null;
+            synchronized (LOCK) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+
+                batch = pending;
+                pending = new LinkedHashMap();
+                // still pending to queries until it has been written
+                flushing = batch;
+            }
+
+            try {
+                writeEntries(batch.values(), journalFile);
+            } catch (DataAccessException ex) {
+                synchronized (LOCK) {
+                    // restore the batch ahead of anything journaled since
+                    for (Iterator entryIter = pending.values().iterator(); entryIter.hasNext();) {
+                        supersede(batch, (JournalEntry) entryIter.next());
+                    }
+                    pending = batch;
+                    flushing = null;
+                }
+                throw ex;
+            }
+
+            synchronized (LOCK) {
+                // the journal still holds the batch until it is next rewritten
+                written = true;
+                flushing = null;
+            }
+
+            LOGGER.logp(Level.FINE, CLASSNAME, methodName, "flushed {0} journal entries", Integer.valueOf(batch.size()));
+        }
+    }
+
+    /**
+     * Writes all pending journal entries to the database if any of them is a
+     * task. Queries that read only the <CODE>Tasks</CODE> table call this
+     * method.
+     *
+     * @throws DataAccessException if the entries cannot be written
+     */
+    static void flushTasks() throws DataAccessException {
+        if (isPending(TASK_ENTRY, null)) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes all pending journal entries to the database if any of them is an
+     * interruption. Queries that read only the <CODE>Interruptions</CODE>
+     * table call this method.
+     *
+     * @throws DataAccessException if the entries cannot be written
+     */
+    static void flushInterruptions() throws DataAccessException {
+        if (isPending(INTERRUPTION_ENTRY, null)) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes all pending journal entries to the database if any of them is an
+     * interruption of a task.
+     *
+     * @param taskId the ID of the interrupted task
+     * @throws DataAccessException if the entries cannot be written
+     */
+    static void flushInterruptions(Long taskId) throws DataAccessException {
+        if (isPending(INTERRUPTION_ENTRY, taskId)) {
+            flush();
+        }
+    }
+
+    /*
+     * Indicates whether a pending entry, or an entry that a flush is writing,
+     * has a type (and, if the task ID is not null, belongs to that task). The
+     * flush that a query then calls waits for the flush in progress.
+     */
+    private static boolean isPending(byte type, Long taskId) {
+        synchronized (LOCK) {
+            return containsEntry(pending, type, taskId) || ((flushing != null) && containsEntry(flushing, type, taskId));
+        }
+    }
+
+    private static boolean containsEntry(Map entries, byte type, Long taskId) {
+        for (Iterator entryIter = entries.values().iterator(); entryIter.hasNext();) {
+            JournalEntry entry = (JournalEntry) entryIter.next();
+            if ((entry.type == type) && ((taskId == null) || (entry.relatedTaskId == taskId.longValue()))) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /*
+     * Writes all pending entries to the database, then rewrites the journal
+     * if it holds entries that have been written.
+     */
+    private static void flushJournal() throws DataAccessException {
+        synchronized (FLUSH_LOCK) {
+            flush();
+
+            synchronized (LOCK) {
+                if (written && (out != null)) {
+                    rewrite();
+                }
+            }
+        }
+    }
+
+    /**
+     * Flushes all pending entries and disables write-behind mode.
+     *
+     * @throws DataAccessException if the pending entries cannot be written
+     */
+    static void close() throws DataAccessException {
+        final String methodName = "close";
+        LOGGER.entering(CLASSNAME, methodName);
+
+        if (enabled) {
+            scheduler.shutdown();
+            try {
+                scheduler.awaitTermination(syncInterval + 1000, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+
+            try {
+                // if the flush fails, the journal is left in place for recovery
+                flush();
+            } finally {
+                synchronized (LOCK) {
+                    enabled = false;
+                    try {
+                        if (out != null) {
+                            out.close();
+                        }
+                    } catch (IOException ex) {
+                        LOGGER.logp(Level.WARNING, CLASSNAME, methodName, "failed to close journal " + journalFile, ex);
+                    }
+                }
+            }
+
+            if (!journalFile.delete()) {
+                LOGGER.logp(Level.WARNING, CLASSNAME, methodName, "failed to delete journal {0}", journalFile);
+            }
+        }
+
+        LOGGER.exiting(CLASSNAME, methodName);
+    }
+
+    /*
+     * Replaces the journal with one that holds only the entries that are still
+     * pending. The entries are written to a temporary file, which is forced to
+     * the disk before it is renamed over the journal, so the entries in the
+     * journal stay durable if this fails. Called while holding the lock.
+     */
+    private static void rewrite() throws DataAccessException {
+        final String methodName = "rewrite";
+
+        File tempFile = getTempFile(journalFile);
+        try {
+            FileOutputStream tempOut = new FileOutputStream(tempFile);
+            try {
+                DataOutputStream temp = new DataOutputStream(new BufferedOutputStream(tempOut));
+                for (Iterator entryIter = pending.values().iterator(); entryIter.hasNext();) {
+                    ((JournalEntry) entryIter.next()).write(temp);
+                }
+                temp.flush();
+                tempOut.getChannel().force(false);
+            } finally {
+                tempOut.close();
+            }
+
+            out.close();
+        } catch (IOException ex) {
+            // keep the existing journal
+            tempFile.delete();
+            LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "failed to rewrite journal " + journalFile, ex);
+            reopen();
+            throw new DataAccessException("failed to rewrite write-behind journal", ex);
+        }
+
+        // renameTo does not replace an existing file on every platform
+        if (!tempFile.renameTo(journalFile) && !(journalFile.delete() && tempFile.renameTo(journalFile))) {
+            LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "failed to rename {0} to {1}", new Object[] {tempFile, journalFile});
+            if (journalFile.exists()) {
+                // the journal still holds every pending entry
+                tempFile.delete();
+                reopen();
+            } else {
+                // the temporary file is the only copy of the entries now; it is renamed when the journal is next recovered
+                out = null;
+            }
+            throw new DataAccessException("failed to replace write-behind journal");
+        }
+
+        unsynced = false;
+        written = false;
+        reopen();
+    }
+
+    private static void reopen() throws DataAccessException {
+        final String methodName = "reopen";
+
+        try {
+            fileOut = new FileOutputStream(journalFile, true);
+            out = new DataOutputStream(new BufferedOutputStream(fileOut));
+        } catch (IOException ex) {
+            out = null;
+            LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "failed to reopen journal " + journalFile, ex);
+            throw new DataAccessException("failed to reopen write-behind journal", ex);
+        }
+    }
+
+    private static File getTempFile(File file) {
+        return new File(file.getPath() + ".tmp");
+    }
+
+    private static File getRejectedFile(File file) {
+        return new File(file.getPath() + ".rejected");
+    }
+
+    /*
+     * Refuses descriptions that the description column could not hold, as
+     * the database would when the entry is written.
+     */
+    private static void checkDescription(String description) throws DataAccessException {
+        if ((description != null) && (description.length() > MAX_DESCRIPTION_CHARS)) {
+            throw new DataAccessException("description is longer than " + MAX_DESCRIPTION_CHARS + " characters");
+        }
+    }
+
+    /*
+     * Indicates whether an interruption may refer to a task: the journal
+     * assigned the task's ID, or its row is in the database.
+     */
+    private static boolean isKnownTask(Long taskId) throws DataAccessException {
+        synchronized (LOCK) {
+            if (knownTaskIds.contains(taskId)) {
+                return true;
+            }
+        }
+
+        if (findId("findTaskId", FIND_TASK_ID_SQL, taskId) == 0L) {
+            return false;
+        }
+
+        synchronized (LOCK) {
+            knownTaskIds.add(taskId);
+        }
+        return true;
+    }
+
+    private static void append(JournalEntry entry) throws DataAccessException {
+        final String methodName = "append";
+
+        if (!enabled) {
+            throw new DataAccessException("write-behind journal is not open");
+        }
+        if (out == null) {
+            throw new DataAccessException("write-behind journal is unavailable");
+        }
+
+        try {
+            entry.write(out);
+            // hand the entry to the operating system immediately; forcing it
+            // to the disk is deferred to the sync interval
+            out.flush();
+
+            if (syncInterval <= 0) {
+                fileOut.getChannel().force(false);
+            } else {
+                unsynced = true;
+            }
+        } catch (IOException ex) {
+            LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "failed to append to journal " + journalFile, ex);
+            throw new DataAccessException("failed to write to write-behind journal", ex);
+        }
+
+        supersede(pending, entry);
+
+        if ((pending.size() >= flushSize) && !scheduler.isShutdown()) {
+            // once the journal is closing, its final flush writes the entry
+            scheduler.execute(new FlushTask());
+        }
+    }
+
+    /*
+     * Puts an entry into a map of entries by key, replacing the entry it
+     * supersedes. If the journal assigned the superseded entry's ID, its row
+     * may not have been inserted yet, so the new entry may insert it too.
+     */
+    private static void supersede(Map entries, JournalEntry entry) {
+        JournalEntry superseded = (JournalEntry) entries.put(entry.getKey(), entry);
+        if ((superseded != null) && superseded.assigned) {
+            entry.assigned = true;
+        }
+    }
+
+    private static void sync() {
+        final String methodName = "sync";
+
+        synchronized (LOCK) {
+            if (enabled && unsynced && (out != null)) {
+                try {
+                    fileOut.getChannel().force(false);
+                    unsynced = false;
+                } catch (IOException ex) {
+                    LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "failed to sync journal " + journalFile, ex);
+                }
+            }
+        }
+    }
+
+    /*
+     * Returns the ID selected by a statement (binding an ID, if one is
+     * given), or 0 if it selects none.
+     */
+    private static long findId(String name, String sql, Long id) throws DataAccessException {
+        final String methodName = "findId";
+
+        if ((sql == null) || (sql.equals(""))) {
+            throw new DataAccessException("undefined or empty SQL template");
+        }
+
+        long maxId = 0;
+
+        Connection conx = null;
+        try {
+            conx = JDBCAccess.getConnection();
+        } catch (SQLException ex) {
+            String msg = "failed to open database connection";
+            LOGGER.logp(Level.WARNING, CLASSNAME, methodName, msg, ex);
+            throw new DataAccessException(msg, ex);
+        }
+
+        try {
+            PreparedStatement select = JDBCAccess.prepareStatement(conx, name, sql);
+            if (id != null) {
+                select.setLong(1, id.longValue());
+            }
+
+            ResultSet result = select.executeQuery();
+            if (result.next()) {
+                maxId = result.getLong(1);
+            }
+
+            try {
+                result.close();
+            } catch (SQLException ex) {
+                LOGGER.logp(Level.WARNING, CLASSNAME, methodName, "failed to close select result set", ex);
+            }
+        } catch (SQLException ex) {
+            LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "ID select failed", ex);
+            throw new DataAccessException(ex);
+        } finally {
+            JDBCAccess.returnConnection(conx);
+        }
+
+        return maxId;
+    }
+
+    /*
+     * Writes journal entries to the database in a single transaction. If the
+     * transaction fails, each entry is written in a transaction of its own,
+     * and the entries that still fail are rejected, as are updates whose rows
+     * do not exist. Tasks are written before interruptions to satisfy the
+     * foreign key.
+     */
+    private static void writeEntries(Collection entries, File file) throws DataAccessException {
+        final String methodName = "writeEntries";
+        LOGGER.entering(CLASSNAME, methodName, Integer.valueOf(entries.size()));
+
+        if ((INSERT_TASK_WITH_ID_SQL == null) || (UPDATE_TASK_SQL == null)
+                || (INSERT_INTERRUPTION_WITH_ID_SQL == null) || (UPDATE_INTERRUPTION_SQL == null)) {
+            throw new DataAccessException("undefined or empty SQL template");
+        }
+
+        List taskEntries = new ArrayList();
+        List intrEntries = new ArrayList();
+        for (Iterator entryIter = entries.iterator(); entryIter.hasNext();) {
+            JournalEntry entry = (JournalEntry) entryIter.next();
+            if (entry.type == TASK_ENTRY) {
+                taskEntries.add(entry);
+            } else {
+                intrEntries.add(entry);
+            }
+        }
+
+        List unmatched = new ArrayList();
+        try {
+            writeBatch(taskEntries, intrEntries, unmatched);
+        } catch (SQLException ex) {
+            LOGGER.logp(Level.WARNING, CLASSNAME, methodName, "journal write failed; writing each entry separately", ex);
+
+            unmatched.clear();
+            for (Iterator entryIter = taskEntries.iterator(); entryIter.hasNext();) {
+                writeEntry((JournalEntry) entryIter.next(), unmatched, file);
+            }
+            for (Iterator entryIter = intrEntries.iterator(); entryIter.hasNext();) {
+                writeEntry((JournalEntry) entryIter.next(), unmatched, file);
+            }
+        }
+
+        for (Iterator entryIter = unmatched.iterator(); entryIter.hasNext();) {
+            JournalEntry entry = (JournalEntry) entryIter.next();
+            reject(entry, new DataAccessException(entry + " was not updated"), file);
+        }
+
+        LOGGER.exiting(CLASSNAME, methodName);
+    }
+
+    private static void writeEntry(JournalEntry entry, List unmatched, File file) throws DataAccessException {
+        List entries = Collections.singletonList(entry);
+        try {
+            if (entry.type == TASK_ENTRY) {
+                writeBatch(entries, Collections.EMPTY_LIST, unmatched);
+            } else {
+                writeBatch(Collections.EMPTY_LIST, entries, unmatched);
+            }
+        } catch (SQLException ex) {
+            reject(entry, ex, file);
+        }
+    }
+
+    /*
+     * Writes task and interruption entries in a single transaction. Updates
+     * that matched no row, and that may not be inserted, are added to a list.
+     * A DataAccessException means that nothing could be written.
+     */
+    private static void writeBatch(List taskEntries, List intrEntries, List unmatched) throws SQLException, DataAccessException {
+        final String methodName = "writeBatch";
+
+        Connection conx = null;
+        try {
+            conx = JDBCAccess.getConnection();
+        } catch (SQLException ex) {
+            String msg = "failed to open database connection";
+            LOGGER.logp(Level.WARNING, CLASSNAME, methodName, msg, ex);
+            throw new DataAccessException(msg, ex);
+        }
+
+        try {
+            List descriptions = new ArrayList(taskEntries.size() + intrEntries.size());
+            for (Iterator entryIter = taskEntries.iterator(); entryIter.hasNext();) {
+                descriptions.add(((JournalEntry) entryIter.next()).description);
+            }
+            for (Iterator entryIter = intrEntries.iterator(); entryIter.hasNext();) {
+                descriptions.add(((JournalEntry) entryIter.next()).description);
+            }
+            DescriptionDictionary.addDescriptions(conx, descriptions);
+
+            // the summaries that journaled tasks belonged to before this write
+            TaskSummaryRefresh refresh = new TaskSummaryRefresh();
+            for (Iterator entryIter = taskEntries.iterator(); entryIter.hasNext();) {
+                refresh.addStoredTask(conx, Long.valueOf(((JournalEntry) entryIter.next()).id));
+            }
+
+            List batchUnmatched = new ArrayList();
+            upsert(conx, taskEntries, "updateTask", UPDATE_TASK_SQL, "insertTaskWithId", INSERT_TASK_WITH_ID_SQL, batchUnmatched);
+            upsert(conx, intrEntries, "updateInterruption", UPDATE_INTERRUPTION_SQL, "insertInterruptionWithId", INSERT_INTERRUPTION_WITH_ID_SQL, batchUnmatched);
+
+            for (Iterator entryIter = taskEntries.iterator(); entryIter.hasNext();) {
+                JournalEntry entry = (JournalEntry) entryIter.next();
+                refresh.addSummary(entry.description, entry.getStartTime(), entry.getEndTime());
+            }
+            for (Iterator entryIter = intrEntries.iterator(); entryIter.hasNext();) {
+                refresh.addStoredTask(conx, Long.valueOf(((JournalEntry) entryIter.next()).relatedTaskId));
+            }
+            refresh.refresh(conx);
+
+            conx.commit();
+            unmatched.addAll(batchUnmatched);
+        } catch (SQLException ex) {
+            try {
+                conx.rollback();
+            } catch (SQLException rollbackEx) {
+                LOGGER.logp(Level.WARNING, CLASSNAME, methodName, "rollback failed", rollbackEx);
+            }
+            throw ex;
+        } finally {
+            JDBCAccess.returnConnection(conx);
+        }
+    }
+
+    /*
+     * Appends an entry that the database refused to the rejected entries
+     * file, so that it no longer holds up the entries after it.
+     */
+    private static void reject(JournalEntry entry, Exception cause, File file) {
+        final String methodName = "reject";
+
+        File rejectedFile = getRejectedFile(file);
+        LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, entry + " cannot be written to the database and has been moved to " + rejectedFile, cause);
+
+        try {
+            DataOutputStream rejected = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(rejectedFile, true)));
+            try {
+                entry.write(rejected);
+            } finally {
+                rejected.close();
+            }
+        } catch (IOException ex) {
+            LOGGER.logp(Level.SEVERE, CLASSNAME, methodName, "failed to write " + entry + " to " + rejectedFile, ex);
+        }
+    }
+
+    private static void upsert(Connection conx, List entries, String updateName, String updateSql, String insertName, String insertSql, List unmatched) throws SQLException {
+        if (entries.isEmpty()) {
+            return;
+        }
+
+        PreparedStatement update = JDBCAccess.prepareStatement(conx, updateName, updateSql);
+        update.clearBatch();
+        for (Iterator entryIter = entries.iterator(); entryIter.hasNext();) {
+            ((JournalEntry) entryIter.next()).bindUpdate(update);
+            update.addBatch();
+        }
+        int[] updateCounts = update.executeBatch();
+
+        PreparedStatement insert = null;
+        for (int i = 0; i < updateCounts.length; ++i) {
+            if (updateCounts[i] == 0) {
+                JournalEntry entry = (JournalEntry) entries.get(i);
+                if (!entry.assigned) {
+                    // the row was never stored, or has since been archived
+                    unmatched.add(entry);
+                    continue;
+                }
+
+                if (insert == null) {
+                    insert = JDBCAccess.prepareStatement(conx, insertName, insertSql);
+                    insert.clearBatch();
+                }
+                entry.bindInsert(insert);
+                insert.addBatch();
+            }
+        }
+        if (insert != null) {
+            insert.executeBatch();
+        }
+    }
+
+    private WriteBehindJournal() {
+        // never instantiated
+    }
+
+    private static class FlushTask implements Runnable {
+        public void run() {
+            try {
+                flushJournal();
+            } catch (DataAccessException ex) {
+                // entries remain pending (and journaled) until the next attempt
+                LOGGER.logp(Level.SEVERE, CLASSNAME, "run", "scheduled journal flush failed", ex);
+            }
+        }
+    }
+
+    /*
+     * A snapshot of a task or interruption at the time it was saved.
+     */
+    private static class JournalEntry {
+        private byte type;
+
+        private long id;
+
+        private long relatedTaskId;
+
+        /* whether the journal assigned the ID, so that the row may not exist yet */
+        private boolean assigned;
+
+        private String description;
+
+        private long startMillis;
+
+        private long endMillis;
+
+        private long durationNanos;
+
+        JournalEntry(byte type, long id, long relatedTaskId, boolean assigned, String description, java.util.Date startTime, java.util.Date endTime, Long duration) {
+            this(type, id, relatedTaskId, assigned, description, (startTime != null) ? startTime.getTime() : NO_TIME, (endTime != null) ? endTime.getTime() : NO_TIME,
+                    (duration != null) ? duration.longValue() : NO_TIME);
+        }
+
+        private JournalEntry(byte type, long id, long relatedTaskId, boolean assigned, String description, long startMillis, long endMillis, long durationNanos) {
+            this.type = type;
+            this.id = id;
+            this.relatedTaskId = relatedTaskId;
+            this.assigned = assigned;
+            this.description = description;
+            this.startMillis = startMillis;
+            this.endMillis = endMillis;
+            this.durationNanos = durationNanos;
+        }
+
+        static JournalEntry read(byte type, DataInput in) throws IOException {
+            if ((type != TASK_ENTRY) && (type != INTERRUPTION_ENTRY)) {
+                throw new IOException("unknown journal entry type " + type);
+            }
+
+            long id = in.readLong();
+            long relatedTaskId = in.readLong();
+            boolean assigned = in.readBoolean();
+            long startMillis = in.readLong();
+            long endMillis = in.readLong();
+            long durationNanos = in.readLong();
+            String description = in.readBoolean() ? in.readUTF() : null;
+
+            return new JournalEntry(type, id, relatedTaskId, assigned, description, startMillis, endMillis, durationNanos);
+        }
+
+        void write(DataOutput out) throws IOException {
+            out.writeByte(type);
+            out.writeLong(id);
+            out.writeLong(relatedTaskId);
+            out.writeBoolean(assigned);
+            out.writeLong(startMillis);
+            out.writeLong(endMillis);
+            out.writeLong(durationNanos);
+            out.writeBoolean(description != null);
+            if (description != null) {
+                out.writeUTF(description);
+            }
+        }
+
+        Object getKey() {
+            return new StringBuffer().append((char) type).append(id).toString();
+        }
+
+        public String toString() {
+            return ((type == TASK_ENTRY) ? "task " : "interruption ") + id;
+        }
+
+        java.util.Date getStartTime() {
+            return (startMillis != NO_TIME) ? new java.util.Date(startMillis) : null;
+        }
+
+        java.util.Date getEndTime() {
+            return (endMillis != NO_TIME) ? new java.util.Date(endMillis) : null;
+        }
+
+        void bindUpdate(PreparedStatement update) throws SQLException {
+            update.setString(1, description);
+            setTimestamp(update, 2, startMillis);
+            setTimestamp(update, 3, endMillis);
+            setDuration(update, 4, durationNanos);
+            update.setLong(5, id);
+            if (type == INTERRUPTION_ENTRY) {
+                update.setLong(6, relatedTaskId);
+            }
+        }
+
+        void bindInsert(PreparedStatement insert) throws SQLException {
+            int index = 1;
+            insert.setLong(index++, id);
+            if (type == INTERRUPTION_ENTRY) {
+                insert.setLong(index++, relatedTaskId);
+            }
+            insert.setString(index++, description);
+            setTimestamp(insert, index++, startMillis);
+            setTimestamp(insert, index++, endMillis);
+            setDuration(insert, index++, durationNanos);
+        }
+
+        private static void setTimestamp(PreparedStatement stmt, int index, long millis) throws SQLException {
+            if (millis == NO_TIME) {
+                stmt.setNull(index, Types.TIMESTAMP);
+            } else {
+                // use Timestamp to preserve H:M:S
+                stmt.setTimestamp(index, new Timestamp(millis));
+            }
+        }
+
+        private static void setDuration(PreparedStatement stmt, int index, long nanos) throws SQLException {
+            if (nanos == NO_TIME) {
+                stmt.setNull(index, Types.BIGINT);
+            } else {
+                stmt.setLong(index, nanos);
+            }
+        }
+    }
+}
@@ -0,0 +1,949 @@
+/*
+ * $Id$
+ */
+
+package net.ninthtest.stopwatch.model;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Runs the same sequence of saves and queries against each DAO implementation
+ * (JDBC, MEMORY and LOG) and checks that every implementation returns the
+ * same results. The JDBC DAOs are also run with the write-behind journal, and
+ * with the task archive (into which the tasks that ended before the middle of
+ * the test data are moved). The sequence is also used to check that the
+ * totals of a {@link TaskHistory} match those of
+ * {@link ReportDAO#findTimeTotals(int)}, and that a journal left by a process
+ * that stopped before flushing it is replayed.
+ *
+ * <P>The DAO and JDBC configuration is read from the context class loader, so
+ * each implementation is selected by substituting the
+ * <CODE>dao-impl.properties</CODE> and <CODE>jdbc.properties</CODE>
+ * resources. The database, record log, journal and archive are kept in a
+ * temporary directory.</P>
+ *
+ * @author Matthew Zipay (ninthtest@gmail.com)
+ * @version $Revision$
+ */
+public class DAOContractTest extends TestCase {
+    /* the JDBC implementation with the write-behind journal, and with the task archive */
+    private static final String WRITE_BEHIND = "JDBC+writeBehind";
+
+    private static final String ARCHIVE = "JDBC+archive";
+
+    /* the implementations under test */
+    private static final String[] IMPLEMENTATIONS = {"JDBC", "MEMORY", "LOG", WRITE_BEHIND, ARCHIVE};
+
+    /* the groupings of the time totals */
+    private static final int[] GROUPINGS = {ReportDAO.GROUP_BY_TASK, ReportDAO.GROUP_BY_DAY, ReportDAO.GROUP_BY_DESCRIPTION};
+
+    /* the task descriptions, including some that differ only in case */
+    private static final String[] DESCRIPTIONS = {"alpha", "beta", "Beta", "gamma", "zeta"};
+
+    /* the sort columns of the query criteria */
+    private static final String[] SORT_COLUMNS = {QueryCriteria.ID, QueryCriteria.START_TIME, QueryCriteria.END_TIME,
+            QueryCriteria.DESCRIPTION};
+
+    /* the number of days over which the tasks are spread */
+    private static final int DAYS = 10;
+
+    /* the directory that holds the database, record log and journal */
+    private static File dataDir;
+
+    /* the start of the first day of the test data */
+    private final long baseTime;
+
+    /* the class loader to restore after each test */
+    private ClassLoader originalLoader;
+
+    /* the number of pending journal entries that triggers a flush */
+    private int flushSize = 20;
+
+    /**
+     * Creates a new test case.
+     *
+     * @param name the name of the test method
+     */
+    public DAOContractTest(String name) {
+        super(name);
+
+        Calendar cal = Calendar.getInstance();
+        cal.clear();
+        cal.set(2009, Calendar.MARCH, 2);
+        baseTime = cal.getTimeInMillis();
+    }
+
+    protected void setUp() throws Exception {
+        // JDBCAccess reads jdbc.properties only once, so the database location
+        // must be the same for every test in the JVM
+        if (dataDir == null) {
+            dataDir = File.createTempFile("stopwatch", ".test");
+            dataDir.delete();
+            dataDir.mkdir();
+        }
+
+        originalLoader = Thread.currentThread().getContextClassLoader();
+    }
+
+    protected void tearDown() throws Exception {
+        Thread.currentThread().setContextClassLoader(originalLoader);
+        Clock.setInstance(null);
+
+        File[] files = dataDir.listFiles();
+        for (int i = 0; i < files.length; ++i) {
+            files[i].delete();
+        }
+    }
+
+    /**
+     * Checks that every implementation returns the same results for the same
+     * saves and queries.
+     *
+     * @throws Exception if the test fails unexpectedly
+     */
+    public void testImplementationsReturnSameResults() throws Exception {
+        String[] transcripts = new String[IMPLEMENTATIONS.length];
+        for (int i = 0; i < IMPLEMENTATIONS.length; ++i) {
+            initializeWithTasks(IMPLEMENTATIONS[i]);
+            try {
+                transcripts[i] = query();
+            } finally {
+                DAOFactory.releaseResources();
+            }
+        }
+
+        for (int i = 1; i < IMPLEMENTATIONS.length; ++i) {
+            assertEquals(IMPLEMENTATIONS[i] + " results differ from " + IMPLEMENTATIONS[0], transcripts[0], transcripts[i]);
+        }
+    }
+
+    /**
+     * Checks that the implementations that store tasks return the same
+     * results after they are closed and opened again.
+     *
+     * @throws Exception if the test fails unexpectedly
+     */
+    public void testStoredTasksSurviveReopen() throws Exception {
+        String[] stored = {"JDBC", "LOG", WRITE_BEHIND, ARCHIVE};
+        for (int i = 0; i < stored.length; ++i) {
+            String before;
+            initializeWithTasks(stored[i]);
+            try {
+                before = query();
+            } finally {
+                DAOFactory.releaseResources();
+            }
+
+            DAOFactory.initializeResources();
+            try {
+                assertEquals(stored[i] + " results differ after reopening", before, query());
+            } finally {
+                DAOFactory.releaseResources();
+            }
+        }
+    }
+
+    /**
+     * Checks that a reopened record log answers date range queries from its
+     * index and tail, before it is loaded, as it does once it is loaded. Tasks
+     * are changed and added after the log has been compacted, so the tail
+     * supersedes some of the segment.
+     *
+     * @throws Exception if the test fails unexpectedly
+     */
+    public void testLogAnswersRangeQueriesBeforeLoading() throws Exception {
+        Date[][] ranges = getDateRanges();
+
+        initializeWithTasks("LOG");
+        DAOFactory.releaseResources();
+
+        StringBuffer expected = new StringBuffer();
+        DAOFactory.initializeResources();
+        try {
+            TaskDAO taskDAO = DAOFactory.getTaskDAO();
+            List tasks = taskDAO.findAllTasks();
+
+            // move the first task to the end of the first day, and end the next one a day later
+            Task first = (Task) tasks.get(0);
+            Date moved = new Date(first.getStartTime().getTime() + 20 * 3600000L);
+            taskDAO.saveTask(new Task(first.getId(), first.getDescription(), moved, new Date(moved.getTime() + 60000L),
+                    first.getDuration()));
+            Task second = (Task) tasks.get(1);
+            taskDAO.saveTask(new Task(second.getId(), second.getDescription(), second.getStartTime(),
+                    new Date(second.getEndTime().getTime() + 86400000L), second.getDuration()));
+
+            Task added = new Task(null, "added", new Date(baseTime + 3600000L), new Date(baseTime + 7200000L),
+                    Long.valueOf(3600000L * 1000000L));
+            taskDAO.saveTask(added);
+            DAOFactory.getInterruptionDAO().saveInterruption(new Interruption(null, added.getId(), "added interruption",
+                    new Date(baseTime + 4000000L), new Date(baseTime + 5000000L), Long.valueOf(1000000L * 1000000L)));
+
+            for (int r = 0; r < ranges.length; ++r) {
+                appendRange(expected, r, ranges[r]);
+            }
+        } finally {
+            DAOFactory.releaseResources();
+        }
+
+        DAOFactory.initializeResources();
+        try {
+            assertTrue("record log was loaded when it was opened", RecordLog.isDeferred());
+            StringBuffer buffer = new StringBuffer();
+            for (int r = 0; r < ranges.length; ++r) {
+                appendRange(buffer, r, ranges[r]);
+            }
+            assertTrue("range queries loaded the record log", RecordLog.isDeferred());
+            assertEquals("range results differ before the record log is loaded", expected.toString(), buffer.toString());
+
+            DAOFactory.getTaskDAO().findAllTasks();
+            assertFalse("record log was not loaded", RecordLog.isDeferred());
+        } finally {
+            DAOFactory.releaseResources();
+        }
+    }
+
+    /**
+     * Checks that the totals of a task history match the totals reported by
+     * the report DAO of every implementation.
+     *
+     * @throws Exception if the test fails unexpectedly
+     */
+    public void testHistoryTotalsMatchReportTotals() throws Exception {
+        Date[][] ranges = getDateRanges();
+        for (int i = 0; i < IMPLEMENTATIONS.length; ++i) {
+            initializeWithTasks(IMPLEMENTATIONS[i]);
+            try {
+                ReportDAO reportDAO = DAOFactory.getReportDAO();
+                TaskHistory history = TaskHistory.load(reportDAO);
+                for (int g = 0; g < GROUPINGS.length; ++g) {
+                    assertEquals(IMPLEMENTATIONS[i] + " totals (grouping " + GROUPINGS[g] + ")",
+                            format(reportDAO.findTimeTotals(GROUPINGS[g])),
+                            format(history.sumTimes(history.findTasks(null, null, null), GROUPINGS[g])));
+
+                    for (int r = 0; r < ranges.length; ++r) {
+                        Date startDate = ranges[r][0];
+                        Date endDate = ranges[r][1];
+                        String message = IMPLEMENTATIONS[i] + " totals (grouping " + GROUPINGS[g] + ", range " + r + ")";
+                        String expected = format(reportDAO.findTimeTotalsInDateRange(GROUPINGS[g], startDate, endDate));
+                        assertEquals(message, expected,
+                                format(history.sumTimes(history.findTasks(startDate, endDate, null), GROUPINGS[g])));
+
+                        TaskHistory rangeHistory = TaskHistory.load(reportDAO, startDate, endDate);
+                        assertEquals(message, expected,
+                                format(rangeHistory.sumTimes(rangeHistory.findTasks(startDate, endDate, null), GROUPINGS[g])));
+                    }
+                }
+            } finally {
+                DAOFactory.releaseResources();
+            }
+        }
+    }
+
+    /**
+     * Checks that a task history totals the tasks without a description by
+     * day but not by description, as the DAOs do.
+     *
+     * @throws Exception if the test fails unexpectedly
+     */
+    public void testHistoryTotalsSkipTasksWithoutDescription() throws Exception {
+        final List taskRecords = new ArrayList();
+        taskRecords.add(new TaskRecord(new Task(Long.valueOf(1L), null, new Date(baseTime), new Date(baseTime + 60000L), null)));
+        taskRecords.add(new TaskRecord(new Task(Long.valueOf(2L), "b", new Date(baseTime + 120000L), new Date(baseTime + 240000L), null)));
+
+        // a report DAO that passes the records to the history as it loads
+        ReportDAO reportDAO = (ReportDAO) Proxy.newProxyInstance(ReportDAO.class.getClassLoader(), new Class[] {ReportDAO.class},
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        for (Iterator it = taskRecords.iterator(); it.hasNext();) {
+                            ((TaskRecordHandler) args[0]).handleTaskRecord((TaskRecord) it.next());
+                        }
+                        return null;
+                    }
+                });
+        TaskHistory history = TaskHistory.load(reportDAO);
+        int[] rows = history.findTasks(null, null, null);
+
+        TaskTimeTotals byDescription = new TaskTimeTotals(ReportDAO.GROUP_BY_DESCRIPTION);
+        byDescription.add(0L, 0L, "b", 1, 120000L, 0L);
+        assertEquals(format(byDescription), format(history.sumTimes(rows, ReportDAO.GROUP_BY_DESCRIPTION)));
+
+        TaskTimeTotals byDay = new TaskTimeTotals(ReportDAO.GROUP_BY_DAY);
+        byDay.add(0L, MemoryTable.getDayStart(baseTime), null, 2, 180000L, 0L);
+        assertEquals(format(byDay), format(history.sumTimes(rows, ReportDAO.GROUP_BY_DAY)));
+    }
+
+    /**
+     * Checks that saving a task into the daily summary of archived tasks
+     * keeps their share of the summary.
+     *
+     * @throws Exception if the test fails unexpectedly
+     */
+    public void testArchivedSummariesSurviveLaterSaves() throws Exception {
+        String[] configurations = {"JDBC", ARCHIVE};
+        String[] transcripts = new String[configurations.length];
+        Date[][] ranges = getDateRanges();
+        for (int i = 0; i < configurations.length; ++i) {
+            initializeWithTasks(configurations[i]);
+            try {
+                // the first task has been archived
+                TaskDAO taskDAO = DAOFactory.getTaskDAO();
+                Task first = (Task) taskDAO.findAllTasks().get(0);
+                long startTime = first.getStartTime().getTime() + 60000L;
+                taskDAO.saveTask(new Task(null, first.getDescription(), new Date(startTime), new Date(startTime + 60000L),
+                        Long.valueOf(60000L * 1000000L)));
+
+                StringBuffer buffer = new StringBuffer();
+                appendSummaries(buffer, DAOFactory.getSummaryDAO().findDailySummaries(ranges[0][0], ranges[0][1]));
+                transcripts[i] = buffer.toString();
+            } finally {
+                DAOFactory.releaseResources();
+            }
+        }
+
+        assertEquals("summaries differ after a save into an archived day", transcripts[0], transcripts[1]);
+    }
+
+    /**
+     * Checks that the journal left by a process that stopped before flushing
+     * it is replayed when the factory is next initialized, and that a final
+     * entry that was cut off is discarded.
+     *
+     * @throws Exception if the test fails unexpectedly
+     */
+    public void testJournalIsReplayedAfterAbnormalExit() throws Exception {
+        initializeWithTasks("JDBC");
+        String expected;
+        try {
+            expected = query();
+        } finally {
+            DAOFactory.releaseResources();
+        }
+
+        File journal = new File(dataDir, "stopwatch.journal");
+        for (int torn = 0; torn < 2; ++torn) {
+            useImplementation(WRITE_BEHIND);
+            saveInChildProcess(WRITE_BEHIND);
+            assertTrue("journal was not left behind", journal.length() > 0L);
+
+            if (torn == 1) {
+                // cut off the final entry (the last interruption) in the middle
+                RandomAccessFile file = new RandomAccessFile(journal, "rw");
+                try {
+                    file.setLength(file.length() - 5);
+                } finally {
+                    file.close();
+                }
+            }
+
+            DAOFactory.initializeResources();
+            try {
+                assertEquals("journal was not replayed", 0L, journal.length());
+                assertFalse("journal entries were rejected", new File(dataDir, "stopwatch.journal.rejected").exists());
+                if (torn == 0) {
+                    assertEquals("results differ after replaying the journal", expected, query());
+                } else {
+                    List intrs = DAOFactory.getInterruptionDAO().findAllInterruptions();
+                    assertEquals(89, intrs.size());
+                    assertEquals(60 + 2, DAOFactory.getTaskDAO().findAllTasks().size());
+                }
+            } finally {
+                DAOFactory.releaseResources();
+            }
+        }
+    }
+
+    /**
+     * Checks that a query waits for a flush that is writing a journaled save,
+     * rather than reading the database before the save is written. The flush
+     * is held open by borrowing every pooled connection.
+     *
+     * @throws Exception if the test fails unexpectedly
+     */
+    public void testQueryWaitsForFlushInProgress() throws Exception {
+        initializeWithTasks(WRITE_BEHIND);
+        try {
+            final TaskDAO taskDAO = DAOFactory.getTaskDAO();
+            int taskCount = taskDAO.findAllTasks().size();
+
+            // a flush that is still queued may take the save, so the connections are borrowed first
+            Properties jdbcProps = new Properties();
+            jdbcProps.load(originalLoader.getResourceAsStream("jdbc.properties"));
+            List connections = new ArrayList();
+            for (int i = Integer.parseInt(jdbcProps.getProperty("pool.maxSize")); i > 0; --i) {
+                connections.add(JDBCAccess.getConnection());
+            }
+            taskDAO.saveTask(new Task(null, "journaled", new Date(baseTime), null, null));
+
+            final Exception[] failures = new Exception[2];
+            final List[] found = new List[1];
+            Thread flusher = new Thread() {
+                public void run() {
+                    try {
+                        WriteBehindJournal.flush();
+                    } catch (Exception ex) {
+                        failures[0] = ex;
+                    }
+                }
+            };
+            Thread reader = new Thread() {
+                public void run() {
+                    try {
+                        found[0] = taskDAO.findAllTasks();
+                    } catch (Exception ex) {
+                        failures[1] = ex;
+                    }
+                }
+            };
+            try {
+                // a flush has taken the save and waits for a connection
+                flusher.start();
+                waitUntilStopped(flusher);
+                reader.start();
+                assertTrue("query did not wait for the flush", waitUntilBlockedIn(reader, WriteBehindJournal.class));
+            } finally {
+                for (Iterator it = connections.iterator(); it.hasNext();) {
+                    JDBCAccess.returnConnection((Connection) it.next());
+                }
+                flusher.join();
+                reader.join();
+            }
+
+            assertNull("flush failed", failures[0]);
+            assertNull("query failed", failures[1]);
+            assertEquals("query missed the journaled save", taskCount + 1, found[0].size());
+        } finally {
+            DAOFactory.releaseResources();
+        }
+    }
+
+    /**
+     * Checks that the write-behind journal refuses an interruption of a task
+     * that has not been stored, and that an update of a task whose row does
+     * not exist is rejected without holding up the entries after it.
+     *
+     * @throws Exception if the test fails unexpectedly
+     */
+    public void testJournalRejectsInvalidSaves() throws Exception {
+        initializeWithTasks(WRITE_BEHIND);
+        try {
+            TaskDAO taskDAO = DAOFactory.getTaskDAO();
+            InterruptionDAO intrDAO = DAOFactory.getInterruptionDAO();
+            Date startTime = new Date(baseTime);
+
+            try {
+                intrDAO.saveInterruption(new Interruption(null, Long.valueOf(1000L), null, startTime, null, null));
+                fail("interruption of an unknown task was journaled");
+            } catch (DataAccessException expected) {
+                // the task has not been stored
+            }
+
+            StringBuffer longDescription = new StringBuffer();
+            while (longDescription.length() <= 257) {
+                longDescription.append("long description ");
+            }
+            try {
+                taskDAO.saveTask(new Task(null, longDescription.toString(), startTime, null, null));
+                fail("task with a description that is too long was journaled");
+            } catch (DataAccessException expected) {
+                // the description does not fit its column
+            }
+
+            int taskCount = taskDAO.findAllTasks().size();
+            taskDAO.saveTask(new Task(Long.valueOf(1000L), "stale", startTime, null, null));
+            Task added = new Task(null, "added", startTime, null, null);
+            taskDAO.saveTask(added);
+
+            List tasks = taskDAO.findAllTasks();
+            assertEquals(taskCount + 1, tasks.size());
+            for (Iterator it = tasks.iterator(); it.hasNext();) {
+                assertFalse("stale task was inserted", Long.valueOf(1000L).equals(((Task) it.next()).getId()));
+            }
+            assertTrue("stale task was not rejected", new File(dataDir, "stopwatch.journal.rejected").length() > 0L);
+        } finally {
+            DAOFactory.releaseResources();
+        }
+    }
+
+    /**
+     * Saves the tasks through the configuration named by the arguments, then
+     * halts before the DAO factory is released.
+     *
+     * @param args the data directory and the configuration
+     * @throws Exception if the tasks cannot be saved
+     */
+    public static void main(String[] args) throws Exception {
+        dataDir = new File(args[0]);
+        DAOContractTest test = new DAOContractTest("main");
+        test.originalLoader = Thread.currentThread().getContextClassLoader();
+        // nothing is flushed before the process halts
+        test.flushSize = Integer.MAX_VALUE;
+        test.configure(args[1]);
+
+        DAOFactory.initializeResources();
+        test.saveTasks();
+        Runtime.getRuntime().halt(0);
+    }
+
+    private void saveInChildProcess(String configuration) throws Exception {
+        String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+        Process child = new ProcessBuilder(new String[] {java, "-cp", System.getProperty("java.class.path"),
+                DAOContractTest.class.getName(), dataDir.getPath(), configuration}).redirectErrorStream(true).start();
+
+        // the child's log output is discarded
+        InputStream in = child.getInputStream();
+        byte[] buffer = new byte[4096];
+        while (in.read(buffer) != -1) {
+            continue;
+        }
+        assertEquals("child process failed", 0, child.waitFor());
+    }
+
+    /*
+     * Waits until a thread blocks or waits.
+     */
+    private void waitUntilStopped(Thread thread) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000L;
+        while ((thread.getState() == Thread.State.NEW) || (thread.getState() == Thread.State.RUNNABLE)) {
+            assertTrue(thread.getName() + " did not stop", System.currentTimeMillis() < deadline);
+            Thread.sleep(10L);
+        }
+    }
+
+    /*
+     * Waits a few seconds for a thread to block on a monitor in a method of a
+     * class, and returns false if it does not.
+     */
+    private boolean waitUntilBlockedIn(Thread thread, Class klass) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 3000L;
+        while (System.currentTimeMillis() < deadline) {
+            StackTraceElement[] stack = thread.getStackTrace();
+            if ((thread.getState() == Thread.State.BLOCKED) && (stack.length > 0) && stack[0].getClassName().equals(klass.getName())) {
+                return true;
+            }
+            Thread.sleep(10L);
+        }
+        return false;
+    }
+
+    /*
+     * Starts a configuration from an empty data store, saves the tasks, and
+     * leaves the factory initialized. With the archive, the factory is
+     * initialized again, which moves the tasks into the archive.
+     */
+    private void initializeWithTasks(String configuration) throws Exception {
+        useImplementation(configuration);
+
+        DAOFactory.initializeResources();
+        try {
+            saveTasks();
+
+            if (ARCHIVE.equals(configuration)) {
+                DAOFactory.releaseResources();
+                DAOFactory.initializeResources();
+            }
+        } catch (Exception ex) {
+            DAOFactory.releaseResources();
+            throw ex;
+        }
+    }
+
+    /*
+     * Substitutes the configuration resources of an implementation, and
+     * starts it from an empty data store.
+     */
+    private void useImplementation(String configuration) throws IOException {
+        File[] files = dataDir.listFiles();
+        for (int i = 0; i < files.length; ++i) {
+            files[i].delete();
+        }
+
+        if (configuration.startsWith("JDBC")) {
+            // an empty database at the initial schema version
+            copyResource("stopwatchdb.script", new File(dataDir, "stopwatchdb.script"));
+            copyResource("stopwatchdb.properties", new File(dataDir, "stopwatchdb.properties"));
+        }
+
+        configure(configuration);
+    }
+
+    /*
+     * Substitutes the configuration resources of an implementation.
+     */
+    private void configure(String configuration) throws IOException {
+        String implementation = (configuration.indexOf('+') != -1)
+                ? configuration.substring(0, configuration.indexOf('+')) : configuration;
+
+        final Properties daoProps = new Properties();
+        daoProps.load(originalLoader.getResourceAsStream("dao-impl.properties"));
+        daoProps.setProperty("implementation", implementation);
+        daoProps.setProperty("writeBehind", String.valueOf(WRITE_BEHIND.equals(configuration)));
+        daoProps.setProperty("writeBehind.journal", new File(dataDir, "stopwatch.journal").getPath());
+        // entries are written before each query, or when enough are pending
+        daoProps.setProperty("writeBehind.flushInterval", "3600000");
+        daoProps.setProperty("writeBehind.flushSize", String.valueOf(flushSize));
+        daoProps.setProperty("archive", String.valueOf(ARCHIVE.equals(configuration)));
+        daoProps.setProperty("archive.file", new File(dataDir, "stopwatch.archive").getPath());
+        // a small block size, so that a range query skips some blocks
+        daoProps.setProperty("archive.blockSize", "8");
+        daoProps.setProperty("archive.segmentSize", "10");
+        if (ARCHIVE.equals(configuration)) {
+            // the tasks that ended before the middle of the test data are moved
+            daoProps.setProperty("archive.age", "2");
+            final long now = baseTime + (DAYS / 2 + 2) * 86400000L;
+            Clock.setInstance(new Clock() {
+                public long currentTimeMillis() {
+                    return now;
+                }
+
+                public long nanoTime() {
+                    return System.nanoTime();
+                }
+            });
+        }
+        daoProps.setProperty("log.file", new File(dataDir, "stopwatch.records").getPath());
+        daoProps.setProperty("log.syncInterval", "0");
+        // small enough that reopening the log compacts it
+        daoProps.setProperty("log.compactThreshold", "10");
+        // a small index interval, so that a range query skips some blocks
+        daoProps.setProperty("log.indexInterval", "8");
+
+        final Properties jdbcProps = new Properties();
+        jdbcProps.load(originalLoader.getResourceAsStream("jdbc.properties"));
+        jdbcProps.setProperty("url", "jdbc:hsqldb:file:" + new File(dataDir, "stopwatchdb").getPath()
+                + ";shutdown=true;sql.enforce_strict_size=true");
+
+        Thread.currentThread().setContextClassLoader(new ClassLoader(originalLoader) {
+            public InputStream getResourceAsStream(String name) {
+                if ("dao-impl.properties".equals(name)) {
+                    return toStream(daoProps);
+                } else if ("jdbc.properties".equals(name)) {
+                    return toStream(jdbcProps);
+                }
+                return super.getResourceAsStream(name);
+            }
+        });
+    }
+
+    private InputStream toStream(Properties props) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            props.store(bytes, null);
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex.toString());
+        }
+        return new ByteArrayInputStream(bytes.toByteArray());
+    }
+
+    private void copyResource(String name, File file) throws IOException {
+        InputStream in = originalLoader.getResourceAsStream(name);
+        assertNotNull("missing resource " + name, in);
+        try {
+            OutputStream out = new FileOutputStream(file);
+            try {
+                byte[] buffer = new byte[4096];
+                int count;
+                while ((count = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, count);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /*
+     * Saves the same tasks and interruptions, in the same order, through the
+     * current DAOs. Tasks are saved singly and in batches, and some are saved
+     * again after they have ended.
+     */
+    private void saveTasks() throws DataAccessException {
+        TaskDAO taskDAO = DAOFactory.getTaskDAO();
+        InterruptionDAO intrDAO = DAOFactory.getInterruptionDAO();
+        Random random = new Random(22L);
+
+        List tasks = new ArrayList();
+        List batch = new ArrayList();
+        for (int i = 0; i < 60; ++i) {
+            // every seventh task shares its start time with the task before it
+            long startTime = ((i % 7 == 6) && !tasks.isEmpty())
+                    ? ((Task) tasks.get(tasks.size() - 1)).getStartTime().getTime()
+                    : baseTime + (long) (random.nextDouble() * DAYS * 86400000L);
+            long endTime = startTime + random.nextInt(3 * 3600000);
+            boolean running = (random.nextInt(10) == 0);
+            Task task = new Task(null, DESCRIPTIONS[random.nextInt(DESCRIPTIONS.length)], new Date(startTime),
+                    running ? null : new Date(endTime), running ? null : Long.valueOf((endTime - startTime) * 1000000L));
+            tasks.add(task);
+
+            if (i % 3 == 0) {
+                taskDAO.saveTask(task);
+            } else {
+                batch.add(task);
+                if (batch.size() == 8) {
+                    taskDAO.saveTasks(batch);
+                    batch.clear();
+                }
+            }
+        }
+        taskDAO.saveTasks(batch);
+
+        // end a running task and save it again
+        Task started = new Task(null, "running", new Date(baseTime + 86400000L), null, null);
+        taskDAO.saveTask(started);
+        tasks.add(started);
+        Task ended = new Task(started.getId(), started.getDescription(), started.getStartTime(),
+                new Date(started.getStartTime().getTime() + 3600000L), Long.valueOf(3600000L * 1000000L));
+        taskDAO.saveTask(ended);
+        tasks.set(tasks.size() - 1, ended);
+
+        // a task that runs past midnight, so that it is in no single day's range
+        Task overnight = new Task(null, "overnight", new Date(baseTime + 23L * 3600000L), new Date(baseTime + 25L * 3600000L),
+                Long.valueOf(2L * 3600000L * 1000000L));
+        taskDAO.saveTask(overnight);
+        tasks.add(overnight);
+
+        List intrs = new ArrayList();
+        for (int i = 0; i < 90; ++i) {
+            Task task = (Task) tasks.get(random.nextInt(tasks.size()));
+            long startTime = task.getStartTime().getTime() + random.nextInt(3600000);
+            long endTime = startTime + random.nextInt(600000);
+            boolean running = (random.nextInt(6) == 0);
+            String description = (random.nextInt(5) == 0) ? null : DESCRIPTIONS[random.nextInt(DESCRIPTIONS.length)];
+            Interruption intr = new Interruption(null, task.getId(), description, new Date(startTime),
+                    running ? null : new Date(endTime), running ? null : Long.valueOf((endTime - startTime) * 1000000L));
+
+            if (i % 4 == 0) {
+                intrDAO.saveInterruption(intr);
+            } else {
+                intrs.add(intr);
+            }
+        }
+        intrDAO.saveInterruptions(intrs);
+    }
+
+    /*
+     * Returns a transcript of the results of every query, in which the tasks,
+     * interruptions and totals are written out field by field.
+     */
+    private String query() throws DataAccessException {
+        TaskDAO taskDAO = DAOFactory.getTaskDAO();
+        InterruptionDAO intrDAO = DAOFactory.getInterruptionDAO();
+        ReportDAO reportDAO = DAOFactory.getReportDAO();
+        SummaryDAO summaryDAO = DAOFactory.getSummaryDAO();
+        Date[][] ranges = getDateRanges();
+        StringBuffer buffer = new StringBuffer();
+
+        buffer.append("all tasks\n");
+        appendTasks(buffer, taskDAO.findAllTasks());
+        buffer.append("all interruptions\n");
+        appendTasks(buffer, intrDAO.findAllInterruptions());
+        buffer.append("all task records\n");
+        appendTaskRecords(buffer, reportDAO.findAllTaskRecords());
+        buffer.append("all task times\n");
+        reportDAO.processAllTaskTimes(new TaskTimeAppender(buffer));
+
+        for (int r = 0; r < ranges.length; ++r) {
+            appendRange(buffer, r, ranges[r]);
+            buffer.append("range ").append(r).append(" summaries\n");
+            appendSummaries(buffer, summaryDAO.findDailySummaries(ranges[r][0], ranges[r][1]));
+            appendSummaries(buffer, summaryDAO.findWeeklySummaries(ranges[r][0], ranges[r][1]));
+            appendSummaries(buffer, summaryDAO.findDescriptionSummaries(ranges[r][0], ranges[r][1]));
+        }
+
+        for (int g = 0; g < GROUPINGS.length; ++g) {
+            buffer.append("totals ").append(GROUPINGS[g]).append('\n');
+            buffer.append(format(reportDAO.findTimeTotals(GROUPINGS[g])));
+            for (int r = 0; r < ranges.length; ++r) {
+                buffer.append("range ").append(r).append(" totals ").append(GROUPINGS[g]).append('\n');
+                buffer.append(format(reportDAO.findTimeTotalsInDateRange(GROUPINGS[g], ranges[r][0], ranges[r][1])));
+            }
+        }
+
+        for (int c = 0; c < SORT_COLUMNS.length; ++c) {
+            for (int a = 0; a < 2; ++a) {
+                for (int f = 0; f < 4; ++f) {
+                    QueryCriteria criteria = new QueryCriteria(SORT_COLUMNS[c], a == 0,
+                            (f == 1) ? ranges[1][0] : null, (f == 1) ? ranges[1][1] : null,
+                            (f == 2) ? "b" : ((f == 3) ? "Ga" : null));
+                    buffer.append("page ").append(SORT_COLUMNS[c]).append(a == 0 ? " asc" : " desc")
+                            .append(" filter ").append(f).append('\n');
+                    appendPages(buffer, criteria);
+                }
+            }
+        }
+
+        Date[] dateRange = taskDAO.findTaskDateRange();
+        buffer.append("date range ").append(dateRange[0]).append(' ').append(dateRange[1]).append('\n');
+
+        buffer.append("descriptions\n");
+        List descriptions = new ArrayList(taskDAO.findTaskDescriptions());
+        Collections.sort(descriptions, new Comparator() {
+            public int compare(Object o1, Object o2) {
+                return ((TaskDescription) o1).getDescription().compareTo(((TaskDescription) o2).getDescription());
+            }
+        });
+        for (Iterator it = descriptions.iterator(); it.hasNext();) {
+            TaskDescription description = (TaskDescription) it.next();
+            buffer.append(description.getDescription()).append(' ').append(description.getTaskCount()).append(' ')
+                    .append(description.getLastStartTime()).append('\n');
+        }
+
+        buffer.append("interruptions for tasks\n");
+        for (Iterator it = taskDAO.findAllTasks().iterator(); it.hasNext();) {
+            Task task = (Task) it.next();
+            buffer.append(task.getId()).append(':');
+            appendTasks(buffer, intrDAO.findInterruptionsForTask(task));
+        }
+
+        return buffer.toString();
+    }
+
+    /*
+     * Appends the tasks, task records and task times in a date range.
+     */
+    private void appendRange(StringBuffer buffer, int r, Date[] range) throws DataAccessException {
+        buffer.append("range ").append(r).append(" tasks\n");
+        appendTasks(buffer, DAOFactory.getTaskDAO().findAllTasksInDateRange(range[0], range[1]));
+        buffer.append("range ").append(r).append(" task records\n");
+        appendTaskRecords(buffer, DAOFactory.getReportDAO().findAllTaskRecordsInDateRange(range[0], range[1]));
+        buffer.append("range ").append(r).append(" task times\n");
+        DAOFactory.getReportDAO().processAllTaskTimesInDateRange(range[0], range[1], new TaskTimeAppender(buffer));
+    }
+
+    /*
+     * Appends the counts, an offset page and every keyset page of the tasks
+     * and interruptions that match some criteria.
+     */
+    private void appendPages(StringBuffer buffer, QueryCriteria criteria) throws DataAccessException {
+        TaskDAO taskDAO = DAOFactory.getTaskDAO();
+        InterruptionDAO intrDAO = DAOFactory.getInterruptionDAO();
+
+        buffer.append("count ").append(taskDAO.countTasks(criteria)).append(' ')
+                .append(intrDAO.countInterruptions(criteria)).append('\n');
+
+        appendTasks(buffer, taskDAO.findTasks(criteria, 5, 7));
+        List page = taskDAO.findTasksAfter(criteria, null, 9);
+        while (!page.isEmpty()) {
+            buffer.append("after\n");
+            appendTasks(buffer, page);
+            page = taskDAO.findTasksAfter(criteria, (Task) page.get(page.size() - 1), 9);
+        }
+
+        appendTasks(buffer, intrDAO.findInterruptions(criteria, 3, 11));
+        page = intrDAO.findInterruptionsAfter(criteria, null, 13);
+        while (!page.isEmpty()) {
+            buffer.append("after\n");
+            appendTasks(buffer, page);
+            page = intrDAO.findInterruptionsAfter(criteria, (Interruption) page.get(page.size() - 1), 13);
+        }
+    }
+
+    private void appendTasks(StringBuffer buffer, List tasks) {
+        for (Iterator it = tasks.iterator(); it.hasNext();) {
+            buffer.append(format((Task) it.next())).append('\n');
+        }
+    }
+
+    private void appendTaskRecords(StringBuffer buffer, List records) {
+        for (Iterator it = records.iterator(); it.hasNext();) {
+            TaskRecord record = (TaskRecord) it.next();
+            buffer.append(format(record.getTask())).append('\n');
+            for (Iterator intrs = record.getInterruptions().iterator(); intrs.hasNext();) {
+                buffer.append("    ").append(format((Task) intrs.next())).append('\n');
+            }
+        }
+    }
+
+    /*
+     * Writes out the times of each task passed to it.
+     */
+    private class TaskTimeAppender implements TaskTimeHandler {
+        private final StringBuffer buffer;
+
+        TaskTimeAppender(StringBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        public void handleTaskTime(long taskId, String description, Date startTime, Date endTime, long interruptionMillis) {
+            buffer.append(taskId).append('|').append(description).append('|').append(getTime(startTime)).append('|')
+                    .append(getTime(endTime)).append('|').append(interruptionMillis).append('\n');
+        }
+    }
+
+    private void appendSummaries(StringBuffer buffer, List summaries) {
+        for (Iterator it = summaries.iterator(); it.hasNext();) {
+            TaskSummary summary = (TaskSummary) it.next();
+            buffer.append(summary.getPeriodStart()).append(' ').append(summary.getDescription()).append(' ')
+                    .append(summary.getTaskCount()).append(' ').append(summary.getGrossMillis()).append(' ')
+                    .append(summary.getInterruptionCount()).append(' ').append(summary.getInterruptionMillis())
+                    .append('\n');
+        }
+    }
+
+    private String format(Task task) {
+        StringBuffer buffer = new StringBuffer();
+        buffer.append(task.getId()).append('|').append(task.getDescription()).append('|')
+                .append(getTime(task.getStartTime())).append('|').append(getTime(task.getEndTime())).append('|')
+                .append(task.getDuration());
+        if (task instanceof Interruption) {
+            buffer.append('|').append(((Interruption) task).getRelatedTaskId());
+        }
+        return buffer.toString();
+    }
+
+    private String format(TaskTimeTotals totals) {
+        StringBuffer buffer = new StringBuffer();
+        for (int i = 0; i < totals.size(); ++i) {
+            buffer.append(totals.getTaskId(i)).append(' ').append(totals.getDayStart(i)).append(' ')
+                    .append(totals.getDescription(i)).append(' ').append(totals.getTaskCount(i)).append(' ')
+                    .append(totals.getGrossMillis(i)).append(' ').append(totals.getInterruptionMillis(i)).append('\n');
+        }
+        return buffer.toString();
+    }
+
+    private Long getTime(Date date) {
+        return (date != null) ? Long.valueOf(date.getTime()) : null;
+    }
+
+    /*
+     * Returns date ranges that cover all of the tasks, part of them, a single
+     * day, and none of them.
+     */
+    private Date[][] getDateRanges() {
+        long day = 86400000L;
+        Date[][] ranges = new Date[4 + DAYS][];
+        ranges[0] = new Date[] {new Date(baseTime - day), new Date(baseTime + (DAYS + 1) * day)};
+        ranges[1] = new Date[] {new Date(baseTime + 2 * day), new Date(baseTime + 6 * day)};
+        ranges[2] = new Date[] {new Date(baseTime + 4 * day), new Date(baseTime + 5 * day)};
+        ranges[3] = new Date[] {new Date(baseTime + (DAYS + 5) * day), new Date(baseTime + (DAYS + 9) * day)};
+        // every single day, so that some ranges end while a task is running
+        for (int d = 0; d < DAYS; ++d) {
+            ranges[4 + d] = new Date[] {new Date(baseTime + d * day), new Date(baseTime + (d + 1) * day)};
+        }
+
+        return ranges;
+    }
+}